@@ -0,0 +1,26 @@
+package org.sagebionetworks.bridge.cache;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ser.FilterProvider;
+
+/**
+ * A format for the values we store in Redis. {@link CacheSerializer} wraps the bytes produced by a codec with a
+ * versioned header (identifying the codec by {@link #getId()}) so that nodes can read values written in any format
+ * they know about.
+ */
+public interface CacheCodec {
+
+    /** Single character identifying this codec in the header of an encoded value. Must never change. */
+    char getId();
+
+    /**
+     * Encode the value. If filters are provided (they may be null), they are applied as the value is serialized, as
+     * they would be with an ObjectWriter.
+     */
+    byte[] encode(Object value, FilterProvider filters) throws IOException;
+
+    /** Decode bytes produced by {@link #encode}. */
+    <T> T decode(byte[] bytes, JavaType type) throws IOException;
+}
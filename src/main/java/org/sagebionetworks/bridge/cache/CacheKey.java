@@ -3,6 +3,7 @@ package org.sagebionetworks.bridge.cache;
 import java.util.List;
 import java.util.Objects;
 
+import org.sagebionetworks.bridge.models.GuidCreatedOnVersionHolder;
 import org.sagebionetworks.bridge.models.accounts.Phone;
 import org.sagebionetworks.bridge.models.accounts.SignIn;
 import org.sagebionetworks.bridge.models.studies.StudyIdentifier;
@@ -19,7 +20,15 @@ import com.google.common.collect.Lists;
 public final class CacheKey {
     
     private static final String[] PUBLIC_KEYS = new String[] { "emailVerificationStatus", "AppConfigList",
-            "channel-throttling", "lock", "study", "Subpopulation", "SubpopulationList", "view" };
+            "channel-throttling", "lock", "ResolvedAppConfigs", "study", "Subpopulation",
+            "SubpopulationList", "view" };
+    
+    /**
+     * Keys for values that are read on nearly every request but rarely change. These can be held in the in-process
+     * near cache (see {@link NearCache}).
+     */
+    private static final String[] NEAR_CACHE_KEYS = new String[] { "ResolvedAppConfigs", "study", "Subpopulation",
+            "SubpopulationList" };
     
     public final static boolean isPublic(String key) {
         for (String suffix : PUBLIC_KEYS) {
@@ -30,15 +39,34 @@ public final class CacheKey {
         return false;
     }
 
+    public final static boolean isNearCacheable(String key) {
+        for (String suffix : NEAR_CACHE_KEYS) {
+            if (key.endsWith(":"+suffix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public static final CacheKey reauthTokenLookupKey(String userId, StudyIdentifier studyId) {
         return new CacheKey(userId, studyId.getIdentifier(), "ReauthToken");
     }
     public static final CacheKey shortenUrl(String token) {
         return new CacheKey(token, "ShortenedUrl");
     }
+    public static final CacheKey activityEventMap(String healthCode) {
+        return new CacheKey(healthCode, "ActivityEventMap");
+    }
     public static final CacheKey appConfigList(StudyIdentifier studyId) {
         return new CacheKey(studyId.getIdentifier(), "AppConfigList");
     }
+    /**
+     * All of a study's app configs, with their survey references and config elements resolved. This is not the 
+     * appConfigList key, which is the set of cached app config views managed through the set API.
+     */
+    public static final CacheKey resolvedAppConfigs(StudyIdentifier studyId) {
+        return new CacheKey(studyId.getIdentifier(), "ResolvedAppConfigs");
+    }
     public static final CacheKey channelThrottling(String throttleType, String userId) {
         return new CacheKey(userId, throttleType, "channel-throttling");
     }
@@ -78,9 +106,31 @@ public final class CacheKey {
     public static final CacheKey subpop(SubpopulationGuid subpopGuid, StudyIdentifier studyId) {
         return new CacheKey(subpopGuid.getGuid(), studyId.getIdentifier(), "Subpopulation");
     }
+    /** A specific survey version, with or without its elements. Only held in the {@link RevisionCache}. */
+    public static final CacheKey surveyRevision(StudyIdentifier studyId, GuidCreatedOnVersionHolder keys,
+            boolean includeElements) {
+        return new CacheKey(String.valueOf(keys.getGuid()), Long.toString(keys.getCreatedOn()), studyId.getIdentifier(),
+                includeElements ? "SurveyRevision" : "SurveyRevisionNoElements");
+    }
+    /** A specific upload schema revision. Only held in the {@link RevisionCache}. */
+    public static final CacheKey schemaRevision(StudyIdentifier studyId, String schemaId, int revision) {
+        return new CacheKey(schemaId, Integer.toString(revision), studyId.getIdentifier(), "UploadSchemaRevision");
+    }
+    /** A specific app config element revision. Only held in the {@link RevisionCache}. */
+    public static final CacheKey appConfigElementRevision(StudyIdentifier studyId, String id, Long revision) {
+        return new CacheKey(id, String.valueOf(revision), studyId.getIdentifier(), "AppConfigElementRevision");
+    }
     public static final CacheKey subpopList(StudyIdentifier studyId) {
         return new CacheKey(studyId.getIdentifier(), "SubpopulationList");
     }
+    /** One day's bucket of the upload dedupe filter. Day is the number of days since the epoch, in UTC. */
+    public static final CacheKey uploadDedupeFilter(long epochDay) {
+        return new CacheKey(Long.toString(epochDay), "UploadDedupeFilter");
+    }
+    /** Time (epoch millis) since when the upload dedupe filter has recorded every upload. */
+    public static final CacheKey uploadDedupeFilterSince() {
+        return new CacheKey("since", "UploadDedupeFilter");
+    }
     public static final CacheKey userIdToSession(String userId) {
         return new CacheKey(userId, "session2", "user");
     }
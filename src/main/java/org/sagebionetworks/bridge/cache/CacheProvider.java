@@ -1,42 +1,108 @@
 package org.sagebionetworks.bridge.cache;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.annotation.Resource;
 
 import org.sagebionetworks.bridge.BridgeConstants;
+import org.sagebionetworks.bridge.BridgeUtils;
 import org.sagebionetworks.bridge.cache.CacheKey;
 import org.sagebionetworks.bridge.config.BridgeConfigFactory;
 import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
-import org.sagebionetworks.bridge.json.BridgeObjectMapper;
 import org.sagebionetworks.bridge.models.RequestInfo;
 import org.sagebionetworks.bridge.models.accounts.StudyParticipant;
 import org.sagebionetworks.bridge.models.accounts.UserSession;
 import org.sagebionetworks.bridge.models.studies.Study;
 import org.sagebionetworks.bridge.redis.JedisOps;
 import org.sagebionetworks.bridge.redis.JedisTransaction;
-
+import org.apache.commons.codec.digest.DigestUtils;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.Transaction;
+import redis.clients.jedis.exceptions.JedisDataException;
+
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.google.common.collect.ImmutableList;
 
 /**
- * A wrapper around our use of Redis.
+ * A wrapper around our use of Redis. Cached objects are stored as the bytes produced by the {@link CacheSerializer},
+ * so they are read and written with the binary Jedis commands, through the pool.
  */
 @Component
 public class CacheProvider {
     private static final String LOCAL_SERVICE_ERROR = "Cannot find cache service, have you started Redis? (original message: %s)";
+    
+    /** The script builds the userId --> session key itself, from the user ID it reads, by appending this suffix. */
+    static final String USER_ID_TO_SESSION_SUFFIX = CacheKey.userIdToSession("").toString();
+    
+    /**
+     * Resolves sessionToken --> userId --> session in one round trip to Redis. The serialized session is returned as 
+     * is, without being parsed in Redis. The caller checks that it still belongs to the session token. This uses a 
+     * single Redis node through the pool, so the session key doesn't have to be declared up front.
+     * 
+     * KEYS[1] = sessionToken --> userId key, ARGV[1] = userId --> session key suffix
+     */
+    static final String GET_SESSION_SCRIPT = 
+            "local userId = redis.call('GET', KEYS[1])\n" +
+            "if not userId then return false end\n" +
+            "return redis.call('GET', userId .. ARGV[1])";
+    static final String GET_SESSION_SCRIPT_SHA = DigestUtils.sha1Hex(GET_SESSION_SCRIPT);
+    
+    /**
+     * Timestamp maps are held in Redis hashes. Redis doesn't keep empty hashes, so every cached map also has this 
+     * field, which tells an empty map apart from one that isn't cached. It's never returned to callers.
+     */
+    static final String TIMESTAMP_MAP_MARKER = "~cached";
+    
+    /**
+     * Field that holds the token of a fill in progress, in a hash that isn't a cached map yet. See 
+     * {@link #beginTimestampMapFill}.
+     */
+    static final String TIMESTAMP_MAP_FILL_TOKEN = "~fill";
+    
     private JedisOps jedisOps;
+    private JedisPool jedisPool;
     private int sessionExpireInSeconds;
+    private NearCache nearCache = new NearCache();
+    private CacheSerializer serializer = new CacheSerializer();
 
     @Resource(name = "jedisOps")
     final void setJedisOps(JedisOps jedisOps) {
         this.jedisOps = jedisOps;
     }
     
+    /**
+     * Redis connection pool, used for binary values, scripts and multi-key commands, which JedisOps does not support.
+     */
+    @Autowired
+    final void setJedisPool(JedisPool jedisPool) {
+        this.jedisPool = jedisPool;
+    }
+    
+    /** In-process cache for hot keys. If not set, the near cache is disabled and all reads go to Redis. */
+    @Autowired
+    final void setNearCache(NearCache nearCache) {
+        this.nearCache = nearCache;
+    }
+    
+    /** Converts values to and from what is stored in Redis. If not set, values are stored as plain JSON. */
+    @Autowired
+    final void setCacheSerializer(CacheSerializer serializer) {
+        this.serializer = serializer;
+    }
+    
     @Resource(name = "sessionExpireInSeconds")
     final void setSessionExpireInSeconds(int sessionExpireInSeconds) {
         this.sessionExpireInSeconds = sessionExpireInSeconds;
@@ -88,18 +154,18 @@ public class CacheProvider {
         CacheKey tokenToUserIdKey = CacheKey.tokenToUserId(session.getSessionToken());
         CacheKey userIdToSessionKey = CacheKey.userIdToSession(session.getId());
         
-        try (JedisTransaction transaction = jedisOps.getTransaction()) {
+        try (Jedis jedis = jedisPool.getResource()) {
             // If the key exists, get the remaining time to expiration. If it doesn't exist
             // then save with the full expiration period.
-            Long ttl = jedisOps.ttl(userIdToSessionKey.toString());
+            Long ttl = jedis.ttl(userIdToSessionKey.toString());
             int expiration = (ttl != null && ttl > 0L) ? ttl.intValue() : sessionExpireInSeconds;
                    
-            String ser = StudyParticipant.CACHE_WRITER.writeValueAsString(session);
+            byte[] ser = serializer.encode(session, StudyParticipant.CACHE_FILTER);
             
-            List<Object> results = transaction
-                .setex(tokenToUserIdKey.toString(), expiration, session.getId())
-                .setex(userIdToSessionKey.toString(), expiration, ser)
-                .exec();
+            Transaction transaction = jedis.multi();
+            transaction.setex(tokenToUserIdKey.toString(), expiration, session.getId());
+            transaction.setex(keyBytes(userIdToSessionKey), expiration, ser);
+            List<Object> results = transaction.exec();
             
             if (results == null) {
                 throw new BridgeServiceException("Session storage error.");
@@ -120,23 +186,22 @@ public class CacheProvider {
         checkNotNull(sessionToken);
         try {
             CacheKey tokenToUserIdKey = CacheKey.tokenToUserId(sessionToken);
-            String userId = jedisOps.get(tokenToUserIdKey.toString());
-            if (userId != null) {
-                CacheKey userIdToSessionKey = CacheKey.userIdToSession(userId);
-                String ser = jedisOps.get(userIdToSessionKey.toString());
-                if (ser != null) {
-                    UserSession session = BridgeObjectMapper.get().readValue(ser, UserSession.class);
-                    // The token --> userId look up is not replaced on session invalidation. 
-                    // Check here and only return if the sessionToken is valid. It is possible 
-                    // to successfully sign in and then have this fail due to concurrent requests.
-                    // The client needs to manage concurrent requests if it doesn't want to 
-                    // invalidate its own session.
-                    if (session.getSessionToken().equals(sessionToken)) {
-                        return session;
-                    }
-                    // Otherwise, delete the key sessionToken key (it's known to be invalid)
-                    jedisOps.del(tokenToUserIdKey.toString());
+            byte[] ser;
+            try (Jedis jedis = jedisPool.getResource()) {
+                ser = evalGetSessionScript(jedis, tokenToUserIdKey);
+            }
+            if (ser != null) {
+                UserSession session = serializer.decode(ser, UserSession.class);
+                // The token --> userId look up is not replaced on session invalidation. 
+                // Check here and only return if the sessionToken is valid. It is possible 
+                // to successfully sign in and then have this fail due to concurrent requests.
+                // The client needs to manage concurrent requests if it doesn't want to 
+                // invalidate its own session.
+                if (session != null && sessionToken.equals(session.getSessionToken())) {
+                    return session;
                 }
+                // Otherwise, delete the key sessionToken key (it's known to be invalid)
+                jedisOps.del(tokenToUserIdKey.toString());
             }
             return null;
         } catch (Throwable e) {
@@ -150,11 +215,11 @@ public class CacheProvider {
         
         try {
             CacheKey userIdToSessionKey = CacheKey.userIdToSession(userId);
-            String ser = jedisOps.get(userIdToSessionKey.toString());
+            byte[] ser = getBytes(userIdToSessionKey);
             if (ser == null) {
                 return null;
             }
-            return BridgeObjectMapper.get().readValue(ser, UserSession.class);
+            return serializer.decode(ser, UserSession.class);
         } catch(Throwable e) {
             promptToStartRedisIfLocal(e);
             throw new BridgeServiceException(e);
@@ -211,9 +276,9 @@ public class CacheProvider {
         checkNotNull(cacheKey);
         checkNotNull(clazz);
         try {
-            String ser = jedisOps.get(cacheKey.toString());
+            byte[] ser = getSerialized(cacheKey);
             if (ser != null) {
-                return BridgeObjectMapper.get().readValue(ser, clazz);
+                return serializer.decode(ser, clazz);
             }
         } catch (Throwable e) {
             promptToStartRedisIfLocal(e);
@@ -226,9 +291,9 @@ public class CacheProvider {
         checkNotNull(cacheKey);
         checkNotNull(typeRef);
         try {
-            String ser = jedisOps.get(cacheKey.toString());
+            byte[] ser = getSerialized(cacheKey);
             if (ser != null) {
-                return BridgeObjectMapper.get().readValue(ser, typeRef);
+                return serializer.decode(ser, typeRef);
             }
         } catch (Throwable e) {
             promptToStartRedisIfLocal(e);
@@ -244,10 +309,24 @@ public class CacheProvider {
         checkNotNull(cacheKey);
         checkNotNull(clazz);
         try {
-            String ser = jedisOps.get(cacheKey.toString());
+            // A near cache hit skips the expire. The near cache TTL is much shorter than the Redis expiration, so 
+            // the expiration is still reset the next time this node goes to Redis.
+            byte[] ser = nearCache.get(cacheKey);
+            if (ser == null) {
+                long generation = nearCache.getGeneration();
+                try (Jedis jedis = jedisPool.getResource()) {
+                    byte[] key = keyBytes(cacheKey);
+                    ser = jedis.get(key);
+                    if (ser != null) {
+                        jedis.expire(key, expireInSeconds);
+                    }
+                }
+                if (ser != null) {
+                    nearCache.put(cacheKey, ser, generation);
+                }
+            }
             if (ser != null) {
-                jedisOps.expire(cacheKey.toString(), expireInSeconds);
-                return BridgeObjectMapper.get().readValue(ser, clazz);
+                return serializer.decode(ser, clazz);
             }
         } catch (Throwable e) {
             promptToStartRedisIfLocal(e);
@@ -256,6 +335,87 @@ public class CacheProvider {
         return null;
     }
     
+    /**
+     * Get several objects of the same type in one round trip to Redis. Keys held in the near cache are read from it, 
+     * and the rest are read with a single MGET. The returned list is in the same order as the keys, with null for any 
+     * key that is not in the cache.
+     */
+    public <T> List<T> getObjects(List<CacheKey> cacheKeys, Class<T> clazz) {
+        checkNotNull(cacheKeys);
+        checkNotNull(clazz);
+        try {
+            List<byte[]> sers = new ArrayList<>(cacheKeys.size());
+            List<Integer> missingIndices = new ArrayList<>();
+            List<byte[]> missingKeys = new ArrayList<>();
+            for (int i=0; i < cacheKeys.size(); i++) {
+                CacheKey cacheKey = checkNotNull(cacheKeys.get(i));
+                byte[] ser = nearCache.get(cacheKey);
+                sers.add(ser);
+                if (ser == null) {
+                    missingIndices.add(i);
+                    missingKeys.add(keyBytes(cacheKey));
+                }
+            }
+            if (!missingKeys.isEmpty()) {
+                long generation = nearCache.getGeneration();
+                List<byte[]> found;
+                try (Jedis jedis = jedisPool.getResource()) {
+                    found = jedis.mget(missingKeys.toArray(new byte[missingKeys.size()][]));
+                }
+                for (int i=0; i < missingIndices.size(); i++) {
+                    byte[] ser = found.get(i);
+                    if (ser != null) {
+                        int index = missingIndices.get(i);
+                        sers.set(index, ser);
+                        nearCache.put(cacheKeys.get(index), ser, generation);
+                    }
+                }
+            }
+            List<T> results = new ArrayList<>(sers.size());
+            for (byte[] ser : sers) {
+                results.add(ser == null ? null : serializer.decode(ser, clazz));
+            }
+            return results;
+        } catch (Throwable e) {
+            promptToStartRedisIfLocal(e);
+            throw new BridgeServiceException(e);
+        }
+    }
+    
+    /**
+     * Set several objects in the cache in one round trip to Redis, by pipelining the writes. If expireInSeconds is 
+     * zero or less, the objects do not expire. The writes are not atomic; if any write fails, an exception is thrown 
+     * after all writes have been attempted.
+     */
+    public void setObjects(Map<CacheKey, ?> objects, int expireInSeconds) {
+        checkNotNull(objects);
+        if (objects.isEmpty()) {
+            return;
+        }
+        try {
+            List<Response<String>> responses = new ArrayList<>(objects.size());
+            try (Jedis jedis = jedisPool.getResource()) {
+                Pipeline pipeline = jedis.pipelined();
+                for (Map.Entry<CacheKey, ?> entry : objects.entrySet()) {
+                    byte[] key = keyBytes(checkNotNull(entry.getKey()));
+                    byte[] ser = serializer.encode(checkNotNull(entry.getValue()));
+                    responses.add(expireInSeconds > 0 ? pipeline.setex(key, expireInSeconds, ser) : 
+                        pipeline.set(key, ser));
+                }
+                pipeline.sync();
+            }
+            nearCache.invalidate(objects.keySet());
+            for (Response<String> response : responses) {
+                if (!"OK".equals(response.get())) {
+                    throw new BridgeServiceException("Object storage error");
+                }
+            }
+        } catch (Throwable e) {
+            promptToStartRedisIfLocal(e);
+            throw new BridgeServiceException(e);
+        }
+    }
+    
     /**
      * Set an object in the cache with no expiration.
      */
@@ -263,11 +423,15 @@ public class CacheProvider {
         checkNotNull(cacheKey);
         checkNotNull(object);
         try {
-            String ser = BridgeObjectMapper.get().writeValueAsString(object);
-            String result = jedisOps.set(cacheKey.toString(), ser);
+            byte[] ser = serializer.encode(object);
+            String result;
+            try (Jedis jedis = jedisPool.getResource()) {
+                result = jedis.set(keyBytes(cacheKey), ser);
+            }
             if (!"OK".equals(result)) {
                 throw new BridgeServiceException(object.getClass().getSimpleName() + " storage error");
             }
+            nearCache.invalidate(cacheKey);
         } catch (Throwable e) {
             promptToStartRedisIfLocal(e);
             throw new BridgeServiceException(e);
@@ -281,11 +445,15 @@ public class CacheProvider {
         checkNotNull(cacheKey);
         checkNotNull(object);
         try {
-            String ser = BridgeObjectMapper.get().writeValueAsString(object);
-            String result = jedisOps.setex(cacheKey.toString(), expireInSeconds, ser);
+            byte[] ser = serializer.encode(object);
+            String result;
+            try (Jedis jedis = jedisPool.getResource()) {
+                result = jedis.setex(keyBytes(cacheKey), expireInSeconds, ser);
+            }
             if (!"OK".equals(result)) {
                 throw new BridgeServiceException(object.getClass().getSimpleName() + " storage error");
             }
+            nearCache.invalidate(cacheKey);
         } catch (Throwable e) {
             promptToStartRedisIfLocal(e);
             throw new BridgeServiceException(e);
@@ -299,12 +467,167 @@ public class CacheProvider {
         checkNotNull(cacheKey);
         try {
             jedisOps.del(cacheKey.toString());
+            nearCache.invalidate(cacheKey);
         } catch(Throwable e) {
             promptToStartRedisIfLocal(e);
             throw new BridgeServiceException(e);
         }        
     }
     
+    /**
+     * Get a map of timestamps (in epoch milliseconds) that was cached with {@link #completeTimestampMapFill}, or null 
+     * if it is not cached. Timestamp maps are held in Redis hashes rather than serialized, so single timestamps can be 
+     * updated in place. They are never held in the near cache.
+     */
+    public Map<String, Long> getTimestampMap(CacheKey cacheKey) {
+        checkNotNull(cacheKey);
+        try {
+            Map<String, String> hash;
+            try (Jedis jedis = jedisPool.getResource()) {
+                hash = jedis.hgetAll(cacheKey.toString());
+            }
+            if (hash == null || !hash.containsKey(TIMESTAMP_MAP_MARKER)) {
+                return null;
+            }
+            Map<String, Long> timestamps = new HashMap<>();
+            for (Map.Entry<String, String> entry : hash.entrySet()) {
+                if (!TIMESTAMP_MAP_MARKER.equals(entry.getKey())) {
+                    timestamps.put(entry.getKey(), Long.valueOf(entry.getValue()));
+                }
+            }
+            return timestamps;
+        } catch (Throwable e) {
+            promptToStartRedisIfLocal(e);
+            throw new BridgeServiceException(e);
+        }
+    }
+    
+    /**
+     * Get one timestamp (in epoch milliseconds) from a cached timestamp map, without reading the rest of the map. 
+     * Returns null if the map isn't cached, or has no timestamp for this field. A hash that is still being filled 
+     * only holds the fill token, so it never has timestamps.
+     */
+    public Long getTimestampMapValue(CacheKey cacheKey, String field) {
+        checkNotNull(cacheKey);
+        checkNotNull(field);
+        try {
+            String value;
+            try (Jedis jedis = jedisPool.getResource()) {
+                value = jedis.hget(cacheKey.toString(), field);
+            }
+            return (value == null) ? null : Long.valueOf(value);
+        } catch (Throwable e) {
+            promptToStartRedisIfLocal(e);
+            throw new BridgeServiceException(e);
+        }
+    }
+    
+    /**
+     * Start filling a timestamp map that isn't cached. Call this before reading the map from where it is stored, and 
+     * pass the returned token to {@link #completeTimestampMapFill} with the map that was read. Any write to the map in 
+     * between ({@link #updateTimestampMap} or {@link #removeObject}) cancels the fill, so a map that was read before 
+     * the write can't be cached after it. The fill token expires after the given number of seconds, in case the fill 
+     * is never completed. Returns null if the map was cached in the meantime, in which case the map that is read 
+     * shouldn't be cached.
+     */
+    public String beginTimestampMapFill(CacheKey cacheKey, int fillExpireInSeconds) {
+        checkNotNull(cacheKey);
+        try {
+            String key = cacheKey.toString();
+            String fillToken = BridgeUtils.generateGuid();
+            try (Jedis jedis = jedisPool.getResource()) {
+                jedis.watch(key);
+                if (jedis.hexists(key, TIMESTAMP_MAP_MARKER)) {
+                    jedis.unwatch();
+                    return null;
+                }
+                // This replaces the token of any other fill in progress, which cancels that fill.
+                Transaction transaction = jedis.multi();
+                transaction.del(key);
+                transaction.hset(key, TIMESTAMP_MAP_FILL_TOKEN, fillToken);
+                transaction.expire(key, fillExpireInSeconds);
+                return transaction.exec() != null ? fillToken : null;
+            }
+        } catch (Throwable e) {
+            promptToStartRedisIfLocal(e);
+            throw new BridgeServiceException(e);
+        }
+    }
+    
+    /**
+     * Cache the map of timestamps (in epoch milliseconds) read for a fill started with 
+     * {@link #beginTimestampMapFill}, unless the fill was cancelled by a write. The map is replaced in a transaction, 
+     * so readers see either no map or the whole map. Returns true if the map was cached.
+     */
+    public boolean completeTimestampMapFill(CacheKey cacheKey, String fillToken, Map<String, Long> timestamps,
+            int expireInSeconds) {
+        checkNotNull(cacheKey);
+        checkNotNull(fillToken);
+        checkNotNull(timestamps);
+        try {
+            Map<String, String> hash = new HashMap<>();
+            for (Map.Entry<String, Long> entry : timestamps.entrySet()) {
+                hash.put(entry.getKey(), entry.getValue().toString());
+            }
+            hash.put(TIMESTAMP_MAP_MARKER, "0");
+            
+            String key = cacheKey.toString();
+            try (Jedis jedis = jedisPool.getResource()) {
+                jedis.watch(key);
+                if (!fillToken.equals(jedis.hget(key, TIMESTAMP_MAP_FILL_TOKEN))) {
+                    jedis.unwatch();
+                    return false;
+                }
+                Transaction transaction = jedis.multi();
+                transaction.del(key);
+                transaction.hmset(key, hash);
+                transaction.expire(key, expireInSeconds);
+                return transaction.exec() != null;
+            }
+        } catch (Throwable e) {
+            promptToStartRedisIfLocal(e);
+            throw new BridgeServiceException(e);
+        }
+    }
+    
+    /**
+     * Write one timestamp through to a cached timestamp map. If the map isn't cached, this cancels any fill in 
+     * progress instead, since the fill may have read the map before this timestamp was recorded. This does nothing if 
+     * the cached map already holds the same or a later timestamp for this field. If the map changes while it's being 
+     * updated, it's removed, and the next read fills it again. The map's expiration is not changed. Returns true if 
+     * the cached map was updated.
+     */
+    public boolean updateTimestampMap(CacheKey cacheKey, String field, long timestamp) {
+        checkNotNull(cacheKey);
+        checkNotNull(field);
+        try {
+            String key = cacheKey.toString();
+            try (Jedis jedis = jedisPool.getResource()) {
+                jedis.watch(key);
+                List<String> values = jedis.hmget(key, TIMESTAMP_MAP_MARKER, field);
+                if (values.get(0) == null) {
+                    jedis.unwatch();
+                    jedis.del(key);
+                    return false;
+                }
+                if (values.get(1) != null && Long.parseLong(values.get(1)) >= timestamp) {
+                    jedis.unwatch();
+                    return false;
+                }
+                Transaction transaction = jedis.multi();
+                transaction.hset(key, field, Long.toString(timestamp));
+                if (transaction.exec() == null) {
+                    jedis.del(key);
+                    return false;
+                }
+                return true;
+            }
+        } catch (Throwable e) {
+            promptToStartRedisIfLocal(e);
+            throw new BridgeServiceException(e);
+        }
+    }
+    
     public void addCacheKeyToSet(CacheKey cacheKeyOfSet, String cacheKeyInSet) {
         checkNotNull(cacheKeyOfSet);
         checkNotNull(cacheKeyInSet);
@@ -336,6 +659,50 @@ public class CacheProvider {
         }        
     }
     
+    /**
+     * Get the serialized value for this key, from the near cache if it's there, and otherwise from Redis (holding 
+     * onto it in the near cache if this is a near-cacheable key).
+     */
+    private byte[] getSerialized(CacheKey cacheKey) {
+        byte[] ser = nearCache.get(cacheKey);
+        if (ser == null) {
+            long generation = nearCache.getGeneration();
+            ser = getBytes(cacheKey);
+            if (ser != null) {
+                nearCache.put(cacheKey, ser, generation);
+            }
+        }
+        return ser;
+    }
+    
+    /**
+     * Run the session script by its SHA, so the script isn't sent on every request. If Redis doesn't have the script 
+     * (it was restarted or flushed), EVAL sends it, and Redis caches it for the next call.
+     */
+    private static byte[] evalGetSessionScript(Jedis jedis, CacheKey tokenToUserIdKey) {
+        List<byte[]> keys = ImmutableList.of(keyBytes(tokenToUserIdKey));
+        List<byte[]> args = ImmutableList.of(USER_ID_TO_SESSION_SUFFIX.getBytes(UTF_8));
+        try {
+            return (byte[]) jedis.evalsha(GET_SESSION_SCRIPT_SHA.getBytes(UTF_8), keys, args);
+        } catch (JedisDataException e) {
+            if (e.getMessage() == null || !e.getMessage().startsWith("NOSCRIPT")) {
+                throw e;
+            }
+            return (byte[]) jedis.eval(GET_SESSION_SCRIPT.getBytes(UTF_8), keys, args);
+        }
+    }
+    
+    /** Get the serialized value for this key from Redis. */
+    private byte[] getBytes(CacheKey cacheKey) {
+        try (Jedis jedis = jedisPool.getResource()) {
+            return jedis.get(keyBytes(cacheKey));
+        }
+    }
+    
+    private static byte[] keyBytes(CacheKey cacheKey) {
+        return cacheKey.toString().getBytes(UTF_8);
+    }
+    
     private void promptToStartRedisIfLocal(Throwable e) {
         if (BridgeConfigFactory.getConfig().isLocal()) {
             throw new BridgeServiceException(String.format(LOCAL_SERVICE_ERROR, e.getMessage()));
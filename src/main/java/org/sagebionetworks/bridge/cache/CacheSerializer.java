@@ -0,0 +1,166 @@
+package org.sagebionetworks.bridge.cache;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ser.FilterProvider;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import org.sagebionetworks.bridge.config.BridgeConfig;
+import org.sagebionetworks.bridge.json.BridgeObjectMapper;
+
+/**
+ * <p>Converts the objects we cache to and from the bytes stored in Redis, using the configured {@link CacheCodec}
+ * and optionally compressing large values.</p>
+ *
+ * <p>Values written with the JSON codec and not compressed are stored as plain UTF-8 JSON, exactly as before codecs
+ * were introduced. Any other value starts with a header: "~", the header version, the codec ID, "d" if the payload is
+ * deflated or "-" if not, and ":", followed by the payload bytes (e.g. "~2sd:..."). Version 1 headers were followed
+ * by the Base64-encoded payload, from when values were stored as strings; these are still read. No JSON value starts
+ * with "~", so all kinds of values can be read side by side.</p>
+ *
+ * <p>Every node can read every format it knows about, regardless of the format it writes. To change formats during a
+ * rolling deploy, first deploy this code everywhere with the JSON codec and no compression (the defaults), then
+ * change the configuration. A value in a format this node doesn't know is treated as a cache miss.</p>
+ */
+@Component
+public class CacheSerializer {
+    private static final Logger LOG = LoggerFactory.getLogger(CacheSerializer.class);
+
+    static final String CONFIG_KEY_CODEC = "cache.codec";
+    static final String CONFIG_KEY_COMPRESS_ABOVE_BYTES = "cache.compress.above.bytes";
+
+    static final char HEADER_PREFIX = '~';
+    static final char HEADER_VERSION = '2';
+    static final char BASE64_HEADER_VERSION = '1';
+    static final char COMPRESSED = 'd';
+    static final char UNCOMPRESSED = '-';
+    static final char HEADER_END = ':';
+    static final int HEADER_LENGTH = 5;
+
+    private static final CacheCodec JSON_CODEC = new JsonCacheCodec();
+    private static final CacheCodec SMILE_CODEC = new SmileCacheCodec();
+
+    private static final Map<Character, CacheCodec> CODECS_BY_ID = ImmutableMap.of(JSON_CODEC.getId(), JSON_CODEC,
+            SMILE_CODEC.getId(), SMILE_CODEC);
+    private static final Map<String, CacheCodec> CODECS_BY_NAME = ImmutableMap.of("json", JSON_CODEC, "smile",
+            SMILE_CODEC);
+
+    private CacheCodec writeCodec = JSON_CODEC;
+    private int compressAboveBytes;
+
+    /** Config, to get the codec used to write values, and the size above which values are compressed. */
+    @Autowired
+    public final void setBridgeConfig(BridgeConfig config) {
+        String codecName = config.getProperty(CONFIG_KEY_CODEC);
+        CacheCodec codec = CODECS_BY_NAME.get(codecName);
+        if (codec == null) {
+            throw new IllegalArgumentException("Unknown cache codec: " + codecName);
+        }
+        configure(codec, config.getPropertyAsInt(CONFIG_KEY_COMPRESS_ABOVE_BYTES));
+    }
+
+    /**
+     * Sets the codec used to write values, and the encoded size in bytes above which values are compressed (zero or
+     * less disables compression). Separate from the config setter so that tests can change these values.
+     */
+    final void configure(CacheCodec writeCodec, int compressAboveBytes) {
+        this.writeCodec = writeCodec;
+        this.compressAboveBytes = compressAboveBytes;
+    }
+
+    public byte[] encode(Object value) throws IOException {
+        return encode(value, null);
+    }
+
+    /** Encode the value, applying the filters (which may be null) as the value is serialized. */
+    public byte[] encode(Object value, FilterProvider filters) throws IOException {
+        byte[] bytes = writeCodec.encode(value, filters);
+        boolean compress = compressAboveBytes > 0 && bytes.length > compressAboveBytes;
+        if (writeCodec.getId() == JsonCacheCodec.ID && !compress) {
+            return bytes;
+        }
+        if (compress) {
+            bytes = deflate(bytes);
+        }
+        byte[] ser = new byte[HEADER_LENGTH + bytes.length];
+        ser[0] = (byte) HEADER_PREFIX;
+        ser[1] = (byte) HEADER_VERSION;
+        ser[2] = (byte) writeCodec.getId();
+        ser[3] = (byte) (compress ? COMPRESSED : UNCOMPRESSED);
+        ser[4] = (byte) HEADER_END;
+        System.arraycopy(bytes, 0, ser, HEADER_LENGTH, bytes.length);
+        return ser;
+    }
+
+    public <T> T decode(byte[] ser, Class<T> clazz) throws IOException {
+        return decode(ser, BridgeObjectMapper.get().getTypeFactory().constructType(clazz));
+    }
+
+    public <T> T decode(byte[] ser, TypeReference<T> typeRef) throws IOException {
+        return decode(ser, BridgeObjectMapper.get().getTypeFactory().constructType(typeRef));
+    }
+
+    /** Decode a value, or return null if it was written in a format this node doesn't know. */
+    <T> T decode(byte[] ser, JavaType type) throws IOException {
+        if (!isEncoded(ser)) {
+            return BridgeObjectMapper.get().readValue(ser, type);
+        }
+        CacheCodec codec = (ser.length >= HEADER_LENGTH) ? CODECS_BY_ID.get((char) ser[2]) : null;
+        boolean knownVersion = ser.length >= HEADER_LENGTH
+                && (ser[1] == HEADER_VERSION || ser[1] == BASE64_HEADER_VERSION);
+        if (codec == null || !knownVersion || ser[HEADER_LENGTH - 1] != HEADER_END) {
+            LOG.warn("Cached value has an unknown header, ignoring: " +
+                    new String(ser, 0, Math.min(ser.length, HEADER_LENGTH), US_ASCII));
+            return null;
+        }
+        byte[] bytes = Arrays.copyOfRange(ser, HEADER_LENGTH, ser.length);
+        if (ser[1] == BASE64_HEADER_VERSION) {
+            bytes = Base64.getDecoder().decode(bytes);
+        }
+        if (ser[3] == COMPRESSED) {
+            bytes = inflate(bytes);
+        }
+        return codec.decode(bytes, type);
+    }
+
+    /** True if this value has a codec header, false if it is plain JSON. */
+    static boolean isEncoded(byte[] ser) {
+        return ser.length > 0 && ser[0] == HEADER_PREFIX;
+    }
+
+    private static byte[] deflate(byte[] bytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2);
+        // Favor speed over ratio, this is on the request path.
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (DeflaterOutputStream deflaterOut = new DeflaterOutputStream(out, deflater)) {
+            deflaterOut.write(bytes);
+        } finally {
+            deflater.end();
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] inflate(byte[] bytes) throws IOException {
+        try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(bytes))) {
+            return ByteStreams.toByteArray(in);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package org.sagebionetworks.bridge.cache;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPubSub;
+
+/**
+ * Listens to a Redis pub/sub channel of invalidated keys on a daemon thread, for the in-process caches that must drop
+ * entries when another node changes them, and for other in-process state kept in sync across nodes the same way.
+ * Messages published while the connection is down are lost, so whenever the subscription is (re)established, the
+ * listener is told to invalidate everything. This happens once Redis confirms the subscription, not before it's
+ * requested, so nothing published between the flush and the subscription can be missed.
+ */
+public class InvalidationSubscriber {
+    private static final Logger LOG = LoggerFactory.getLogger(InvalidationSubscriber.class);
+
+    // How long to wait before re-subscribing to the channel after the connection drops.
+    private static final long RESUBSCRIBE_DELAY_MILLIS = 1000L;
+
+    private final JedisPool jedisPool;
+    private final String channel;
+    private final Consumer<String> onInvalidation;
+    private final Runnable onInvalidateAll;
+    private final Listener listener = new Listener();
+    private volatile boolean running;
+
+    public InvalidationSubscriber(JedisPool jedisPool, String channel, Consumer<String> onInvalidation,
+            Runnable onInvalidateAll) {
+        this.jedisPool = checkNotNull(jedisPool);
+        this.channel = checkNotNull(channel);
+        this.onInvalidation = checkNotNull(onInvalidation);
+        this.onInvalidateAll = checkNotNull(onInvalidateAll);
+    }
+
+    /** Starts listening on a daemon thread. */
+    public void start() {
+        running = true;
+        Thread listenerThread = new Thread(this::listen, channel + "-listener");
+        listenerThread.setDaemon(true);
+        listenerThread.start();
+    }
+
+    /** Stops listening. */
+    public void stop() {
+        running = false;
+        if (listener.isSubscribed()) {
+            listener.unsubscribe();
+        }
+    }
+
+    private void listen() {
+        while (running) {
+            try (Jedis jedis = jedisPool.getResource()) {
+                // Blocks until unsubscribed or the connection fails. The listener flushes once subscribed.
+                jedis.subscribe(listener, channel);
+            } catch (RuntimeException e) {
+                LOG.warn("Lost subscription to " + channel + ", retrying", e);
+                onInvalidateAll.run();
+                try {
+                    Thread.sleep(RESUBSCRIBE_DELAY_MILLIS);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private class Listener extends JedisPubSub {
+        @Override
+        public void onSubscribe(String channel, int subscribedChannels) {
+            // We can't know what we missed while disconnected, so start from a clean slate. Messages published from
+            // here on are delivered to this listener.
+            onInvalidateAll.run();
+        }
+
+        @Override
+        public void onMessage(String channel, String message) {
+            onInvalidation.accept(message);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package org.sagebionetworks.bridge.cache;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ser.FilterProvider;
+
+import org.sagebionetworks.bridge.json.BridgeObjectMapper;
+
+/** Encodes values as JSON (UTF-8), exactly as they are written by BridgeObjectMapper. */
+public class JsonCacheCodec implements CacheCodec {
+    static final char ID = 'j';
+
+    @Override
+    public char getId() {
+        return ID;
+    }
+
+    @Override
+    public byte[] encode(Object value, FilterProvider filters) throws IOException {
+        if (filters == null) {
+            return BridgeObjectMapper.get().writeValueAsBytes(value);
+        }
+        return BridgeObjectMapper.get().writer(filters).writeValueAsBytes(value);
+    }
+
+    @Override
+    public <T> T decode(byte[] bytes, JavaType type) throws IOException {
+        return BridgeObjectMapper.get().readValue(bytes, type);
+    }
+}
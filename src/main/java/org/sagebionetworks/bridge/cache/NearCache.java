@@ -0,0 +1,226 @@
+package org.sagebionetworks.bridge.cache;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import org.sagebionetworks.bridge.config.BridgeConfig;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+/**
+ * An optional, in-process tier in front of Redis for keys that are read on nearly every request but rarely change
+ * (see {@link CacheKey#isNearCacheable}). The near cache holds the serialized value as it is stored in Redis, so every
+ * read still produces a new object and callers never share mutable state. Entries are bounded in number and expire
+ * after a short TTL. When one of these keys is written or removed, the key is published on a Redis pub/sub channel so
+ * that every node drops its local copy.
+ *
+ * A value read from Redis is only held locally if no invalidation arrived while it was being read. Callers get the
+ * generation with {@link #getGeneration} before reading Redis, and pass it to {@link #put}. Otherwise an invalidation
+ * from another node could land between the read and the put, and the stale value would be held for the whole TTL.
+ */
+@Component
+public class NearCache {
+    static final String CONFIG_KEY_ENABLED = "near.cache.enabled";
+    static final String CONFIG_KEY_MAX_SIZE = "near.cache.max.size";
+    static final String CONFIG_KEY_TTL_SECONDS = "near.cache.ttl.seconds";
+    static final String INVALIDATION_CHANNEL = "near-cache-invalidation";
+    // Separates keys when several are invalidated in one message. Cache keys never contain a newline.
+    private static final char KEY_SEPARATOR = '\n';
+
+    private com.google.common.cache.Cache<String, byte[]> cache;
+    private boolean enabled;
+    private JedisPool jedisPool;
+    private InvalidationSubscriber subscriber;
+    // Incremented on every invalidation, so a value read before an invalidation isn't held.
+    private final AtomicLong generation = new AtomicLong();
+
+    /** Near cache is disabled until it has been configured. */
+    public NearCache() {
+        configure(false, 0, 0);
+    }
+
+    /** Config, to determine whether the near cache is turned on, and its size and TTL. */
+    @Autowired
+    public final void setBridgeConfig(BridgeConfig config) {
+        boolean enabled = Boolean.valueOf(config.getProperty(CONFIG_KEY_ENABLED));
+        int maxSize = enabled ? config.getPropertyAsInt(CONFIG_KEY_MAX_SIZE) : 0;
+        int ttlSeconds = enabled ? config.getPropertyAsInt(CONFIG_KEY_TTL_SECONDS) : 0;
+        configure(enabled, maxSize, ttlSeconds);
+    }
+
+    /** Redis connection pool, used to publish and subscribe to invalidation messages. */
+    @Autowired
+    public final void setJedisPool(JedisPool jedisPool) {
+        this.jedisPool = jedisPool;
+    }
+
+    /**
+     * Sets whether the near cache is enabled, how many entries it holds, and how long an entry lives. Separate
+     * from the config setter so that tests can change these values.
+     */
+    final void configure(boolean enabled, int maxSize, int ttlSeconds) {
+        this.enabled = enabled;
+        this.cache = CacheBuilder.newBuilder().maximumSize(maxSize).expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                .recordStats().build();
+    }
+
+    /** Starts listening for invalidations from other nodes. */
+    @PostConstruct
+    public void start() {
+        if (!enabled || jedisPool == null) {
+            return;
+        }
+        subscriber = new InvalidationSubscriber(jedisPool, INVALIDATION_CHANNEL, this::onInvalidation,
+                this::invalidateAll);
+        subscriber.start();
+    }
+
+    /** Stops listening for invalidations. */
+    @PreDestroy
+    public void stop() {
+        if (subscriber != null) {
+            subscriber.stop();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the serialized value for this key, or null if the near cache is disabled, the key is not one we hold
+     * locally, or the key is not present.
+     */
+    public byte[] get(CacheKey cacheKey) {
+        checkNotNull(cacheKey);
+        String key = cacheKey.toString();
+        if (!enabled || !CacheKey.isNearCacheable(key)) {
+            return null;
+        }
+        return cache.getIfPresent(key);
+    }
+
+    /**
+     * The current invalidation generation. Get this before reading a value from Redis, and pass it to {@link #put}
+     * with the value that was read.
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Holds the serialized value for this key locally, if this is a key we hold locally, and no invalidation has
+     * arrived since the value was read (the generation has not changed).
+     */
+    public void put(CacheKey cacheKey, byte[] ser, long readGeneration) {
+        checkNotNull(cacheKey);
+        checkNotNull(ser);
+        String key = cacheKey.toString();
+        if (enabled && CacheKey.isNearCacheable(key) && generation.get() == readGeneration) {
+            cache.put(key, ser);
+            // An invalidation may have arrived between the check and the put. If it did, it may have run before the
+            // put, so drop the value again.
+            if (generation.get() != readGeneration) {
+                cache.invalidate(key);
+            }
+        }
+    }
+
+    /**
+     * Drops this key from this node's near cache, and tells all other nodes to do the same. Call this after the
+     * value in Redis has been changed or removed.
+     */
+    public void invalidate(CacheKey cacheKey) {
+        checkNotNull(cacheKey);
+        String key = cacheKey.toString();
+        if (!enabled || !CacheKey.isNearCacheable(key)) {
+            return;
+        }
+        onInvalidation(key);
+        if (jedisPool != null) {
+            try (Jedis jedis = jedisPool.getResource()) {
+                jedis.publish(INVALIDATION_CHANNEL, key);
+            }
+        }
+    }
+
+    /**
+     * Drops these keys from this node's near cache, and tells all other nodes to do the same with a single message.
+     * Call this after several values in Redis have been changed or removed together.
+     */
+    public void invalidate(Collection<CacheKey> cacheKeys) {
+        checkNotNull(cacheKeys);
+        if (!enabled) {
+            return;
+        }
+        List<String> keys = new ArrayList<>(cacheKeys.size());
+        for (CacheKey cacheKey : cacheKeys) {
+            String key = checkNotNull(cacheKey).toString();
+            if (CacheKey.isNearCacheable(key)) {
+                keys.add(key);
+            }
+        }
+        if (keys.isEmpty()) {
+            return;
+        }
+        String message = Joiner.on(KEY_SEPARATOR).join(keys);
+        onInvalidation(message);
+        if (jedisPool != null) {
+            try (Jedis jedis = jedisPool.getResource()) {
+                jedis.publish(INVALIDATION_CHANNEL, message);
+            }
+        }
+    }
+
+    /** Number of reads served from the near cache. */
+    public long getHitCount() {
+        return cache.stats().hitCount();
+    }
+
+    /** Number of reads of near-cacheable keys that had to go to Redis. */
+    public long getMissCount() {
+        return cache.stats().missCount();
+    }
+
+    /** Full stats for the near cache, including hit rate and evictions. */
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+
+    /** Number of entries currently held. */
+    public long size() {
+        return cache.size();
+    }
+
+    /**
+     * Called when another node (or this one) has published an invalidation. The message is a single key, or several
+     * keys separated by newlines.
+     */
+    void onInvalidation(String message) {
+        if (message != null) {
+            generation.incrementAndGet();
+            cache.invalidateAll(Splitter.on(KEY_SEPARATOR).split(message));
+        }
+    }
+
+    private void invalidateAll() {
+        generation.incrementAndGet();
+        cache.invalidateAll();
+    }
+}
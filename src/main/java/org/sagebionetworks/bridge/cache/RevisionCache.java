@@ -0,0 +1,205 @@
+package org.sagebionetworks.bridge.cache;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import org.sagebionetworks.bridge.config.BridgeConfig;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+/**
+ * <p>An in-process cache for specific revisions of versioned objects (survey versions, upload schema revisions, and
+ * app config element revisions). Once created, a revision is addressed by its key for as long as it exists and very
+ * rarely changes, so entries live a long time and are only bounded in number. Like the {@link NearCache}, values are
+ * held serialized, so every read produces a new object and callers never share mutable state.</p>
+ *
+ * <p>The few operations that do change a revision (logical delete, undelete, permanent delete, and some updates) must
+ * call {@link #invalidate}, which drops the entry here and publishes the key so that every other node drops it as
+ * well.</p>
+ */
+@Component
+public class RevisionCache {
+    private static final Logger LOG = LoggerFactory.getLogger(RevisionCache.class);
+
+    static final String CONFIG_KEY_ENABLED = "revision.cache.enabled";
+    static final String CONFIG_KEY_MAX_SIZE = "revision.cache.max.size";
+    static final String CONFIG_KEY_TTL_SECONDS = "revision.cache.ttl.seconds";
+    static final String INVALIDATION_CHANNEL = "revision-cache-invalidation";
+
+    private com.google.common.cache.Cache<String, byte[]> cache;
+    private boolean enabled;
+    private JedisPool jedisPool;
+    private CacheSerializer serializer = new CacheSerializer();
+    private InvalidationSubscriber subscriber;
+    // Incremented on every invalidation, so a load that overlaps an invalidation isn't cached.
+    private final AtomicLong invalidationCount = new AtomicLong();
+
+    /** Revision cache is disabled until it has been configured. */
+    public RevisionCache() {
+        configure(false, 0, 0);
+    }
+
+    /** Config, to determine whether the revision cache is turned on, and its size and TTL. */
+    @Autowired
+    public final void setBridgeConfig(BridgeConfig config) {
+        boolean enabled = Boolean.valueOf(config.getProperty(CONFIG_KEY_ENABLED));
+        int maxSize = enabled ? config.getPropertyAsInt(CONFIG_KEY_MAX_SIZE) : 0;
+        int ttlSeconds = enabled ? config.getPropertyAsInt(CONFIG_KEY_TTL_SECONDS) : 0;
+        configure(enabled, maxSize, ttlSeconds);
+    }
+
+    /** Redis connection pool, used to publish and subscribe to invalidation messages. */
+    @Autowired
+    public final void setJedisPool(JedisPool jedisPool) {
+        this.jedisPool = jedisPool;
+    }
+
+    /** Serializer for the values held in the cache. */
+    @Autowired
+    final void setCacheSerializer(CacheSerializer serializer) {
+        this.serializer = serializer;
+    }
+
+    /**
+     * Sets whether the revision cache is enabled, how many entries it holds, and how long an entry lives. Separate
+     * from the config setter so that tests can change these values.
+     */
+    final void configure(boolean enabled, int maxSize, int ttlSeconds) {
+        this.enabled = enabled;
+        this.cache = CacheBuilder.newBuilder().maximumSize(maxSize).expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                .recordStats().build();
+    }
+
+    /** Starts listening for invalidations from other nodes. */
+    @PostConstruct
+    public void start() {
+        if (!enabled || jedisPool == null) {
+            return;
+        }
+        subscriber = new InvalidationSubscriber(jedisPool, INVALIDATION_CHANNEL, this::onInvalidation,
+                this::invalidateAll);
+        subscriber.start();
+    }
+
+    /** Stops listening for invalidations. */
+    @PreDestroy
+    public void stop() {
+        if (subscriber != null) {
+            subscriber.stop();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the revision for this key. If it isn't cached, the loader is called, and a non-null result is cached.
+     * The loader should return null for anything that must not be cached (e.g. a revision that doesn't exist).
+     */
+    public <T> T get(CacheKey cacheKey, Class<T> clazz, Supplier<T> loader) {
+        checkNotNull(cacheKey);
+        checkNotNull(clazz);
+        checkNotNull(loader);
+        if (!enabled) {
+            return loader.get();
+        }
+        String key = cacheKey.toString();
+        byte[] ser = cache.getIfPresent(key);
+        if (ser != null) {
+            try {
+                T value = serializer.decode(ser, clazz);
+                if (value != null) {
+                    return value;
+                }
+            } catch (IOException e) {
+                LOG.warn("Could not read cached revision " + key + ", reloading it", e);
+            }
+            cache.invalidate(key);
+        }
+        long invalidationsBeforeLoad = invalidationCount.get();
+        T value = loader.get();
+        if (value != null) {
+            try {
+                byte[] newSer = serializer.encode(value);
+                if (invalidationCount.get() == invalidationsBeforeLoad) {
+                    cache.put(key, newSer);
+                }
+            } catch (IOException e) {
+                LOG.warn("Could not cache revision " + key, e);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Drops this key from this node's revision cache, and tells all other nodes to do the same. Call this after the
+     * revision has been changed or deleted.
+     */
+    public void invalidate(CacheKey cacheKey) {
+        checkNotNull(cacheKey);
+        if (!enabled) {
+            return;
+        }
+        String key = cacheKey.toString();
+        onInvalidation(key);
+        if (jedisPool != null) {
+            try (Jedis jedis = jedisPool.getResource()) {
+                jedis.publish(INVALIDATION_CHANNEL, key);
+            }
+        }
+    }
+
+    /** Number of reads served from the revision cache. */
+    public long getHitCount() {
+        return cache.stats().hitCount();
+    }
+
+    /** Number of reads that had to go to the database. */
+    public long getMissCount() {
+        return cache.stats().missCount();
+    }
+
+    /** Fraction of reads served from the revision cache, or 1.0 if there have been no reads. */
+    public double getHitRate() {
+        return cache.stats().hitRate();
+    }
+
+    /** Full stats for the revision cache, including hit rate and evictions. */
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+
+    /** Number of entries currently held. */
+    public long size() {
+        return cache.size();
+    }
+
+    /** Called when another node (or this one) has published an invalidation. */
+    void onInvalidation(String key) {
+        if (key != null) {
+            invalidationCount.incrementAndGet();
+            cache.invalidate(key);
+        }
+    }
+
+    private void invalidateAll() {
+        invalidationCount.incrementAndGet();
+        cache.invalidateAll();
+    }
+}
@@ -0,0 +1,40 @@
+package org.sagebionetworks.bridge.cache;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ser.FilterProvider;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import org.sagebionetworks.bridge.json.BridgeObjectMapper;
+
+/**
+ * Encodes values as Smile, a binary equivalent of JSON. It is smaller than JSON (repeated property names and short
+ * strings are written as back references) and considerably faster to parse, which matters for large objects like
+ * studies that are read on every request. Smile uses the same data model as JSON, so everything BridgeObjectMapper
+ * can write as JSON round trips through this codec.
+ */
+public class SmileCacheCodec implements CacheCodec {
+    static final char ID = 's';
+
+    // Configured like BridgeObjectMapper.get(), but reads and writes Smile. Thread-safe.
+    private static final BridgeObjectMapper SMILE_MAPPER = new BridgeObjectMapper(new SmileFactory());
+
+    @Override
+    public char getId() {
+        return ID;
+    }
+
+    @Override
+    public byte[] encode(Object value, FilterProvider filters) throws IOException {
+        if (filters == null) {
+            return SMILE_MAPPER.writeValueAsBytes(value);
+        }
+        return SMILE_MAPPER.writer(filters).writeValueAsBytes(value);
+    }
+
+    @Override
+    public <T> T decode(byte[] bytes, JavaType type) throws IOException {
+        return SMILE_MAPPER.readValue(bytes, type);
+    }
+}
@@ -1,21 +1,59 @@
 package org.sagebionetworks.bridge.cache;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
 import org.sagebionetworks.bridge.cache.CacheKey;
+import org.sagebionetworks.bridge.dao.DistributedLockDao;
 import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
+import org.sagebionetworks.bridge.exceptions.ConcurrentModificationException;
+import org.sagebionetworks.bridge.time.DateUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Supplier;
 
+/**
+ * <p>Caches the JSON of expensive views. When a view is missing, only one caller per key in this JVM calls the
+ * supplier; concurrent callers wait for and share its result. If a lock DAO is set, the loading caller also takes a
+ * short Redis lock, and callers on other nodes wait for the view to appear in the cache rather than calling the
+ * supplier themselves.</p>
+ *
+ * <p>If a soft cache period is set, a view older than that period is still returned, and one caller refreshes it in
+ * the background. Views are only loaded in the foreground when they are missing entirely (after the cache period).
+ * The time after which a view is refreshed is cached with the view, so this doesn't take another read.</p>
+ */
 public class ViewCache {
     
     private static final Logger logger = LoggerFactory.getLogger(ViewCache.class);
     
+    /** Long enough for any view to load. If a node dies holding the lock, others wait at most this long. */
+    static final int LOCK_EXPIRE_IN_SECONDS = 30;
+    static final long DEFAULT_LOCK_WAIT_MILLIS = 2000L;
+    static final long LOCK_POLL_MILLIS = 50L;
+    
     private CacheProvider cache;
     private ObjectMapper objectMapper;
     private int cachePeriod;
+    private int softCachePeriod;
+    private DistributedLockDao lockDao;
+    private ExecutorService executorService;
+    private long lockWaitMillis = DEFAULT_LOCK_WAIT_MILLIS;
+    
+    private final ConcurrentMap<CacheKey, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong loadCount = new AtomicLong();
+    private final AtomicLong collapsedLoadCount = new AtomicLong();
+    private final AtomicLong remoteCollapsedLoadCount = new AtomicLong();
+    private final AtomicLong staleServedCount = new AtomicLong();
     
     public final void setCacheProvider(CacheProvider cacheProvider) {
         this.cache = cacheProvider;
@@ -29,6 +67,29 @@ public class ViewCache {
         this.cachePeriod = cachePeriod;
     }
     
+    /**
+     * Period after which a view is refreshed in the background while the stale view is still returned. Should be
+     * less than the cache period. Zero (the default) turns this off.
+     */
+    public final void setSoftCachePeriod(int softCachePeriod) {
+        this.softCachePeriod = softCachePeriod;
+    }
+    
+    /** If set, only one node at a time loads a view. Otherwise only loads within this JVM are collapsed. */
+    public final void setDistributedLockDao(DistributedLockDao lockDao) {
+        this.lockDao = lockDao;
+    }
+    
+    /** Executor for background refreshes. If not set, a stale view is refreshed by the caller that finds it. */
+    public final void setAsyncExecutorService(ExecutorService executorService) {
+        this.executorService = executorService;
+    }
+    
+    /** How long to wait for another node to load a view before loading it here anyway. */
+    final void setLockWaitMillis(long lockWaitMillis) {
+        this.lockWaitMillis = lockWaitMillis;
+    }
+    
     /**
      * Get the JSON for the viewCacheKey, or if nothing has been cached, call the supplier, 
      * cache the JSON representation of the object returned, and return that JSON.
@@ -37,17 +98,17 @@ public class ViewCache {
      * @return
      */
     public <T> String getView(CacheKey key, Supplier<T> supplier) {
-        try {
-            String value = cache.getObject(key, String.class);
-            if (value == null) {
-                value = cacheView(key, supplier);
-            } else {
-                logger.debug("Retrieving "+key+"' JSON from cache");
-            }
-            return value;
-        } catch(JsonProcessingException e) {
-            throw new BridgeServiceException(e);
+        CachedView cachedView = cache.getObject(key, CachedView.class);
+        if (cachedView == null || cachedView.getView() == null) {
+            return loadView(key, supplier);
+        }
+        logger.debug("Retrieving "+key+"' JSON from cache");
+        String value = cachedView.getView();
+        if (softCachePeriod > 0 && cachedView.getRefreshAfter() <= DateUtils.getCurrentMillisFromEpoch()) {
+            staleServedCount.incrementAndGet();
+            refreshView(key, supplier, value);
         }
+        return value;
     }
 
     /**
@@ -70,11 +131,191 @@ public class ViewCache {
         return CacheKey.viewKey(clazz, identifiers);
     }
     
-    private <T> String cacheView(CacheKey key, Supplier<T> supplier) throws JsonProcessingException {
+    /** Number of times a supplier has been called to load or refresh a view. */
+    public long getLoadCount() {
+        return loadCount.get();
+    }
+    
+    /** Number of callers that waited for a load already in progress in this JVM, instead of calling the supplier. */
+    public long getCollapsedLoadCount() {
+        return collapsedLoadCount.get();
+    }
+    
+    /** Number of callers that waited for another node to load a view, instead of calling the supplier. */
+    public long getRemoteCollapsedLoadCount() {
+        return remoteCollapsedLoadCount.get();
+    }
+    
+    /** Number of times a view past its soft cache period was returned while it was refreshed. */
+    public long getStaleServedCount() {
+        return staleServedCount.get();
+    }
+    
+    private <T> String loadView(CacheKey key, Supplier<T> supplier) {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        CompletableFuture<String> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            collapsedLoadCount.incrementAndGet();
+            return await(existing);
+        }
+        try {
+            String value = loadViewAcrossNodes(key, supplier, null);
+            future.complete(value);
+            return value;
+        } catch(RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+    
+    private <T> void refreshView(CacheKey key, Supplier<T> supplier, String staleValue) {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        if (inFlight.putIfAbsent(key, future) != null) {
+            return;
+        }
+        Runnable refresh = () -> {
+            try {
+                future.complete(loadViewAcrossNodes(key, supplier, staleValue));
+            } catch(RuntimeException e) {
+                logger.warn("Error refreshing view " + key, e);
+                future.complete(staleValue);
+            } finally {
+                inFlight.remove(key, future);
+            }
+        };
+        if (executorService == null) {
+            refresh.run();
+            return;
+        }
+        try {
+            executorService.execute(refresh);
+        } catch(RejectedExecutionException e) {
+            logger.warn("Could not schedule refresh of view " + key, e);
+            future.complete(staleValue);
+            inFlight.remove(key, future);
+        }
+    }
+    
+    /**
+     * Load the view while holding the view's lock. If another node holds the lock, it is loading the view, so a
+     * refresh returns the stale value, and a load waits for the view to appear in the cache. If it doesn't appear in
+     * time, the view is loaded here anyway, since the other node may have failed.
+     */
+    private <T> String loadViewAcrossNodes(CacheKey key, Supplier<T> supplier, String staleValue) {
+        if (lockDao == null) {
+            return cacheView(key, supplier);
+        }
+        String lock;
+        try {
+            lock = lockDao.acquireLock(ViewCache.class, key.toString(), LOCK_EXPIRE_IN_SECONDS);
+        } catch(ConcurrentModificationException e) {
+            return (staleValue != null) ? staleValue : waitForView(key, supplier);
+        }
+        try {
+            // Another node may have loaded the view between our cache miss and acquiring the lock.
+            if (staleValue == null) {
+                String value = getCachedJson(key);
+                if (value != null) {
+                    remoteCollapsedLoadCount.incrementAndGet();
+                    return value;
+                }
+            }
+            return cacheView(key, supplier);
+        } finally {
+            try {
+                lockDao.releaseLock(ViewCache.class, key.toString(), lock);
+            } catch(BridgeServiceException e) {
+                // It expires shortly in any case
+                logger.warn("Could not release lock for view " + key, e);
+            }
+        }
+    }
+    
+    private <T> String waitForView(CacheKey key, Supplier<T> supplier) {
+        long deadline = System.currentTimeMillis() + lockWaitMillis;
+        while (System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(LOCK_POLL_MILLIS);
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new BridgeServiceException(e);
+            }
+            String value = getCachedJson(key);
+            if (value != null) {
+                remoteCollapsedLoadCount.incrementAndGet();
+                return value;
+            }
+        }
+        logger.info("Timed out waiting for another node to load view " + key + ", loading it here");
+        return cacheView(key, supplier);
+    }
+    
+    private <T> String cacheView(CacheKey key, Supplier<T> supplier) {
         logger.debug("Caching JSON for "+key+"'");
+        loadCount.incrementAndGet();
         T object = supplier.get();
-        String value = objectMapper.writeValueAsString(object);
-        cache.setObject(key, value, cachePeriod);
-        return value;
+        try {
+            String value = objectMapper.writeValueAsString(object);
+            if (softCachePeriod > 0) {
+                long refreshAfter = DateUtils.getCurrentMillisFromEpoch() + softCachePeriod * 1000L;
+                cache.setObject(key, new CachedView(value, refreshAfter), cachePeriod);
+            } else {
+                cache.setObject(key, value, cachePeriod);
+            }
+            return value;
+        } catch(JsonProcessingException e) {
+            throw new BridgeServiceException(e);
+        }
+    }
+    
+    private String getCachedJson(CacheKey key) {
+        CachedView cachedView = cache.getObject(key, CachedView.class);
+        return (cachedView != null) ? cachedView.getView() : null;
+    }
+    
+    /** Wait for another caller's load, rethrowing its exception as is, so callers see the same error either way. */
+    private static String await(CompletableFuture<String> future) {
+        try {
+            return future.get();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BridgeServiceException(e);
+        } catch(ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException)e.getCause();
+            }
+            throw new BridgeServiceException(e.getCause());
+        }
+    }
+    
+    /**
+     * A cached view, and the time (in epoch milliseconds) after which it is refreshed in the background. Without a
+     * soft cache period, views are cached as plain JSON strings. These are read as views that are already due for
+     * refresh, so the soft cache period can be turned on or off without clearing the cache.
+     */
+    static final class CachedView {
+        private final String view;
+        private final long refreshAfter;
+    
+        @JsonCreator(mode = JsonCreator.Mode.DELEGATING)
+        CachedView(String view) {
+            this(view, 0L);
+        }
+    
+        @JsonCreator(mode = JsonCreator.Mode.PROPERTIES)
+        CachedView(@JsonProperty("view") String view, @JsonProperty("refreshAfter") long refreshAfter) {
+            this.view = view;
+            this.refreshAfter = refreshAfter;
+        }
+    
+        public String getView() {
+            return view;
+        }
+    
+        public long getRefreshAfter() {
+            return refreshAfter;
+        }
     }
 }
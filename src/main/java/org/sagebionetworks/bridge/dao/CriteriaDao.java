@@ -1,5 +1,8 @@
 package org.sagebionetworks.bridge.dao;
 
+import java.util.Collection;
+import java.util.Map;
+
 import org.sagebionetworks.bridge.models.Criteria;
 
 public interface CriteriaDao {
@@ -15,6 +18,12 @@ public interface CriteriaDao {
      * an EntityNotFoundException).
      */
     Criteria getCriteria(String key);
+    
+    /**
+     * Get the criteria objects for all of these keys in as few calls as possible. The returned map is keyed by 
+     * criteria key, and has no entry for a key where the criteria object does not exist.
+     */
+    Map<String, Criteria> getCriteria(Collection<String> keys);
 
     /**
      * Delete the criteria if it exists (if criteria does not exist, does not throw
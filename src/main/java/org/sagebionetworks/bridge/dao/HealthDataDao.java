@@ -1,7 +1,9 @@
 package org.sagebionetworks.bridge.dao;
 
 import javax.annotation.Nonnull;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 import org.sagebionetworks.bridge.models.healthdata.HealthDataRecord;
 
@@ -36,6 +38,16 @@ public interface HealthDataDao {
      */
     HealthDataRecord getRecordById(@Nonnull String id);
 
+    /**
+     * DAO method used to fetch many health data records at once, such as for a page of uploads. This reads the records
+     * in batches rather than one at a time.
+     *
+     * @param ids
+     *         record IDs, must be non-null
+     * @return map of record ID to health data record, records that don't exist aren't in the map
+     */
+    Map<String, HealthDataRecord> getRecordsById(@Nonnull Collection<String> ids);
+
     /**
      * DAO method used by worker apps to query all health data records uploaded for a specific date, generally used for
      * export.
@@ -1,6 +1,7 @@
 package org.sagebionetworks.bridge.dao;
 
 import java.util.List;
+import java.util.Set;
 
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
@@ -17,6 +18,14 @@ public interface ScheduledActivityDao {
     ForwardCursorPagedResourceList<ScheduledActivity> getActivityHistoryV2(String healthCode, String activityGuid,
             DateTime scheduledOnStart, DateTime scheduledOnEnd, String offsetKey, int pageSize);
     
+    /**
+     * Get all scheduled activities for the given activity GUIDs that are scheduled within the given time range, in one
+     * DAO call rather than one call per activity GUID. This is still one DynamoDB query per activity GUID, each bounded
+     * to the time range, and the queries may run concurrently. Activities are returned in no particular order.
+     */
+    List<ScheduledActivity> getActivitiesInRange(String healthCode, Set<String> activityGuids,
+            DateTime scheduledOnStart, DateTime scheduledOnEnd);
+    
     /**
      * Get paged results of historical scheduled activities by a GUID constructed from the task, compound
      * activity or survey that is referred to by the scheduled activity.
@@ -4,7 +4,6 @@ import static com.google.common.base.Preconditions.checkNotNull;
 
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 import javax.annotation.Resource;
 
@@ -20,20 +19,24 @@ import org.springframework.stereotype.Component;
 
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBQueryExpression;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBSaveExpression;
 import com.amazonaws.services.dynamodbv2.datamodeling.PaginatedQueryList;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper.FailedBatch;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ComparisonOperator;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.ConditionalOperator;
+import com.amazonaws.services.dynamodbv2.model.ExpectedAttributeValue;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableMap.Builder;
-import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 
 @Component
 public class DynamoActivityEventDao implements ActivityEventDao {
 
+    private static final String HEALTH_CODE = "healthCode";
+    private static final String TIMESTAMP = "timestamp";
     private static final String ANSWERED_EVENT_POSTFIX = ":"+ActivityEventType.ANSWERED.name().toLowerCase();
-    private static final Set<String> IMMUTABLE_EVENTS = ImmutableSet.of(
-            ActivityEventObjectType.ENROLLMENT.name().toLowerCase(),
-            ActivityEventObjectType.ACTIVITIES_RETRIEVED.name().toLowerCase());
     private DynamoDBMapper mapper;
 
     @Resource(name = "activityEventDdbMapper")
@@ -41,22 +44,27 @@ public class DynamoActivityEventDao implements ActivityEventDao {
         this.mapper = mapper;
     }
     
+    /**
+     * The checks that the event can be recorded are made by DynamoDB as part of the save, rather than by loading the 
+     * saved event first, so publishing an event is a single conditional write.
+     */
     @Override
     public boolean publishEvent(ActivityEvent event) {
         checkNotNull(event);
+        checkNotNull(event.getTimestamp());
         
-        DynamoActivityEvent hashKey = new DynamoActivityEvent();
-        hashKey.setHealthCode(event.getHealthCode());
-        hashKey.setEventId(event.getEventId());
-        
-        ActivityEvent savedEvent = mapper.load(hashKey);
-        if (isNewOrMutable(savedEvent, event) && isLater(savedEvent, event)) {
-            mapper.save(event);
+        try {
+            mapper.save(event, getPublishExpression(event));
             return true;
+        } catch(ConditionalCheckFailedException e) {
+            return false;
         }
-        return false;
     }
 
+    /**
+     * The map is read with a consistent read. The service caches it, so it must include every event published before 
+     * the read started.
+     */
     @Override
     public Map<String, DateTime> getActivityEventMap(String healthCode) {
         checkNotNull(healthCode);
@@ -64,7 +72,8 @@ public class DynamoActivityEventDao implements ActivityEventDao {
         DynamoActivityEvent hashKey = new DynamoActivityEvent();
         hashKey.setHealthCode(healthCode);
         DynamoDBQueryExpression<DynamoActivityEvent> query = new DynamoDBQueryExpression<DynamoActivityEvent>()
-            .withHashKeyValues(hashKey);
+            .withHashKeyValues(hashKey)
+            .withConsistentRead(true);
 
         PaginatedQueryList<DynamoActivityEvent> queryResults = mapper.query(DynamoActivityEvent.class, query);
         
@@ -95,21 +104,19 @@ public class DynamoActivityEventDao implements ActivityEventDao {
         }
     }
     
-    // Some events can only be recorded once. 
-    private boolean isNewOrMutable(ActivityEvent savedEvent, ActivityEvent event) {
-        if (savedEvent == null) {
-            return true;
-        }
-        return (!IMMUTABLE_EVENTS.contains(event.getEventId()));
-    }
-    
-    // Events cannot be recorded unless the timestamp submitted is later than the currently
-    // recorded timestamp.
-    private boolean isLater(ActivityEvent savedEvent, ActivityEvent event) {
-        if (savedEvent == null) {
-            return true;
+    // Some events can only be recorded once. Other events cannot be recorded unless the timestamp submitted is 
+    // later than the currently recorded timestamp.
+    private DynamoDBSaveExpression getPublishExpression(ActivityEvent event) {
+        ExpectedAttributeValue isNew = new ExpectedAttributeValue().withExists(false);
+        if (ActivityEventObjectType.UNARY_EVENT_IDS.contains(event.getEventId())) {
+            return new DynamoDBSaveExpression().withExpected(ImmutableMap.of(HEALTH_CODE, isNew));
         }
-        return event.getTimestamp() > savedEvent.getTimestamp();
+        ExpectedAttributeValue isLater = new ExpectedAttributeValue()
+                .withComparisonOperator(ComparisonOperator.LT)
+                .withAttributeValueList(new AttributeValue().withN(event.getTimestamp().toString()));
+        return new DynamoDBSaveExpression()
+                .withExpected(ImmutableMap.of(HEALTH_CODE, isNew, TIMESTAMP, isLater))
+                .withConditionalOperator(ConditionalOperator.OR);
     }
 
     /**
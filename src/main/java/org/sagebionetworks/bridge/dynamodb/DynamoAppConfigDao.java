@@ -3,6 +3,7 @@ package org.sagebionetworks.bridge.dynamodb;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 import java.util.List;
+import java.util.Map;
 
 import javax.annotation.Resource;
 
@@ -71,9 +72,14 @@ public class DynamoAppConfigDao implements AppConfigDao {
         PaginatedQueryList<DynamoAppConfig> results = mapper.query(DynamoAppConfig.class, query);
         
         List<AppConfig> list = Lists.newArrayListWithCapacity(results.size());
+        List<String> criteriaKeys = Lists.newArrayListWithCapacity(results.size());
         for (DynamoAppConfig appConfig : results) {
-            loadCriteria(appConfig);
             list.add(appConfig);
+            criteriaKeys.add(getKey(appConfig));
+        }
+        Map<String, Criteria> criteriaMap = criteriaDao.getCriteria(criteriaKeys);
+        for (AppConfig appConfig : list) {
+            setCriteria(appConfig, criteriaMap.get(getKey(appConfig)));
         }
         return list;
     }
@@ -148,7 +154,10 @@ public class DynamoAppConfigDao implements AppConfigDao {
     }
 
     private void loadCriteria(AppConfig config) {
-        Criteria criteria = criteriaDao.getCriteria(getKey(config));
+        setCriteria(config, criteriaDao.getCriteria(getKey(config)));
+    }
+    
+    private void setCriteria(AppConfig config, Criteria criteria) {
         if (criteria == null) {
             criteria = Criteria.create();
         }
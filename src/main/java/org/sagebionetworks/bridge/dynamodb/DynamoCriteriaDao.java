@@ -4,14 +4,27 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 import javax.annotation.Resource;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
 import org.sagebionetworks.bridge.dao.CriteriaDao;
+import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
 import org.sagebionetworks.bridge.models.Criteria;
 
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper.BatchGetItemException;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 
 /**
  * The DAO for managing criteria, which are optionally associated with models that can be filtered by Criteria 
@@ -19,6 +32,10 @@ import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
  */
 @Component
 public class DynamoCriteriaDao implements CriteriaDao {
+    private static final Logger LOG = LoggerFactory.getLogger(DynamoCriteriaDao.class);
+
+    /** DynamoDB's limit on the number of keys in one BatchGetItem call. */
+    static final int MAX_BATCH_LOAD_SIZE = 100;
 
     private DynamoDBMapper criteriaMapper;
     
@@ -46,6 +63,62 @@ public class DynamoCriteriaDao implements CriteriaDao {
         return criteriaMapper.load(hashKey);
     }
 
+    /**
+     * Loads the criteria in batches of up to 100 keys. The mapper retries any keys DynamoDB leaves unprocessed (e.g. 
+     * due to throttling), with backoff. If keys are still unprocessed once the mapper gives up, those keys are loaded 
+     * one at a time, so a throttled batch is slower but does not fail the request.
+     */
+    @Override
+    public Map<String, Criteria> getCriteria(Collection<String> keys) {
+        checkNotNull(keys);
+        
+        Set<String> uniqueKeys = new LinkedHashSet<>(keys);
+        Map<String, Criteria> criteriaMap = new HashMap<>();
+        for (List<String> keyBatch : Iterables.partition(uniqueKeys, MAX_BATCH_LOAD_SIZE)) {
+            List<DynamoCriteria> hashKeys = Lists.newArrayListWithCapacity(keyBatch.size());
+            for (String key : keyBatch) {
+                checkArgument(isNotBlank(key));
+                DynamoCriteria hashKey = new DynamoCriteria();
+                hashKey.setKey(key);
+                hashKeys.add(hashKey);
+            }
+            
+            try {
+                addResults(criteriaMap, criteriaMapper.batchLoad(hashKeys));
+            } catch (BatchGetItemException e) {
+                LOG.warn("Criteria batch load left keys unprocessed, loading them individually");
+                addResults(criteriaMap, e.getResponses());
+                // We can't tell an unprocessed key from one that doesn't exist, so check every key we didn't get.
+                for (String key : keyBatch) {
+                    if (!criteriaMap.containsKey(key)) {
+                        Criteria criteria = getCriteria(key);
+                        if (criteria != null) {
+                            criteriaMap.put(key, criteria);
+                        }
+                    }
+                }
+            }
+        }
+        return criteriaMap;
+    }
+    
+    private static void addResults(Map<String, Criteria> criteriaMap, Map<String, List<Object>> resultMap) {
+        if (resultMap == null) {
+            return;
+        }
+        for (List<Object> resultList : resultMap.values()) {
+            for (Object oneResult : resultList) {
+                if (!(oneResult instanceof DynamoCriteria)) {
+                    // This should never happen, but just in case.
+                    throw new BridgeServiceException("DynamoDB returned objects of type " +
+                            oneResult.getClass().getName() + " instead of DynamoCriteria");
+                }
+                Criteria criteria = (Criteria)oneResult;
+                criteriaMap.put(criteria.getKey(), criteria);
+            }
+        }
+    }
+
     @Override
     public void deleteCriteria(String key) {
         checkArgument(isNotBlank(key));
@@ -2,7 +2,12 @@ package org.sagebionetworks.bridge.dynamodb;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBQueryExpression;
 import com.amazonaws.services.dynamodbv2.datamodeling.QueryResultPage;
@@ -98,6 +103,34 @@ public class DynamoHealthDataDao implements HealthDataDao {
         return mapper.load(DynamoHealthDataRecord.class, id);
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public Map<String, HealthDataRecord> getRecordsById(@Nonnull Collection<String> ids) {
+        // BatchGetItem rejects duplicate keys, so de-dupe them first.
+        List<Object> keyList = new ArrayList<>();
+        for (String oneId : new LinkedHashSet<>(ids)) {
+            DynamoHealthDataRecord key = new DynamoHealthDataRecord();
+            key.setId(oneId);
+            keyList.add(key);
+        }
+
+        Map<String, HealthDataRecord> recordMap = new HashMap<>();
+        if (keyList.isEmpty()) {
+            return recordMap;
+        }
+
+        // The mapper splits the keys into BatchGetItem calls of up to 100 keys each, and retries unprocessed keys
+        // with backoff.
+        Map<String, List<Object>> resultMap = mapper.batchLoad(keyList);
+        for (List<Object> resultList : resultMap.values()) {
+            for (Object oneResult : resultList) {
+                HealthDataRecord record = (HealthDataRecord) oneResult;
+                recordMap.put(record.getId(), record);
+            }
+        }
+        return recordMap;
+    }
+
     /** {@inheritDoc} */
     @Override
     public List<HealthDataRecord> getRecordsForUploadDate(@Nonnull String uploadDate) {
@@ -6,6 +6,7 @@ import static org.apache.commons.lang3.StringUtils.isNotBlank;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.function.Function;
 
 import javax.annotation.Resource;
@@ -73,10 +74,20 @@ public class DynamoSchedulePlanDao implements SchedulePlanDao {
         
         List<DynamoSchedulePlan> dynamoPlans = mapper.queryPage(DynamoSchedulePlan.class, query).getResults();
         
+        // Collect the criteria keys for all plans, so they can be loaded together.
+        List<String> criteriaKeys = Lists.newArrayList();
+        for(DynamoSchedulePlan dynamoPlan : dynamoPlans) {
+            forEachCriteria(dynamoPlan, scheduleCriteria -> {
+                criteriaKeys.add(scheduleCriteria.getCriteria().getKey());
+                return null;
+            });
+        }
+        Map<String, Criteria> criteriaMap = criteriaDao.getCriteria(criteriaKeys);
+        
         ArrayList<SchedulePlan> plans = Lists.newArrayListWithCapacity(dynamoPlans.size());
         for(DynamoSchedulePlan dynamoPlan : dynamoPlans) {
             plans.add(dynamoPlan);
-            forEachCriteria(dynamoPlan, scheduleCriteria -> loadCriteria(scheduleCriteria));
+            forEachCriteria(dynamoPlan, scheduleCriteria -> criteriaMap.get(scheduleCriteria.getCriteria().getKey()));
         }
         return plans;
     }
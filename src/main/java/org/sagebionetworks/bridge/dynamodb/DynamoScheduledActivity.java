@@ -1,5 +1,7 @@
 package org.sagebionetworks.bridge.dynamodb;
 
+import java.util.Arrays;
+import java.util.List;
 import java.util.Objects;
 
 import org.joda.time.DateTime;
@@ -233,6 +235,18 @@ public final class DynamoScheduledActivity implements ScheduledActivity, BridgeE
         this.referentGuid = referentGuid;
     }
 
+    /**
+     * The persisted attributes that the scheduler generates: the activity, the schedule plan, the local scheduled and 
+     * expiration times, the persistence flag, and the referent GUID. Two scheduled activities with the same GUID and 
+     * the same fingerprint are stored as the same item, so one doesn't need to be saved over the other. This is a 
+     * list rather than a hash so that a collision can never skip a save.
+     */
+    @DynamoDBIgnore
+    @JsonIgnore
+    @Override
+    public List<Object> getContentFingerprint() {
+        return Arrays.asList(activity, schedulePlanGuid, localScheduledOn, localExpiresOn, persistent, referentGuid);
+    }
 
     @Override
     public int hashCode() {
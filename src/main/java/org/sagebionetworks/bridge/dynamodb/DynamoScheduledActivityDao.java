@@ -9,13 +9,24 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
 
 import org.sagebionetworks.bridge.BridgeConstants;
 import org.sagebionetworks.bridge.BridgeUtils;
+import org.sagebionetworks.bridge.config.BridgeConfig;
 import org.sagebionetworks.bridge.dao.ScheduledActivityDao;
 import org.sagebionetworks.bridge.exceptions.BadRequestException;
+import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
 import org.sagebionetworks.bridge.exceptions.EntityNotFoundException;
 import org.sagebionetworks.bridge.models.ForwardCursorPagedResourceList;
 import org.sagebionetworks.bridge.models.ResourceList;
@@ -24,6 +35,7 @@ import org.sagebionetworks.bridge.models.schedules.ScheduledActivity;
 
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
@@ -41,6 +53,9 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
 
 @Component
 public class DynamoScheduledActivityDao implements ScheduledActivityDao {
@@ -50,13 +65,50 @@ public class DynamoScheduledActivityDao implements ScheduledActivityDao {
     private static final String GUID = "guid";
     
     private static final String REFERENT_GUID = "referentGuid";
-
+    
     private static final String INVALID_KEY_MSG = "Invalid offsetKey (may exceed maximum seek for value range): ";
     
+    static final String CONFIG_KEY_LOOKUP_THREAD_COUNT = "activity.lookup.thread.count";
+    
+    static final String CONFIG_KEY_LOOKUP_MAX_QUEUED = "activity.lookup.max.queued";
+    
     private DynamoDBMapper mapper;
     
     private DynamoIndexHelper referentIndex;
     
+    // The per-GUID queries of getActivitiesInRange() run on this executor. Until start() creates the pool, they run in
+    // the calling thread, which is what unit tests get by default.
+    private ExecutorService lookupExecutor = MoreExecutors.newDirectExecutorService();
+    
+    private int lookupThreadCount;
+    
+    private int lookupMaxQueued;
+    
+    /** Gets the size of the lookup pool from Config. */
+    @Autowired
+    final void setBridgeConfig(BridgeConfig config) {
+        lookupThreadCount = config.getPropertyAsInt(CONFIG_KEY_LOOKUP_THREAD_COUNT);
+        lookupMaxQueued = config.getPropertyAsInt(CONFIG_KEY_LOOKUP_MAX_QUEUED);
+    }
+    
+    /**
+     * Creates the pool the per-GUID queries run on. When all threads are busy and the queue is full, the request
+     * thread runs the query itself.
+     */
+    @PostConstruct
+    public void start() {
+        lookupExecutor = new ThreadPoolExecutor(lookupThreadCount, lookupThreadCount, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(lookupMaxQueued), new ThreadFactoryBuilder()
+                .setNameFormat("activity-lookup-%d").setDaemon(true).build(),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+    
+    /** Stops the lookup pool. */
+    @PreDestroy
+    public void stop() {
+        lookupExecutor.shutdown();
+    }
+    
     @Resource(name = "activityDdbMapper")
     final void setDdbMapper(DynamoDBMapper mapper) {
         this.mapper = mapper;
@@ -124,6 +176,76 @@ public class DynamoScheduledActivityDao implements ScheduledActivityDao {
                 .withRequestParam(ResourceList.SCHEDULED_ON_END, scheduledOnEnd);
     }
     
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Range keys are the activity GUID followed by the local scheduled time, so each activity GUID gets its own query,
+     * bounded to the window, and never reads the rest of that GUID's history. The queries run concurrently on the
+     * lookup executor.
+     * </p>
+     */
+    @Override
+    public List<ScheduledActivity> getActivitiesInRange(String healthCode, Set<String> activityGuids,
+            DateTime scheduledOnStart, DateTime scheduledOnEnd) {
+        checkNotNull(healthCode);
+        checkNotNull(activityGuids);
+        checkNotNull(scheduledOnStart);
+        checkNotNull(scheduledOnEnd);
+        
+        String startTime = scheduledOnStart.toLocalDateTime().toString();
+        String endTime = scheduledOnEnd.toLocalDateTime().toString();
+        
+        List<Future<List<DynamoScheduledActivity>>> futureList = new ArrayList<>();
+        for (String activityGuid : activityGuids) {
+            futureList.add(lookupExecutor.submit(() -> queryActivitiesInRange(healthCode, activityGuid, startTime,
+                    endTime)));
+        }
+        
+        List<ScheduledActivity> activities = Lists.newArrayList();
+        for (Future<List<DynamoScheduledActivity>> oneFuture : futureList) {
+            List<DynamoScheduledActivity> results;
+            try {
+                results = Uninterruptibles.getUninterruptibly(oneFuture);
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) ex.getCause();
+                }
+                throw new BridgeServiceException(ex.getCause());
+            }
+            for (DynamoScheduledActivity act : results) {
+                act.setTimeZone(scheduledOnStart.getZone());
+                activities.add(act);
+            }
+        }
+        return activities;
+    }
+    
+    // All of one activity GUID's activities between the start and end times, following pages to the end of the window.
+    private List<DynamoScheduledActivity> queryActivitiesInRange(String healthCode, String activityGuid,
+            String startTime, String endTime) {
+        DynamoScheduledActivity hashKey = new DynamoScheduledActivity();
+        hashKey.setHealthCode(healthCode);
+        
+        Condition dateCondition = new Condition().withComparisonOperator(ComparisonOperator.BETWEEN)
+                .withAttributeValueList(new AttributeValue().withS(activityGuid + ":" + startTime),
+                        new AttributeValue().withS(activityGuid + ":" + endTime));
+        
+        List<DynamoScheduledActivity> activities = Lists.newArrayList();
+        Map<String,AttributeValue> lastKey = null;
+        do {
+            DynamoDBQueryExpression<DynamoScheduledActivity> query = new DynamoDBQueryExpression<DynamoScheduledActivity>()
+                    .withHashKeyValues(hashKey)
+                    .withRangeKeyCondition(GUID, dateCondition)
+                    .withExclusiveStartKey(lastKey);
+            
+            QueryResultPage<DynamoScheduledActivity> queryResult = mapper.queryPage(DynamoScheduledActivity.class,
+                    query);
+            activities.addAll(queryResult.getResults());
+            lastKey = queryResult.getLastEvaluatedKey();
+        } while (lastKey != null);
+        return activities;
+    }
+    
     /** {@inheritDoc} */
     @Override
     public ForwardCursorPagedResourceList<ScheduledActivity> getActivityHistoryV3(final String healthCode,
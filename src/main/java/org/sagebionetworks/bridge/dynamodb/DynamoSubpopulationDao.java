@@ -6,6 +6,7 @@ import static org.sagebionetworks.bridge.models.OperatingSystem.ANDROID;
 import static org.sagebionetworks.bridge.models.OperatingSystem.IOS;
 
 import java.util.List;
+import java.util.Map;
 
 import javax.annotation.Resource;
 
@@ -114,8 +115,10 @@ public class DynamoSubpopulationDao implements SubpopulationDao {
                 .filter(subpop -> includeDeleted || !subpop.isDeleted())
                 .collect(toImmutableList());
         
+        List<String> criteriaKeys = subpopulations.stream().map(this::getKey).collect(toImmutableList());
+        Map<String, Criteria> criteriaMap = criteriaDao.getCriteria(criteriaKeys);
         for (Subpopulation subpop : subpopulations) {
-            loadCriteria(subpop);
+            setCriteria(subpop, criteriaMap.get(getKey(subpop)));
         }
         return subpopulations;
     }
@@ -190,7 +193,10 @@ public class DynamoSubpopulationDao implements SubpopulationDao {
     }
 
     private void loadCriteria(Subpopulation subpop) {
-        Criteria criteria = criteriaDao.getCriteria(getKey(subpop));
+        setCriteria(subpop, criteriaDao.getCriteria(getKey(subpop)));
+    }
+    
+    private void setCriteria(Subpopulation subpop, Criteria criteria) {
         // Not sure this is even possible at this point. But if the original save did not completely succeed, 
         // this will prevent errors and the user will be able to redo criteria (if any).
         if (criteria == null) {
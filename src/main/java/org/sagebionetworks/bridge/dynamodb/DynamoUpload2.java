@@ -73,7 +73,8 @@ public class DynamoUpload2 implements Upload {
         return status == UploadStatus.REQUESTED;
     }
 
-    /** Upload content length in bytes. */
+    /** {@inheritDoc} */
+    @Override
     public long getContentLength() {
         return contentLength;
     }
@@ -9,10 +9,12 @@ import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 import com.amazonaws.services.dynamodbv2.model.ComparisonOperator;
 import com.amazonaws.services.dynamodbv2.model.Condition;
 import org.joda.time.DateTime;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import org.sagebionetworks.bridge.BridgeConstants;
 import org.sagebionetworks.bridge.dao.UploadDedupeDao;
+import org.sagebionetworks.bridge.redis.RedisUploadDedupeFilter;
 
 /** DDB implementation of UploadDedupeDao. */
 @Component
@@ -20,6 +22,7 @@ public class DynamoUploadDedupeDao implements UploadDedupeDao {
     static final int NUM_DAYS_BEFORE = 7;
 
     private DynamoDBMapper mapper;
+    private RedisUploadDedupeFilter dedupeFilter = new RedisUploadDedupeFilter();
 
     /** UploadDedupe DDB mapper. */
     @Resource(name = "uploadDedupeDdbMapper")
@@ -27,18 +30,31 @@ public class DynamoUploadDedupeDao implements UploadDedupeDao {
         this.mapper = mapper;
     }
 
+    /** Filter of recent uploads, so that we only query DDB for uploads that might be dupes. */
+    @Autowired
+    public final void setDedupeFilter(RedisUploadDedupeFilter dedupeFilter) {
+        this.dedupeFilter = dedupeFilter;
+    }
+
     /** {@inheritDoc} */
     @Override
     public String getDuplicate(String healthCode, String uploadMd5, DateTime uploadRequestedOn) {
+        // MD5s can collide. So as an extra check for duplicate values, we only look at uploads requested within a
+        // certain time. Since apps are known to upload a file, then upload the same file the next day, we'll give it
+        // a 7-day buffer period for finding dupes.
+        DateTime dupeWindowStartTime = uploadRequestedOn.minusDays(NUM_DAYS_BEFORE);
+        return dedupeFilter.getDuplicate(healthCode, uploadMd5, dupeWindowStartTime, uploadRequestedOn,
+                () -> queryDuplicate(healthCode, uploadMd5, dupeWindowStartTime, uploadRequestedOn));
+    }
+
+    // Queries DDB for the first upload with the given health code and MD5 requested within the window.
+    private String queryDuplicate(String healthCode, String uploadMd5, DateTime dupeWindowStartTime,
+            DateTime uploadRequestedOn) {
         // Hash key comes from health code and upload MD5
         DynamoUploadDedupe hashKey = new DynamoUploadDedupe();
         hashKey.setHealthCode(healthCode);
         hashKey.setUploadMd5(uploadMd5);
 
-        // MD5s can collide. So as an extra check for duplicate values, we only look at uploads requested within a
-        // certain time. Since apps are known to upload a file, then upload the same file the next day, we'll give it
-        // a 7-day buffer period for finding dupes.
-        DateTime dupeWindowStartTime = uploadRequestedOn.minusDays(NUM_DAYS_BEFORE);
         Condition requestedOnCondition = new Condition().withComparisonOperator(ComparisonOperator.BETWEEN)
                 .withAttributeValueList(new AttributeValue().withN(String.valueOf(dupeWindowStartTime.getMillis())),
                         new AttributeValue().withN(String.valueOf(uploadRequestedOn.getMillis())));
@@ -66,5 +82,6 @@ public class DynamoUploadDedupeDao implements UploadDedupeDao {
         dedupe.setUploadRequestedDate(uploadRequestedOn.withZone(BridgeConstants.LOCAL_TIME_ZONE).toLocalDate());
         dedupe.setUploadRequestedOn(uploadRequestedOn.getMillis());
         mapper.save(dedupe);
+        dedupeFilter.add(healthCode, uploadMd5, uploadRequestedOn);
     }
 }
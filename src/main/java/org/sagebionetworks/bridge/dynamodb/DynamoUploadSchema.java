@@ -328,11 +328,13 @@ public class DynamoUploadSchema implements UploadSchema {
      * </p>
      */
     @DynamoDBVersionAttribute
+    @Override
     public Long getVersion() {
         return version;
     }
 
     /** @see #getVersion */
+    @Override
     public void setVersion(Long version) {
         this.version = version;
     }
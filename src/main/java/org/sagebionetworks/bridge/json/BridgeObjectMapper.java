@@ -4,6 +4,7 @@ import java.io.IOException;
 import java.lang.reflect.Method;
 
 import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerationException;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.BeanDescription;
@@ -56,7 +57,15 @@ public class BridgeObjectMapper extends ObjectMapper {
     }
 
     public BridgeObjectMapper() {
-        super();
+        this(null);
+    }
+    
+    /**
+     * Creates a mapper with the same configuration that reads and writes another format, such as Smile. Null uses the
+     * default JSON factory.
+     */
+    public BridgeObjectMapper(JsonFactory factory) {
+        super(factory);
         this.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
         // This is a default, but I wanted to note explicitly
         this.configure(DeserializationFeature.FAIL_ON_NULL_FOR_PRIMITIVES, false);
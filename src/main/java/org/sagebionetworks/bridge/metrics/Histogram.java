@@ -0,0 +1,50 @@
+package org.sagebionetworks.bridge.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of non-negative long values (generally latencies in milliseconds), safe to record from many threads
+ * without locking. Values are counted in exponential buckets: bucket 0 holds 0, and bucket i holds values from
+ * 2^(i-1) to 2^i - 1. Percentiles are therefore approximate, reported as the upper bound of their bucket, but never
+ * more than the max recorded value.
+ */
+public class Histogram {
+    // Bucket 63 holds everything from 2^62 up, so every long fits.
+    static final int BUCKET_COUNT = 64;
+
+    private final AtomicLongArray bucketCounts = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /** Records a value. Negative values are recorded as 0. */
+    public void record(long value) {
+        long nonNegative = Math.max(0, value);
+        bucketCounts.incrementAndGet(bucketFor(nonNegative));
+        count.increment();
+        sum.add(nonNegative);
+        max.accumulateAndGet(nonNegative, Math::max);
+    }
+
+    /**
+     * Returns a snapshot of the values recorded so far. Values recorded while the snapshot is taken may or may not be
+     * included.
+     */
+    public HistogramSnapshot snapshot() {
+        long[] counts = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = bucketCounts.get(i);
+        }
+        return new HistogramSnapshot(counts, count.sum(), sum.sum(), max.get());
+    }
+
+    static int bucketFor(long value) {
+        return 64 - Long.numberOfLeadingZeros(value);
+    }
+
+    static long upperBoundOf(int bucket) {
+        return bucket >= BUCKET_COUNT - 1 ? Long.MAX_VALUE : (1L << bucket) - 1;
+    }
+}
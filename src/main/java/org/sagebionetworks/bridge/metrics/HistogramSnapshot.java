@@ -0,0 +1,65 @@
+package org.sagebionetworks.bridge.metrics;
+
+/** An immutable view of a {@link Histogram} at a point in time. */
+public final class HistogramSnapshot {
+    private final long[] bucketCounts;
+    private final long count;
+    private final long sum;
+    private final long max;
+
+    HistogramSnapshot(long[] bucketCounts, long count, long sum, long max) {
+        this.bucketCounts = bucketCounts;
+        this.count = count;
+        this.sum = sum;
+        this.max = max;
+    }
+
+    /** Number of values recorded. */
+    public long getCount() {
+        return count;
+    }
+
+    /** Sum of all values recorded. */
+    public long getSum() {
+        return sum;
+    }
+
+    /** Largest value recorded, or 0 if there are none. */
+    public long getMax() {
+        return max;
+    }
+
+    /** Mean of the values recorded, or 0 if there are none. */
+    public double getMean() {
+        return count == 0 ? 0.0 : (double) sum / count;
+    }
+
+    /**
+     * Approximate value at the given percentile (0 to 100). This is the upper bound of the bucket the percentile
+     * falls in, capped at the max. Returns 0 if there are no values.
+     */
+    public long getPercentile(double percentile) {
+        long bucketTotal = 0;
+        for (long oneCount : bucketCounts) {
+            bucketTotal += oneCount;
+        }
+        if (bucketTotal == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * bucketTotal));
+        long seen = 0;
+        for (int i = 0; i < bucketCounts.length; i++) {
+            seen += bucketCounts[i];
+            if (seen >= rank) {
+                return Math.min(Histogram.upperBoundOf(i), max);
+            }
+        }
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d mean=%.1f p50=%d p95=%d p99=%d max=%d", count, getMean(), getPercentile(50),
+                getPercentile(95), getPercentile(99), max);
+    }
+}
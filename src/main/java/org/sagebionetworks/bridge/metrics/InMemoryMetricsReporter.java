@@ -0,0 +1,27 @@
+package org.sagebionetworks.bridge.metrics;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.google.common.collect.ImmutableList;
+
+/** Keeps every report in memory, so tests and benchmarks can inspect them. Not a Spring bean. */
+public class InMemoryMetricsReporter implements MetricsReporter {
+    private final List<MetricsSnapshot> snapshots = new CopyOnWriteArrayList<>();
+
+    /** {@inheritDoc} */
+    @Override
+    public void report(MetricsSnapshot snapshot) {
+        snapshots.add(snapshot);
+    }
+
+    /** All reports so far, oldest first. */
+    public List<MetricsSnapshot> getSnapshots() {
+        return ImmutableList.copyOf(snapshots);
+    }
+
+    /** The most recent report, or null if there hasn't been one. */
+    public MetricsSnapshot getLastSnapshot() {
+        return snapshots.isEmpty() ? null : snapshots.get(snapshots.size() - 1);
+    }
+}
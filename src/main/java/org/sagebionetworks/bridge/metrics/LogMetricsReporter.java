@@ -0,0 +1,24 @@
+package org.sagebionetworks.bridge.metrics;
+
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+/** Writes metrics to the logs, one line per metric. */
+@Component
+public class LogMetricsReporter implements MetricsReporter {
+    private static final Logger LOG = LoggerFactory.getLogger(LogMetricsReporter.class);
+
+    /** {@inheritDoc} */
+    @Override
+    public void report(MetricsSnapshot snapshot) {
+        for (Map.Entry<String, Long> oneCounter : snapshot.getCounters().entrySet()) {
+            LOG.info("Metric " + oneCounter.getKey() + " count=" + oneCounter.getValue());
+        }
+        for (Map.Entry<String, HistogramSnapshot> oneHistogram : snapshot.getHistograms().entrySet()) {
+            LOG.info("Metric " + oneHistogram.getKey() + " " + oneHistogram.getValue());
+        }
+    }
+}
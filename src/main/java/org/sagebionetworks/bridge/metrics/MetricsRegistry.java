@@ -0,0 +1,143 @@
+package org.sagebionetworks.bridge.metrics;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import org.sagebionetworks.bridge.config.BridgeConfig;
+
+/**
+ * <p>
+ * Server-wide named counters and histograms. Metrics are created the first time they're used. Recording a value
+ * never takes a lock once the metric exists, so this is safe to call from hot paths on many threads.
+ * </p>
+ * <p>
+ * Values are cumulative since the server started. Every configured number of seconds, the registry sends a snapshot
+ * of all metrics to each {@link MetricsReporter}. If the interval is zero, nothing is reported automatically, and
+ * callers can call {@link #report} themselves.
+ * </p>
+ */
+@Component
+public class MetricsRegistry {
+    private static final Logger LOG = LoggerFactory.getLogger(MetricsRegistry.class);
+
+    static final String CONFIG_KEY_REPORT_INTERVAL_SECONDS = "metrics.report.interval.seconds";
+
+    private final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private List<MetricsReporter> reporters = ImmutableList.of();
+    private int reportIntervalSeconds;
+    private ScheduledExecutorService reportExecutor;
+
+    /** Config, for the report interval. */
+    @Autowired
+    public final void setBridgeConfig(BridgeConfig config) {
+        configure(config.getPropertyAsInt(CONFIG_KEY_REPORT_INTERVAL_SECONDS));
+    }
+
+    /** Sets the report interval. Separate from the config setter so that tests can change this value. */
+    final void configure(int reportIntervalSeconds) {
+        this.reportIntervalSeconds = reportIntervalSeconds;
+    }
+
+    /** Reporters that metrics are sent to. This is configured by Spring. */
+    @Autowired(required = false)
+    public final void setReporters(List<MetricsReporter> reporters) {
+        this.reporters = ImmutableList.copyOf(reporters);
+    }
+
+    /** Starts reporting metrics periodically, if the report interval is configured. */
+    @PostConstruct
+    public void start() {
+        if (reportIntervalSeconds > 0) {
+            reportExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat("metrics-reporter-%d").setDaemon(true).build());
+            reportExecutor.scheduleAtFixedRate(this::report, reportIntervalSeconds, reportIntervalSeconds,
+                    TimeUnit.SECONDS);
+        }
+    }
+
+    /** Stops periodic reporting, and sends one last report so that the final values aren't lost. */
+    @PreDestroy
+    public void stop() {
+        if (reportExecutor != null) {
+            reportExecutor.shutdown();
+            report();
+        }
+    }
+
+    /** Adds one to the named counter. */
+    public void increment(String name) {
+        increment(name, 1L);
+    }
+
+    /** Adds the given amount to the named counter. */
+    public void increment(String name, long delta) {
+        LongAdder counter = counters.get(name);
+        if (counter == null) {
+            counter = counters.computeIfAbsent(checkNotNull(name), key -> new LongAdder());
+        }
+        counter.add(delta);
+    }
+
+    /** Records a value in the named histogram. */
+    public void record(String name, long value) {
+        Histogram histogram = histograms.get(name);
+        if (histogram == null) {
+            histogram = histograms.computeIfAbsent(checkNotNull(name), key -> new Histogram());
+        }
+        histogram.record(value);
+    }
+
+    /** Current value of the named counter, or 0 if it doesn't exist. */
+    public long getCount(String name) {
+        LongAdder counter = counters.get(name);
+        return counter != null ? counter.sum() : 0L;
+    }
+
+    /** Current snapshot of the named histogram, or null if it doesn't exist. */
+    public HistogramSnapshot getHistogram(String name) {
+        Histogram histogram = histograms.get(name);
+        return histogram != null ? histogram.snapshot() : null;
+    }
+
+    /** Current values of all metrics. */
+    public MetricsSnapshot snapshot() {
+        Map<String, Long> counterValues = new HashMap<>();
+        counters.forEach((name, counter) -> counterValues.put(name, counter.sum()));
+        Map<String, HistogramSnapshot> histogramValues = new HashMap<>();
+        histograms.forEach((name, histogram) -> histogramValues.put(name, histogram.snapshot()));
+        return new MetricsSnapshot(counterValues, histogramValues);
+    }
+
+    /** Sends the current values of all metrics to each reporter. A failing reporter doesn't stop the others. */
+    public void report() {
+        MetricsSnapshot snapshot = snapshot();
+        for (MetricsReporter oneReporter : reporters) {
+            try {
+                oneReporter.report(snapshot);
+            } catch (RuntimeException ex) {
+                LOG.error("Error reporting metrics to " + oneReporter.getClass().getName() + ": " + ex.getMessage(),
+                        ex);
+            }
+        }
+    }
+}
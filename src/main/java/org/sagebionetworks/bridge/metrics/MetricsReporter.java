@@ -0,0 +1,7 @@
+package org.sagebionetworks.bridge.metrics;
+
+/** Sends metrics somewhere, for example the logs or a monitoring service. Called periodically by the registry. */
+public interface MetricsReporter {
+    /** Reports the current values of all metrics. Values are cumulative since the server started. */
+    void report(MetricsSnapshot snapshot);
+}
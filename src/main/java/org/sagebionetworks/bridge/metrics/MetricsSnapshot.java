@@ -0,0 +1,35 @@
+package org.sagebionetworks.bridge.metrics;
+
+import java.util.Map;
+
+import com.google.common.collect.ImmutableSortedMap;
+
+/** Values of all counters and histograms in a {@link MetricsRegistry} at a point in time, sorted by name. */
+public final class MetricsSnapshot {
+    private final Map<String, Long> counters;
+    private final Map<String, HistogramSnapshot> histograms;
+
+    MetricsSnapshot(Map<String, Long> counters, Map<String, HistogramSnapshot> histograms) {
+        this.counters = ImmutableSortedMap.copyOf(counters);
+        this.histograms = ImmutableSortedMap.copyOf(histograms);
+    }
+
+    public Map<String, Long> getCounters() {
+        return counters;
+    }
+
+    public Map<String, HistogramSnapshot> getHistograms() {
+        return histograms;
+    }
+
+    /** Value of the named counter, or 0 if it doesn't exist. */
+    public long getCount(String name) {
+        Long count = counters.get(name);
+        return count != null ? count : 0L;
+    }
+
+    /** The named histogram, or null if it doesn't exist. */
+    public HistogramSnapshot getHistogram(String name) {
+        return histograms.get(name);
+    }
+}
@@ -21,6 +21,7 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
+import com.fasterxml.jackson.databind.ser.FilterProvider;
 import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -33,10 +34,12 @@ import com.google.common.collect.Sets;
 @JsonFilter("filter")
 public final class StudyParticipant implements BridgeEntity {
 
+    /** Filter for the cache, to include the encryptedHealthCode but not healthCode. */
+    public static final FilterProvider CACHE_FILTER = new SimpleFilterProvider().addFilter("filter", 
+            SimpleBeanPropertyFilter.serializeAllExcept("healthCode"));
+
     /** Serialize study participant to include the encryptedHealthCode but not healthCode. */
-    public static final ObjectWriter CACHE_WRITER = new BridgeObjectMapper().writer(
-            new SimpleFilterProvider().addFilter("filter", 
-            SimpleBeanPropertyFilter.serializeAllExcept("healthCode")));
+    public static final ObjectWriter CACHE_WRITER = new BridgeObjectMapper().writer(CACHE_FILTER);
 
     /** Serialize the study participant including healthCode and excluding encryptedHealthCode. */
     public static final ObjectWriter API_WITH_HEALTH_CODE_WRITER = new BridgeObjectMapper().writer(
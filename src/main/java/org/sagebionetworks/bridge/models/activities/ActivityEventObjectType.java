@@ -1,6 +1,9 @@
 package org.sagebionetworks.bridge.models.activities;
 
+import static org.sagebionetworks.bridge.util.BridgeCollectors.toImmutableSet;
+
 import java.util.EnumSet;
+import java.util.Set;
 
 public enum ActivityEventObjectType {
     /**
@@ -44,4 +47,8 @@ public enum ActivityEventObjectType {
     CUSTOM;
     
     public static final EnumSet<ActivityEventObjectType> UNARY_EVENTS = EnumSet.of(ENROLLMENT, ACTIVITIES_RETRIEVED);
+    
+    /** Event IDs of the unary events. These events can only be recorded once. */
+    public static final Set<String> UNARY_EVENT_IDS = UNARY_EVENTS.stream()
+            .map(type -> type.name().toLowerCase()).collect(toImmutableSet());
 }
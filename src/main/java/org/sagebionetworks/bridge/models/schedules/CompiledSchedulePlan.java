@@ -0,0 +1,81 @@
+package org.sagebionetworks.bridge.models.schedules;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * <p>
+ * A schedule plan compiled for scheduling. Each schedule the plan's strategy can return gets its scheduler once (for
+ * cron schedules, this includes parsing the cron expression), instead of for every plan on every request for
+ * activities.
+ * </p>
+ * <p>
+ * Compiled plans are immutable and cached by study, plan GUID, and version. Updating a plan changes its version, so an
+ * updated plan gets a new compiled plan, and old ones age out of the cache. Plans without a version (ones that haven't
+ * been saved) are compiled each time. The schedulers hold the schedules of the plan they were compiled from, so those
+ * schedules must not be changed once the plan is compiled.
+ * </p>
+ */
+public final class CompiledSchedulePlan {
+    private static final int CACHE_MAX_SIZE = 1000;
+
+    private static final Cache<String, CompiledSchedulePlan> PLAN_CACHE = CacheBuilder.newBuilder()
+            .maximumSize(CACHE_MAX_SIZE).build();
+
+    private final List<ActivityScheduler> schedulers;
+
+    private CompiledSchedulePlan(List<Schedule> schedules) {
+        ImmutableList.Builder<ActivityScheduler> builder = ImmutableList.builder();
+        for (Schedule schedule : schedules) {
+            builder.add(schedule.getScheduler());
+        }
+        this.schedulers = builder.build();
+    }
+
+    /** Returns the compiled plan for the given schedule plan, compiling it if it isn't already cached. */
+    public static CompiledSchedulePlan forPlan(SchedulePlan plan) {
+        Long version = plan.getVersion();
+        if (version == null) {
+            return compile(plan);
+        }
+
+        String cacheKey = plan.getStudyKey() + ":" + plan.getGuid() + ":" + version;
+        try {
+            return PLAN_CACHE.get(cacheKey, () -> compile(plan));
+        } catch (ExecutionException ex) {
+            // compile() doesn't throw checked exceptions.
+            throw new IllegalStateException(ex.getCause());
+        }
+    }
+
+    /** Compiles the given schedule plan into a new compiled plan, without caching it. */
+    public static CompiledSchedulePlan compile(SchedulePlan plan) {
+        ScheduleStrategy strategy = plan.getStrategy();
+        return new CompiledSchedulePlan(strategy != null ? strategy.getAllPossibleSchedules() : ImmutableList.of());
+    }
+
+    /**
+     * Returns the compiled scheduler for a schedule returned by the plan's strategy. Strategies return the schedules of
+     * the plan instance they belong to, while the compiled schedulers may come from an earlier copy of the same plan
+     * version, so the schedule is found by its position in the plan. A schedule that isn't in the plan gets a new
+     * scheduler.
+     */
+    public ActivityScheduler getScheduler(SchedulePlan plan, Schedule schedule) {
+        ScheduleStrategy strategy = plan.getStrategy();
+        if (strategy != null) {
+            List<Schedule> schedules = strategy.getAllPossibleSchedules();
+            if (schedules.size() == schedulers.size()) {
+                for (int i = 0; i < schedules.size(); i++) {
+                    if (schedules.get(i) == schedule) {
+                        return schedulers.get(i);
+                    }
+                }
+            }
+        }
+        return schedule.getScheduler();
+    }
+}
@@ -1,12 +1,12 @@
 package org.sagebionetworks.bridge.models.schedules;
 
+import java.text.ParseException;
 import java.util.Date;
 import java.util.List;
 
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
-import org.quartz.CronScheduleBuilder;
-import org.quartz.spi.MutableTrigger;
+import org.quartz.CronExpression;
 
 import com.google.common.collect.Lists;
 
@@ -14,8 +14,13 @@ import org.sagebionetworks.bridge.models.RangeTuple;
 
 class CronActivityScheduler extends ActivityScheduler {
 
+    // Parsed once, when the scheduler is created. getTimeAfter() doesn't change the expression, so a scheduler in a 
+    // compiled schedule plan can be used by many requests at once.
+    private final CronExpression cronExpression;
+
     CronActivityScheduler(Schedule schedule) {
         super(schedule);
+        this.cronExpression = parseCronExpression(schedule.getCronTrigger());
     }
     
     @Override
@@ -25,14 +30,13 @@ class CronActivityScheduler extends ActivityScheduler {
 
         for (RangeTuple<DateTime> oneScheduleWindow : scheduleWindowList) {
             DateTime scheduledTime = oneScheduleWindow.getStart();
-            MutableTrigger trigger = parseTrigger(scheduledTime);
             
             while (shouldContinueScheduling(context, scheduledTime, oneScheduleWindow, scheduledActivities)) {
                 // We use the scheduler to generate times in UTC (cron doesn't specify time zones
                 // and is usually in UTC), but when we add them, we add using localDate and 
                 // localTime, and then shift that to the user's time zone. So '0 0 10 1/1 * ? *' 
                 // is at 10am in the user's time zone. 
-                Date next = trigger.getFireTimeAfter(scheduledTime.toDate());
+                Date next = cronExpression.getTimeAfter(scheduledTime.toDate());
                 scheduledTime = new DateTime(next, DateTimeZone.UTC);
                 
                 if (shouldContinueScheduling(context, scheduledTime, oneScheduleWindow, scheduledActivities)) {
@@ -43,12 +47,17 @@ class CronActivityScheduler extends ActivityScheduler {
         return trimScheduledActivities(scheduledActivities);
     }
     
-    private MutableTrigger parseTrigger(DateTime scheduledTime) {
-        MutableTrigger mutable = CronScheduleBuilder
-            .cronSchedule(schedule.getCronTrigger())
-            .inTimeZone(DateTimeZone.UTC.toTimeZone()).build();
-        mutable.setStartTime(scheduledTime.toDate());
-        return mutable;
+    // Scheduling never asks for a fire time before the start of the schedule window, so the expression gives the 
+    // same times as a cron trigger that starts at the window start.
+    private static CronExpression parseCronExpression(String cronTrigger) {
+        try {
+            CronExpression expression = new CronExpression(cronTrigger);
+            expression.setTimeZone(DateTimeZone.UTC.toTimeZone());
+            return expression;
+        } catch (ParseException e) {
+            // Same error as the Quartz CronScheduleBuilder that was used before. Schedules are validated on save.
+            throw new RuntimeException("CronExpression '" + cronTrigger + "' is invalid.", e);
+        }
     }
 
 }
@@ -14,10 +14,9 @@ public class PersistentActivityScheduler extends ActivityScheduler {
     
     @Override
     public List<ScheduledActivity> getScheduledActivities(SchedulePlan plan, ScheduleContext context) {
-        // similar to a safety check in ActivityScheduler.getScheduleWindowsBasedOnEvents
-        if (schedule.getEventId() == null) {
-            schedule.setEventId("enrollment");
-        }
+        // similar to a safety check in ActivityScheduler.getScheduleWindowsBasedOnEvents. The schedule isn't 
+        // changed, because schedulers in a compiled schedule plan are shared between requests.
+        String eventId = (schedule.getEventId() == null) ? "enrollment" : schedule.getEventId();
         List<ScheduledActivity> scheduledActivities = Lists.newArrayList();
         for (Activity activity : schedule.getActivities()) {
 
@@ -27,7 +26,7 @@ public class PersistentActivityScheduler extends ActivityScheduler {
             // won't break anything if a user does include it in the eventId.
             String finishedId = "activity:"+activity.getGuid()+":finished";
             List<DateTime> scheduledTimeList = getEventDateTimes(context,
-                    finishedId+"," + schedule.getEventId(), false);
+                    finishedId+"," + eventId, false);
 
             if (!scheduledTimeList.isEmpty()) {
                 DateTime scheduledTime = scheduledTimeList.get(0);
@@ -1,6 +1,7 @@
 package org.sagebionetworks.bridge.models.schedules;
 
 import java.util.Comparator;
+import java.util.List;
 
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
@@ -156,4 +157,11 @@ public interface ScheduledActivity extends BridgeEntity {
     
     String getReferentGuid();
     
+    /**
+     * The generated content of this scheduled activity. If a persisted activity has the same fingerprint as a newly 
+     * scheduled one, saving the new one would not change anything.
+     */
+    @DynamoDBIgnore
+    List<Object> getContentFingerprint();
+    
 }
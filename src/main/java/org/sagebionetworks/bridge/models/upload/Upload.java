@@ -19,6 +19,9 @@ public interface Upload {
      */
     boolean canBeValidated();
 
+    /** Length of the uploaded (encrypted) file in bytes, as declared when the upload was requested. */
+    long getContentLength();
+
     /** The original ID that this upload is a duplicate of, or null if this upload is not a duplicate. */
     String getDuplicateUploadId();
 
@@ -141,4 +141,13 @@ public interface UploadSchema extends BridgeEntity {
     
     /** @see #isDeleted */
     void setDeleted(boolean deleted);
+
+    /**
+     * Version number of this schema revision, used to detect concurrent modification. This changes every time the
+     * revision is updated. Null if the schema hasn't been saved.
+     */
+    Long getVersion();
+
+    /** @see #getVersion */
+    void setVersion(Long version);
 }
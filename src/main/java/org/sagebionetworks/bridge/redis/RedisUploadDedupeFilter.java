@@ -0,0 +1,264 @@
+package org.sagebionetworks.bridge.redis;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import org.sagebionetworks.bridge.cache.CacheKey;
+import org.sagebionetworks.bridge.config.BridgeConfig;
+import org.sagebionetworks.bridge.metrics.MetricsRegistry;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+
+/**
+ * <p>
+ * Bloom filter of recent uploads (by health code and upload MD5), kept in Redis bitmaps so that it's shared by all
+ * nodes. Almost every upload dedupe lookup misses, and the filter lets us skip the DynamoDB query for those.
+ * </p>
+ * <p>
+ * There's one bitmap per UTC day, so old uploads fall out of the filter when their day's bitmap expires. A lookup
+ * checks every day in the dupe window in a single pipelined call. The filter can only say that an upload is definitely
+ * not a dupe once it has recorded every upload in the window. Until then (for example, right after the filter is
+ * enabled), or if Redis can't be reached, lookups fall through to DynamoDB. If an upload can't be added to the filter,
+ * the filter starts over, so that it never misses a dupe.
+ * </p>
+ * <p>
+ * The marker for when the filter started recording expires with the buckets, so it can't outlive them. If any day's
+ * bucket in the window is missing (because Redis evicted it, or because there were no uploads that day), the filter
+ * can't tell what was in it, and the lookup falls through to DynamoDB.
+ * </p>
+ * <p>
+ * False positives are counted in the {@link MetricsRegistry}. Size the filter so that the false positive rate stays
+ * low. With the defaults (2^24 bits and 7 hashes), each day's bitmap is 2 MB and has a 1% false positive rate at about
+ * 1.7 million uploads a day.
+ * </p>
+ */
+@Component
+public class RedisUploadDedupeFilter {
+    private static final Logger LOG = LoggerFactory.getLogger(RedisUploadDedupeFilter.class);
+
+    static final String CONFIG_KEY_ENABLED = "upload.dedupe.filter.enabled";
+    static final String CONFIG_KEY_NUM_BITS = "upload.dedupe.filter.bits";
+    static final String CONFIG_KEY_NUM_HASHES = "upload.dedupe.filter.hashes";
+
+    static final String METRIC_NEGATIVE = "upload.dedupe.filter.negative";
+    static final String METRIC_POSITIVE = "upload.dedupe.filter.positive";
+    static final String METRIC_FALSE_POSITIVE = "upload.dedupe.filter.falsePositive";
+    static final String METRIC_NOT_READY = "upload.dedupe.filter.notReady";
+
+    // Each day's bitmap must outlive the dupe window (7 days in DynamoUploadDedupeDao) that starts after that day.
+    // Bitmaps are re-expired on every add, so this is counted from the last upload of the day.
+    static final int BUCKET_EXPIRE_SECONDS = (int) TimeUnit.DAYS.toSeconds(9);
+
+    private static final long MILLIS_PER_DAY = TimeUnit.DAYS.toMillis(1);
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    private boolean enabled;
+    private long numBits;
+    private int numHashes;
+    private JedisPool jedisPool;
+    private MetricsRegistry metricsRegistry = new MetricsRegistry();
+
+    /** Config, for whether the filter is enabled and its size. */
+    @Autowired
+    public final void setBridgeConfig(BridgeConfig config) {
+        configure(Boolean.valueOf(config.getProperty(CONFIG_KEY_ENABLED)),
+                Long.parseLong(config.getProperty(CONFIG_KEY_NUM_BITS)), config.getPropertyAsInt(CONFIG_KEY_NUM_HASHES));
+    }
+
+    /** Sets the filter config. Separate from the config setter so that tests can change these values. */
+    final void configure(boolean enabled, long numBits, int numHashes) {
+        // Redis bitmaps can't be more than 2^32 bits.
+        checkArgument(numBits > 0 && numBits <= (1L << 32), "numBits must be between 1 and 2^32");
+        checkArgument(numHashes > 0, "numHashes must be positive");
+        this.enabled = enabled;
+        this.numBits = numBits;
+        this.numHashes = numHashes;
+    }
+
+    /** Redis connection pool, where the filter is kept. */
+    @Autowired
+    public final void setJedisPool(JedisPool jedisPool) {
+        this.jedisPool = jedisPool;
+    }
+
+    /** Metrics registry, for counting filter hits, misses, and false positives. */
+    @Autowired
+    public final void setMetricsRegistry(MetricsRegistry metricsRegistry) {
+        this.metricsRegistry = metricsRegistry;
+    }
+
+    /**
+     * Looks for a dupe of the given upload requested within the given window. If the filter says the upload might be
+     * a dupe (or the filter can't say), this calls the given lookup and returns its result. Otherwise, this returns
+     * null without calling the lookup.
+     */
+    public String getDuplicate(String healthCode, String uploadMd5, DateTime windowStart, DateTime windowEnd,
+            Supplier<String> lookup) {
+        checkNotNull(lookup);
+        if (!enabled) {
+            return lookup.get();
+        }
+
+        Boolean mightContain;
+        try {
+            mightContain = mightContain(healthCode, uploadMd5, windowStart, windowEnd);
+        } catch (RuntimeException ex) {
+            LOG.warn("Error reading upload dedupe filter: " + ex.getMessage(), ex);
+            mightContain = null;
+        }
+
+        if (mightContain == null) {
+            metricsRegistry.increment(METRIC_NOT_READY);
+            return lookup.get();
+        } else if (!mightContain) {
+            metricsRegistry.increment(METRIC_NEGATIVE);
+            return null;
+        }
+
+        metricsRegistry.increment(METRIC_POSITIVE);
+        String originalUploadId = lookup.get();
+        if (originalUploadId == null) {
+            metricsRegistry.increment(METRIC_FALSE_POSITIVE);
+        }
+        return originalUploadId;
+    }
+
+    /** Adds the given upload to the filter. Call this after the upload is registered in the dedupe table. */
+    public void add(String healthCode, String uploadMd5, DateTime uploadRequestedOn) {
+        if (!enabled) {
+            return;
+        }
+
+        String bucketKey = CacheKey.uploadDedupeFilter(getEpochDay(uploadRequestedOn)).toString();
+        try (Jedis jedis = jedisPool.getResource()) {
+            Pipeline pipeline = jedis.pipelined();
+            // If this is the first upload the filter sees, it has recorded every upload from now on. The marker is
+            // re-expired with the bucket, so once every bucket has expired, so has the marker.
+            String sinceKey = CacheKey.uploadDedupeFilterSince().toString();
+            pipeline.setnx(sinceKey, Long.toString(DateTime.now().getMillis()));
+            pipeline.expire(sinceKey, BUCKET_EXPIRE_SECONDS);
+            for (long oneOffset : getBitOffsets(healthCode, uploadMd5)) {
+                pipeline.setbit(bucketKey, oneOffset, true);
+            }
+            pipeline.expire(bucketKey, BUCKET_EXPIRE_SECONDS);
+            pipeline.sync();
+        } catch (RuntimeException ex) {
+            LOG.warn("Error adding upload to dedupe filter, restarting filter: " + ex.getMessage(), ex);
+            restart();
+        }
+    }
+
+    /**
+     * Fraction of lookups that the filter passed to DynamoDB which didn't find a dupe, out of all lookups that didn't
+     * find a dupe. Counts are since the server started.
+     */
+    public double getFalsePositiveRate() {
+        long falsePositives = metricsRegistry.getCount(METRIC_FALSE_POSITIVE);
+        long negatives = metricsRegistry.getCount(METRIC_NEGATIVE) + falsePositives;
+        return negatives > 0 ? (double) falsePositives / negatives : 0.0;
+    }
+
+    // Returns true if the upload might be in any bucket in the window, false if it definitely isn't, or null if the
+    // filter hasn't recorded the whole window or a bucket in the window is missing.
+    private Boolean mightContain(String healthCode, String uploadMd5, DateTime windowStart, DateTime windowEnd) {
+        long[] offsets = getBitOffsets(healthCode, uploadMd5);
+        long startDay = getEpochDay(windowStart);
+        long endDay = getEpochDay(windowEnd);
+
+        Response<String> sinceResponse;
+        List<Response<Boolean>> bucketExistsResponseList = new ArrayList<>();
+        List<List<Response<Boolean>>> bucketResponseList = new ArrayList<>();
+        try (Jedis jedis = jedisPool.getResource()) {
+            Pipeline pipeline = jedis.pipelined();
+            sinceResponse = pipeline.get(CacheKey.uploadDedupeFilterSince().toString());
+            for (long day = startDay; day <= endDay; day++) {
+                String bucketKey = CacheKey.uploadDedupeFilter(day).toString();
+                bucketExistsResponseList.add(pipeline.exists(bucketKey));
+                List<Response<Boolean>> bitResponseList = new ArrayList<>();
+                for (long oneOffset : offsets) {
+                    bitResponseList.add(pipeline.getbit(bucketKey, oneOffset));
+                }
+                bucketResponseList.add(bitResponseList);
+            }
+            pipeline.sync();
+        }
+
+        String since = sinceResponse.get();
+        if (since == null || Long.parseLong(since) > windowStart.getMillis()) {
+            return null;
+        }
+        for (Response<Boolean> oneBucketExistsResponse : bucketExistsResponseList) {
+            if (!Boolean.TRUE.equals(oneBucketExistsResponse.get())) {
+                return null;
+            }
+        }
+
+        for (List<Response<Boolean>> bitResponseList : bucketResponseList) {
+            boolean allSet = true;
+            for (Response<Boolean> oneBitResponse : bitResponseList) {
+                if (!Boolean.TRUE.equals(oneBitResponse.get())) {
+                    allSet = false;
+                    break;
+                }
+            }
+            if (allSet) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Forgets when the filter started recording, so lookups go to DynamoDB until the filter has recorded a whole
+    // window again.
+    private void restart() {
+        try (Jedis jedis = jedisPool.getResource()) {
+            jedis.del(CacheKey.uploadDedupeFilterSince().toString());
+        } catch (RuntimeException ex) {
+            LOG.error("Error restarting upload dedupe filter: " + ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Bit offsets for the given upload, using double hashing on a 128-bit murmur3 hash. This is package-scoped to
+     * facilitate unit tests.
+     */
+    long[] getBitOffsets(String healthCode, String uploadMd5) {
+        byte[] hashBytes = HASH_FUNCTION.newHasher().putString(healthCode, StandardCharsets.UTF_8).putChar(':')
+                .putString(uploadMd5, StandardCharsets.UTF_8).hash().asBytes();
+        ByteBuffer hashBuffer = ByteBuffer.wrap(hashBytes).order(ByteOrder.LITTLE_ENDIAN);
+        long hash1 = hashBuffer.getLong();
+        long hash2 = hashBuffer.getLong();
+
+        long[] offsets = new long[numHashes];
+        long combinedHash = hash1;
+        for (int i = 0; i < numHashes; i++) {
+            // Mask off the sign bit, so the offset is never negative.
+            offsets[i] = (combinedHash & Long.MAX_VALUE) % numBits;
+            combinedHash += hash2;
+        }
+        return offsets;
+    }
+
+    private static long getEpochDay(DateTime dateTime) {
+        return Math.floorDiv(dateTime.getMillis(), MILLIS_PER_DAY);
+    }
+}
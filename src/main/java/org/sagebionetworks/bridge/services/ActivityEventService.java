@@ -3,16 +3,24 @@ package org.sagebionetworks.bridge.services;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static org.sagebionetworks.bridge.BridgeUtils.COMMA_JOINER;
 
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.joda.time.Period;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 import org.sagebionetworks.bridge.BridgeUtils;
+import org.sagebionetworks.bridge.cache.CacheKey;
+import org.sagebionetworks.bridge.cache.CacheProvider;
 import org.sagebionetworks.bridge.dao.ActivityEventDao;
 import org.sagebionetworks.bridge.dynamodb.DynamoActivityEvent;
 import org.sagebionetworks.bridge.exceptions.BadRequestException;
@@ -27,13 +35,31 @@ import org.sagebionetworks.bridge.models.surveys.SurveyAnswer;
 
 @Component
 public class ActivityEventService {
+    
+    private static final Logger LOG = LoggerFactory.getLogger(ActivityEventService.class);
+    
+    /**
+     * The activity event map is cached for each user. Publishing an event writes it through to the cached map, so 
+     * this only bounds how long the map can be wrong if an event is recorded but Redis can't be updated.
+     */
+    static final int EVENT_MAP_EXPIRE_IN_SECONDS = 60*60*24;
+    
+    /** How long a fill of the cached map can take before it's abandoned. */
+    static final int EVENT_MAP_FILL_EXPIRE_IN_SECONDS = 60;
+    
+    private static final String ANSWERED_EVENT_POSTFIX = ":"+ActivityEventType.ANSWERED.name().toLowerCase();
 
     private ActivityEventDao activityEventDao;
+    private CacheProvider cacheProvider;
 
     @Autowired
     final void setActivityEventDao(ActivityEventDao activityEventDao) {
         this.activityEventDao = activityEventDao;
     }
+    @Autowired
+    final void setCacheProvider(CacheProvider cacheProvider) {
+        this.cacheProvider = cacheProvider;
+    }
 
     /**
      * Publishes a custom event. Note that this automatically prepends "custom:" to the event key to form the event ID
@@ -55,7 +81,7 @@ public class ActivityEventService {
                 .withObjectId(eventKey)
                 .withTimestamp(timestamp).build();
         
-        if (activityEventDao.publishEvent(event)) {
+        if (publishEvent(event)) {
             // Create automatic events, as defined in the study
             createAutomaticCustomEvents(study, healthCode, event);
         }
@@ -76,7 +102,7 @@ public class ActivityEventService {
             .withTimestamp(enrollment)
             .withObjectType(ActivityEventObjectType.ENROLLMENT).build();
         
-        if (activityEventDao.publishEvent(event)) {
+        if (publishEvent(event)) {
             // Create automatic events, as defined in the study
             createAutomaticCustomEvents(study, healthCode, event);
         }
@@ -91,7 +117,7 @@ public class ActivityEventService {
             .withTimestamp(timestamp)
             .withObjectType(ActivityEventObjectType.ACTIVITIES_RETRIEVED).build();
         
-        if (activityEventDao.publishEvent(event)) {
+        if (publishEvent(event)) {
             // Create automatic events, as defined in the study
             createAutomaticCustomEvents(study, healthCode, event);
         }
@@ -108,7 +134,7 @@ public class ActivityEventService {
             .withObjectId(answer.getQuestionGuid())
             .withEventType(ActivityEventType.ANSWERED)
             .withAnswerValue(COMMA_JOINER.join(answer.getAnswers())).build();
-        activityEventDao.publishEvent(event);
+        publishEvent(event);
     }
     
     public void publishActivityFinishedEvent(ScheduledActivity schActivity) {
@@ -117,17 +143,42 @@ public class ActivityEventService {
         // If there's no colon, this is an existing activity and it cannot fire an 
         // activity event. Quietly ignore this until we have migrated activities.
         if (schActivity.getGuid().contains(":")) {
-            String activityGuid = schActivity.getGuid().split(":")[0];
-            
-            ActivityEvent event = new DynamoActivityEvent.Builder()
-                .withHealthCode(schActivity.getHealthCode())
-                .withObjectType(ActivityEventObjectType.ACTIVITY)
-                .withObjectId(activityGuid)
-                .withEventType(ActivityEventType.FINISHED)
-                .withTimestamp(schActivity.getFinishedOn())
-                .build();
-
-            activityEventDao.publishEvent(event);
+            publishEvent(createActivityFinishedEvent(schActivity));
+        }
+    }
+    
+    /**
+     * Publishes the activity finished events for a batch of finished activities. Activities that are instances of 
+     * the same activity all update the same event, and only the latest finishedOn timestamp would be recorded, so 
+     * only that one is published, rather than reading and writing the event once for every scheduled activity. The 
+     * cached event map is read once for each user in the batch, rather than once for each event.
+     */
+    public void publishActivityFinishedEvents(List<ScheduledActivity> schActivities) {
+        checkNotNull(schActivities);
+        
+        Map<String, ActivityEvent> latestEvents = new LinkedHashMap<>();
+        for (ScheduledActivity schActivity : schActivities) {
+            checkNotNull(schActivity);
+            // See publishActivityFinishedEvent() about activities without a colon
+            if (schActivity.getGuid().contains(":")) {
+                ActivityEvent event = createActivityFinishedEvent(schActivity);
+                String key = event.getHealthCode() + ":" + event.getEventId();
+                ActivityEvent latestEvent = latestEvents.get(key);
+                if (latestEvent == null || event.getTimestamp() > latestEvent.getTimestamp()) {
+                    latestEvents.put(key, event);
+                }
+            }
+        }
+        
+        // Each event in the batch has its own event ID, so publishing one doesn't change what the others check.
+        Map<String, Map<String, Long>> timestampsByHealthCode = new HashMap<>();
+        for (ActivityEvent event : latestEvents.values()) {
+            String healthCode = event.getHealthCode();
+            if (!timestampsByHealthCode.containsKey(healthCode)) {
+                timestampsByHealthCode.put(healthCode, getCachedTimestamps(CacheKey.activityEventMap(healthCode)));
+            }
+            Map<String, Long> timestamps = timestampsByHealthCode.get(healthCode);
+            publishEvent(event, (timestamps == null) ? null : timestamps.get(event.getEventId()));
         }
     }
     
@@ -139,7 +190,7 @@ public class ActivityEventService {
      */
     public void publishActivityEvent(ActivityEvent event) {
         checkNotNull(event);
-        activityEventDao.publishEvent(event);
+        publishEvent(event);
     }
 
     /**
@@ -147,7 +198,36 @@ public class ActivityEventService {
      */
     public Map<String, DateTime> getActivityEventMap(String healthCode) {
         checkNotNull(healthCode);
-        return activityEventDao.getActivityEventMap(healthCode);
+        
+        CacheKey cacheKey = CacheKey.activityEventMap(healthCode);
+        Map<String, Long> timestamps = getCachedTimestamps(cacheKey);
+        if (timestamps != null) {
+            ImmutableMap.Builder<String, DateTime> builder = ImmutableMap.builder();
+            for (Map.Entry<String, Long> entry : timestamps.entrySet()) {
+                builder.put(entry.getKey(), new DateTime(entry.getValue(), DateTimeZone.UTC));
+            }
+            return builder.build();
+        }
+        
+        // The fill starts before DynamoDB is read, so an event published or deleted during the read cancels it, 
+        // rather than the map read before the write being cached after it. DynamoDB is the source of truth, so if 
+        // Redis fails, the map is still returned, it just isn't cached.
+        String fillToken = null;
+        try {
+            fillToken = cacheProvider.beginTimestampMapFill(cacheKey, EVENT_MAP_FILL_EXPIRE_IN_SECONDS);
+        } catch (RuntimeException e) {
+            LOG.error("Error starting fill of cached event map", e);
+        }
+        Map<String, DateTime> eventMap = activityEventDao.getActivityEventMap(healthCode);
+        if (fillToken != null) {
+            try {
+                cacheProvider.completeTimestampMapFill(cacheKey, fillToken, Maps.transformValues(eventMap,
+                        DateTime::getMillis), EVENT_MAP_EXPIRE_IN_SECONDS);
+            } catch (RuntimeException e) {
+                LOG.error("Error completing fill of cached event map", e);
+            }
+        }
+        return eventMap;
     }
 
     public List<ActivityEvent> getActivityEventList(String healthCode) {
@@ -168,11 +248,108 @@ public class ActivityEventService {
         return activityEventList;
     }
 
+    /**
+     * Deletes the user's events. The cached event map is removed before the events are deleted, so that if Redis 
+     * fails, nothing is deleted, and the cached map can't be left ahead of DynamoDB (where it would stop events like 
+     * enrollment from being published again). It's removed again afterwards, in case a read cached the map in between.
+     */
     public void deleteActivityEvents(String healthCode) {
         checkNotNull(healthCode);
+        CacheKey cacheKey = CacheKey.activityEventMap(healthCode);
+        cacheProvider.removeObject(cacheKey);
         activityEventDao.deleteActivityEvents(healthCode);
+        removeCachedEventMap(cacheKey);
     }
 
+    /**
+     * Publishes the event, and writes it through to the user's cached event map. If the cached map shows that the 
+     * event can't be recorded (it can only be recorded once, or it isn't later than the recorded event), DynamoDB is 
+     * not called at all. The cached map can be behind DynamoDB, but never ahead of it, so this never skips an event 
+     * that DynamoDB would record. Returns true if the event is recorded.
+     */
+    private boolean publishEvent(ActivityEvent event) {
+        Long recordedTimestamp = null;
+        if (!isAnswerEvent(event) && event.getTimestamp() != null) {
+            try {
+                recordedTimestamp = cacheProvider.getTimestampMapValue(
+                        CacheKey.activityEventMap(event.getHealthCode()), event.getEventId());
+            } catch (RuntimeException e) {
+                // Without the cached map, DynamoDB decides whether the event is recorded.
+                LOG.error("Error reading activity event " + event.getEventId() + " from the cached event map", e);
+            }
+        }
+        return publishEvent(event, recordedTimestamp);
+    }
+    
+    /**
+     * Publishes the event, checking it against the timestamp the caller has already read from the cached event map 
+     * (null if the map isn't cached, or has no timestamp for the event). Once the event is recorded in DynamoDB, a 
+     * failure to update the cached map doesn't fail the publish. The cached map is removed instead, so it's read 
+     * again from DynamoDB.
+     */
+    private boolean publishEvent(ActivityEvent event, Long recordedTimestamp) {
+        // Answer events are keyed by their answer in the map, so they can't be looked up by event ID.
+        boolean isAnswerEvent = isAnswerEvent(event);
+        if (!isAnswerEvent && event.getTimestamp() != null && recordedTimestamp != null &&
+                (ActivityEventObjectType.UNARY_EVENT_IDS.contains(event.getEventId()) ||
+                recordedTimestamp >= event.getTimestamp())) {
+            return false;
+        }
+        
+        if (!activityEventDao.publishEvent(event)) {
+            return false;
+        }
+        CacheKey cacheKey = CacheKey.activityEventMap(event.getHealthCode());
+        try {
+            if (isAnswerEvent) {
+                // The recorded answer replaces the previous one, which would have a different key in the map.
+                cacheProvider.removeObject(cacheKey);
+            } else {
+                cacheProvider.updateTimestampMap(cacheKey, event.getEventId(), event.getTimestamp());
+            }
+        } catch (RuntimeException e) {
+            LOG.error("Error writing activity event " + event.getEventId() + " through to the cached event map", e);
+            removeCachedEventMap(cacheKey);
+        }
+        return true;
+    }
+    
+    // Reads the cached event map, or returns null if it isn't cached or Redis fails. DynamoDB is the source of truth, 
+    // so a Redis failure only means the events are read from DynamoDB.
+    private Map<String, Long> getCachedTimestamps(CacheKey cacheKey) {
+        try {
+            return cacheProvider.getTimestampMap(cacheKey);
+        } catch (RuntimeException e) {
+            LOG.error("Error reading cached event map", e);
+            return null;
+        }
+    }
+    
+    // Removes the cached event map after DynamoDB has changed. If that fails, the cached map expires on its own.
+    private void removeCachedEventMap(CacheKey cacheKey) {
+        try {
+            cacheProvider.removeObject(cacheKey);
+        } catch (RuntimeException e) {
+            LOG.error("Error removing cached event map", e);
+        }
+    }
+    
+    private static boolean isAnswerEvent(ActivityEvent event) {
+        return event.getEventId().endsWith(ANSWERED_EVENT_POSTFIX);
+    }
+    
+    private ActivityEvent createActivityFinishedEvent(ScheduledActivity schActivity) {
+        String activityGuid = schActivity.getGuid().split(":")[0];
+        
+        return new DynamoActivityEvent.Builder()
+            .withHealthCode(schActivity.getHealthCode())
+            .withObjectType(ActivityEventObjectType.ACTIVITY)
+            .withObjectId(activityGuid)
+            .withEventType(ActivityEventType.FINISHED)
+            .withTimestamp(schActivity.getFinishedOn())
+            .build();
+    }
+    
     private void createAutomaticCustomEvents(Study study, String healthCode, ActivityEvent event) {
         for (Map.Entry<String, String> oneAutomaticEvent : study.getAutomaticCustomEvents().entrySet()) {
             String automaticEventKey = oneAutomaticEvent.getKey(); // new event key
@@ -190,7 +367,7 @@ public class ActivityEventService {
                         .withObjectType(ActivityEventObjectType.CUSTOM)
                         .withObjectId(automaticEventKey)
                         .withTimestamp(automaticEventTime).build();
-                activityEventDao.publishEvent(automaticEvent);
+                publishEvent(automaticEvent);
             }
         }        
     }
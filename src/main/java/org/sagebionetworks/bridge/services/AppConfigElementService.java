@@ -5,6 +5,9 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import java.util.List;
 
 import org.joda.time.DateTime;
+import org.sagebionetworks.bridge.cache.CacheKey;
+import org.sagebionetworks.bridge.cache.CacheProvider;
+import org.sagebionetworks.bridge.cache.RevisionCache;
 import org.sagebionetworks.bridge.dao.AppConfigElementDao;
 import org.sagebionetworks.bridge.exceptions.EntityAlreadyExistsException;
 import org.sagebionetworks.bridge.exceptions.EntityNotFoundException;
@@ -23,11 +26,25 @@ public class AppConfigElementService {
     
     private AppConfigElementDao appConfigElementDao;
     
+    private CacheProvider cacheProvider;
+    
+    private RevisionCache revisionCache;
+    
     @Autowired
     final void setAppConfigElementDao(AppConfigElementDao appConfigElementDao) {
         this.appConfigElementDao = appConfigElementDao;
     }
     
+    @Autowired
+    final void setCacheProvider(CacheProvider cacheProvider) {
+        this.cacheProvider = cacheProvider;
+    }
+    
+    @Autowired
+    final void setRevisionCache(RevisionCache revisionCache) {
+        this.revisionCache = revisionCache;
+    }
+    
     public List<AppConfigElement> getMostRecentElements(StudyIdentifier studyId, boolean includeDeleted) {
         checkNotNull(studyId);
         
@@ -57,7 +74,9 @@ public class AppConfigElementService {
             throw new EntityAlreadyExistsException(AppConfigElement.class,
                     ImmutableMap.of("id", existing.getId(), "revision", existing.getRevision()));
         }
-        return appConfigElementDao.saveElementRevision(element);
+        VersionHolder version = appConfigElementDao.saveElementRevision(element);
+        invalidateAppConfigs(studyId);
+        return version;
     }
 
     public List<AppConfigElement> getElementRevisions(StudyIdentifier studyId, String id, boolean includeDeleted) {
@@ -82,6 +101,20 @@ public class AppConfigElementService {
         checkNotNull(studyId);
         checkNotNull(id);
         
+        AppConfigElement element = revisionCache.get(CacheKey.appConfigElementRevision(studyId, id, revision),
+                AppConfigElement.class, () -> appConfigElementDao.getElementRevision(studyId, id, revision));
+        if (element == null) {
+            throw new EntityNotFoundException(AppConfigElement.class);
+        }
+        // The study ID is not serialized, so a cached copy doesn't have it.
+        if (element.getStudyId() == null) {
+            element.setStudyId(studyId.getIdentifier());
+        }
+        return element;
+    }
+    
+    // Changes are made to the persisted revision, never the cached one, so the version check is reliable.
+    private AppConfigElement getPersistedElementRevision(StudyIdentifier studyId, String id, long revision) {
         AppConfigElement element = appConfigElementDao.getElementRevision(studyId, id, revision);
         if (element == null) {
             throw new EntityNotFoundException(AppConfigElement.class);
@@ -95,7 +128,7 @@ public class AppConfigElementService {
         
         Validate.entityThrowingException(AppConfigElementValidator.INSTANCE, element);
         
-        AppConfigElement existing = getElementRevision(studyId, element.getId(), element.getRevision());
+        AppConfigElement existing = getPersistedElementRevision(studyId, element.getId(), element.getRevision());
         if (element.isDeleted() && existing.isDeleted()) {
             throw new EntityNotFoundException(AppConfigElement.class);
         }
@@ -104,17 +137,22 @@ public class AppConfigElementService {
         element.setModifiedOn(DateTime.now().getMillis());
         // cannot change the creation timestamp
         element.setCreatedOn(existing.getCreatedOn());
-        return appConfigElementDao.saveElementRevision(element);
+        VersionHolder version = appConfigElementDao.saveElementRevision(element);
+        revisionCache.invalidate(CacheKey.appConfigElementRevision(studyId, element.getId(), element.getRevision()));
+        invalidateAppConfigs(studyId);
+        return version;
     }
     
     public void deleteElementRevision(StudyIdentifier studyId, String id, long revision) {
         checkNotNull(studyId);
         checkNotNull(id);
         
-        AppConfigElement existing = getElementRevision(studyId, id, revision);
+        AppConfigElement existing = getPersistedElementRevision(studyId, id, revision);
         existing.setDeleted(true);
         existing.setModifiedOn(DateTime.now().getMillis());
         appConfigElementDao.saveElementRevision(existing);
+        revisionCache.invalidate(CacheKey.appConfigElementRevision(studyId, id, revision));
+        invalidateAppConfigs(studyId);
     }
     
     public void deleteElementAllRevisions(StudyIdentifier studyId, String id) {
@@ -127,7 +165,9 @@ public class AppConfigElementService {
             oneElement.setDeleted(true);
             oneElement.setModifiedOn(modifiedOn);
             appConfigElementDao.saveElementRevision(oneElement);
+            revisionCache.invalidate(CacheKey.appConfigElementRevision(studyId, id, oneElement.getRevision()));
         }
+        invalidateAppConfigs(studyId);
     }
     
     public void deleteElementRevisionPermanently(StudyIdentifier studyId, String id, long revision) {
@@ -135,8 +175,10 @@ public class AppConfigElementService {
         checkNotNull(id);
         
         // Throws exception if the element does not exist.
-        getElementRevision(studyId, id, revision);
+        getPersistedElementRevision(studyId, id, revision);
         appConfigElementDao.deleteElementRevisionPermanently(studyId, id, revision);
+        revisionCache.invalidate(CacheKey.appConfigElementRevision(studyId, id, revision));
+        invalidateAppConfigs(studyId);
     }
     
     public void deleteElementAllRevisionsPermanently(StudyIdentifier studyId, String id) {
@@ -146,6 +188,13 @@ public class AppConfigElementService {
         List<AppConfigElement> elements = appConfigElementDao.getElementRevisions(studyId, id, true);
         for (AppConfigElement oneElement : elements) {
             appConfigElementDao.deleteElementRevisionPermanently(studyId, oneElement.getId(), oneElement.getRevision());
+            revisionCache.invalidate(CacheKey.appConfigElementRevision(studyId, id, oneElement.getRevision()));
         }
+        invalidateAppConfigs(studyId);
+    }
+    
+    // App configs are cached with their element data included, so they must be reloaded when an element changes.
+    private void invalidateAppConfigs(StudyIdentifier studyId) {
+        cacheProvider.removeObject(CacheKey.resolvedAppConfigs(studyId));
     }
 }
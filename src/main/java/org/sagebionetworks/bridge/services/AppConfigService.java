@@ -11,6 +11,8 @@ import java.util.stream.Collectors;
 
 import org.joda.time.DateTime;
 import org.sagebionetworks.bridge.BridgeUtils;
+import org.sagebionetworks.bridge.cache.CacheKey;
+import org.sagebionetworks.bridge.cache.CacheProvider;
 import org.sagebionetworks.bridge.dao.AppConfigDao;
 import org.sagebionetworks.bridge.dynamodb.DynamoAppConfig;
 import org.sagebionetworks.bridge.exceptions.EntityNotFoundException;
@@ -35,6 +37,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 import org.springframework.validation.Validator;
 
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.google.common.collect.ImmutableMap;
 
@@ -42,6 +45,8 @@ import com.google.common.collect.ImmutableMap;
 public class AppConfigService {
     private static final Logger LOG = LoggerFactory.getLogger(AppConfigService.class);
     
+    private static final TypeReference<List<AppConfig>> APP_CONFIG_LIST_REF = new TypeReference<List<AppConfig>>() {};
+    
     private AppConfigDao appConfigDao;
     
     private AppConfigElementService appConfigElementService;
@@ -54,6 +59,8 @@ public class AppConfigService {
     
     private UploadSchemaService schemaService;
     
+    private CacheProvider cacheProvider;
+    
     @Autowired
     final void setAppConfigDao(AppConfigDao appConfigDao) {
         this.appConfigDao = appConfigDao;
@@ -84,6 +91,11 @@ public class AppConfigService {
         this.appConfigElementService = appConfigElementService;
     }
     
+    @Autowired
+    final void setCacheProvider(CacheProvider cacheProvider) {
+        this.cacheProvider = cacheProvider;
+    }
+    
     // In order to mock this value;
     protected long getCurrentTimestamp() {
         return DateUtils.getCurrentMillisFromEpoch(); 
@@ -110,7 +122,7 @@ public class AppConfigService {
     public AppConfig getAppConfigForUser(CriteriaContext context, boolean throwException) {
         checkNotNull(context);
 
-        List<AppConfig> appConfigs = getAppConfigs(context.getStudyIdentifier(), false);
+        List<AppConfig> appConfigs = getResolvedAppConfigs(context.getStudyIdentifier());
 
         List<AppConfig> matches = appConfigs.stream().filter(oneAppConfig -> {
             return CriteriaUtils.matchCriteria(context, oneAppConfig.getCriteria());
@@ -128,22 +140,49 @@ public class AppConfigService {
             // If there is more than one match, return the one created first, but log an error
             LOG.warn("CriteriaContext matches more than one app config: criteriaContext=" + context + ", appConfigs="+matches);
         }
-        AppConfig matched = matches.get(0);
+        return matches.get(0);
+    }
+    
+    /**
+     * All the study's app configs, with survey references and config elements resolved, so that matching a user 
+     * to an app config requires no further look ups. These are cached until an app config, app config element, or 
+     * survey in the study changes.
+     */
+    List<AppConfig> getResolvedAppConfigs(StudyIdentifier studyId) {
+        CacheKey cacheKey = CacheKey.resolvedAppConfigs(studyId);
+        List<AppConfig> appConfigs = cacheProvider.getObject(cacheKey, APP_CONFIG_LIST_REF);
+        if (appConfigs != null) {
+            // The study ID is not serialized, so it's not cached.
+            appConfigs.forEach(appConfig -> appConfig.setStudyId(studyId.getIdentifier()));
+            return appConfigs;
+        }
+        appConfigs = getAppConfigs(studyId, false);
+        for (AppConfig appConfig : appConfigs) {
+            resolveAppConfig(studyId, appConfig);
+        }
+        cacheProvider.setObject(cacheKey, appConfigs);
+        return appConfigs;
+    }
+    
+    // AppConfigElementService and SurveyService also remove this key when elements or surveys change.
+    private void invalidateResolvedAppConfigs(StudyIdentifier studyId) {
+        cacheProvider.removeObject(CacheKey.resolvedAppConfigs(studyId));
+    }
+    
+    private void resolveAppConfig(StudyIdentifier studyId, AppConfig appConfig) {
         // Resolve survey references to pick up survey identifiers
-        matched.setSurveyReferences(matched.getSurveyReferences().stream()
-            .map(surveyReference -> resolveSurvey(context.getStudyIdentifier(), surveyReference))
+        appConfig.setSurveyReferences(appConfig.getSurveyReferences().stream()
+            .map(surveyReference -> resolveSurvey(studyId, surveyReference))
             .collect(Collectors.toList()));
         
         ImmutableMap.Builder<String, JsonNode> builder = new ImmutableMap.Builder<>();
-        for (ConfigReference configRef : matched.getConfigReferences()) {
-            AppConfigElement element = retrieveConfigElement(context.getStudyIdentifier(), configRef, matched.getGuid());
+        for (ConfigReference configRef : appConfig.getConfigReferences()) {
+            AppConfigElement element = retrieveConfigElement(studyId, configRef, appConfig.getGuid());
             if (element != null) {
                 builder.put(configRef.getId(), element.getData());    
             }
         }
-        matched.setConfigElements(builder.build());
-
-        return matched;
+        appConfig.setConfigElements(builder.build());
     }
 
     protected AppConfigElement retrieveConfigElement(StudyIdentifier studyId, ConfigReference configRef, String appConfigGuid) {
@@ -208,6 +247,7 @@ public class AppConfigService {
         
         appConfigDao.createAppConfig(newAppConfig);
         newAppConfig.setVersion(newAppConfig.getVersion());
+        invalidateResolvedAppConfigs(studyId);
         return newAppConfig;
     }
     
@@ -230,7 +270,9 @@ public class AppConfigService {
         appConfig.setCreatedOn(persistedConfig.getCreatedOn());
         appConfig.setModifiedOn(getCurrentTimestamp());
         
-        return appConfigDao.updateAppConfig(appConfig);
+        AppConfig updated = appConfigDao.updateAppConfig(appConfig);
+        invalidateResolvedAppConfigs(studyId);
+        return updated;
     }
     
     public void deleteAppConfig(StudyIdentifier studyId, String guid) {
@@ -238,6 +280,7 @@ public class AppConfigService {
         checkArgument(isNotBlank(guid));
         
         appConfigDao.deleteAppConfig(studyId, guid);
+        invalidateResolvedAppConfigs(studyId);
     }
     
     public void deleteAppConfigPermanently(StudyIdentifier studyId, String guid) {
@@ -245,5 +288,6 @@ public class AppConfigService {
         checkArgument(isNotBlank(guid));
         
         appConfigDao.deleteAppConfigPermanently(studyId, guid);
+        invalidateResolvedAppConfigs(studyId);
     }
 }
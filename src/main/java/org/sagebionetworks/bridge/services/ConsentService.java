@@ -10,6 +10,7 @@ import java.io.IOException;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -326,9 +327,15 @@ public class ConsentService {
         AccountId accountId = AccountId.forId(study.getIdentifier(), participant.getId());
         Account account = accountDao.getAccount(accountId);
         
+        Set<SubpopulationGuid> withdrawnGuids = new HashSet<>();
         for (SubpopulationGuid subpopGuid : account.getAllConsentSignatureHistories().keySet()) {
             if (withdrawSignatures(account, subpopGuid, withdrewOn)) {
-                Subpopulation subpop = subpopService.getSubpopulation(study.getStudyIdentifier(), subpopGuid);
+                withdrawnGuids.add(subpopGuid);
+            }
+        }
+        if (!withdrawnGuids.isEmpty()) {
+            for (Subpopulation subpop : subpopService
+                    .getSubpopulationsByGuid(study.getStudyIdentifier(), withdrawnGuids).values()) {
                 account.getDataGroups().removeAll(subpop.getDataGroupsAssignedWhileConsented());
             }
         }
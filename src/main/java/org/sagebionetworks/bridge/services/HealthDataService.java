@@ -1,6 +1,7 @@
 package org.sagebionetworks.bridge.services;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -374,6 +375,22 @@ public class HealthDataService {
         return healthDataDao.getRecordById(id);
     }
 
+    /**
+     * Gets the health data records for the given record IDs, in as few reads as possible. Blank IDs are ignored.
+     *
+     * @param ids
+     *         record IDs
+     * @return map of record ID to health data record, records that don't exist aren't in the map
+     */
+    public Map<String, HealthDataRecord> getRecordsById(Collection<String> ids) {
+        if (ids == null) {
+            throw new BadRequestException(String.format(Validate.CANNOT_BE_NULL, "ids"));
+        }
+
+        List<String> nonBlankIdList = ids.stream().filter(StringUtils::isNotBlank).collect(Collectors.toList());
+        return healthDataDao.getRecordsById(nonBlankIdList);
+    }
+
     /**
      * Returns a list of all health data records with the given upload date. THis method is generally called by
      * worker apps as part of data export.
@@ -16,6 +16,7 @@ import java.util.Optional;
 import java.util.Set;
 import java.util.stream.Collectors;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
@@ -68,6 +69,7 @@ import org.sagebionetworks.bridge.models.studies.SmsTemplate;
 import org.sagebionetworks.bridge.models.studies.Study;
 import org.sagebionetworks.bridge.models.studies.StudyIdentifier;
 import org.sagebionetworks.bridge.models.studies.StudyIdentifierImpl;
+import org.sagebionetworks.bridge.models.subpopulations.ConsentSignature;
 import org.sagebionetworks.bridge.models.subpopulations.Subpopulation;
 import org.sagebionetworks.bridge.models.subpopulations.SubpopulationGuid;
 import org.sagebionetworks.bridge.models.substudies.AccountSubstudy;
@@ -707,8 +709,13 @@ public class ParticipantService {
     public List<UserConsentHistory> getUserConsentHistory(Account account, SubpopulationGuid subpopGuid) {
         final StudyIdentifier studyId = new StudyIdentifierImpl(account.getStudyId());
         
-        return account.getConsentSignatureHistory(subpopGuid).stream().map(signature -> {
-            Subpopulation subpop = subpopService.getSubpopulation(studyId, subpopGuid);
+        List<ConsentSignature> signatures = account.getConsentSignatureHistory(subpopGuid);
+        if (signatures.isEmpty()) {
+            return ImmutableList.of();
+        }
+        // Every signature is for the same subpopulation, so only look it up once.
+        final Subpopulation subpop = subpopService.getSubpopulation(studyId, subpopGuid);
+        return signatures.stream().map(signature -> {
             boolean hasSignedActiveConsent = (signature.getConsentCreatedOn() == subpop.getPublishedConsentCreatedOn());
 
             return new UserConsentHistory.Builder()
@@ -13,8 +13,8 @@ import static org.sagebionetworks.bridge.validators.ScheduleContextValidator.MAX
 
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -35,10 +35,14 @@ import org.springframework.stereotype.Component;
 import org.sagebionetworks.bridge.BridgeConstants;
 import org.sagebionetworks.bridge.dao.ScheduledActivityDao;
 import org.sagebionetworks.bridge.exceptions.BadRequestException;
+import org.sagebionetworks.bridge.exceptions.EntityNotFoundException;
+import org.sagebionetworks.bridge.metrics.MetricsRegistry;
 import org.sagebionetworks.bridge.models.ForwardCursorPagedResourceList;
 import org.sagebionetworks.bridge.models.RangeTuple;
 import org.sagebionetworks.bridge.models.appconfig.AppConfig;
+import org.sagebionetworks.bridge.models.schedules.ActivityScheduler;
 import org.sagebionetworks.bridge.models.schedules.ActivityType;
+import org.sagebionetworks.bridge.models.schedules.CompiledSchedulePlan;
 import org.sagebionetworks.bridge.models.schedules.Schedule;
 import org.sagebionetworks.bridge.models.schedules.ScheduleContext;
 import org.sagebionetworks.bridge.models.schedules.SchedulePlan;
@@ -73,6 +77,9 @@ public class ScheduledActivityService {
 
     private static final ScheduleContextValidator VALIDATOR = new ScheduleContextValidator();
 
+    static final String METRIC_SAVED = "scheduled.activity.merge.saved";
+    static final String METRIC_SAVE_SKIPPED = "scheduled.activity.merge.save.skipped";
+
     private ScheduledActivityDao activityDao;
 
     private ActivityEventService activityEventService;
@@ -87,6 +94,8 @@ public class ScheduledActivityService {
     
     private AppConfigService appConfigService;
     
+    private MetricsRegistry metricsRegistry = new MetricsRegistry();
+    
     @Autowired
     final void setScheduledActivityDao(ScheduledActivityDao activityDao) {
         this.activityDao = activityDao;
@@ -126,6 +135,12 @@ public class ScheduledActivityService {
         this.appConfigService = appConfigService;
     }
 
+    /** Metrics registry, used to count the scheduled activities that are saved, or don't need to be, on merge. */
+    @Autowired
+    final void setMetricsRegistry(MetricsRegistry metricsRegistry) {
+        this.metricsRegistry = metricsRegistry;
+    }
+
     public ForwardCursorPagedResourceList<ScheduledActivity> getActivityHistory(String healthCode,
             String activityGuid, DateTime scheduledOnStart, DateTime scheduledOnEnd, String offsetKey,
             int pageSize) {
@@ -242,6 +257,7 @@ public class ScheduledActivityService {
     protected List<ScheduledActivity> performMerge(List<ScheduledActivity> scheduledActivities,
             Map<String, ScheduledActivity> dbMap) {
         List<ScheduledActivity> saves = Lists.newArrayList();
+        int skippedSaves = 0;
         for (int i=0; i < scheduledActivities.size(); i++) {
             ScheduledActivity activity = scheduledActivities.get(i);
             ScheduledActivity dbActivity = dbMap.remove(activity.getGuid());
@@ -257,9 +273,17 @@ public class ScheduledActivityService {
                 // activity, it always has the same guid.
                 scheduledActivities.set(i, dbActivity);
             } else if (activity.getStatus() != ScheduledActivityStatus.EXPIRED) {
-                saves.add(activity);
+                // A persisted activity the user hasn't interacted with is usually identical to the regenerated one. 
+                // Only save it if the schedule has changed it, rather than rewriting it on every request.
+                if (dbActivity != null && dbActivity.getContentFingerprint().equals(activity.getContentFingerprint())) {
+                    skippedSaves++;
+                } else {
+                    saves.add(activity);
+                }
             }
         }
+        metricsRegistry.increment(METRIC_SAVED, saves.size());
+        metricsRegistry.increment(METRIC_SAVE_SKIPPED, skippedSaves);
         return saves;
     }
     
@@ -270,31 +294,25 @@ public class ScheduledActivityService {
             return activity.getGuid().split(":")[0];
         }).collect(Collectors.toSet());
         
+        String healthCode = context.getCriteriaContext().getHealthCode();
         Map<String,ScheduledActivity> dbMap = Maps.newHashMap();
         // IA-545: If a schedule has an identical activity but a new GUID (say if we change the schedule on the user), the user can 
         // lose existing activities. So during the time window the user is looking at, we will return any activities that exist.
-        for (String activityGuid : activityGuids) {
-            ForwardCursorPagedResourceList<ScheduledActivity> list = activityDao.getActivityHistoryV2(
-                    context.getCriteriaContext().getHealthCode(), activityGuid,
-                    context.getStartsOn(), context.getEndsOn(), null,
-                    API_MAXIMUM_PAGE_SIZE);
-            if (list != null) {
-                for(ScheduledActivity activity : list.getItems()) {
-                    dbMap.put(activity.getGuid(), activity);
-                }
-            }
+        // This is one DAO call for all activity GUIDs, rather than one per GUID.
+        List<ScheduledActivity> windowActivities = activityDao.getActivitiesInRange(healthCode, activityGuids,
+                context.getStartsOn(), context.getEndsOn());
+        for (ScheduledActivity activity : windowActivities) {
+            dbMap.put(activity.getGuid(), activity);
         }
         // IA-587: When a one-time task falls outside the schedule window, it's not returned by the 
-        // query above, so it is recreated, and it loses its finished state. Load all remaining scheduled activities.
-        String healthCode = context.getCriteriaContext().getHealthCode();
-        for (ScheduledActivity activity : scheduledActivities) {
-            if (!dbMap.containsKey(activity.getGuid())) {
-                ScheduledActivity dbActivity = activityDao.getActivity(context.getStartsOn().getZone(), healthCode,
-                        activity.getGuid(), false);
-                if (dbActivity != null) {
-                    dbMap.put(dbActivity.getGuid(), dbActivity);    
-                }
-            }
+        // query above, so it is recreated, and it loses its finished state. Load all remaining scheduled activities,
+        // in one batch.
+        List<ScheduledActivity> remainingActivities = scheduledActivities.stream()
+                .filter(activity -> !dbMap.containsKey(activity.getGuid())).collect(Collectors.toList());
+        List<ScheduledActivity> remainingDbActivities = activityDao.getActivities(context.getStartsOn().getZone(),
+                remainingActivities);
+        for (ScheduledActivity dbActivity : remainingDbActivities) {
+            dbMap.put(dbActivity.getGuid(), dbActivity);
         }
         return dbMap;
     }
@@ -304,13 +322,9 @@ public class ScheduledActivityService {
         checkNotNull(scheduledActivities);
         
         // Remove duplicates sent by the client because these lead to an error when persisting the records
-        // (BRIDGE-2350). Preserve the order the activities were submitted in the list, mostly because tests 
-        // expect that order to be preserved.
-        Set<String> activitiesAlreadySeen = new HashSet<>();
-        List<ScheduledActivity> activitiesToSave = new LinkedList<>();
-        
-        // According to the client team, the last activity is most likely to be correct, so iterate from 
-        // the last one
+        // (BRIDGE-2350). According to the client team, the last activity is most likely to be correct, so 
+        // iterate from the last one, and keep the first copy of each activity that we see.
+        Map<String, ScheduledActivity> activitiesByGuid = new LinkedHashMap<>();
         for (int i=scheduledActivities.size()-1; i >= 0; i--) {
             ScheduledActivity schActivity = scheduledActivities.get(i);
             if (schActivity == null) {
@@ -323,19 +337,33 @@ public class ScheduledActivityService {
                 throw new BadRequestException("Client data too large ("+CLIENT_DATA_MAX_BYTES+" bytes limit) for task "
                         + schActivity.getGuid());
             }
-
-            // This isn't returned to the client, so the exact time zone used does not matter.
-            ScheduledActivity dbActivity = activityDao.getActivity(DateTimeZone.UTC, healthCode, schActivity.getGuid(), true);
-            String key = dbActivity.getHealthCode()+":"+dbActivity.getGuid();
-            if (activitiesAlreadySeen.contains(key)) {
-                ScheduledActivity previouslyAdded = activitiesToSave.stream().filter((sch) -> {
-                    return sch.getHealthCode().equals(dbActivity.getHealthCode()) && 
-                            sch.getGuid().equals(dbActivity.getGuid()); 
-                }).findFirst().get();
-                LOG.warn("Duplicate activities submitted to server, activity to persist: " + previouslyAdded + ", duplicate: " + dbActivity);
-                continue;
+            ScheduledActivity previouslyAdded = activitiesByGuid.putIfAbsent(schActivity.getGuid(), schActivity);
+            if (previouslyAdded != null) {
+                LOG.warn("Duplicate activities submitted to server, activity to persist: " + previouslyAdded + ", duplicate: " + schActivity);
             }
-            activitiesAlreadySeen.add(key);
+        }
+        
+        // Load all the persisted activities in one batch. This isn't returned to the client, so the exact time 
+        // zone used does not matter.
+        List<ScheduledActivity> keys = Lists.newArrayListWithCapacity(activitiesByGuid.size());
+        for (String guid : activitiesByGuid.keySet()) {
+            ScheduledActivity key = ScheduledActivity.create();
+            key.setHealthCode(healthCode);
+            key.setGuid(guid);
+            keys.add(key);
+        }
+        Map<String, ScheduledActivity> dbActivitiesByGuid = Maps.newHashMapWithExpectedSize(keys.size());
+        for (ScheduledActivity dbActivity : activityDao.getActivities(DateTimeZone.UTC, keys)) {
+            dbActivitiesByGuid.put(dbActivity.getGuid(), dbActivity);
+        }
+        if (dbActivitiesByGuid.size() < activitiesByGuid.size()) {
+            throw new EntityNotFoundException(ScheduledActivity.class);
+        }
+        
+        List<ScheduledActivity> activitiesToSave = new ArrayList<>();
+        List<ScheduledActivity> finishedActivities = new ArrayList<>();
+        for (ScheduledActivity schActivity : activitiesByGuid.values()) {
+            ScheduledActivity dbActivity = dbActivitiesByGuid.get(schActivity.getGuid());
             
             boolean addToSaves = false;
             if (hasUpdatedClientData(schActivity, dbActivity)) {
@@ -348,14 +376,19 @@ public class ScheduledActivityService {
             }
             if (schActivity.getFinishedOn() != null) {
                 dbActivity.setFinishedOn(schActivity.getFinishedOn());
-                activityEventService.publishActivityFinishedEvent(dbActivity);
+                finishedActivities.add(dbActivity);
                 addToSaves = true;
             }
             if (addToSaves) {
-                activitiesToSave.add(0, dbActivity);
+                activitiesToSave.add(dbActivity);
             }
-            
         }
+        if (!finishedActivities.isEmpty()) {
+            activityEventService.publishActivityFinishedEvents(finishedActivities);
+        }
+        // Preserve the order the activities were submitted in the list, mostly because tests expect that order to 
+        // be preserved.
+        Collections.reverse(activitiesToSave);
         activityDao.updateActivities(healthCode, activitiesToSave);
     }
 
@@ -423,7 +456,8 @@ public class ScheduledActivityService {
         for (SchedulePlan plan : plans) {
             Schedule schedule = plan.getStrategy().getScheduleForUser(plan, context);
             if (schedule != null) {
-                List<ScheduledActivity> activities = schedule.getScheduler().getScheduledActivities(plan, context);
+                ActivityScheduler scheduler = CompiledSchedulePlan.forPlan(plan).getScheduler(plan, schedule);
+                List<ScheduledActivity> activities = scheduler.getScheduledActivities(plan, context);
                 for (ScheduledActivity schActivity : activities) {
                     resolver.resolve(schActivity);
                 }
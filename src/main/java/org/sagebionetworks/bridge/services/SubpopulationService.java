@@ -5,7 +5,10 @@ import static org.sagebionetworks.bridge.util.BridgeCollectors.toImmutableList;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.commons.io.IOUtils;
@@ -199,6 +202,37 @@ public class SubpopulationService {
         return subpop;
     }
     
+    /**
+     * Get several specific subpopulations, reading them all from the cache in one round trip, and loading only 
+     * the ones that are not cached.
+     * @param studyId
+     * @param subpopGuids
+     * @return subpopulations, keyed by their GUIDs
+     */
+    public Map<SubpopulationGuid, Subpopulation> getSubpopulationsByGuid(StudyIdentifier studyId,
+            Set<SubpopulationGuid> subpopGuids) {
+        checkNotNull(studyId);
+        checkNotNull(subpopGuids);
+        
+        List<SubpopulationGuid> guidList = new ArrayList<>(subpopGuids);
+        List<CacheKey> subpopKeys = guidList.stream().map(guid -> CacheKey.subpop(guid, studyId))
+                .collect(toImmutableList());
+        List<Subpopulation> cached = cacheProvider.getObjects(subpopKeys, Subpopulation.class);
+        
+        Map<SubpopulationGuid, Subpopulation> subpops = new HashMap<>();
+        Map<CacheKey, Subpopulation> loaded = new HashMap<>();
+        for (int i=0; i < guidList.size(); i++) {
+            Subpopulation subpop = cached.get(i);
+            if (subpop == null) {
+                subpop = subpopDao.getSubpopulation(studyId, guidList.get(i));
+                loaded.put(subpopKeys.get(i), subpop);
+            }
+            subpops.put(guidList.get(i), subpop);
+        }
+        cacheProvider.setObjects(loaded, 0);
+        return subpops;
+    }
+    
     /**
      * Get all subpopulations for a user that match the provided CriteriaContext information. 
      * Returns an empty list if no subpopulations match.
@@ -13,6 +13,9 @@ import java.util.function.BiPredicate;
 import java.util.stream.Collectors;
 
 import org.sagebionetworks.bridge.BridgeUtils;
+import org.sagebionetworks.bridge.cache.CacheKey;
+import org.sagebionetworks.bridge.cache.CacheProvider;
+import org.sagebionetworks.bridge.cache.RevisionCache;
 import org.sagebionetworks.bridge.dao.SurveyDao;
 import org.sagebionetworks.bridge.exceptions.BadRequestException;
 import org.sagebionetworks.bridge.exceptions.ConstraintViolationException;
@@ -51,6 +54,8 @@ public class SurveyService {
     private SchedulePlanService schedulePlanService;
     private SharedModuleMetadataService sharedModuleMetadataService;
     private StudyService studyService;
+    private CacheProvider cacheProvider;
+    private RevisionCache revisionCache;
 
     @Autowired
     final void setSurveyDao(SurveyDao surveyDao) {
@@ -76,9 +81,33 @@ public class SurveyService {
     public final void setStudyService(StudyService studyService) {
         this.studyService = studyService;
     }
+
+    @Autowired
+    final void setCacheProvider(CacheProvider cacheProvider) {
+        this.cacheProvider = cacheProvider;
+    }
+
+    @Autowired
+    final void setRevisionCache(RevisionCache revisionCache) {
+        this.revisionCache = revisionCache;
+    }
     
     public Survey getSurvey(StudyIdentifier studyIdentifier, GuidCreatedOnVersionHolder keys, boolean includeElements, boolean throwException) {
-        Survey survey = surveyDao.getSurvey(keys, includeElements);
+        Survey survey;
+        if (studyIdentifier == null) {
+            survey = surveyDao.getSurvey(keys, includeElements);
+        } else {
+            // Only surveys in the study are cached, under the study's key. The study is not serialized, so it's 
+            // restored here.
+            survey = revisionCache.get(CacheKey.surveyRevision(studyIdentifier, keys, includeElements), Survey.class,
+                    () -> {
+                        Survey loaded = surveyDao.getSurvey(keys, includeElements);
+                        return isInStudy(studyIdentifier, loaded) ? loaded : null;
+                    });
+            if (survey != null) {
+                survey.setStudyIdentifier(studyIdentifier.getIdentifier());
+            }
+        }
         if (!isInStudy(studyIdentifier, survey)) {
             if (throwException) {
                 throw new EntityNotFoundException(Survey.class);    
@@ -137,7 +166,9 @@ public class SurveyService {
             if (existing.isDeleted() && !survey.isDeleted()) {
                 existing = surveyDao.getSurvey(survey, true); // get all the children for the update
                 existing.setDeleted(false);
-                return surveyDao.updateSurvey(existing);
+                Survey updated = surveyDao.updateSurvey(existing);
+                surveyChanged(studyIdentifier, survey);
+                return updated;
             } else {
                 throw new PublishedSurveyException(survey);
             }
@@ -150,7 +181,9 @@ public class SurveyService {
         }
         Validate.entityThrowingException(new SurveySaveValidator(dataGroups), survey);
         
-        return surveyDao.updateSurvey(survey);
+        Survey updated = surveyDao.updateSurvey(survey);
+        surveyChanged(studyIdentifier, survey);
+        return updated;
     }
 
     /**
@@ -165,7 +198,9 @@ public class SurveyService {
         }
         Validate.entityThrowingException(publishValidator, existing);
 
-        return surveyDao.publishSurvey(studyIdentifier, existing, newSchemaRev);
+        Survey published = surveyDao.publishSurvey(studyIdentifier, existing, newSchemaRev);
+        surveyChanged(studyIdentifier, keys);
+        return published;
     }
 
     /**
@@ -195,6 +230,7 @@ public class SurveyService {
         verifySharedModuleExistence(keys);
 
         surveyDao.deleteSurvey(existing);
+        surveyChanged(studyIdentifier, keys);
     }
 
     /**
@@ -217,6 +253,15 @@ public class SurveyService {
         }
         checkConstraintsBeforePhysicalDelete(studyIdentifier, keys);
         surveyDao.deleteSurveyPermanently(keys);
+        surveyChanged(studyIdentifier, keys);
+    }
+
+    // Drop the cached copies of this survey version. App configs are also cached with their survey references
+    // resolved, so they must be reloaded when a survey changes.
+    private void surveyChanged(StudyIdentifier studyIdentifier, GuidCreatedOnVersionHolder keys) {
+        revisionCache.invalidate(CacheKey.surveyRevision(studyIdentifier, keys, true));
+        revisionCache.invalidate(CacheKey.surveyRevision(studyIdentifier, keys, false));
+        cacheProvider.removeObject(CacheKey.resolvedAppConfigs(studyIdentifier));
     }
 
     // Helper method to verify if there is any shared module related to specified survey
@@ -2,25 +2,41 @@ package org.sagebionetworks.bridge.services;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkPositionIndexes;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.security.cert.CertificateEncodingException;
+import java.util.ArrayList;
+import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.BiConsumer;
 import java.util.function.Function;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
 
-import com.google.common.io.ByteStreams;
-import org.apache.commons.io.output.ByteArrayOutputStream;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
 import org.apache.commons.lang3.StringUtils;
 import org.bouncycastle.cms.CMSException;
 
@@ -29,6 +45,8 @@ import org.sagebionetworks.bridge.crypto.CmsEncryptor;
 import org.sagebionetworks.bridge.exceptions.BadRequestException;
 import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
 import org.sagebionetworks.bridge.util.DuplicateZipEntryException;
+import org.sagebionetworks.bridge.util.ThreadLocalBuffers;
+import org.sagebionetworks.bridge.util.ThreadLocalBuffers.ReusableOutputStream;
 import org.sagebionetworks.bridge.util.ZipOverflowException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
@@ -44,20 +62,55 @@ import com.google.common.util.concurrent.UncheckedExecutionException;
 public class UploadArchiveService {
     private static final String CONFIG_KEY_MAX_NUM_ZIP_ENTRIES = "max.num.zip.entries";
     private static final String CONFIG_KEY_MAX_ZIP_ENTRY_SIZE = "max.zip.entry.size";
-
-    // Temporary buffer size for unzipping, in bytes. This is big enough that there should be no churn for most files,
-    // but small enough to have minimal memory overhead.
-    private static final int TEMP_BUFFER_SIZE = 4096;
+    private static final String CONFIG_KEY_PARALLEL_UNZIP_ENABLED = "upload.validation.parallel.unzip.enabled";
+    private static final String CONFIG_KEY_UNZIP_THREAD_COUNT = "upload.unzip.thread.count";
+    private static final String CONFIG_KEY_UNZIP_MAX_QUEUED = "upload.unzip.max.queued";
 
     private int maxNumZipEntries;
     private int maxZipEntrySize;
+    private boolean parallelUnzipEnabled;
+    private int unzipThreadCount;
+    private int unzipMaxQueued;
     private LoadingCache<String, CmsEncryptor> cmsEncryptorCache;
 
+    // Entries of zip files on disk are inflated on this executor. Unless start() creates the pool, they're inflated in
+    // the calling thread, which is what unit tests get by default.
+    private ExecutorService unzipExecutor = MoreExecutors.newDirectExecutorService();
+
     /** Config, to get settings for zip. */
     @Autowired
     public final void setBridgeConfig(BridgeConfig config) {
         maxNumZipEntries = config.getPropertyAsInt(CONFIG_KEY_MAX_NUM_ZIP_ENTRIES);
         maxZipEntrySize = config.getPropertyAsInt(CONFIG_KEY_MAX_ZIP_ENTRY_SIZE);
+        parallelUnzipEnabled = Boolean.valueOf(config.getProperty(CONFIG_KEY_PARALLEL_UNZIP_ENABLED));
+        unzipThreadCount = config.getPropertyAsInt(CONFIG_KEY_UNZIP_THREAD_COUNT);
+        unzipMaxQueued = config.getPropertyAsInt(CONFIG_KEY_UNZIP_MAX_QUEUED);
+    }
+
+    /** Executor zip entries are inflated on. Created by {@link #start}, separate setter so that tests can set it. */
+    public final void setUnzipExecutor(ExecutorService unzipExecutor) {
+        this.unzipExecutor = unzipExecutor;
+    }
+
+    /**
+     * Creates the unzip pool, if parallel unzip is enabled. Otherwise, nothing calls {@link #unzipFile}, and no
+     * threads are started. When all threads are busy and the queue is full, the thread unzipping the file inflates
+     * the entry itself.
+     */
+    @PostConstruct
+    public void start() {
+        if (!parallelUnzipEnabled) {
+            return;
+        }
+        unzipExecutor = new ThreadPoolExecutor(unzipThreadCount, unzipThreadCount, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(unzipMaxQueued), new ThreadFactoryBuilder().setNameFormat("upload-unzip-%d")
+                .setDaemon(true).build(), new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /** Stops the unzip pool, if any, letting running entries finish. */
+    @PreDestroy
+    public void stop() {
+        unzipExecutor.shutdown();
     }
 
     /** Loading cache for CMS encryptor, keyed by study ID. This is configured by Spring. */
@@ -120,15 +173,27 @@ public class UploadArchiveService {
      *         if we fail to load the encryptor, or if decryption fails
      */
     public byte[] decrypt(String studyId, byte[] bytes) throws BridgeServiceException {
+        checkNotNull(bytes);
+        return decrypt(studyId, bytes, 0, bytes.length);
+    }
+
+    /**
+     * Decrypts the given slice of the byte array. See {@link #decrypt(String, byte[])}. The decrypted data is
+     * collected in this thread's reusable buffer, and copied once into the returned array.
+     */
+    public byte[] decrypt(String studyId, byte[] bytes, int offset, int length) throws BridgeServiceException {
         // validate
         checkNotNull(studyId);
         checkArgument(StringUtils.isNotBlank(studyId));
         checkNotNull(bytes);
+        checkPositionIndexes(offset, offset + length, bytes.length);
 
         // decrypt
-        try (ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(bytes);
-             InputStream decryptedStream = decrypt(studyId, byteArrayInputStream)) {
-            return ByteStreams.toByteArray(decryptedStream);
+        try (ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(bytes, offset, length);
+             InputStream decryptedStream = decrypt(studyId, byteArrayInputStream);
+             ReusableOutputStream decryptedOutputStream = ThreadLocalBuffers.getOutputStream()) {
+            ThreadLocalBuffers.copy(decryptedStream, decryptedOutputStream);
+            return decryptedOutputStream.toByteArray();
         } catch (IOException ex) {
             throw new BridgeServiceException(ex);
         }
@@ -190,8 +255,8 @@ public class UploadArchiveService {
         // Validate input
         checkNotNull(dataMap);
 
-        // Zip
-        try (final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        // Zip into this thread's reusable buffer, so the only copy is the returned array.
+        try (final ReusableOutputStream baos = ThreadLocalBuffers.getOutputStream();
                 final ZipOutputStream zos = new ZipOutputStream(baos)) {
             for (Map.Entry<String, byte[]> oneData : dataMap.entrySet()) {
                 ZipEntry zipEntry = new ZipEntry(oneData.getKey());
@@ -199,7 +264,8 @@ public class UploadArchiveService {
                 zos.write(oneData.getValue());
                 zos.closeEntry();
             }
-            zos.flush();
+            // Finish writes the central directory. Without it, only streaming readers can read the zip.
+            zos.finish();
             return baos.toByteArray();
         } catch (IOException ex) {
             throw new BridgeServiceException(ex);
@@ -224,24 +290,26 @@ public class UploadArchiveService {
     public Map<String, byte[]> unzip(byte[] bytes) throws BridgeServiceException {
         // Validate input
         checkNotNull(bytes);
+        return unzip(bytes, 0, bytes.length);
+    }
 
-        // Unzip
+    /** Unzips the given slice of the byte array. See {@link #unzip(byte[])}. */
+    public Map<String, byte[]> unzip(byte[] bytes, int offset, int length) throws BridgeServiceException {
+        // Validate input
+        checkNotNull(bytes);
+        checkPositionIndexes(offset, offset + length, bytes.length);
+
+        // Unzip. Every entry is unzipped into this thread's reusable buffer, which is emptied for each entry, so the
+        // only copy is each entry's byte array.
         Map<String, byte[]> dataMap = new HashMap<>();
-        try (final ByteArrayInputStream bais = new ByteArrayInputStream(bytes)) {
+        try (final ByteArrayInputStream bais = new ByteArrayInputStream(bytes, offset, length);
+                final ReusableOutputStream entryOutputStream = ThreadLocalBuffers.getOutputStream()) {
             unzip(bais,
-                    // We use Apache IO's ByteArrayOutputStream, because it's memory optimized, so we don't have to
-                    // clean up a bunch of byte arrays.
-                    entryName -> new ByteArrayOutputStream(),
-                    (entryName, outputStream) -> {
-                        byte[] unzippedFileContent = ((ByteArrayOutputStream) outputStream).toByteArray();
-                        dataMap.put(entryName, unzippedFileContent);
-                        try {
-                            outputStream.close();
-                        } catch (IOException ex) {
-                            // BiConsumer doesn't throw, so wrap this in a RuntimeException.
-                            throw new RuntimeException(ex);
-                        }
-                    });
+                    entryName -> {
+                        entryOutputStream.reset();
+                        return entryOutputStream;
+                    },
+                    (entryName, outputStream) -> dataMap.put(entryName, entryOutputStream.toByteArray()));
             return dataMap;
         } catch (IOException ex) {
             throw new BridgeServiceException(ex);
@@ -304,14 +372,162 @@ public class UploadArchiveService {
         }
     }
 
+    /**
+     * <p>
+     * Unzips the given file, which must be a zip file on disk. This behaves the same as
+     * {@link #unzip(InputStream, Function, BiConsumer)}, with the same limits, except that entries are inflated in
+     * parallel.
+     * </p>
+     * <p>
+     * The two methods read different parts of the zip file. {@link ZipInputStream} reads the local header in front of
+     * each entry, in order, and never sees the central directory at the end of the file. {@link ZipFile} reads the
+     * central directory and seeks to each entry from there, which is what lets entries be inflated in parallel. For a
+     * well-formed zip, both list the same entries. For a malformed one, they may not. For example, an entry that's
+     * missing from the central directory is skipped here, and a file that has no central directory (such as a
+     * truncated one) fails here but may partly unzip as a stream.
+     * </p>
+     * <p>
+     * The central directory is read first, and the number of entries, duplicate names, and declared entry sizes are
+     * all checked before anything is inflated. Declared sizes can lie, so inflated bytes are still counted against the
+     * max. Each entry's output stream is requested just before the entry is inflated and finalized right after, so at
+     * most one stream per unzip thread is open at a time. entryNameToOutputStream and outputStreamFinalizer may be
+     * called from unzip threads and in any order, but never at the same time, so they don't need to be thread-safe.
+     * If unzipping fails, entries that haven't started are skipped, and every stream that was returned by
+     * entryNameToOutputStream is still passed to outputStreamFinalizer, so it can be closed.
+     * </p>
+     *
+     * @param zipFile
+     *         zip file to unzip
+     * @param entryNameToOutputStream
+     *         arg is the zip entry file name, return value is the OutputStream in which to write the unzipped bytes
+     * @param outputStreamFinalizer
+     *         args are the zip entry file name and the corresponding OutputStream returned by entryNameToOutputStream;
+     *         this is where you finalize the stream, eg closing the stream
+     */
+    public void unzipFile(File zipFile, Function<String, OutputStream> entryNameToOutputStream,
+            BiConsumer<String, OutputStream> outputStreamFinalizer) {
+        // Validate input
+        checkNotNull(zipFile);
+        checkNotNull(entryNameToOutputStream);
+        checkNotNull(outputStreamFinalizer);
+
+        try (ZipFile zip = new ZipFile(zipFile)) {
+            // Check the central directory before inflating anything.
+            List<ZipEntry> zipEntryList = getCheckedZipEntries(zip);
+            inflateEntries(zip, zipEntryList, entryNameToOutputStream, outputStreamFinalizer);
+        } catch (DuplicateZipEntryException | ZipOverflowException ex) {
+            throw new BadRequestException(ex);
+        } catch (IOException ex) {
+            throw new BridgeServiceException(ex);
+        }
+    }
+
+    // Returns the entries in the zip file's central directory, checking the number of entries, duplicate names, and
+    // declared sizes.
+    private List<ZipEntry> getCheckedZipEntries(ZipFile zip) throws DuplicateZipEntryException,
+            ZipOverflowException {
+        if (zip.size() > maxNumZipEntries) {
+            throw new ZipOverflowException("The number of zip entries is over the max allowed");
+        }
+
+        List<ZipEntry> zipEntryList = new ArrayList<>();
+        Set<String> zipEntryNameSet = new HashSet<>();
+        Enumeration<? extends ZipEntry> zipEntryEnum = zip.entries();
+        while (zipEntryEnum.hasMoreElements()) {
+            ZipEntry zipEntry = zipEntryEnum.nextElement();
+            String entryName = zipEntry.getName();
+            if (!zipEntryNameSet.add(entryName)) {
+                throw new DuplicateZipEntryException("Duplicate filename " + entryName);
+            }
+            long entrySize = zipEntry.getSize();
+            if (entrySize > maxZipEntrySize) {
+                throw new ZipOverflowException("Zip entry size is over the max allowed size. The entry " +
+                        entryName + " has size " + entrySize + ". The max allowed size is" + maxZipEntrySize + ".");
+            }
+            zipEntryList.add(zipEntry);
+        }
+        return zipEntryList;
+    }
+
+    // Inflates each entry into its output stream on the unzip executor, and waits for all of them. Each entry opens
+    // its stream when it starts and finalizes it when it's done. The callbacks are only called while holding a lock, so
+    // callers don't need to be thread-safe. If any entry fails, the rest stop early, and this throws the first entry's
+    // error once they've all stopped.
+    private void inflateEntries(ZipFile zip, List<ZipEntry> zipEntryList,
+            Function<String, OutputStream> entryNameToOutputStream,
+            BiConsumer<String, OutputStream> outputStreamFinalizer) throws IOException, ZipOverflowException {
+        Object callbackLock = new Object();
+        AtomicBoolean failed = new AtomicBoolean(false);
+        List<Future<?>> futureList = new ArrayList<>();
+        for (ZipEntry oneZipEntry : zipEntryList) {
+            String entryName = oneZipEntry.getName();
+            futureList.add(unzipExecutor.submit(() -> {
+                if (failed.get()) {
+                    return null;
+                }
+                OutputStream outputStream = null;
+                try {
+                    synchronized (callbackLock) {
+                        outputStream = entryNameToOutputStream.apply(entryName);
+                    }
+                    try (InputStream entryInputStream = zip.getInputStream(oneZipEntry)) {
+                        toByteArray(entryName, entryInputStream, outputStream, failed);
+                    }
+                } catch (IOException | ZipOverflowException | RuntimeException ex) {
+                    failed.set(true);
+                    throw ex;
+                } finally {
+                    if (outputStream != null) {
+                        synchronized (callbackLock) {
+                            outputStreamFinalizer.accept(entryName, outputStream);
+                        }
+                    }
+                }
+                return null;
+            }));
+        }
+
+        // Wait for every entry, even after a failure, since the zip file is closed when we return. Entries are bounded
+        // by the max entry size, so this doesn't wait long.
+        Throwable firstError = null;
+        for (Future<?> oneFuture : futureList) {
+            try {
+                Uninterruptibles.getUninterruptibly(oneFuture);
+            } catch (ExecutionException ex) {
+                if (firstError == null) {
+                    firstError = ex.getCause();
+                }
+            }
+        }
+
+        if (firstError instanceof IOException) {
+            throw (IOException) firstError;
+        } else if (firstError instanceof ZipOverflowException) {
+            throw (ZipOverflowException) firstError;
+        } else if (firstError instanceof RuntimeException) {
+            throw (RuntimeException) firstError;
+        } else if (firstError != null) {
+            throw new BridgeServiceException(firstError);
+        }
+    }
+
     private void toByteArray(String entryName, InputStream inputStream, OutputStream outputStream)
             throws IOException, ZipOverflowException {
+        toByteArray(entryName, inputStream, outputStream, null);
+    }
+
+    // If the stop flag is set, stops copying early. This is how parallel unzips stop after another entry fails.
+    private void toByteArray(String entryName, InputStream inputStream, OutputStream outputStream,
+            AtomicBoolean stopFlag) throws IOException, ZipOverflowException {
         // We want copy data from the stream to a byte array manually, so we can count the bytes and protect against
-        // zip bombs.
-        byte[] tempBuffer = new byte[TEMP_BUFFER_SIZE];
+        // zip bombs. Every entry runs on one thread from start to finish, so it can use that thread's copy buffer.
+        byte[] tempBuffer = ThreadLocalBuffers.getCopyBuffer();
         int totalBytes = 0;
         int bytesRead;
-        while ((bytesRead = inputStream.read(tempBuffer, 0, TEMP_BUFFER_SIZE)) >= 0) {
+        while ((bytesRead = inputStream.read(tempBuffer, 0, tempBuffer.length)) >= 0) {
+            if (stopFlag != null && stopFlag.get()) {
+                return;
+            }
             totalBytes += bytesRead;
             if (totalBytes > maxZipEntrySize) {
                 throw new ZipOverflowException("Zip entry size is over the max allowed size. The entry " + entryName +
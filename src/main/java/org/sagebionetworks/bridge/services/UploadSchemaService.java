@@ -19,6 +19,8 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import org.sagebionetworks.bridge.BridgeUtils;
+import org.sagebionetworks.bridge.cache.CacheKey;
+import org.sagebionetworks.bridge.cache.RevisionCache;
 import org.sagebionetworks.bridge.dao.UploadSchemaDao;
 import org.sagebionetworks.bridge.exceptions.BadRequestException;
 import org.sagebionetworks.bridge.exceptions.ConcurrentModificationException;
@@ -40,9 +42,16 @@ import org.sagebionetworks.bridge.validators.Validate;
  */
 @Component
 public class UploadSchemaService {
+    private RevisionCache revisionCache;
     private SharedModuleMetadataService sharedModuleMetadataService;
     private UploadSchemaDao uploadSchemaDao;
 
+    /** Cache of specific schema revisions. This is configured by Spring. */
+    @Autowired
+    public final void setRevisionCache(RevisionCache revisionCache) {
+        this.revisionCache = revisionCache;
+    }
+
     /** DAO for upload schemas. This is configured by Spring. */
     @Autowired
     public final void setUploadSchemaDao(UploadSchemaDao uploadSchemaDao) {
@@ -220,6 +229,7 @@ public class UploadSchemaService {
 
         List<UploadSchema> schemaList = getSchemaRevisionsForDelete(studyId, schemaId);
         uploadSchemaDao.deleteUploadSchemas(schemaList);
+        invalidateSchemaRevisions(studyId, schemaList);
     }
 
     public void deleteUploadSchemaByIdPermanently(StudyIdentifier studyId, String schemaId) {
@@ -227,6 +237,7 @@ public class UploadSchemaService {
 
         List<UploadSchema> schemaList = getSchemaRevisionsForDelete(studyId, schemaId);
         uploadSchemaDao.deleteUploadSchemasPermanently(schemaList);
+        invalidateSchemaRevisions(studyId, schemaList);
     }
 
     protected List<UploadSchema> getSchemaRevisionsForDelete(StudyIdentifier studyId, String schemaId) {
@@ -261,6 +272,7 @@ public class UploadSchemaService {
             throw new EntityNotFoundException(UploadSchema.class);
         }
         uploadSchemaDao.deleteUploadSchemas(ImmutableList.of(schema));    
+        invalidateSchemaRevisions(studyId, ImmutableList.of(schema));
     }
     
     public void deleteUploadSchemaByIdAndRevisionPermanently(StudyIdentifier studyId, String schemaId, int rev) {
@@ -271,6 +283,14 @@ public class UploadSchemaService {
             throw new EntityNotFoundException(UploadSchema.class);
         }
         uploadSchemaDao.deleteUploadSchemasPermanently(ImmutableList.of(schema));    
+        invalidateSchemaRevisions(studyId, ImmutableList.of(schema));
+    }
+
+    // Helper method to drop schema revisions that have been changed or deleted from the revision cache.
+    private void invalidateSchemaRevisions(StudyIdentifier studyId, List<UploadSchema> schemaList) {
+        for (UploadSchema schema : schemaList) {
+            revisionCache.invalidate(CacheKey.schemaRevision(studyId, schema.getSchemaId(), schema.getRevision()));
+        }
     }
 
     /** Returns all revisions of all schemas. */
@@ -382,14 +402,20 @@ public class UploadSchemaService {
      */
     public UploadSchema getUploadSchemaByIdAndRevNoThrow(StudyIdentifier studyId, String schemaId,
             int revision) {
+        validateSchemaIdAndRev(schemaId, revision);
+
+        return revisionCache.get(CacheKey.schemaRevision(studyId, schemaId, revision), UploadSchema.class,
+                () -> uploadSchemaDao.getUploadSchemaByIdAndRevision(studyId, schemaId, revision));
+    }
+
+    // Helper method to validate the user inputs for fetching a schema revision.
+    private static void validateSchemaIdAndRev(String schemaId, int revision) {
         if (StringUtils.isBlank(schemaId)) {
             throw new BadRequestException("Schema ID must be specified");
         }
         if (revision <= 0) {
             throw new BadRequestException("Revision must be specified and positive");
         }
-
-        return uploadSchemaDao.getUploadSchemaByIdAndRevision(studyId, schemaId, revision);
     }
 
     /**
@@ -449,8 +475,12 @@ public class UploadSchemaService {
         checkNotNull(schemaToUpdate, "uploadSchema must be non-null");
 
         // Get existing schema revision. This also validates schema ID and rev and throws if the schema revision
-        // doesn't exist.
-        UploadSchema oldSchema = getUploadSchemaByIdAndRev(studyId, schemaId, revision);
+        // doesn't exist. Read it from the DAO rather than the revision cache, since we're about to change it.
+        validateSchemaIdAndRev(schemaId, revision);
+        UploadSchema oldSchema = uploadSchemaDao.getUploadSchemaByIdAndRevision(studyId, schemaId, revision);
+        if (oldSchema == null) {
+            throw new EntityNotFoundException(UploadSchema.class, "Can't find schema " + schemaId + "-v" + revision);
+        }
         if (oldSchema.isDeleted() && schemaToUpdate.isDeleted()) {
             throw new EntityNotFoundException(UploadSchema.class);
         }
@@ -513,7 +543,9 @@ public class UploadSchemaService {
         }
 
         // Call through to the DAO
-        return uploadSchemaDao.updateSchemaRevision(schemaToUpdate);
+        UploadSchema updated = uploadSchemaDao.updateSchemaRevision(schemaToUpdate);
+        revisionCache.invalidate(CacheKey.schemaRevision(studyId, schemaId, revision));
+        return updated;
     }
 
     // Helper method to get a map of fields by name for an Upload Schema. Returns a TreeMap so our error messaging has
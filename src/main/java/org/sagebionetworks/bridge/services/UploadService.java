@@ -11,11 +11,19 @@ import java.net.URL;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
 
 import com.amazonaws.HttpMethod;
@@ -26,7 +34,10 @@ import com.amazonaws.services.s3.model.GeneratePresignedUrlRequest;
 import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.google.common.base.Stopwatch;
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.slf4j.Logger;
@@ -54,6 +65,7 @@ import org.sagebionetworks.bridge.models.upload.UploadSession;
 import org.sagebionetworks.bridge.models.upload.UploadStatus;
 import org.sagebionetworks.bridge.models.upload.UploadValidationStatus;
 import org.sagebionetworks.bridge.models.upload.UploadView;
+import org.sagebionetworks.bridge.upload.UploadCompletionRegistry;
 import org.sagebionetworks.bridge.validators.UploadValidator;
 import org.sagebionetworks.bridge.validators.Validate;
 
@@ -67,6 +79,8 @@ public class UploadService {
     // package-scoped to be available in unit tests
     static final String CONFIG_KEY_UPLOAD_BUCKET = "upload.bucket";
     static final String CONFIG_KEY_UPLOAD_DUPE_STUDY_WHITELIST = "upload.dupe.study.whitelist";
+    static final String CONFIG_KEY_STATUS_THREAD_COUNT = "upload.status.thread.count";
+    static final String CONFIG_KEY_STATUS_MAX_QUEUED = "upload.status.max.queued";
 
     private Set<String> dupeStudyWhitelist;
     private HealthDataService healthDataService;
@@ -78,10 +92,17 @@ public class UploadService {
     private UploadDedupeDao uploadDedupeDao;
     private UploadValidationService uploadValidationService;
     private Validator validator;
+    private UploadCompletionRegistry completionRegistry;
+
+    // After a wait for validation ends, the status is read again on this executor, not on the thread that ended the
+    // wait. Until start() creates the pool, the status is read in that thread, which is what unit tests get by default.
+    private ExecutorService statusExecutor = MoreExecutors.newDirectExecutorService();
+    private int statusThreadCount;
+    private int statusMaxQueued;
 
     // These parameters can be overriden to facilitate testing.
-    // By default, we sleep 5 seconds, including right at the start and end. This means on our 7th iteration,
-    // 30 seconds will have passed.
+    // By default, we wait up to 5 seconds between reads, unless validation finishes sooner. This means on our 7th
+    // iteration, at most 30 seconds will have passed.
     private int pollValidationStatusMaxIterations = 7;
     private long pollValidationStatusSleepMillis = 5000;
 
@@ -94,6 +115,28 @@ public class UploadService {
         // tests, where we always upload the same files over and over and (2) for studies where it's valid and expected
         // for apps to always submit the same files over and over again.
         dupeStudyWhitelist = ImmutableSet.copyOf(config.getList(CONFIG_KEY_UPLOAD_DUPE_STUDY_WHITELIST));
+
+        statusThreadCount = config.getPropertyAsInt(CONFIG_KEY_STATUS_THREAD_COUNT);
+        statusMaxQueued = config.getPropertyAsInt(CONFIG_KEY_STATUS_MAX_QUEUED);
+    }
+
+    /**
+     * Creates the pool that validation status is read on after a wait. When all threads are busy and the queue is
+     * full, the thread that ended the wait reads the status itself, which slows down further wake-ups instead of
+     * queueing without bound.
+     */
+    @PostConstruct
+    public void start() {
+        statusExecutor = new ThreadPoolExecutor(statusThreadCount, statusThreadCount, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(statusMaxQueued), new ThreadFactoryBuilder()
+                .setNameFormat("upload-status-%d").setDaemon(true).build(),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /** Stops the status pool. */
+    @PreDestroy
+    public void stop() {
+        statusExecutor.shutdown();
     }
 
     /**
@@ -105,6 +148,12 @@ public class UploadService {
         this.healthDataService = healthDataService;
     }
 
+    /** Completion registry, used to wait for upload validation to finish without polling. */
+    @Autowired
+    public final void setCompletionRegistry(UploadCompletionRegistry completionRegistry) {
+        this.completionRegistry = completionRegistry;
+    }
+
     @Resource(name = "s3UploadClient")
     public void setS3UploadClient(AmazonS3 s3UploadClient) {
         this.s3UploadClient = s3UploadClient;
@@ -256,7 +305,11 @@ public class UploadService {
             throw new BadRequestException(String.format(Validate.CANNOT_BE_BLANK, "uploadId"));
         }
         Upload upload = uploadDao.getUpload(uploadId);
-        return uploadToUploadView(upload, true);
+        HealthDataRecord record = null;
+        if (upload.getRecordId() != null) {
+            record = healthDataService.getRecordById(upload.getRecordId());
+        }
+        return uploadToUploadView(upload, record, true);
     }
 
     /**
@@ -309,9 +362,15 @@ public class UploadService {
         
         ForwardCursorPagedResourceList<Upload> list = supplier.get(startTime, endTime);
 
+        // Fetch the records for the whole page in one batch, instead of one read per upload.
+        Set<String> recordIds = list.getItems().stream().map(Upload::getRecordId).filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+        Map<String, HealthDataRecord> recordMap = recordIds.isEmpty() ? ImmutableMap.of() :
+                healthDataService.getRecordsById(recordIds);
+
         // This summary view is accessible to developers, so we do not include details of the health data record.
         List<UploadView> views = list.getItems().stream()
-                .map(upload -> uploadToUploadView(upload, false))
+                .map(upload -> uploadToUploadView(upload, recordMap.get(upload.getRecordId()), false))
                 .collect(Collectors.toList());
         
         ForwardCursorPagedResourceList<UploadView> page = new ForwardCursorPagedResourceList<>(views, list.getNextPageOffsetKey());
@@ -321,19 +380,17 @@ public class UploadService {
         return page;
     }
     
-    private UploadView uploadToUploadView(Upload upload, boolean includeHealthDataRecord) {
+    private static UploadView uploadToUploadView(Upload upload, HealthDataRecord record,
+            boolean includeHealthDataRecord) {
         UploadView.Builder builder = new UploadView.Builder();
         builder.withUpload(upload);
-        if (upload.getRecordId() != null) {
-            HealthDataRecord record = healthDataService.getRecordById(upload.getRecordId());
-            if (record != null) {
-                if (includeHealthDataRecord) {
-                    builder.withHealthDataRecord(record);
-                } else {
-                    builder.withSchemaId(record.getSchemaId());
-                    builder.withSchemaRevision(record.getSchemaRevision());
-                    builder.withHealthRecordExporterStatus(record.getSynapseExporterStatus());
-                }
+        if (record != null) {
+            if (includeHealthDataRecord) {
+                builder.withHealthDataRecord(record);
+            } else {
+                builder.withSchemaId(record.getSchemaId());
+                builder.withSchemaRevision(record.getSchemaRevision());
+                builder.withHealthRecordExporterStatus(record.getSynapseExporterStatus());
             }
         }
         return builder.build();
@@ -374,39 +431,95 @@ public class UploadService {
     }
 
     /**
-     * Polls for validation status for a given upload ID. Polls until validation is complete or otherwise is in a state
-     * where further polling won't get any results (like validation failed, or upload is requested but not yet
-     * uploaded), or until it times out. See getUploadValidationStatus() for more details.
+     * Waits for validation status for a given upload ID. Waits until validation is complete or otherwise is in a state
+     * where further waiting won't get any results (like validation failed, or upload is requested but not yet
+     * uploaded), or until it times out. See getUploadValidationStatus() and
+     * getUploadValidationStatusWhenComplete() for more details.
      */
     public UploadValidationStatus pollUploadValidationStatusUntilComplete(String uploadId) {
-        // Loop logic is a little wonky. (Loop-and-a-half problem.) Use an infinite loop here and rely on tests to make
-        // sure we don't go infinite.
-        int numIters = 0;
-        while (true) {
-            UploadValidationStatus validationStatus = getUploadValidationStatus(uploadId);
-            if (validationStatus.getStatus() != UploadStatus.VALIDATION_IN_PROGRESS) {
-                // Validation is either finished processing, or otherwise in a state where it's pointless to wait.
-                // Return the answer we have now.
-                return validationStatus;
+        try {
+            return getUploadValidationStatusWhenComplete(uploadId).get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new BridgeServiceException("Interrupted while polling for validation status for upload " +
+                    uploadId);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
             }
+            throw new BridgeServiceException(cause);
+        }
+    }
 
-            // Short-circuit: If we've elapsed our timeout, just exit now. Don't wait for a sleep.
-            numIters++;
-            if (numIters >= pollValidationStatusMaxIterations) {
-                throw new BridgeServiceException("Timeout polling validation status for upload " + uploadId);
-            }
+    /**
+     * <p>
+     * Returns a future for the validation status of the given upload, which completes once validation is complete or
+     * otherwise in a state where further waiting won't get any results. If validation doesn't finish in time, the
+     * future completes exceptionally with a BridgeServiceException. No thread is held while waiting, so async callers
+     * can use this directly.
+     * </p>
+     * <p>
+     * Rather than sleeping between reads, this waits for the upload validation task to signal completion, on this
+     * node or any other. If no signal arrives within the poll interval (for example, it was lost while the Redis
+     * connection was down), the status is read again anyway, up to the max number of iterations.
+     * </p>
+     */
+    public CompletableFuture<UploadValidationStatus> getUploadValidationStatusWhenComplete(String uploadId) {
+        return waitForValidationStatus(uploadId, 0);
+    }
 
-            // Sleep and try again.
-            try {
-                Thread.sleep(pollValidationStatusSleepMillis);
-            } catch (InterruptedException ex) {
-                logger.error("Interrupted while polling for validation status: " + ex.getMessage());
-            }
+    // One iteration of waiting for validation status. Each iteration reads the status once.
+    private CompletableFuture<UploadValidationStatus> waitForValidationStatus(String uploadId, int numIters) {
+        // Register before reading the status, so that a completion between the read and the wait isn't missed.
+        CompletableFuture<Void> completion = completionRegistry.awaitCompletion(uploadId,
+                pollValidationStatusSleepMillis);
+
+        UploadValidationStatus validationStatus;
+        try {
+            validationStatus = getUploadValidationStatus(uploadId);
+        } catch (RuntimeException ex) {
+            completion.cancel(false);
+            return failedFuture(ex);
+        }
+
+        if (validationStatus.getStatus() != UploadStatus.VALIDATION_IN_PROGRESS) {
+            // Validation is either finished processing, or otherwise in a state where it's pointless to wait.
+            // Return the answer we have now.
+            completion.cancel(false);
+            return CompletableFuture.completedFuture(validationStatus);
+        }
+
+        // Short-circuit: If we've elapsed our timeout, just exit now. Don't wait again.
+        if (numIters + 1 >= pollValidationStatusMaxIterations) {
+            completion.cancel(false);
+            return failedFuture(new BridgeServiceException("Timeout polling validation status for upload " +
+                    uploadId));
         }
+
+        // Whether we were woken or the wait timed out, check again. Read the status on the status pool rather than on
+        // the thread that signaled completion.
+        return completion.handle((result, ex) -> numIters + 1)
+                .thenComposeAsync(nextNumIters -> waitForValidationStatus(uploadId, nextNumIters), statusExecutor);
+    }
+
+    private static <T> CompletableFuture<T> failedFuture(Throwable ex) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(ex);
+        return future;
     }
 
     public void uploadComplete(StudyIdentifier studyId, UploadCompletionClient completedBy, Upload upload,
             boolean redrive) {
+        uploadComplete(studyId, completedBy, upload, redrive, false);
+    }
+
+    /**
+     * Marks the upload complete and kicks off upload validation. If synchronous is true, the caller is going to wait
+     * for validation to finish, so the upload is validated ahead of asynchronous uploads.
+     */
+    public void uploadComplete(StudyIdentifier studyId, UploadCompletionClient completedBy, Upload upload,
+            boolean redrive, boolean synchronous) {
         String uploadId = upload.getUploadId();
 
         // We don't want to kick off upload validation on an upload that already has upload validation.
@@ -449,7 +562,7 @@ public class UploadService {
         }
 
         // kick off upload validation
-        uploadValidationService.validateUpload(studyId, upload);
+        uploadValidationService.validateUpload(studyId, upload, synchronous);
     }
     
     public void deleteUploadsForHealthCode(String healthCode) {
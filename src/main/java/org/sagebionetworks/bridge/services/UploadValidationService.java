@@ -1,27 +1,25 @@
 package org.sagebionetworks.bridge.services;
 
 import javax.annotation.Nonnull;
-import javax.annotation.Resource;
-
-import java.util.concurrent.ExecutorService;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 import org.sagebionetworks.bridge.models.studies.StudyIdentifier;
 import org.sagebionetworks.bridge.models.upload.Upload;
+import org.sagebionetworks.bridge.upload.UploadValidationScheduler;
 import org.sagebionetworks.bridge.upload.UploadValidationTask;
 import org.sagebionetworks.bridge.upload.UploadValidationTaskFactory;
 
 /** Service handler for upload validation. */
 @Component
 public class UploadValidationService {
-    private ExecutorService asyncExecutorService;
+    private UploadValidationScheduler scheduler;
     private UploadValidationTaskFactory taskFactory;
 
-    /** Async thread pool. This is configured by Spring. */
-    @Resource(name = "asyncExecutorService")
-    public void setAsyncExecutorService(ExecutorService asyncExecutorService) {
-        this.asyncExecutorService = asyncExecutorService;
+    /** Dedicated upload validation thread pool. This is configured by Spring. */
+    @Autowired
+    public void setScheduler(UploadValidationScheduler scheduler) {
+        this.scheduler = scheduler;
     }
 
     /** Task factory. This is configured by Spring. */
@@ -44,9 +42,12 @@ public class UploadValidationService {
      *         study this upload lives in
      * @param upload
      *         upload metadata object for the upload
+     * @param synchronous
+     *         true if the caller is waiting for validation to finish (by polling the validation status), in which
+     *         case the upload is validated ahead of asynchronous uploads
      */
-    public void validateUpload(@Nonnull StudyIdentifier study, @Nonnull Upload upload) {
+    public void validateUpload(@Nonnull StudyIdentifier study, @Nonnull Upload upload, boolean synchronous) {
         UploadValidationTask task = taskFactory.newTask(study, upload);
-        asyncExecutorService.execute(task);
+        scheduler.submit(study, task, synchronous);
     }
 }
@@ -0,0 +1,94 @@
+package org.sagebionetworks.bridge.upload;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Attachment uploads started for a single upload, so that they can run concurrently while the handler moves on to the
+ * next field. The handler passes the batch to {@link UploadFileHelper}, then calls {@link #awaitCompletion} before it
+ * uses the attachment IDs. Not thread-safe; a batch belongs to the one thread validating the upload.
+ */
+public class AttachmentUploadBatch {
+    private final String uploadId;
+    private final List<PendingAttachment> pendingList = new ArrayList<>();
+
+    /** Creates an empty batch for the given upload. */
+    public AttachmentUploadBatch(String uploadId) {
+        this.uploadId = uploadId;
+    }
+
+    /** Adds an attachment upload that has been started for the given field. */
+    void add(String fieldName, Future<?> future) {
+        pendingList.add(new PendingAttachment(fieldName, future));
+    }
+
+    /** Number of attachment uploads added since the last call to {@link #awaitCompletion}. */
+    public int size() {
+        return pendingList.size();
+    }
+
+    /**
+     * Waits for every attachment upload in this batch to finish. If any failed, throws for the first one that failed
+     * in the order they were added, so the same upload always fails with the same message, regardless of which S3
+     * call happened to finish first. All uploads are waited for before throwing.
+     */
+    public void awaitCompletion() throws UploadValidationException {
+        UploadValidationException firstFailure = null;
+        for (PendingAttachment onePending : pendingList) {
+            try {
+                onePending.future.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new UploadValidationException("Interrupted waiting for attachment uploads, uploadId=" +
+                        uploadId, ex);
+            } catch (ExecutionException ex) {
+                if (firstFailure == null) {
+                    firstFailure = new UploadValidationException("Error uploading attachment, uploadId=" + uploadId +
+                            ", fieldName=" + onePending.fieldName, ex.getCause());
+                }
+            }
+        }
+        pendingList.clear();
+
+        if (firstFailure != null) {
+            throw firstFailure;
+        }
+    }
+
+    /**
+     * Cancels the attachment uploads in this batch that haven't started, and waits for the ones that have, ignoring
+     * failures. Handlers call this when validation fails before {@link #awaitCompletion}, so that no upload is still
+     * reading the unzipped files when they are deleted. Does nothing if the batch has already completed.
+     */
+    public void cancel() {
+        for (PendingAttachment onePending : pendingList) {
+            onePending.future.cancel(false);
+        }
+        for (PendingAttachment onePending : pendingList) {
+            if (onePending.future.isCancelled()) {
+                continue;
+            }
+            try {
+                onePending.future.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException ex) {
+                // The upload is being abandoned, so its failure doesn't matter.
+            }
+        }
+        pendingList.clear();
+    }
+
+    private static class PendingAttachment {
+        private final String fieldName;
+        private final Future<?> future;
+
+        PendingAttachment(String fieldName, Future<?> future) {
+            this.fieldName = fieldName;
+            this.future = future;
+        }
+    }
+}
@@ -38,6 +38,11 @@ public class DecryptHandler implements UploadValidationHandler {
     /** {@inheritDoc} */
     @Override
     public void handle(@Nonnull UploadValidationContext context) throws UploadValidationException {
+        if (context.getDecryptedDataFile() != null) {
+            // Already decrypted while streaming the upload from S3. See S3DownloadHandler.
+            return;
+        }
+
         // Temp file name in the form "[uploadId].zip"
         String outputFilename = context.getUploadId() + ".zip";
         File outputFile = fileHelper.newFile(context.getTempDir(), outputFilename);
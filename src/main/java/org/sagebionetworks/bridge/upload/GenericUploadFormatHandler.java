@@ -27,7 +27,6 @@ import org.sagebionetworks.bridge.models.healthdata.HealthDataRecord;
 import org.sagebionetworks.bridge.models.studies.StudyIdentifier;
 import org.sagebionetworks.bridge.models.surveys.Survey;
 import org.sagebionetworks.bridge.models.upload.UploadFieldDefinition;
-import org.sagebionetworks.bridge.models.upload.UploadFieldType;
 import org.sagebionetworks.bridge.models.upload.UploadSchema;
 import org.sagebionetworks.bridge.services.SurveyService;
 import org.sagebionetworks.bridge.services.UploadSchemaService;
@@ -209,39 +208,51 @@ public class GenericUploadFormatHandler implements UploadValidationHandler {
 
         Map<String, File> sanitizedUnzippedDataFileMap = UploadUtil.sanitizeFieldNames(unzippedDataFileMap);
         Map<String, Map<String, JsonNode>> parsedSanitizedJsonFileCache = new HashMap<>();
+        AttachmentUploadBatch attachmentBatch = new AttachmentUploadBatch(uploadId);
+        UploadSchemaValidationPlan validationPlan = UploadSchemaValidationPlan.forSchema(schema);
 
-        // Using schema, copy fields over to data map. Or if it's an attachment, add it to the attachment map.
-        for (UploadFieldDefinition oneFieldDef : schema.getFieldDefinitions()) {
-            String fieldName = oneFieldDef.getName();
-            JsonNode fieldNode;
+        try {
+            // Using schema, copy fields over to data map. Or if it's an attachment, add it to the attachment map.
+            for (UploadSchemaValidationPlan.FieldPlan oneFieldPlan : validationPlan.getFieldPlans()) {
+                UploadFieldDefinition oneFieldDef = oneFieldPlan.getFieldDef();
+                String fieldName = oneFieldPlan.getName();
+                JsonNode fieldNode;
 
-            if (dataFileNode.has(fieldName)) {
-                // If it's in the submitted data file, just use it.
-                JsonNode fieldNodeFromDataFile = dataFileNode.get(fieldName);
+                if (dataFileNode.has(fieldName)) {
+                    // If it's in the submitted data file, just use it.
+                    JsonNode fieldNodeFromDataFile = dataFileNode.get(fieldName);
 
-                if (UploadFieldType.ATTACHMENT_TYPE_SET.contains(oneFieldDef.getType())) {
-                    fieldNode = uploadFileHelper.uploadJsonNodeAsAttachment(fieldNodeFromDataFile, uploadId,
-                            fieldName);
+                    if (oneFieldPlan.isAttachment()) {
+                        fieldNode = uploadFileHelper.uploadJsonNodeAsAttachment(fieldNodeFromDataFile, uploadId,
+                                fieldName, attachmentBatch);
+                    } else {
+                        fieldNode = fieldNodeFromDataFile;
+                    }
                 } else {
-                    fieldNode = fieldNodeFromDataFile;
+                    fieldNode = uploadFileHelper.findValueForField(uploadId, sanitizedUnzippedDataFileMap, oneFieldDef,
+                            validationPlan.getFieldNameSet(), parsedSanitizedJsonFileCache, attachmentBatch);
                 }
-            } else {
-                fieldNode = uploadFileHelper.findValueForField(uploadId, sanitizedUnzippedDataFileMap, oneFieldDef,
-                        parsedSanitizedJsonFileCache);
-            }
 
-            if (fieldNode != null && !fieldNode.isNull()) {
-                dataMap.set(fieldName, fieldNode);
-            } else if (UploadUtil.FIELD_ANSWERS.equals(fieldName) && !dataFileNode.isNull()) {
-                // Special case: This is the auto-generated "answers" field for surveys. Since surveys are usually
-                // submitted using the dataFile, this should be populated by just copying over the dataFile.
-                if (UploadFieldType.ATTACHMENT_TYPE_SET.contains(oneFieldDef.getType())) {
-                    fieldNode = uploadFileHelper.uploadJsonNodeAsAttachment(dataFileNode, uploadId, fieldName);
-                } else {
-                    fieldNode = dataFileNode;
+                if (fieldNode != null && !fieldNode.isNull()) {
+                    dataMap.set(fieldName, fieldNode);
+                } else if (UploadUtil.FIELD_ANSWERS.equals(fieldName) && !dataFileNode.isNull()) {
+                    // Special case: This is the auto-generated "answers" field for surveys. Since surveys are usually
+                    // submitted using the dataFile, this should be populated by just copying over the dataFile.
+                    if (oneFieldPlan.isAttachment()) {
+                        fieldNode = uploadFileHelper.uploadJsonNodeAsAttachment(dataFileNode, uploadId, fieldName,
+                                attachmentBatch);
+                    } else {
+                        fieldNode = dataFileNode;
+                    }
+                    dataMap.set(fieldName, fieldNode);
                 }
-                dataMap.set(fieldName, fieldNode);
             }
+
+            // Attachments upload in the background. Wait for them, so the record never points to a missing attachment.
+            attachmentBatch.awaitCompletion();
+        } finally {
+            // If a field fails, don't leave uploads running. The unzipped files are deleted when validation ends.
+            attachmentBatch.cancel();
         }
     }
 }
@@ -428,30 +428,42 @@ public class IosSchemaValidationHandler2 implements UploadValidationHandler {
             ObjectNode dataMap) throws UploadValidationException {
         Map<String, File> sanitizedUnzippedDataFileMap = UploadUtil.sanitizeFieldNames(unzippedDataFileMap);
         Map<String, Map<String, JsonNode>> parsedSanitizedJsonFileCache = new HashMap<>();
-
-        // Using schema, copy fields over to data map. Or if it's an attachment, add it to the attachment map.
-        for (UploadFieldDefinition oneFieldDef : schema.getFieldDefinitions()) {
-            String fieldName = oneFieldDef.getName();
-            JsonNode fieldNode;
-
-            if (surveyAnswerMap.containsKey(fieldName)) {
-                // The field has already been parsed as a survey.
-                JsonNode surveyAnswerNode = surveyAnswerMap.get(fieldName);
-
-                if (UploadFieldType.ATTACHMENT_TYPE_SET.contains(oneFieldDef.getType())) {
-                    // Attachments in a survey. This is unusual, but there's nothing in our schema system that prevents
-                    // this. We should handle it just to be safe.
-                    fieldNode = uploadFileHelper.uploadJsonNodeAsAttachment(surveyAnswerNode, uploadId, fieldName);
+        AttachmentUploadBatch attachmentBatch = new AttachmentUploadBatch(uploadId);
+        UploadSchemaValidationPlan validationPlan = UploadSchemaValidationPlan.forSchema(schema);
+
+        try {
+            // Using schema, copy fields over to data map. Or if it's an attachment, add it to the attachment map.
+            for (UploadSchemaValidationPlan.FieldPlan oneFieldPlan : validationPlan.getFieldPlans()) {
+                UploadFieldDefinition oneFieldDef = oneFieldPlan.getFieldDef();
+                String fieldName = oneFieldPlan.getName();
+                JsonNode fieldNode;
+
+                if (surveyAnswerMap.containsKey(fieldName)) {
+                    // The field has already been parsed as a survey.
+                    JsonNode surveyAnswerNode = surveyAnswerMap.get(fieldName);
+
+                    if (oneFieldPlan.isAttachment()) {
+                        // Attachments in a survey. This is unusual, but there's nothing in our schema system that
+                        // prevents this. We should handle it just to be safe.
+                        fieldNode = uploadFileHelper.uploadJsonNodeAsAttachment(surveyAnswerNode, uploadId, fieldName,
+                                attachmentBatch);
+                    } else {
+                        fieldNode = surveyAnswerNode;
+                    }
                 } else {
-                    fieldNode = surveyAnswerNode;
+                    fieldNode = uploadFileHelper.findValueForField(uploadId, sanitizedUnzippedDataFileMap, oneFieldDef,
+                            validationPlan.getFieldNameSet(), parsedSanitizedJsonFileCache, attachmentBatch);
                 }
-            } else {
-                fieldNode = uploadFileHelper.findValueForField(uploadId, sanitizedUnzippedDataFileMap, oneFieldDef,
-                        parsedSanitizedJsonFileCache);
+
+                // Copy the field to the record.
+                copyJsonField(context, uploadId, fieldNode, oneFieldDef, dataMap);
             }
 
-            // Copy the field to the record.
-            copyJsonField(context, uploadId, fieldNode, oneFieldDef, dataMap);
+            // Attachments upload in the background. Wait for them, so the record never points to a missing attachment.
+            attachmentBatch.awaitCompletion();
+        } finally {
+            // If a field fails, don't leave uploads running. The unzipped files are deleted when validation ends.
+            attachmentBatch.cancel();
         }
     }
 
@@ -3,25 +3,56 @@ package org.sagebionetworks.bridge.upload;
 import javax.annotation.Nonnull;
 import javax.annotation.Resource;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
 
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.S3Object;
+import com.google.common.io.ByteStreams;
+import org.apache.commons.io.input.CloseShieldInputStream;
+import org.apache.commons.io.input.TeeInputStream;
 import org.sagebionetworks.bridge.file.FileHelper;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import org.sagebionetworks.bridge.config.BridgeConfig;
 import org.sagebionetworks.bridge.config.BridgeConfigFactory;
 import org.sagebionetworks.bridge.s3.S3Helper;
+import org.sagebionetworks.bridge.services.UploadArchiveService;
 
 /**
+ * <p>
  * Validation handler for downloading the upload from S3. This handler reads
  * {@link org.sagebionetworks.bridge.upload.UploadValidationContext#getUpload} and writes the downloaded data (as a
  * byte array) to {@link org.sagebionetworks.bridge.upload.UploadValidationContext#setDataFile}.
+ * </p>
+ * <p>
+ * If streaming is enabled, this handler instead pipes the S3 object stream through decryption and unzipping, writing
+ * the decrypted zip (which we keep as the raw data attachment) and the unzipped entries as the stream goes by. The
+ * encrypted upload is never written to disk, and the decrypted zip is never read back. This sets
+ * {@link org.sagebionetworks.bridge.upload.UploadValidationContext#setDecryptedDataFile} and
+ * {@link org.sagebionetworks.bridge.upload.UploadValidationContext#setUnzippedDataFileMap}, and the DecryptHandler and
+ * UnzipHandler have nothing left to do.
+ * </p>
  */
 @Component
 public class S3DownloadHandler implements UploadValidationHandler {
+    static final String CONFIG_KEY_STREAMING_ENABLED = "upload.validation.streaming.enabled";
     private static final String UPLOAD_BUCKET = BridgeConfigFactory.getConfig().getProperty("upload.bucket");
 
     private FileHelper fileHelper;
+    private AmazonS3 s3Client;
     private S3Helper s3Helper;
+    private boolean streamingEnabled;
+    private UploadArchiveService uploadArchiveService;
+
+    /** Config, to determine whether uploads are streamed through decryption and unzipping. */
+    @Autowired
+    public final void setBridgeConfig(BridgeConfig config) {
+        this.streamingEnabled = Boolean.valueOf(config.getProperty(CONFIG_KEY_STREAMING_ENABLED));
+    }
 
     /** File helper, used to manage the temp file that we download the S3 file into. */
     @Autowired
@@ -29,19 +60,70 @@ public class S3DownloadHandler implements UploadValidationHandler {
         this.fileHelper = fileHelper;
     }
 
+    /** S3 client, for streaming the upload from S3. This is configured by Spring. */
+    @Resource(name = "s3Client")
+    public final void setS3Client(AmazonS3 s3Client) {
+        this.s3Client = s3Client;
+    }
+
     /** S3 helper, for downloading bytes from S3. This is configured by Spring. */
     @Resource(name = "s3Helper")
     public final void setS3Helper(S3Helper s3Helper) {
         this.s3Helper = s3Helper;
     }
 
+    /**
+     * Turns streaming on or off. Separate setter so that tests, and utilities that need the encrypted file, can change
+     * this value.
+     */
+    public final void setStreamingEnabled(boolean streamingEnabled) {
+        this.streamingEnabled = streamingEnabled;
+    }
+
+    /** Upload archive service, which handles decrypting and unzipping of files. This is configured by Spring. */
+    @Autowired
+    public final void setUploadArchiveService(UploadArchiveService uploadArchiveService) {
+        this.uploadArchiveService = uploadArchiveService;
+    }
+
     /** {@inheritDoc} */
     @Override
-    public void handle(@Nonnull UploadValidationContext context) {
+    public void handle(@Nonnull UploadValidationContext context) throws UploadValidationException {
+        if (streamingEnabled) {
+            streamDecryptAndUnzip(context);
+            return;
+        }
+
         // Temp file name in the form "[uploadId]-encrypted"
         String destFilename = context.getUploadId() + "-encrypted";
         File destFile = fileHelper.newFile(context.getTempDir(), destFilename);
         s3Helper.downloadS3File(UPLOAD_BUCKET, context.getUpload().getObjectId(), destFile);
         context.setDataFile(destFile);
     }
+
+    // S3 object -> decrypt -> tee into the decrypted zip file -> unzip into one file per entry.
+    private void streamDecryptAndUnzip(UploadValidationContext context) throws UploadValidationException {
+        // Temp file name in the form "[uploadId].zip", same as the DecryptHandler.
+        File decryptedFile = fileHelper.newFile(context.getTempDir(), context.getUploadId() + ".zip");
+
+        Map<String, File> unzippedDataFileMap;
+        try (S3Object s3Object = s3Client.getObject(UPLOAD_BUCKET, context.getUpload().getObjectId());
+             InputStream encryptedInputStream = s3Object.getObjectContent();
+             InputStream decryptedInputStream = uploadArchiveService.decrypt(context.getStudy().getIdentifier(),
+                     encryptedInputStream);
+             OutputStream decryptedFileOutputStream = fileHelper.getOutputStream(decryptedFile);
+             InputStream teeInputStream = new TeeInputStream(decryptedInputStream, decryptedFileOutputStream)) {
+            // Unzip closes the stream it's given, but we still need to finish copying the zip after it's done.
+            unzippedDataFileMap = UnzipHandler.unzipToFiles(uploadArchiveService, fileHelper,
+                    new CloseShieldInputStream(teeInputStream), context.getTempDir());
+
+            // Unzipping stops at the zip's central directory. Read the rest, so the decrypted zip file is complete.
+            ByteStreams.copy(teeInputStream, ByteStreams.nullOutputStream());
+        } catch (IOException ex) {
+            throw new UploadValidationException("Error streaming upload from S3: " + ex.getMessage(), ex);
+        }
+
+        context.setDecryptedDataFile(decryptedFile);
+        context.setUnzippedDataFileMap(unzippedDataFileMap);
+    }
 }
@@ -2,13 +2,9 @@ package org.sagebionetworks.bridge.upload;
 
 import javax.annotation.Nonnull;
 
-import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Joiner;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -18,8 +14,6 @@ import org.springframework.stereotype.Component;
 import org.sagebionetworks.bridge.models.healthdata.HealthDataRecord;
 import org.sagebionetworks.bridge.models.studies.Study;
 import org.sagebionetworks.bridge.models.studies.StudyIdentifier;
-import org.sagebionetworks.bridge.models.upload.UploadFieldDefinition;
-import org.sagebionetworks.bridge.models.upload.UploadFieldType;
 import org.sagebionetworks.bridge.models.upload.UploadSchema;
 import org.sagebionetworks.bridge.models.upload.UploadValidationStrictness;
 import org.sagebionetworks.bridge.services.StudyService;
@@ -87,9 +81,10 @@ public class StrictValidationHandler implements UploadValidationHandler {
 
         // get schema
         UploadSchema schema = uploadSchemaService.getUploadSchemaByIdAndRev(studyIdentifier, schemaId, schemaRev);
-        List<UploadFieldDefinition> fieldDefList = schema.getFieldDefinitions();
 
-        List<String> errorList = validateAllFields(fieldDefList, recordDataNode);
+        // Validate against the compiled schema. This also writes the canonicalized values back to the data node.
+        List<String> errorList = UploadSchemaValidationPlan.forSchema(schema).validateAndCanonicalize(
+                recordDataNode);
 
         handleErrors(context, schemaId, schemaRev, errorList);
     }
@@ -161,61 +156,4 @@ public class StrictValidationHandler implements UploadValidationHandler {
         boolean strictValidationEnabled = study.isStrictUploadValidationEnabled();
         return strictValidationEnabled ? UploadValidationStrictness.STRICT : UploadValidationStrictness.WARNING;
     }
-
-    /**
-     * Given the schema, the attachments (all we need are names), and the JSON data nodes, we validate the data against
-     * the schema.
-     */
-    private static List<String> validateAllFields(List<UploadFieldDefinition> fieldDefList, JsonNode recordDataNode) {
-        // walk the field definitions and validate fields
-        List<String> errorList = new ArrayList<>();
-        for (UploadFieldDefinition oneFieldDef : fieldDefList) {
-            String fieldName = oneFieldDef.getName();
-            UploadFieldType fieldType = oneFieldDef.getType();
-            boolean isRequired = oneFieldDef.isRequired();
-
-            if (UploadFieldType.ATTACHMENT_TYPE_SET.contains(fieldType)) {
-                // For attachment types, since they just get exported as raw files, we only need to check if it's
-                // required and present. Specifically, if it's required and it's not present, then that's an error.
-                if (isRequired && !recordDataNode.hasNonNull(fieldName)) {
-                    errorList.add("Required attachment field " + fieldName + " missing");
-                }
-            } else {
-                JsonNode fieldValueNode = recordDataNode.get(fieldName);
-
-                if (fieldValueNode != null && !fieldValueNode.isNull()) {
-                    // Canonicalize the field.
-                    CanonicalizationResult canonicalizationResult = UploadUtil.canonicalize(fieldValueNode, fieldType);
-                    if (canonicalizationResult.isValid()) {
-                        JsonNode canonicalizedValueNode = canonicalizationResult.getCanonicalizedValueNode();
-
-                        // Special case: MULTI_CHOICE value validation (unless it allows other choices)
-                        if (fieldType == UploadFieldType.MULTI_CHOICE &&
-                                !Boolean.TRUE.equals(oneFieldDef.getAllowOtherChoices())) {
-                            //noinspection ConstantConditions
-                            Set<String> validAnswerSet = new HashSet<>(oneFieldDef.getMultiChoiceAnswerList());
-                            int numAnswers = canonicalizedValueNode.size();
-                            for (int i = 0; i < numAnswers; i++) {
-                                String answer = canonicalizedValueNode.get(i).textValue();
-                                if (!validAnswerSet.contains(answer)) {
-                                    errorList.add("Multi-Choice field " + fieldName + " contains invalid answer " +
-                                            answer);
-                                }
-                            }
-                        }
-
-                        // Write the canonicalization back into the field data map.
-                        ((ObjectNode)recordDataNode).set(fieldName, canonicalizedValueNode);
-                    } else {
-                        errorList.add("Canonicalization failed for field " + fieldName + ": " +
-                                canonicalizationResult.getErrorMessage());
-                    }
-                } else if (isRequired) {
-                    errorList.add("Required field " + fieldName + " missing");
-                }
-            }
-        }
-
-        return errorList;
-    }
 }
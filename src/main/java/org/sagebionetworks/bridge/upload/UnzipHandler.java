@@ -4,13 +4,16 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.function.Function;
 import javax.annotation.Nonnull;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import org.sagebionetworks.bridge.config.BridgeConfig;
 import org.sagebionetworks.bridge.file.FileHelper;
 import org.sagebionetworks.bridge.services.UploadArchiveService;
 
@@ -21,9 +24,28 @@ import org.sagebionetworks.bridge.services.UploadArchiveService;
  */
 @Component
 public class UnzipHandler implements UploadValidationHandler {
+    static final String CONFIG_KEY_PARALLEL_UNZIP_ENABLED = "upload.validation.parallel.unzip.enabled";
+
     private FileHelper fileHelper;
+    private boolean parallelUnzipEnabled;
     private UploadArchiveService uploadArchiveService;
 
+    /** Config, to determine whether the decrypted file's entries are unzipped in parallel. */
+    @Autowired
+    public final void setBridgeConfig(BridgeConfig config) {
+        setParallelUnzipEnabled(Boolean.valueOf(config.getProperty(CONFIG_KEY_PARALLEL_UNZIP_ENABLED)));
+    }
+
+    /**
+     * True if the decrypted file is unzipped with {@link UploadArchiveService#unzipFile}, which reads the zip file's
+     * central directory and inflates entries in parallel, instead of reading local entry headers in order as a
+     * stream. See that method for how the two differ on malformed zips. This only works with files on disk. Separate
+     * setter so that tests can change this value.
+     */
+    final void setParallelUnzipEnabled(boolean parallelUnzipEnabled) {
+        this.parallelUnzipEnabled = parallelUnzipEnabled;
+    }
+
     /** File helper, used to create the files to unzip to and to get file streams. */
     @Autowired
     public final void setFileHelper(FileHelper fileHelper) {
@@ -39,30 +61,62 @@ public class UnzipHandler implements UploadValidationHandler {
     /** {@inheritDoc} */
     @Override
     public void handle(@Nonnull UploadValidationContext context) throws UploadValidationException {
+        if (context.getUnzippedDataFileMap() != null) {
+            // Already unzipped while streaming the upload from S3. See S3DownloadHandler.
+            return;
+        }
+
+        Map<String, File> unzippedDataFileMap;
+        if (parallelUnzipEnabled) {
+            unzippedDataFileMap = new HashMap<>();
+            uploadArchiveService.unzipFile(context.getDecryptedDataFile(),
+                    entryNameToFile(fileHelper, context.getTempDir(), unzippedDataFileMap), UnzipHandler::closeStream);
+        } else {
+            try (InputStream zippedFileInputStream = fileHelper.getInputStream(context.getDecryptedDataFile())) {
+                unzippedDataFileMap = unzipToFiles(uploadArchiveService, fileHelper, zippedFileInputStream,
+                        context.getTempDir());
+            } catch (IOException ex) {
+                throw new UploadValidationException("Error unzipping file: " + ex.getMessage(), ex);
+            }
+        }
+        context.setUnzippedDataFileMap(unzippedDataFileMap);
+    }
+
+    /**
+     * Unzips the given stream into files in the given directory, one per zip entry, and returns those files keyed by
+     * entry name. The zip entry limits in {@link UploadArchiveService#unzip} apply. Package-scoped so the streaming
+     * download in {@link S3DownloadHandler} can unzip the same way.
+     */
+    static Map<String, File> unzipToFiles(UploadArchiveService uploadArchiveService, FileHelper fileHelper,
+            InputStream zippedInputStream, File tempDir) {
         Map<String, File> unzippedDataFileMap = new HashMap<>();
-        try (InputStream zippedFileInputStream = fileHelper.getInputStream(context.getDecryptedDataFile())) {
-            uploadArchiveService.unzip(zippedFileInputStream,
-                    entryName -> {
-                        File unzippedFile = fileHelper.newFile(context.getTempDir(), entryName);
-                        unzippedDataFileMap.put(entryName, unzippedFile);
-                        try {
-                            return fileHelper.getOutputStream(unzippedFile);
-                        } catch (FileNotFoundException ex) {
-                            // BiConsumer doesn't throw, so wrap this in a RuntimeException.
-                            throw new RuntimeException(ex);
-                        }
-                    },
-                    (entryName, outputStream) -> {
-                        try {
-                            outputStream.close();
-                        } catch (IOException ex) {
-                            // BiConsumer doesn't throw, so wrap this in a RuntimeException.
-                            throw new RuntimeException(ex);
-                        }
-                    });
+        uploadArchiveService.unzip(zippedInputStream, entryNameToFile(fileHelper, tempDir, unzippedDataFileMap),
+                UnzipHandler::closeStream);
+        return unzippedDataFileMap;
+    }
+
+    // Creates a file in the temp dir for each zip entry, adds it to the map, and returns a stream to write it.
+    private static Function<String, OutputStream> entryNameToFile(FileHelper fileHelper, File tempDir,
+            Map<String, File> unzippedDataFileMap) {
+        return entryName -> {
+            File unzippedFile = fileHelper.newFile(tempDir, entryName);
+            unzippedDataFileMap.put(entryName, unzippedFile);
+            try {
+                return fileHelper.getOutputStream(unzippedFile);
+            } catch (FileNotFoundException ex) {
+                // Function doesn't throw, so wrap this in a RuntimeException.
+                throw new RuntimeException(ex);
+            }
+        };
+    }
+
+    // Output stream finalizer, which closes the stream.
+    private static void closeStream(String entryName, OutputStream outputStream) {
+        try {
+            outputStream.close();
         } catch (IOException ex) {
-            throw new UploadValidationException("Error unzipping file: " + ex.getMessage(), ex);
+            // BiConsumer doesn't throw, so wrap this in a RuntimeException.
+            throw new RuntimeException(ex);
         }
-        context.setUnzippedDataFileMap(unzippedDataFileMap);
     }
 }
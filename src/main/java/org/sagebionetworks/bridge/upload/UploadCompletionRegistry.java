@@ -0,0 +1,161 @@
+package org.sagebionetworks.bridge.upload;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import org.sagebionetworks.bridge.cache.InvalidationSubscriber;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+/**
+ * <p>
+ * Lets callers wait for upload validation to finish without polling. Callers register with
+ * {@link #awaitCompletion}, and {@link UploadValidationTask} calls {@link #complete} once it has written the
+ * validation status. Completion is published on a Redis channel, so callers are woken no matter which node validated
+ * the upload.
+ * </p>
+ * <p>
+ * A wake-up only means that the status may have changed. Completions published while this node's Redis subscription
+ * is down are lost, so every waiter is woken whenever the subscription is (re)established. Callers should read the
+ * upload status after waking, and wait again if it's still in progress.
+ * </p>
+ */
+@Component
+public class UploadCompletionRegistry {
+    private static final Logger LOG = LoggerFactory.getLogger(UploadCompletionRegistry.class);
+
+    static final String COMPLETION_CHANNEL = "upload-validation-completion";
+
+    // Waiters for each upload ID. Sets are only modified inside compute calls on the map, which lock the key.
+    private final ConcurrentMap<String, Set<CompletableFuture<Void>>> waiterMap = new ConcurrentHashMap<>();
+    private final ScheduledThreadPoolExecutor timeoutExecutor;
+    private JedisPool jedisPool;
+    private InvalidationSubscriber subscriber;
+
+    /**
+     * Constructs the registry, which owns the thread that times out waits. There is one registry per server, created
+     * by Spring and injected wherever it's needed, and {@link #stop} releases the thread. Completions stay on this
+     * node until a Redis pool is set and the registry started.
+     */
+    public UploadCompletionRegistry() {
+        timeoutExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactoryBuilder()
+                .setNameFormat("upload-completion-timeout-%d").setDaemon(true).build());
+        timeoutExecutor.setRemoveOnCancelPolicy(true);
+    }
+
+    /** Redis connection pool, used to publish and subscribe to completion messages. */
+    @Autowired
+    public final void setJedisPool(JedisPool jedisPool) {
+        this.jedisPool = jedisPool;
+    }
+
+    /** Starts listening for completions from other nodes. */
+    @PostConstruct
+    public void start() {
+        if (jedisPool == null) {
+            return;
+        }
+        subscriber = new InvalidationSubscriber(jedisPool, COMPLETION_CHANNEL, this::onCompletion, this::wakeAll);
+        subscriber.start();
+    }
+
+    /** Stops listening for completions. */
+    @PreDestroy
+    public void stop() {
+        if (subscriber != null) {
+            subscriber.stop();
+        }
+        timeoutExecutor.shutdownNow();
+    }
+
+    /**
+     * Returns a future that completes when validation for the given upload finishes, or when the caller should check
+     * again anyway. If nothing happens within the timeout, the future completes exceptionally with a
+     * {@link TimeoutException}. Register before reading the upload status, so that a completion between the read and
+     * the wait isn't missed. Cancelling the future stops waiting.
+     */
+    public CompletableFuture<Void> awaitCompletion(String uploadId, long timeoutMillis) {
+        checkNotNull(uploadId);
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        waiterMap.compute(uploadId, (key, waiterSet) -> {
+            Set<CompletableFuture<Void>> newWaiterSet = waiterSet != null ? waiterSet : new HashSet<>();
+            newWaiterSet.add(future);
+            return newWaiterSet;
+        });
+
+        ScheduledFuture<?> timeout = timeoutExecutor.schedule(() -> future.completeExceptionally(
+                new TimeoutException("Timed out waiting for validation of upload " + uploadId)), timeoutMillis,
+                TimeUnit.MILLISECONDS);
+
+        // However the future ends, stop tracking it.
+        future.whenComplete((result, ex) -> {
+            timeout.cancel(false);
+            waiterMap.computeIfPresent(uploadId, (key, waiterSet) -> {
+                waiterSet.remove(future);
+                return waiterSet.isEmpty() ? null : waiterSet;
+            });
+        });
+        return future;
+    }
+
+    /**
+     * Called when validation for the given upload has finished and its status has been written. Wakes callers
+     * waiting on this node and tells all other nodes to do the same.
+     */
+    public void complete(String uploadId) {
+        checkNotNull(uploadId);
+        onCompletion(uploadId);
+        if (jedisPool != null) {
+            try (Jedis jedis = jedisPool.getResource()) {
+                jedis.publish(COMPLETION_CHANNEL, uploadId);
+            } catch (RuntimeException ex) {
+                // Waiters on other nodes will check again when their wait times out.
+                LOG.warn("Error publishing completion for upload " + uploadId + ": " + ex.getMessage(), ex);
+            }
+        }
+    }
+
+    /** Number of callers waiting for the given upload. This is package-scoped to facilitate unit tests. */
+    int getWaiterCount(String uploadId) {
+        Set<CompletableFuture<Void>> waiterSet = waiterMap.get(uploadId);
+        return waiterSet != null ? waiterSet.size() : 0;
+    }
+
+    /** Called when this node or another has published a completion. */
+    void onCompletion(String uploadId) {
+        if (uploadId == null) {
+            return;
+        }
+        Set<CompletableFuture<Void>> waiterSet = waiterMap.remove(uploadId);
+        if (waiterSet != null) {
+            waiterSet.forEach(future -> future.complete(null));
+        }
+    }
+
+    /** Wakes every waiter, so they all check their upload's status again. */
+    void wakeAll() {
+        List<String> uploadIdList = new ArrayList<>(waiterMap.keySet());
+        uploadIdList.forEach(this::onCompletion);
+    }
+}
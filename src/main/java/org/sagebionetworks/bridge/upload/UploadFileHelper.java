@@ -4,21 +4,37 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
 
 import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.NullNode;
 import com.fasterxml.jackson.databind.node.TextNode;
 import com.google.common.base.Charsets;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.codec.digest.MessageDigestAlgorithms;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import org.sagebionetworks.bridge.config.BridgeConfig;
 import org.sagebionetworks.bridge.config.BridgeConfigFactory;
 import org.sagebionetworks.bridge.file.FileHelper;
 import org.sagebionetworks.bridge.json.BridgeObjectMapper;
@@ -39,13 +55,61 @@ public class UploadFileHelper {
     static final String ATTACHMENT_BUCKET = BridgeConfigFactory.getConfig().getProperty("attachment.bucket");
     static final String KEY_CUSTOM_CONTENT_MD5 = "Custom-Content-MD5";
 
+    static final String CONFIG_KEY_ATTACHMENT_THREAD_COUNT = "upload.attachment.thread.count";
+    static final String CONFIG_KEY_ATTACHMENT_MAX_QUEUED = "upload.attachment.max.queued";
+
+    // Attachments in a batch are uploaded on this executor. Until start() creates the pool, they're uploaded in the
+    // calling thread, which is what unit tests get by default.
+    private ExecutorService attachmentExecutor = MoreExecutors.newDirectExecutorService();
+    private int attachmentThreadCount;
+    private int attachmentMaxQueued;
+
     private FileHelper fileHelper;
     private int inlineFileSizeLimit = UploadUtil.FILE_SIZE_LIMIT_INLINE_FIELD;
-    private DigestUtils md5DigestUtils;
+    private Supplier<DigestUtils> md5DigestUtilsSupplier = () -> new DigestUtils(MessageDigestAlgorithms.MD5);
     private int parsedJsonFileSizeLimit = UploadUtil.FILE_SIZE_LIMIT_PARSED_JSON;
     private int parsedJsonWarningLimit = UploadUtil.WARNING_LIMIT_PARSED_JSON;
     private S3Helper s3Helper;
 
+    /** Config, for the size of the attachment upload pool. */
+    @Autowired
+    public final void setBridgeConfig(BridgeConfig config) {
+        configure(config.getPropertyAsInt(CONFIG_KEY_ATTACHMENT_THREAD_COUNT),
+                config.getPropertyAsInt(CONFIG_KEY_ATTACHMENT_MAX_QUEUED));
+    }
+
+    /**
+     * Sets the number of attachment upload threads and the max number of attachment uploads waiting for a thread.
+     * Separate from the config setter so that tests can change these values.
+     */
+    final void configure(int attachmentThreadCount, int attachmentMaxQueued) {
+        this.attachmentThreadCount = attachmentThreadCount;
+        this.attachmentMaxQueued = attachmentMaxQueued;
+    }
+
+    /** Executor attachments are uploaded on. Created by {@link #start}, separate setter so that tests can set it. */
+    final void setAttachmentExecutor(ExecutorService attachmentExecutor) {
+        this.attachmentExecutor = attachmentExecutor;
+    }
+
+    /**
+     * Creates the attachment upload pool. When all threads are busy and the queue is full, the validation thread
+     * uploads the attachment itself, which bounds memory and slows down only the uploads with the most attachments.
+     */
+    @PostConstruct
+    public void start() {
+        attachmentExecutor = new ThreadPoolExecutor(attachmentThreadCount, attachmentThreadCount, 0L,
+                TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(attachmentMaxQueued), new ThreadFactoryBuilder()
+                .setNameFormat("upload-attachment-%d").setDaemon(true).build(),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /** Stops the attachment upload pool, letting running uploads finish. */
+    @PreDestroy
+    public void stop() {
+        attachmentExecutor.shutdown();
+    }
+
     /** File helper, used to check file sizes before parsing them into memory. */
     @Autowired
     public final void setFileHelper(FileHelper fileHelper) {
@@ -57,10 +121,13 @@ public class UploadFileHelper {
         this.inlineFileSizeLimit = inlineFileSizeLimit;
     }
 
-    /** Used to calculate the MD5 hash, used to submit S3 file metadata. */
-    @Resource(name = "md5DigestUtils")
-    public final void setMd5DigestUtils(DigestUtils md5DigestUtils) {
-        this.md5DigestUtils = md5DigestUtils;
+    /**
+     * Used to calculate the MD5 hash, used to submit S3 file metadata. DigestUtils wraps a single MessageDigest and
+     * isn't thread-safe, and attachments are hashed concurrently on the attachment executor, so by default each
+     * attachment gets its own. This setter is to allow unit tests to override with a mock.
+     */
+    final void setMd5DigestUtils(DigestUtils md5DigestUtils) {
+        this.md5DigestUtilsSupplier = () -> md5DigestUtils;
     }
 
     /** Sets the file size limit for parsed JSON files. This setter is to allow unit tests to override. */
@@ -102,6 +169,29 @@ public class UploadFileHelper {
     public JsonNode findValueForField(String uploadId, Map<String, File> sanitizedUnzippedDataFileMap,
             UploadFieldDefinition fieldDef, Map<String, Map<String, JsonNode>> parsedSanitizedJsonFileCache)
             throws UploadValidationException {
+        return findValueForField(uploadId, sanitizedUnzippedDataFileMap, fieldDef, null,
+                parsedSanitizedJsonFileCache, null);
+    }
+
+    /**
+     * <p>
+     * Same as {@link #findValueForField(String, Map, UploadFieldDefinition, Map)}, with two additions.
+     * </p>
+     * <p>
+     * If schemaFieldNames is specified, then when a JSON file is parsed for a top-level key, only the keys that some
+     * field in the schema refers to are kept, and everything else in the file is skipped without being read into
+     * memory. If it's null, all top-level keys are kept.
+     * </p>
+     * <p>
+     * If the field is an attachment, the attachment is uploaded in the background and added to the given batch. The
+     * returned attachment ID is only valid after {@link AttachmentUploadBatch#awaitCompletion} succeeds. If the batch
+     * is null, the attachment is uploaded before this method returns.
+     * </p>
+     */
+    public JsonNode findValueForField(String uploadId, Map<String, File> sanitizedUnzippedDataFileMap,
+            UploadFieldDefinition fieldDef, Set<String> schemaFieldNames,
+            Map<String, Map<String, JsonNode>> parsedSanitizedJsonFileCache, AttachmentUploadBatch attachmentBatch)
+            throws UploadValidationException {
         String fieldName = fieldDef.getName();
         boolean isAttachment = UploadFieldType.ATTACHMENT_TYPE_SET.contains(fieldDef.getType());
         JsonNode fieldNode;
@@ -115,13 +205,8 @@ public class UploadFileHelper {
                     // Case 1a: The whole file is an attachment. Upload the file. Field JSON is attachment filename.
                     String attachmentFilename = uploadId + '-' + fieldName;
                     fieldNode = TextNode.valueOf(attachmentFilename);
-
-                    try {
-                        uploadFileAsAttachment(attachmentFilename, fieldFile);
-                    } catch (IOException ex) {
-                        throw new UploadValidationException("Error uploading file as attachment, uploadId=" +
-                                uploadId + ", fieldName=" + fieldName, ex);
-                    }
+                    uploadAttachment(uploadId, fieldName, attachmentBatch,
+                            () -> uploadFileAsAttachment(attachmentFilename, fieldFile));
                 } else {
                     // Case 1b: The file is an empty attachment. Skip and return null.
                     fieldNode = null;
@@ -162,9 +247,8 @@ public class UploadFileHelper {
                 if (parsedSanitizedJsonFileCache.containsKey(parsedFilename)) {
                     sanitizedParsedJsonNodeMap = parsedSanitizedJsonFileCache.get(parsedFilename);
                 } else {
-                    // We don't want to load large files into memory, for obvious reasons. Because of the way old
-                    // studies are set up, we sometimes end up parsing very large files into Bridge anyway. For now,
-                    // warn if the size is >5mb, and skip if the size >20mb.
+                    // We don't want to read huge files, even though we only keep the keys the schema needs. Warn if
+                    // the size is >5mb, and skip if the size >50mb.
                     File parsedFile = oneFileEntry.getValue();
                     long parsedFileSize = fileHelper.fileSize(parsedFile);
                     if (parsedFileSize > parsedJsonFileSizeLimit) {
@@ -176,24 +260,20 @@ public class UploadFileHelper {
                                 parsedFilename + ", fileSize=" + parsedFileSize + " bytes");
                     }
 
-                    // Parse file and get the top level key that matches.
-                    JsonNode parsedJsonNode;
+                    // Parse the top level keys the schema needs from this file.
+                    Set<String> wantedKeySet = null;
+                    if (schemaFieldNames != null) {
+                        wantedKeySet = findKeysForFile(parsedFilename, schemaFieldNames);
+                        wantedKeySet.add(fieldName.substring(parsedFilename.length() + 1));
+                    }
                     try (InputStream parsedFileInputStream = fileHelper.getInputStream(parsedFile)) {
-                        parsedJsonNode = BridgeObjectMapper.get().readTree(parsedFileInputStream);
+                        sanitizedParsedJsonNodeMap = readSanitizedTopLevelKeys(parsedFileInputStream, wantedKeySet);
                     } catch (IOException ex) {
                         // Assume we have the wrong file. Log a warning and proceed.
                         LOG.warn("Error parsing JSON file, uploadId=" + uploadId + ", fileName=" + parsedFilename);
                         continue;
                     }
 
-                    // Sanitize the top-level key names.
-                    sanitizedParsedJsonNodeMap = new HashMap<>();
-                    parsedJsonNode.fields().forEachRemaining(
-                            jsonEntry -> {
-                                String sanitizedKey = SchemaUtils.sanitizeFieldName(jsonEntry.getKey());
-                                sanitizedParsedJsonNodeMap.put(sanitizedKey, jsonEntry.getValue());
-                            });
-
                     // Add the parsed sanitized JSON to the cache, so we don't have to parse it again.
                     parsedSanitizedJsonFileCache.put(parsedFilename, sanitizedParsedJsonNodeMap);
                 }
@@ -212,7 +292,7 @@ public class UploadFileHelper {
                 fieldNode = null;
             } else if (isAttachment) {
                 // Case 2b: This is an attachment. Write the found value as bytes and upload it.
-                fieldNode = uploadJsonNodeAsAttachment(foundValue, uploadId, fieldName);
+                fieldNode = uploadJsonNodeAsAttachment(foundValue, uploadId, fieldName, attachmentBatch);
             } else {
                 // Case 2c: Not an attachment. The field value is just the value we found.
                 fieldNode = foundValue;
@@ -222,28 +302,94 @@ public class UploadFileHelper {
         return fieldNode;
     }
 
+    // Keys (the part after "[filename].") of the schema fields that refer to a top-level key in the given file.
+    private static Set<String> findKeysForFile(String filename, Set<String> schemaFieldNames) {
+        String keyPrefix = filename + '.';
+        Set<String> keySet = new HashSet<>();
+        for (String oneFieldName : schemaFieldNames) {
+            if (oneFieldName.startsWith(keyPrefix)) {
+                keySet.add(oneFieldName.substring(keyPrefix.length()));
+            }
+        }
+        return keySet;
+    }
+
+    /**
+     * Reads the top-level keys of a JSON object from the given stream, and returns them as a map from sanitized key
+     * name to value. If wantedKeySet is specified, only the keys in that set (after sanitization) are read into
+     * memory. Other values are skipped by the parser without being built. The whole object is still read to the end,
+     * so that a truncated or malformed file fails the same way it does when all keys are kept, and if a key appears
+     * more than once, the last value wins. If the JSON isn't an object, this returns an empty map. Package-scoped for
+     * unit tests.
+     */
+    static Map<String, JsonNode> readSanitizedTopLevelKeys(InputStream inputStream, Set<String> wantedKeySet)
+            throws IOException {
+        Map<String, JsonNode> sanitizedNodeMap = new HashMap<>();
+        try (JsonParser parser = BridgeObjectMapper.get().getFactory().createParser(inputStream)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return sanitizedNodeMap;
+            }
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String sanitizedKey = SchemaUtils.sanitizeFieldName(parser.getCurrentName());
+                parser.nextToken();
+
+                if (wantedKeySet == null || wantedKeySet.contains(sanitizedKey)) {
+                    JsonNode value = parser.readValueAsTree();
+                    sanitizedNodeMap.put(sanitizedKey, value != null ? value : NullNode.instance);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        return sanitizedNodeMap;
+    }
+
     /**
      * Uploads a JSON node as an upload attachment, then returns a JsonNode containing the attachment's filename in S3,
      * ready for use in a health data record.
      */
     public JsonNode uploadJsonNodeAsAttachment(JsonNode node, String uploadId, String fieldName)
             throws UploadValidationException {
+        return uploadJsonNodeAsAttachment(node, uploadId, fieldName, null);
+    }
+
+    /**
+     * Same as {@link #uploadJsonNodeAsAttachment(JsonNode, String, String)}, except that the attachment is uploaded in
+     * the background and added to the given batch. If the batch is null, the attachment is uploaded before this
+     * method returns.
+     */
+    public JsonNode uploadJsonNodeAsAttachment(JsonNode node, String uploadId, String fieldName,
+            AttachmentUploadBatch attachmentBatch) throws UploadValidationException {
         String filename = uploadId + '-' + fieldName;
-        String jsonText = node.toString();
-        
-        try {
-            uploadBytesAsAttachment(filename, jsonText.getBytes(Charsets.UTF_8));
-        } catch (IOException ex) {
-            throw new UploadValidationException("Error writing attachment to S3, uploadId=" + uploadId +
-                    ", fieldName=" + fieldName, ex);
-        }
+        uploadAttachment(uploadId, fieldName, attachmentBatch,
+                () -> uploadBytesAsAttachment(filename, node.toString().getBytes(Charsets.UTF_8)));
         return TextNode.valueOf(filename);
     }
 
+    // Uploads the attachment now if there's no batch. Otherwise, starts it on the attachment executor and adds it to
+    // the batch. Serialization, MD5, and the S3 call all happen on the executor.
+    private void uploadAttachment(String uploadId, String fieldName, AttachmentUploadBatch attachmentBatch,
+            AttachmentUpload attachmentUpload) throws UploadValidationException {
+        if (attachmentBatch != null) {
+            attachmentBatch.add(fieldName, attachmentExecutor.submit(() -> {
+                attachmentUpload.upload();
+                return null;
+            }));
+        } else {
+            try {
+                attachmentUpload.upload();
+            } catch (IOException ex) {
+                throw new UploadValidationException("Error uploading attachment, uploadId=" + uploadId +
+                        ", fieldName=" + fieldName, ex);
+            }
+        }
+    }
+
     /** Upload bytes to the attachment bucket and apply the correct metadata. */
     public void uploadBytesAsAttachment(String filename, byte[] bytes) throws IOException {
         // Calculate MD5 (base64-encoded).
-        byte[] md5 = md5DigestUtils.digest(bytes);
+        byte[] md5 = md5DigestUtilsSupplier.get().digest(bytes);
         String md5Base64Encoded = Base64.encodeBase64String(md5);
 
         // S3 Metadata must include encryption and MD5. Note that for some reason setContentMD5() doesn't work, so we
@@ -254,10 +400,23 @@ public class UploadFileHelper {
         s3Helper.writeBytesToS3(ATTACHMENT_BUCKET, filename, bytes, metadata);
     }
 
-    /** Upload a file to the attachment bucket and apply the correct metadata. */
+    /**
+     * <p>
+     * Upload a file to the attachment bucket and apply the correct metadata.
+     * </p>
+     * <p>
+     * This reads the file twice: once for the MD5 and once for the PUT. The MD5 can't be computed while streaming the
+     * PUT, because it goes in the Custom-Content-MD5 user metadata. S3 takes user metadata as request headers, so it
+     * must be known before the first byte of the body is sent. The only way to attach it afterwards is a server-side
+     * copy of the object, which is a second S3 request per attachment and costs more than the extra read. The file was
+     * just written by the unzip step, so the MD5 pass reads it from the page cache. See
+     * UploadAttachmentMd5Benchmark (in the tests) for the cost of the pass, which runs on the attachment executor and
+     * not on the validation thread.
+     * </p>
+     */
     public void uploadFileAsAttachment(String filename, File file) throws IOException {
-        // Calculate MD5 (base64-encoded).
-        byte[] md5 = md5DigestUtils.digest(file);
+        // Calculate MD5 (base64-encoded). This must happen before the PUT, see above.
+        byte[] md5 = md5DigestUtilsSupplier.get().digest(file);
         String md5Base64Encoded = Base64.encodeBase64String(md5);
 
         // S3 Metadata must include encryption and MD5. Note that for some reason setContentMD5() doesn't work, so we
@@ -268,4 +427,10 @@ public class UploadFileHelper {
         metadata.setSSEAlgorithm(ObjectMetadata.AES_256_SERVER_SIDE_ENCRYPTION);
         s3Helper.writeFileToS3(ATTACHMENT_BUCKET, filename, file, metadata);
     }
+
+    // An attachment upload, run either in the calling thread or on the attachment executor.
+    @FunctionalInterface
+    private interface AttachmentUpload {
+        void upload() throws IOException;
+    }
 }
@@ -0,0 +1,194 @@
+package org.sagebionetworks.bridge.upload;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import org.sagebionetworks.bridge.models.upload.UploadFieldDefinition;
+import org.sagebionetworks.bridge.models.upload.UploadFieldType;
+import org.sagebionetworks.bridge.models.upload.UploadSchema;
+
+/**
+ * <p>
+ * An upload schema revision compiled for upload validation. Everything that only depends on the schema (whether a
+ * field is an attachment, how its values are canonicalized, the set of valid multi-choice answers, and the set of
+ * field names) is worked out once, instead of for every field of every record.
+ * </p>
+ * <p>
+ * Plans are immutable and cached by study, schema ID, revision, and version, so a schema revision that's updated in
+ * place gets a new plan. Schemas without a version (ones that haven't been saved) are compiled each time.
+ * </p>
+ */
+public final class UploadSchemaValidationPlan {
+    private static final int CACHE_MAX_SIZE = 1000;
+
+    private static final Cache<String, UploadSchemaValidationPlan> PLAN_CACHE = CacheBuilder.newBuilder()
+            .maximumSize(CACHE_MAX_SIZE).build();
+
+    private final FieldPlan[] fieldPlans;
+    private final List<FieldPlan> fieldPlanList;
+    private final Set<String> fieldNameSet;
+
+    private UploadSchemaValidationPlan(List<UploadFieldDefinition> fieldDefList) {
+        fieldPlans = new FieldPlan[fieldDefList.size()];
+        ImmutableSet.Builder<String> fieldNameSetBuilder = ImmutableSet.builder();
+        for (int i = 0; i < fieldPlans.length; i++) {
+            UploadFieldDefinition oneFieldDef = fieldDefList.get(i);
+            fieldPlans[i] = new FieldPlan(oneFieldDef);
+            fieldNameSetBuilder.add(oneFieldDef.getName());
+        }
+        fieldPlanList = ImmutableList.copyOf(fieldPlans);
+        fieldNameSet = fieldNameSetBuilder.build();
+    }
+
+    /** Returns the validation plan for the given schema, compiling it if it isn't already cached. */
+    public static UploadSchemaValidationPlan forSchema(UploadSchema schema) {
+        Long version = schema.getVersion();
+        if (version == null) {
+            return compile(schema);
+        }
+
+        String cacheKey = schema.getStudyId() + ":" + schema.getSchemaId() + ":" + schema.getRevision() + ":" +
+                version;
+        try {
+            return PLAN_CACHE.get(cacheKey, () -> compile(schema));
+        } catch (ExecutionException ex) {
+            // compile() doesn't throw checked exceptions.
+            throw new IllegalStateException(ex.getCause());
+        }
+    }
+
+    /** Compiles the given schema into a new validation plan, without caching it. */
+    public static UploadSchemaValidationPlan compile(UploadSchema schema) {
+        List<UploadFieldDefinition> fieldDefList = schema.getFieldDefinitions();
+        return new UploadSchemaValidationPlan(fieldDefList != null ? fieldDefList : ImmutableList.of());
+    }
+
+    /** Compiled fields, in schema order. */
+    public List<FieldPlan> getFieldPlans() {
+        return fieldPlanList;
+    }
+
+    /** Names of all fields in the schema. */
+    public Set<String> getFieldNameSet() {
+        return fieldNameSet;
+    }
+
+    /**
+     * Validates the record data against the schema, and writes canonicalized values back into the data node. Returns
+     * a list of validation errors, which is empty if the data is valid.
+     */
+    public List<String> validateAndCanonicalize(JsonNode recordDataNode) {
+        List<String> errorList = new ArrayList<>();
+        for (FieldPlan oneFieldPlan : fieldPlans) {
+            oneFieldPlan.validateAndCanonicalize(recordDataNode, errorList);
+        }
+        return errorList;
+    }
+
+    /** One field of the schema, with everything needed to validate it worked out in advance. */
+    public static final class FieldPlan {
+        private final UploadFieldDefinition fieldDef;
+        private final String name;
+        private final boolean attachment;
+        private final boolean required;
+        private final Function<JsonNode, CanonicalizationResult> canonicalizer;
+        // Null if the field's answers aren't checked against a list.
+        private final Set<String> validAnswerSet;
+
+        private FieldPlan(UploadFieldDefinition fieldDef) {
+            this.fieldDef = fieldDef;
+            this.name = fieldDef.getName();
+            this.required = fieldDef.isRequired();
+
+            UploadFieldType type = fieldDef.getType();
+            this.attachment = UploadFieldType.ATTACHMENT_TYPE_SET.contains(type);
+            this.canonicalizer = makeCanonicalizer(type);
+
+            if (type == UploadFieldType.MULTI_CHOICE && !Boolean.TRUE.equals(fieldDef.getAllowOtherChoices())) {
+                List<String> answerList = fieldDef.getMultiChoiceAnswerList();
+                this.validAnswerSet = answerList != null ? ImmutableSet.copyOf(answerList) : ImmutableSet.of();
+            } else {
+                this.validAnswerSet = null;
+            }
+        }
+
+        // Values of these types are always valid and already canonical, so there's nothing to do. Everything else
+        // goes through UploadUtil.canonicalize().
+        private static Function<JsonNode, CanonicalizationResult> makeCanonicalizer(UploadFieldType type) {
+            if (type == UploadFieldType.INLINE_JSON_BLOB || UploadFieldType.ATTACHMENT_TYPE_SET.contains(type)) {
+                return CanonicalizationResult::makeResult;
+            } else if (type == UploadFieldType.STRING) {
+                return valueNode -> CanonicalizationResult.makeResult(UploadUtil.convertToStringNode(valueNode));
+            } else {
+                return valueNode -> UploadUtil.canonicalize(valueNode, type);
+            }
+        }
+
+        /** The field definition this was compiled from. */
+        public UploadFieldDefinition getFieldDef() {
+            return fieldDef;
+        }
+
+        /** Field name. */
+        public String getName() {
+            return name;
+        }
+
+        /** True if the field is one of the attachment types. */
+        public boolean isAttachment() {
+            return attachment;
+        }
+
+        // Validates and canonicalizes this field in the record data, adding any errors to the list.
+        private void validateAndCanonicalize(JsonNode recordDataNode, List<String> errorList) {
+            if (attachment) {
+                // For attachment types, since they just get exported as raw files, we only need to check if it's
+                // required and present. Specifically, if it's required and it's not present, then that's an error.
+                if (required && !recordDataNode.hasNonNull(name)) {
+                    errorList.add("Required attachment field " + name + " missing");
+                }
+                return;
+            }
+
+            JsonNode fieldValueNode = recordDataNode.get(name);
+            if (fieldValueNode == null || fieldValueNode.isNull()) {
+                if (required) {
+                    errorList.add("Required field " + name + " missing");
+                }
+                return;
+            }
+
+            CanonicalizationResult canonicalizationResult = canonicalizer.apply(fieldValueNode);
+            if (!canonicalizationResult.isValid()) {
+                errorList.add("Canonicalization failed for field " + name + ": " +
+                        canonicalizationResult.getErrorMessage());
+                return;
+            }
+            JsonNode canonicalizedValueNode = canonicalizationResult.getCanonicalizedValueNode();
+
+            // Special case: MULTI_CHOICE value validation (unless it allows other choices)
+            if (validAnswerSet != null) {
+                int numAnswers = canonicalizedValueNode.size();
+                for (int i = 0; i < numAnswers; i++) {
+                    String answer = canonicalizedValueNode.get(i).textValue();
+                    if (!validAnswerSet.contains(answer)) {
+                        errorList.add("Multi-Choice field " + name + " contains invalid answer " + answer);
+                    }
+                }
+            }
+
+            // Write the canonicalization back into the field data map.
+            ((ObjectNode) recordDataNode).set(name, canonicalizedValueNode);
+        }
+    }
+}
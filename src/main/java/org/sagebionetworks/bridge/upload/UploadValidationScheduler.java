@@ -0,0 +1,273 @@
+package org.sagebionetworks.bridge.upload;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import org.sagebionetworks.bridge.config.BridgeConfig;
+import org.sagebionetworks.bridge.models.studies.StudyIdentifier;
+
+/**
+ * <p>
+ * Runs upload validation tasks on a dedicated thread pool, so that a burst of uploads from one study can't starve
+ * other studies or the rest of the server's async work. Tasks wait in per-study queues, and free threads take tasks
+ * from the studies in round-robin order. Synchronous submissions (where the caller is waiting for the result) are
+ * always taken before asynchronous ones. No study runs more than a configured number of tasks at a time.
+ * </p>
+ * <p>
+ * The number of waiting tasks is bounded. When the queue is full, the submitting thread runs the task itself. This
+ * slows down whoever is submitting the flood of uploads, rather than failing an upload that has already been marked
+ * complete, and keeps the queue from exhausting the heap.
+ * </p>
+ */
+@Component
+public class UploadValidationScheduler {
+    private static final Logger LOG = LoggerFactory.getLogger(UploadValidationScheduler.class);
+
+    static final String CONFIG_KEY_THREAD_COUNT = "upload.validation.thread.count";
+    static final String CONFIG_KEY_MAX_QUEUED = "upload.validation.max.queued";
+    static final String CONFIG_KEY_MAX_IN_FLIGHT_PER_STUDY = "upload.validation.max.in.flight.per.study";
+
+    // All fields below are guarded by this lock, except the executor.
+    private final Object lock = new Object();
+    private final StudyQueues syncQueues = new StudyQueues();
+    private final StudyQueues asyncQueues = new StudyQueues();
+    private final Map<String, Integer> inFlightByStudy = new HashMap<>();
+    private int threadCount;
+    private int maxQueued;
+    private int maxInFlightPerStudy;
+    private int queuedCount;
+    private int runningCount;
+    private long submittedCount;
+    private long rejectedCount;
+    private long startedCount;
+    private long totalWaitNanos;
+    private long maxWaitNanos;
+
+    private ExecutorService executorService;
+
+    /** Config, for the number of threads, the queue size, and the per-study limit. */
+    @Autowired
+    public final void setBridgeConfig(BridgeConfig config) {
+        configure(config.getPropertyAsInt(CONFIG_KEY_THREAD_COUNT), config.getPropertyAsInt(CONFIG_KEY_MAX_QUEUED),
+                config.getPropertyAsInt(CONFIG_KEY_MAX_IN_FLIGHT_PER_STUDY));
+    }
+
+    /**
+     * Sets the number of validation threads, the max number of tasks waiting for a thread, and the max number of
+     * tasks per study running at once. Separate from the config setter so that tests can change these values.
+     */
+    final void configure(int threadCount, int maxQueued, int maxInFlightPerStudy) {
+        synchronized (lock) {
+            this.threadCount = threadCount;
+            this.maxQueued = maxQueued;
+            this.maxInFlightPerStudy = maxInFlightPerStudy;
+        }
+    }
+
+    /** Executor the tasks run on. Created by {@link #start}, separate setter so that tests can run tasks by hand. */
+    final void setExecutorService(ExecutorService executorService) {
+        this.executorService = executorService;
+    }
+
+    /** Creates the validation thread pool. */
+    @PostConstruct
+    public void start() {
+        executorService = Executors.newFixedThreadPool(threadCount, new ThreadFactoryBuilder()
+                .setNameFormat("upload-validation-%d").setDaemon(true).build());
+    }
+
+    /** Stops the validation thread pool, letting running tasks finish. */
+    @PreDestroy
+    public void stop() {
+        if (executorService != null) {
+            executorService.shutdown();
+        }
+    }
+
+    /**
+     * Submits an upload validation task for the given study. Synchronous submissions are run before any asynchronous
+     * ones. If the queue is full, the task is run in the calling thread before this method returns.
+     */
+    public void submit(StudyIdentifier study, Runnable task, boolean synchronous) {
+        checkNotNull(study);
+        checkNotNull(task);
+
+        boolean runInCaller;
+        synchronized (lock) {
+            submittedCount++;
+            runInCaller = queuedCount >= maxQueued;
+            if (runInCaller) {
+                rejectedCount++;
+            } else {
+                QueuedTask queuedTask = new QueuedTask(study.getIdentifier(), task, System.nanoTime());
+                (synchronous ? syncQueues : asyncQueues).add(queuedTask);
+                queuedCount++;
+                dispatch();
+            }
+        }
+
+        if (runInCaller) {
+            LOG.warn("Upload validation queue is full, validating upload for study " + study.getIdentifier() +
+                    " in the calling thread");
+            task.run();
+        }
+    }
+
+    /** Number of tasks waiting for a thread. */
+    public int getQueueDepth() {
+        synchronized (lock) {
+            return queuedCount;
+        }
+    }
+
+    /** Number of tasks currently running. */
+    public int getRunningCount() {
+        synchronized (lock) {
+            return runningCount;
+        }
+    }
+
+    /** Number of tasks submitted, including those run by the caller. */
+    public long getSubmittedCount() {
+        synchronized (lock) {
+            return submittedCount;
+        }
+    }
+
+    /** Number of tasks that found the queue full, and were run by the caller instead. */
+    public long getRejectedCount() {
+        synchronized (lock) {
+            return rejectedCount;
+        }
+    }
+
+    /** Average time tasks have waited in the queue before starting, or 0 if none have started. */
+    public long getAverageWaitMillis() {
+        synchronized (lock) {
+            return startedCount == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalWaitNanos / startedCount);
+        }
+    }
+
+    /** Longest time any task has waited in the queue before starting. */
+    public long getMaxWaitMillis() {
+        synchronized (lock) {
+            return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos);
+        }
+    }
+
+    // Hands queued tasks to free threads, synchronous tasks first. Must be called while holding the lock.
+    private void dispatch() {
+        Predicate<String> hasCapacity = studyId -> inFlightByStudy.getOrDefault(studyId, 0) < maxInFlightPerStudy;
+        while (runningCount < threadCount) {
+            QueuedTask next = syncQueues.poll(hasCapacity);
+            if (next == null) {
+                next = asyncQueues.poll(hasCapacity);
+            }
+            if (next == null) {
+                // Nothing queued, or every study with queued tasks is at its limit.
+                return;
+            }
+            queuedCount--;
+
+            long waitNanos = System.nanoTime() - next.queuedAtNanos;
+            startedCount++;
+            totalWaitNanos += waitNanos;
+            maxWaitNanos = Math.max(maxWaitNanos, waitNanos);
+
+            runningCount++;
+            inFlightByStudy.merge(next.studyId, 1, Integer::sum);
+            QueuedTask toRun = next;
+            try {
+                executorService.execute(() -> runAndRelease(toRun));
+            } catch (RejectedExecutionException ex) {
+                // Only happens once we've been shut down.
+                LOG.error("Upload validation for study " + next.studyId + " rejected by executor", ex);
+                release(next);
+            }
+        }
+    }
+
+    private void runAndRelease(QueuedTask queuedTask) {
+        try {
+            queuedTask.task.run();
+        } finally {
+            synchronized (lock) {
+                release(queuedTask);
+                dispatch();
+            }
+        }
+    }
+
+    // Must be called while holding the lock.
+    private void release(QueuedTask queuedTask) {
+        runningCount--;
+        inFlightByStudy.computeIfPresent(queuedTask.studyId, (studyId, count) -> count > 1 ? count - 1 : null);
+    }
+
+    private static class QueuedTask {
+        private final String studyId;
+        private final Runnable task;
+        private final long queuedAtNanos;
+
+        QueuedTask(String studyId, Runnable task, long queuedAtNanos) {
+            this.studyId = studyId;
+            this.task = task;
+            this.queuedAtNanos = queuedAtNanos;
+        }
+    }
+
+    /** Per-study FIFO queues, polled in round-robin order across studies. Not thread-safe. */
+    private static class StudyQueues {
+        private final Map<String, ArrayDeque<QueuedTask>> queuesByStudy = new LinkedHashMap<>();
+        // Studies with queued tasks, in the order they get their next turn.
+        private final ArrayDeque<String> turnOrder = new ArrayDeque<>();
+
+        void add(QueuedTask queuedTask) {
+            ArrayDeque<QueuedTask> queue = queuesByStudy.get(queuedTask.studyId);
+            if (queue == null) {
+                queue = new ArrayDeque<>();
+                queuesByStudy.put(queuedTask.studyId, queue);
+                turnOrder.addLast(queuedTask.studyId);
+            }
+            queue.addLast(queuedTask);
+        }
+
+        /** Next task from the next study that can run one, or null if no study can. */
+        QueuedTask poll(Predicate<String> canRun) {
+            for (int i = 0; i < turnOrder.size(); i++) {
+                String studyId = turnOrder.pollFirst();
+                if (!canRun.test(studyId)) {
+                    turnOrder.addLast(studyId);
+                    continue;
+                }
+                ArrayDeque<QueuedTask> queue = queuesByStudy.get(studyId);
+                QueuedTask queuedTask = queue.pollFirst();
+                if (queue.isEmpty()) {
+                    queuesByStudy.remove(studyId);
+                } else {
+                    turnOrder.addLast(studyId);
+                }
+                return queuedTask;
+            }
+            return null;
+        }
+    }
+}
@@ -9,6 +9,7 @@ import java.util.concurrent.TimeUnit;
 import com.google.common.base.Stopwatch;
 
 import org.sagebionetworks.bridge.file.FileHelper;
+import org.sagebionetworks.bridge.metrics.MetricsRegistry;
 import org.sagebionetworks.bridge.services.HealthDataService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -23,12 +24,27 @@ import org.sagebionetworks.bridge.models.upload.UploadStatus;
 public class UploadValidationTask implements Runnable {
     private static final Logger logger = LoggerFactory.getLogger(UploadValidationTask.class);
 
+    // Metric names. Latencies are in milliseconds. Per-handler and per-study metrics have the handler class name or
+    // the study ID appended.
+    static final String METRIC_HANDLER_LATENCY = "upload.validation.handler.latency.";
+    static final String METRIC_HANDLER_FAILURE = "upload.validation.handler.failure.";
+    static final String METRIC_STUDY_LATENCY = "upload.validation.study.latency.";
+    static final String METRIC_STUDY_SUCCESS = "upload.validation.study.success.";
+    static final String METRIC_STUDY_FAILURE = "upload.validation.study.failure.";
+    static final String METRIC_SUCCESS = "upload.validation.success";
+    static final String METRIC_FAILURE = "upload.validation.failure";
+    static final String METRIC_BYTES = "upload.validation.bytes";
+    static final String METRIC_QUEUE_TO_COMPLETION = "upload.validation.queue.to.completion";
+
     private final UploadValidationContext context;
+    private final long createdNanos = System.nanoTime();
 
     private FileHelper fileHelper;
     private List<UploadValidationHandler> handlerList;
     private UploadDao uploadDao;
     private HealthDataService healthDataService;
+    private MetricsRegistry metricsRegistry = new MetricsRegistry();
+    private UploadCompletionRegistry completionRegistry;
 
     public final void setHealthDataService(HealthDataService healthDataService) {
         this.healthDataService = healthDataService;
@@ -82,9 +98,38 @@ public class UploadValidationTask implements Runnable {
         return uploadDao;
     }
 
+    /**
+     * Metrics registry, for handler latencies and success and failure counts. This is configured by Spring through the
+     * task factory. Defaults to a registry of its own, so tests that don't care about metrics don't need to set one.
+     */
+    public final void setMetricsRegistry(MetricsRegistry metricsRegistry) {
+        this.metricsRegistry = metricsRegistry;
+    }
+
+    /** This is package-scoped to facilitate unit tests. */
+    /* package-scoped*/ MetricsRegistry getMetricsRegistry() {
+        return metricsRegistry;
+    }
+
+    /**
+     * Completion registry, used to wake callers waiting for this upload's validation status. This is configured by
+     * Spring through the task factory. If it isn't set, no one is woken, and callers find the status when they poll.
+     */
+    public final void setCompletionRegistry(UploadCompletionRegistry completionRegistry) {
+        this.completionRegistry = completionRegistry;
+    }
+
+    /** This is package-scoped to facilitate unit tests. */
+    /* package-scoped*/ UploadCompletionRegistry getCompletionRegistry() {
+        return completionRegistry;
+    }
+
     /** {@inheritDoc} */
     @Override
     public void run() {
+        String studyId = context.getStudy().getIdentifier();
+        Stopwatch taskStopwatch = Stopwatch.createStarted();
+
         // Create temp dir.
         File tempDir = fileHelper.createTempDir();
         context.setTempDir(tempDir);
@@ -98,6 +143,7 @@ public class UploadValidationTask implements Runnable {
                 oneHandler.handle(context);
             } catch (Throwable ex) {
                 context.setSuccess(false);
+                metricsRegistry.increment(METRIC_HANDLER_FAILURE + handlerName);
                 context.addMessage(String.format("Exception thrown from upload validation handler %s: %s: %s",
                         handlerName, ex.getClass().getName(), ex.getMessage()));
 
@@ -120,8 +166,7 @@ public class UploadValidationTask implements Runnable {
             } finally {
                 long elapsedMillis = stopwatch.elapsed(TimeUnit.MILLISECONDS);
                 stopwatch.reset();
-                // TODO: send this to somewhere other than the logs
-                logger.info(String.format("Upload validation handler %s took %d ms", handlerName, elapsedMillis));
+                metricsRegistry.record(METRIC_HANDLER_LATENCY + handlerName, elapsedMillis);
             }
         }
 
@@ -139,6 +184,24 @@ public class UploadValidationTask implements Runnable {
             logWriteValidationStatusException(status, ex);
         }
 
+        // Wake anyone waiting for this upload's validation status, on this node or any other.
+        if (completionRegistry != null) {
+            completionRegistry.complete(context.getUpload().getUploadId());
+        }
+
+        // Upload metrics. Queue-to-completion includes the time spent waiting for a validation thread.
+        if (context.getSuccess()) {
+            metricsRegistry.increment(METRIC_SUCCESS);
+            metricsRegistry.increment(METRIC_STUDY_SUCCESS + studyId);
+        } else {
+            metricsRegistry.increment(METRIC_FAILURE);
+            metricsRegistry.increment(METRIC_STUDY_FAILURE + studyId);
+        }
+        metricsRegistry.increment(METRIC_BYTES, context.getUpload().getContentLength());
+        metricsRegistry.record(METRIC_STUDY_LATENCY + studyId, taskStopwatch.elapsed(TimeUnit.MILLISECONDS));
+        metricsRegistry.record(METRIC_QUEUE_TO_COMPLETION,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - createdNanos));
+
         // TODO: if validation fails, wipe the files from S3
 
         // Finally, delete the temp dir.
@@ -7,6 +7,7 @@ import javax.annotation.Resource;
 
 import org.sagebionetworks.bridge.dao.UploadDao;
 import org.sagebionetworks.bridge.file.FileHelper;
+import org.sagebionetworks.bridge.metrics.MetricsRegistry;
 import org.sagebionetworks.bridge.models.studies.StudyIdentifier;
 import org.sagebionetworks.bridge.models.upload.Upload;
 import org.sagebionetworks.bridge.services.HealthDataService;
@@ -24,6 +25,8 @@ public class UploadValidationTaskFactory {
     private List<UploadValidationHandler> handlerList;
     private UploadDao uploadDao;
     private HealthDataService healthDataService;
+    private MetricsRegistry metricsRegistry;
+    private UploadCompletionRegistry completionRegistry;
 
     /** File helper, used to create and delete the temp directory in which we process uploads. */
     @Autowired
@@ -48,6 +51,18 @@ public class UploadValidationTaskFactory {
         this.healthDataService = healthDataService;
     }
 
+    /** Metrics registry, for handler latencies and success and failure counts. This is configured by Spring. */
+    @Autowired
+    public final void setMetricsRegistry(MetricsRegistry metricsRegistry) {
+        this.metricsRegistry = metricsRegistry;
+    }
+
+    /** Completion registry, used to wake callers waiting for validation status. This is configured by Spring. */
+    @Autowired
+    public final void setCompletionRegistry(UploadCompletionRegistry completionRegistry) {
+        this.completionRegistry = completionRegistry;
+    }
+
     /**
      * Factory method for creating a validation task instance, for validating a single upload.
      *
@@ -70,6 +85,8 @@ public class UploadValidationTaskFactory {
         task.setHandlerList(handlerList);
         task.setUploadDao(uploadDao);
         task.setHealthDataService(healthDataService);
+        task.setMetricsRegistry(metricsRegistry);
+        task.setCompletionRegistry(completionRegistry);
         return task;
     }
 }
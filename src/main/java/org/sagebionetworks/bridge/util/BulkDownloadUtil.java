@@ -62,6 +62,8 @@ public class BulkDownloadUtil {
 
         AmazonDynamoDBClient ddbClient = springCtx.getBean(AmazonDynamoDBClient.class);
         S3DownloadHandler s3DownloadHandler = springCtx.getBean(S3DownloadHandler.class);
+        // We fall back to the encrypted file if decryption fails, so we need the download as a file.
+        s3DownloadHandler.setStreamingEnabled(false);
         DecryptHandler decryptHandler = springCtx.getBean(DecryptHandler.class);
         UnzipHandler unzipHandler = springCtx.getBean(UnzipHandler.class);
 
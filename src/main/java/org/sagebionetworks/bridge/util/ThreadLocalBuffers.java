@@ -0,0 +1,92 @@
+package org.sagebionetworks.bridge.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * <p>
+ * Per-thread scratch buffers, so that hot paths which copy or collect bytes don't allocate a new buffer every time.
+ * Each thread has one copy buffer and one growable output stream.
+ * </p>
+ * <p>
+ * Buffers are only valid until the thread asks for the same buffer again, so never hand them to another thread or
+ * hold them across calls that might use them too. The output stream lets go of its array when it grows past
+ * {@link #MAX_RETAINED_CAPACITY}, so one big payload doesn't pin that much memory to the thread forever.
+ * </p>
+ */
+public final class ThreadLocalBuffers {
+    /** Size of the copy buffer, in bytes. */
+    public static final int COPY_BUFFER_SIZE = 8192;
+
+    /** Largest output stream array, in bytes, that's kept for the next caller. */
+    public static final int MAX_RETAINED_CAPACITY = 1024 * 1024;
+
+    private static final int INITIAL_OUTPUT_CAPACITY = 8192;
+
+    private static final ThreadLocal<byte[]> COPY_BUFFER = ThreadLocal.withInitial(() -> new byte[COPY_BUFFER_SIZE]);
+    private static final ThreadLocal<ReusableOutputStream> OUTPUT_STREAM = ThreadLocal.withInitial(
+            ReusableOutputStream::new);
+
+    private ThreadLocalBuffers() {
+    }
+
+    /** This thread's copy buffer, {@link #COPY_BUFFER_SIZE} bytes long. Contents are left over from the last use. */
+    public static byte[] getCopyBuffer() {
+        return COPY_BUFFER.get();
+    }
+
+    /**
+     * This thread's output stream, emptied. If it's already in use further up the stack, this returns a new stream
+     * instead. Close the stream when done with it, so the next caller can reuse it.
+     */
+    public static ReusableOutputStream getOutputStream() {
+        ReusableOutputStream outputStream = OUTPUT_STREAM.get();
+        if (outputStream.inUse) {
+            outputStream = new ReusableOutputStream();
+        }
+        outputStream.reset();
+        outputStream.inUse = true;
+        return outputStream;
+    }
+
+    /** Copies the input stream to the output stream using this thread's copy buffer. Returns the number of bytes. */
+    public static long copy(InputStream inputStream, OutputStream outputStream) throws IOException {
+        byte[] copyBuffer = getCopyBuffer();
+        long totalBytes = 0;
+        int bytesRead;
+        while ((bytesRead = inputStream.read(copyBuffer, 0, COPY_BUFFER_SIZE)) >= 0) {
+            outputStream.write(copyBuffer, 0, bytesRead);
+            totalBytes += bytesRead;
+        }
+        return totalBytes;
+    }
+
+    /**
+     * Output stream backed by a growable array that's reused across calls. {@link #toByteArray} is the only copy.
+     * Closing the stream gives it back to the thread.
+     */
+    public static final class ReusableOutputStream extends ByteArrayOutputStream {
+        private boolean inUse;
+
+        private ReusableOutputStream() {
+            super(INITIAL_OUTPUT_CAPACITY);
+        }
+
+        /** Current capacity of the backing array. This is package-scoped to facilitate unit tests. */
+        int getCapacity() {
+            return buf.length;
+        }
+
+        /** Gives the stream back to the thread. Writing to it after this is an error that isn't detected. */
+        @Override
+        public void close() {
+            if (buf.length > MAX_RETAINED_CAPACITY) {
+                buf = new byte[INITIAL_OUTPUT_CAPACITY];
+            }
+            count = 0;
+            inUse = false;
+        }
+    }
+}
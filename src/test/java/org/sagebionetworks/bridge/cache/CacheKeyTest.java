@@ -36,11 +36,21 @@ public class CacheKeyTest {
         assertEquals(CacheKey.shortenUrl("ABC").toString(), "ABC:ShortenedUrl");
     }
     
+    @Test
+    public void activityEventMap() {
+        assertEquals(CacheKey.activityEventMap("healthCode").toString(), "healthCode:ActivityEventMap");
+    }
+    
     @Test
     public void appConfigList() {
         assertEquals(CacheKey.appConfigList(TestConstants.TEST_STUDY).toString(), "api:AppConfigList");
     }
     
+    @Test
+    public void resolvedAppConfigs() {
+        assertEquals(CacheKey.resolvedAppConfigs(TestConstants.TEST_STUDY).toString(), "api:ResolvedAppConfigs");
+    }
+    
     @Test
     public void channelThrottling() {
         assertEquals(CacheKey.channelThrottling("email", "userId").toString(), "userId:email:channel-throttling");
@@ -125,6 +135,16 @@ public class CacheKeyTest {
         assertEquals(CacheKey.viewKey(StringBuilder.class, "a", "b").toString(), "a:b:StringBuilder:view");
     }
     
+    @Test
+    public void uploadDedupeFilter() {
+        assertEquals(CacheKey.uploadDedupeFilter(17700L).toString(), "17700:UploadDedupeFilter");
+    }
+    
+    @Test
+    public void uploadDedupeFilterSince() {
+        assertEquals(CacheKey.uploadDedupeFilterSince().toString(), "since:UploadDedupeFilter");
+    }
+    
     @Test
     public void userIdToSession() {
         assertEquals(CacheKey.userIdToSession("userId").toString(), "userId:session2:user");
@@ -143,4 +163,19 @@ public class CacheKeyTest {
         CacheKey publicKey = CacheKey.study("studyId");
         assertTrue(CacheKey.isPublic(publicKey.toString()));
     }
+    
+    @Test
+    public void isNearCacheable() {
+        assertTrue(CacheKey.isNearCacheable(CacheKey.study("studyId").toString()));
+        assertTrue(CacheKey.isNearCacheable(CacheKey.subpopList(TestConstants.TEST_STUDY).toString()));
+        assertTrue(CacheKey.isNearCacheable(CacheKey.subpop(SUBPOP_GUID, TestConstants.TEST_STUDY).toString()));
+        assertTrue(CacheKey.isNearCacheable(CacheKey.resolvedAppConfigs(TestConstants.TEST_STUDY).toString()));
+        
+        // The app config list is the set of cached app config views, not a value.
+        assertFalse(CacheKey.isNearCacheable(CacheKey.appConfigList(TestConstants.TEST_STUDY).toString()));
+        
+        assertFalse(CacheKey.isNearCacheable(CacheKey.requestInfo("userId").toString()));
+        assertFalse(CacheKey.isNearCacheable(CacheKey.userIdToSession("userId").toString()));
+        assertFalse(CacheKey.isNearCacheable(CacheKey.viewKey(CacheKey.class, "a").toString()));
+    }
 }
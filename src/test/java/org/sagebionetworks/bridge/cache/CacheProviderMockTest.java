@@ -1,27 +1,34 @@
 package org.sagebionetworks.bridge.cache;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.mockito.AdditionalMatchers.aryEq;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.anyInt;
+import static org.mockito.Mockito.anyList;
 import static org.mockito.Mockito.anyString;
 import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
-import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
 import static org.testng.Assert.assertNull;
 import static org.testng.Assert.assertTrue;
 import static org.testng.Assert.fail;
 
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.joda.time.DateTime;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.testng.annotations.BeforeMethod;
@@ -35,6 +42,7 @@ import org.sagebionetworks.bridge.config.BridgeConfigFactory;
 import org.sagebionetworks.bridge.config.Environment;
 import org.sagebionetworks.bridge.crypto.AesGcmEncryptor;
 import org.sagebionetworks.bridge.crypto.Encryptor;
+import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
 import org.sagebionetworks.bridge.json.BridgeObjectMapper;
 import org.sagebionetworks.bridge.models.accounts.ConsentStatus;
 import org.sagebionetworks.bridge.models.accounts.SharingScope;
@@ -46,12 +54,17 @@ import org.sagebionetworks.bridge.models.subpopulations.SubpopulationGuid;
 import org.sagebionetworks.bridge.redis.JedisOps;
 import org.sagebionetworks.bridge.redis.JedisTransaction;
 
+import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.Transaction;
+import redis.clients.jedis.exceptions.JedisDataException;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 
 public class CacheProviderMockTest {
@@ -72,10 +85,21 @@ public class CacheProviderMockTest {
     @Mock
     private JedisOps jedisOps;
     
+    @Mock
+    private JedisPool jedisPool;
+    
+    @Mock
+    private Jedis jedis;
+    
+    @Mock
+    private Transaction redisTransaction;
+    
     @Test
     public void addAndRemoveViewFromCacheProvider() throws Exception {
         final CacheProvider simpleCacheProvider = new CacheProvider();
-        simpleCacheProvider.setJedisOps(getJedisOps());
+        simpleCacheProvider.setJedisOps(jedisOps);
+        simpleCacheProvider.setJedisPool(jedisPool);
+        mockRedisStore();
 
         final Study study = TestUtils.getValidStudy(CacheProviderMockTest.class);
         study.setIdentifier("test");
@@ -108,12 +132,7 @@ public class CacheProviderMockTest {
     }
 
     private void assertSession(String json) {
-        JedisOps jedisOps = mock(JedisOps.class);
-        
-        when(jedisOps.get(TOKEN_TO_USER_ID.toString())).thenReturn(USER_ID);
-        when(jedisOps.get(USER_ID_TO_SESSION.toString())).thenReturn(json);
-        
-        cacheProvider.setJedisOps(jedisOps);
+        mockGetSessionScript(bytes(json));
         
         UserSession session = cacheProvider.getUserSession(DECRYPTED_SESSION_TOKEN);
 
@@ -154,8 +173,13 @@ public class CacheProviderMockTest {
         when(jedisOps.getTransaction()).thenReturn(transaction);
         when(jedisOps.get(TOKEN_TO_USER_ID.toString())).thenReturn(USER_ID);
         
+        when(jedisPool.getResource()).thenReturn(jedis);
+        when(jedis.multi()).thenReturn(redisTransaction);
+        when(redisTransaction.exec()).thenReturn(Arrays.asList((Object)"OK", "OK"));
+        
         cacheProvider = new CacheProvider();
         cacheProvider.setJedisOps(jedisOps);
+        cacheProvider.setJedisPool(jedisPool);
     }
 
     private UserSession createUserSession() {
@@ -178,78 +202,67 @@ public class CacheProviderMockTest {
         verify(transaction, never()).exec();
     }
 
-    private JedisOps getJedisOps() {
-        return new JedisOps(new JedisPool()) {
-            private Map<String,String> map = Maps.newHashMap();
-            @Override
-            public Long del(final String... keys) {
-                for (String key : keys) {
-                    map.remove(key);
-                }
-                return (long)keys.length;
-            }
-            @Override
-            public Long expire(final String key, final int seconds) {
-                return 1L;
-            }
-            @Override
-            public String get(final String key) {
-                return map.get(key);
-            }
-            @Override
-            public String setex(final String key, final int seconds, final String value) {
-                map.put(key, value);
-                return "OK";
-            }
-            @Override
-            public Long setnx(final String key, final String value) {
-                map.put(key, value);
-                return 1L;
-            }
-        };
+    /** Backs the Redis calls used to get, set, and remove objects with a map. */
+    private void mockRedisStore() {
+        Map<String, byte[]> map = new HashMap<>();
+        doAnswer(invocation -> {
+            return map.get(new String((byte[]) invocation.getArgument(0), UTF_8));
+        }).when(jedis).get(any(byte[].class));
+        doAnswer(invocation -> {
+            map.put(new String((byte[]) invocation.getArgument(0), UTF_8), invocation.getArgument(2));
+            return "OK";
+        }).when(jedis).setex(any(byte[].class), anyInt(), any(byte[].class));
+        doAnswer(invocation -> {
+            map.remove(invocation.getArgument(0));
+            return 1L;
+        }).when(jedisOps).del(anyString());
+    }
+    
+    private static byte[] bytes(String value) {
+        return value.getBytes(UTF_8);
     }
 
     @Test
     public void getObject() throws Exception {
         OAuthProvider provider = new OAuthProvider("clientId", "secret", "endpoint", "callbackUrl");
-        String ser = BridgeObjectMapper.get().writeValueAsString(provider);
-        when(jedisOps.get(CACHE_KEY.toString())).thenReturn(ser);
+        byte[] ser = BridgeObjectMapper.get().writeValueAsBytes(provider);
+        when(jedis.get(bytes(CACHE_KEY.toString()))).thenReturn(ser);
         
         OAuthProvider returned = cacheProvider.getObject(CACHE_KEY, OAuthProvider.class);
         assertEquals(returned, provider);
-        verify(jedisOps).get(CACHE_KEY.toString());
+        verify(jedis).get(bytes(CACHE_KEY.toString()));
     }
     
     @Test
     public void getObjectOfString() throws Exception {
-        String ser = BridgeObjectMapper.get().writeValueAsString("Test");
-        when(jedisOps.get(CACHE_KEY.toString())).thenReturn(ser);
+        byte[] ser = BridgeObjectMapper.get().writeValueAsBytes("Test");
+        when(jedis.get(bytes(CACHE_KEY.toString()))).thenReturn(ser);
         
         String result = cacheProvider.getObject(CACHE_KEY, String.class);
         assertEquals(result, "Test");
-        verify(jedisOps).get(CACHE_KEY.toString());
+        verify(jedis).get(bytes(CACHE_KEY.toString()));
     }
     
     @Test
     public void getObjectWithReexpire() throws Exception {
         OAuthProvider provider = new OAuthProvider("clientId", "secret", "endpoint", "callbackUrl");
-        String ser = BridgeObjectMapper.get().writeValueAsString(provider);
-        when(jedisOps.get(CACHE_KEY.toString())).thenReturn(ser);
+        byte[] ser = BridgeObjectMapper.get().writeValueAsBytes(provider);
+        when(jedis.get(bytes(CACHE_KEY.toString()))).thenReturn(ser);
         
         OAuthProvider returned = cacheProvider.getObject(CACHE_KEY, OAuthProvider.class, 100);
         assertEquals(returned, provider);
-        verify(jedisOps).get(CACHE_KEY.toString());
-        verify(jedisOps).expire(CACHE_KEY.toString(), 100);
+        verify(jedis).get(bytes(CACHE_KEY.toString()));
+        verify(jedis).expire(bytes(CACHE_KEY.toString()), 100);
     }
     
     @Test
     public void getObjectWithReexpireOfString() throws Exception {
-        String ser = BridgeObjectMapper.get().writeValueAsString("Test");
-        when(jedisOps.get(CACHE_KEY.toString())).thenReturn(ser);
+        byte[] ser = BridgeObjectMapper.get().writeValueAsBytes("Test");
+        when(jedis.get(bytes(CACHE_KEY.toString()))).thenReturn(ser);
         
         String result = cacheProvider.getObject(CACHE_KEY, String.class, 100);
         assertEquals(result, "Test");
-        verify(jedisOps).expire(CACHE_KEY.toString(), 100);
+        verify(jedis).expire(bytes(CACHE_KEY.toString()), 100);
     }
     
     @Test
@@ -257,8 +270,8 @@ public class CacheProviderMockTest {
         OAuthProvider provider1 = new OAuthProvider("clientId1", "secret1", "endpoint1", "callbackUrl1");
         OAuthProvider provider2 = new OAuthProvider("clientId2", "secret2", "endpoint2", "callbackUrl2");
         List<OAuthProvider> providers = Lists.newArrayList(provider1, provider2);
-        String ser = BridgeObjectMapper.get().writeValueAsString(providers);
-        when(jedisOps.get(CACHE_KEY.toString())).thenReturn(ser);
+        byte[] ser = BridgeObjectMapper.get().writeValueAsBytes(providers);
+        when(jedis.get(bytes(CACHE_KEY.toString()))).thenReturn(ser);
         
         TypeReference<List<OAuthProvider>> typeRef = new TypeReference<List<OAuthProvider>>() {};
         
@@ -268,6 +281,156 @@ public class CacheProviderMockTest {
         assertEquals(returned.size(), 2);
     }
 
+    @Test
+    public void getObjectFromNearCache() throws Exception {
+        NearCache nearCache = new NearCache();
+        nearCache.configure(true, 10, 60);
+        cacheProvider.setNearCache(nearCache);
+        
+        OAuthProvider provider = new OAuthProvider("clientId", "secret", "endpoint", "callbackUrl");
+        byte[] ser = BridgeObjectMapper.get().writeValueAsBytes(provider);
+        when(jedis.get(bytes(CACHE_KEY.toString()))).thenReturn(ser);
+        
+        // First read goes to Redis, second is served locally
+        assertEquals(cacheProvider.getObject(CACHE_KEY, OAuthProvider.class, 100), provider);
+        assertEquals(cacheProvider.getObject(CACHE_KEY, OAuthProvider.class, 100), provider);
+        verify(jedis, times(1)).get(bytes(CACHE_KEY.toString()));
+        verify(jedis, times(1)).expire(bytes(CACHE_KEY.toString()), 100);
+        assertEquals(nearCache.getHitCount(), 1L);
+        assertEquals(nearCache.getMissCount(), 1L);
+        
+        // Writing the key drops the local copy
+        when(jedis.set(bytes(CACHE_KEY.toString()), ser)).thenReturn("OK");
+        cacheProvider.setObject(CACHE_KEY, provider);
+        assertNull(nearCache.get(CACHE_KEY));
+        
+        assertEquals(cacheProvider.getObject(CACHE_KEY, OAuthProvider.class), provider);
+        verify(jedis, times(2)).get(bytes(CACHE_KEY.toString()));
+        
+        // So does removing it
+        cacheProvider.removeObject(CACHE_KEY);
+        assertNull(nearCache.get(CACHE_KEY));
+    }
+    
+    @Test
+    public void getObjectNotNearCacheable() throws Exception {
+        NearCache nearCache = new NearCache();
+        nearCache.configure(true, 10, 60);
+        cacheProvider.setNearCache(nearCache);
+        
+        CacheKey requestInfoKey = CacheKey.requestInfo(USER_ID);
+        byte[] ser = BridgeObjectMapper.get().writeValueAsBytes("Test");
+        when(jedis.get(bytes(requestInfoKey.toString()))).thenReturn(ser);
+        
+        cacheProvider.getObject(requestInfoKey, String.class);
+        cacheProvider.getObject(requestInfoKey, String.class);
+        verify(jedis, times(2)).get(bytes(requestInfoKey.toString()));
+        assertEquals(nearCache.size(), 0L);
+    }
+
+    @Test
+    public void getObjects() throws Exception {
+        NearCache nearCache = new NearCache();
+        nearCache.configure(true, 10, 60);
+        cacheProvider.setNearCache(nearCache);
+        
+        OAuthProvider provider1 = new OAuthProvider("clientId1", "secret1", "endpoint1", "callbackUrl1");
+        OAuthProvider provider2 = new OAuthProvider("clientId2", "secret2", "endpoint2", "callbackUrl2");
+        CacheKey key1 = CacheKey.study("key1");
+        CacheKey key2 = CacheKey.study("key2");
+        CacheKey missingKey = CacheKey.study("missing");
+        nearCache.put(key1, BridgeObjectMapper.get().writeValueAsBytes(provider1), nearCache.getGeneration());
+        when(jedis.mget(bytes(key2.toString()), bytes(missingKey.toString())))
+                .thenReturn(Arrays.asList(BridgeObjectMapper.get().writeValueAsBytes(provider2), null));
+        
+        List<OAuthProvider> results = cacheProvider.getObjects(ImmutableList.of(key1, key2, missingKey),
+                OAuthProvider.class);
+        
+        assertEquals(results, Arrays.asList(provider1, provider2, null));
+        // One round trip, for only the keys not held locally
+        verify(jedis).mget(bytes(key2.toString()), bytes(missingKey.toString()));
+        verify(jedis).close();
+        assertEquals(nearCache.get(key2), BridgeObjectMapper.get().writeValueAsBytes(provider2));
+    }
+    
+    @Test
+    public void getObjectsAllNearCached() throws Exception {
+        NearCache nearCache = new NearCache();
+        nearCache.configure(true, 10, 60);
+        cacheProvider.setNearCache(nearCache);
+        nearCache.put(CACHE_KEY, BridgeObjectMapper.get().writeValueAsBytes("Test"), nearCache.getGeneration());
+        
+        assertEquals(cacheProvider.getObjects(ImmutableList.of(CACHE_KEY), String.class), ImmutableList.of("Test"));
+        verify(jedisPool, never()).getResource();
+    }
+    
+    @Test
+    public void setObjects() throws Exception {
+        Pipeline pipeline = mock(Pipeline.class);
+        when(jedis.pipelined()).thenReturn(pipeline);
+        Response<String> ok = okResponse();
+        when(pipeline.setex(any(byte[].class), anyInt(), any(byte[].class))).thenReturn(ok);
+        when(pipeline.set(any(byte[].class), any(byte[].class))).thenReturn(ok);
+        
+        CacheKey key1 = CacheKey.study("key1");
+        CacheKey key2 = CacheKey.study("key2");
+        Map<CacheKey, String> objects = ImmutableMap.of(key1, "value1", key2, "value2");
+        
+        cacheProvider.setObjects(objects, 100);
+        verify(pipeline).setex(bytes(key1.toString()), 100, bytes("\"value1\""));
+        verify(pipeline).setex(bytes(key2.toString()), 100, bytes("\"value2\""));
+        verify(pipeline).sync();
+        verify(jedis).close();
+        
+        // No expiration
+        cacheProvider.setObjects(objects, 0);
+        verify(pipeline).set(bytes(key1.toString()), bytes("\"value1\""));
+        verify(pipeline).set(bytes(key2.toString()), bytes("\"value2\""));
+    }
+    
+    @Test
+    public void setObjectsInvalidatesNearCacheOnce() throws Exception {
+        NearCache nearCache = mock(NearCache.class);
+        cacheProvider.setNearCache(nearCache);
+        
+        Pipeline pipeline = mock(Pipeline.class);
+        when(jedis.pipelined()).thenReturn(pipeline);
+        Response<String> ok = okResponse();
+        when(pipeline.set(any(byte[].class), any(byte[].class))).thenReturn(ok);
+        
+        Map<CacheKey, String> objects = ImmutableMap.of(CacheKey.study("key1"), "value1", CacheKey.study("key2"),
+                "value2");
+        cacheProvider.setObjects(objects, 0);
+        
+        // One batched invalidation for all the keys, not one per key
+        verify(nearCache).invalidate(objects.keySet());
+        verify(nearCache, never()).invalidate(any(CacheKey.class));
+    }
+    
+    @Test(expectedExceptions = BridgeServiceException.class)
+    public void setObjectsFails() throws Exception {
+        Pipeline pipeline = mock(Pipeline.class);
+        when(jedis.pipelined()).thenReturn(pipeline);
+        Response<String> error = okResponse();
+        when(error.get()).thenReturn(null);
+        when(pipeline.setex(any(byte[].class), anyInt(), any(byte[].class))).thenReturn(error);
+        
+        cacheProvider.setObjects(ImmutableMap.of(CACHE_KEY, "value"), 100);
+    }
+    
+    @Test
+    public void setObjectsEmpty() {
+        cacheProvider.setObjects(ImmutableMap.of(), 100);
+        verify(jedisPool, never()).getResource();
+    }
+    
+    @SuppressWarnings("unchecked")
+    private Response<String> okResponse() {
+        Response<String> response = mock(Response.class);
+        when(response.get()).thenReturn("OK");
+        return response;
+    }
+
     @Test
     public void getUserSessionByUserIdNewVersionUserHasNoSession() {
         // No session returned, null returned
@@ -279,8 +442,8 @@ public class CacheProviderMockTest {
     public void getUserSessionByUserIdNewVersionUserHasSession() throws Exception {
         UserSession session = new UserSession();
         session.setSessionToken(DECRYPTED_SESSION_TOKEN);
-        String ser = BridgeObjectMapper.get().writeValueAsString(session);
-        when(jedisOps.get(USER_ID_TO_SESSION.toString())).thenReturn(ser);
+        byte[] ser = BridgeObjectMapper.get().writeValueAsBytes(session);
+        when(jedis.get(bytes(USER_ID_TO_SESSION.toString()))).thenReturn(ser);
         
         UserSession retrieved = cacheProvider.getUserSessionByUserId(USER_ID);
         assertEquals(retrieved.getSessionToken(), DECRYPTED_SESSION_TOKEN);
@@ -291,39 +454,79 @@ public class CacheProviderMockTest {
         UserSession session = new UserSession(new StudyParticipant.Builder().build());
         session.setSessionToken("notTheSessionTokenWereLookingFor");
         
-        when(jedisOps.get(USER_ID_TO_SESSION.toString()))
-                .thenReturn(BridgeObjectMapper.get().writeValueAsString(session));
+        mockGetSessionScript(BridgeObjectMapper.get().writeValueAsBytes(session));
 
         UserSession retrieved = cacheProvider.getUserSession(DECRYPTED_SESSION_TOKEN);
         assertNull(retrieved);
+        
+        // The token --> userId mapping is known to be invalid, and is deleted
+        verify(jedisOps).del(TOKEN_TO_USER_ID.toString());
     }
 
+    @SuppressWarnings("unchecked")
     @Test
     public void getUserSessionSuccessful() throws Exception {
         UserSession session = new UserSession(new StudyParticipant.Builder().build());
         session.setSessionToken(DECRYPTED_SESSION_TOKEN);
         
-        when(jedisOps.get(USER_ID_TO_SESSION.toString()))
-                .thenReturn(BridgeObjectMapper.get().writeValueAsString(session));
+        mockGetSessionScript(BridgeObjectMapper.get().writeValueAsBytes(session));
 
         UserSession retrieved = cacheProvider.getUserSession(DECRYPTED_SESSION_TOKEN);
         assertEquals(retrieved.getSessionToken(), session.getSessionToken());
+        verify(jedisOps, never()).del(anyString());
+        
+        // One round trip, resolving token --> userId --> session in Redis
+        ArgumentCaptor<List<byte[]>> keysCaptor = ArgumentCaptor.forClass(List.class);
+        ArgumentCaptor<List<byte[]>> argsCaptor = ArgumentCaptor.forClass(List.class);
+        verify(jedis).evalsha(aryEq(bytes(CacheProvider.GET_SESSION_SCRIPT_SHA)), keysCaptor.capture(),
+                argsCaptor.capture());
+        assertEquals(keysCaptor.getValue().size(), 1);
+        assertEquals(keysCaptor.getValue().get(0), bytes(TOKEN_TO_USER_ID.toString()));
+        assertEquals(argsCaptor.getValue().size(), 1);
+        assertEquals(argsCaptor.getValue().get(0), bytes(CacheProvider.USER_ID_TO_SESSION_SUFFIX));
+        verify(jedis, never()).get(any(byte[].class));
+        verify(jedisOps, never()).get(anyString());
     }
     
     @Test
-    public void getUserSessionTokenNotFound() {
-        // When nothing is mocked, the session token is not found
-        reset(jedisOps);
+    public void getUserSessionNotFound() {
+        // When the token is not found, or the user has no session, the script returns nil
+        mockGetSessionScript(null);
         
         UserSession retrieved = cacheProvider.getUserSession(DECRYPTED_SESSION_TOKEN);
         assertNull(retrieved);
+        verify(jedisOps, never()).del(anyString());
     }
     
     @Test
-    public void getUserSessionUserHasNoSession() {
-        // When token --> userId mapping is mocked, but there's no session, return null
+    public void getUserSessionLoadsScriptIfNotCached() throws Exception {
+        UserSession session = new UserSession(new StudyParticipant.Builder().build());
+        session.setSessionToken(DECRYPTED_SESSION_TOKEN);
+        
+        when(jedis.evalsha(any(byte[].class), anyList(), anyList()))
+                .thenThrow(new JedisDataException("NOSCRIPT No matching script. Please use EVAL."));
+        when(jedis.eval(aryEq(bytes(CacheProvider.GET_SESSION_SCRIPT)), anyList(), anyList()))
+                .thenReturn(BridgeObjectMapper.get().writeValueAsBytes(session));
+        
         UserSession retrieved = cacheProvider.getUserSession(DECRYPTED_SESSION_TOKEN);
-        assertNull(retrieved);
+        assertEquals(retrieved.getSessionToken(), DECRYPTED_SESSION_TOKEN);
+    }
+    
+    @Test(expectedExceptions = BridgeServiceException.class)
+    public void getUserSessionScriptError() {
+        when(jedis.evalsha(any(byte[].class), anyList(), anyList()))
+                .thenThrow(new JedisDataException("ERR bad script"));
+        
+        cacheProvider.getUserSession(DECRYPTED_SESSION_TOKEN);
+    }
+    
+    @Test
+    public void getSessionScriptSuffixMatchesCacheKey() {
+        assertEquals(USER_ID + CacheProvider.USER_ID_TO_SESSION_SUFFIX, USER_ID_TO_SESSION.toString());
+    }
+    
+    private void mockGetSessionScript(byte[] ser) {
+        when(jedis.evalsha(any(byte[].class), anyList(), anyList())).thenReturn(ser);
     }
     
     private void mockTransaction(JedisTransaction trans) {
@@ -393,29 +596,29 @@ public class CacheProviderMockTest {
     @Test
     public void setObject() throws Exception {
         OAuthProvider provider = new OAuthProvider("clientId", "secret", "endpoint", "callbackUrl");
-        String ser = BridgeObjectMapper.get().writeValueAsString(provider);
-        when(jedisOps.set(CACHE_KEY.toString(), ser)).thenReturn("OK");
+        byte[] ser = BridgeObjectMapper.get().writeValueAsBytes(provider);
+        when(jedis.set(bytes(CACHE_KEY.toString()), ser)).thenReturn("OK");
         
         cacheProvider.setObject(CACHE_KEY, provider);
-        verify(jedisOps).set(CACHE_KEY.toString(), ser);
+        verify(jedis).set(bytes(CACHE_KEY.toString()), ser);
     }
     
     @Test
     public void setObjectOfString() {
-        when(jedisOps.set(CACHE_KEY.toString(), "\"test\"")).thenReturn("OK");
+        when(jedis.set(bytes(CACHE_KEY.toString()), bytes("\"test\""))).thenReturn("OK");
         
         cacheProvider.setObject(CACHE_KEY, "test");
-        verify(jedisOps).set(CACHE_KEY.toString(), "\"test\"");
+        verify(jedis).set(bytes(CACHE_KEY.toString()), bytes("\"test\""));
     }
     
     @Test
     public void setObjectWithExpire() throws Exception {
         OAuthProvider provider = new OAuthProvider("clientId", "secret", "endpoint", "callbackUrl");
-        String ser = BridgeObjectMapper.get().writeValueAsString(provider);
-        when(jedisOps.setex(CACHE_KEY.toString(), 100, ser)).thenReturn("OK");
+        byte[] ser = BridgeObjectMapper.get().writeValueAsBytes(provider);
+        when(jedis.setex(bytes(CACHE_KEY.toString()), 100, ser)).thenReturn("OK");
         
         cacheProvider.setObject(CACHE_KEY, provider, 100);
-        verify(jedisOps).setex(CACHE_KEY.toString(), 100, ser);
+        verify(jedis).setex(bytes(CACHE_KEY.toString()), 100, ser);
     }
     
     @Test
@@ -423,7 +626,7 @@ public class CacheProviderMockTest {
         CacheProvider mockCacheProvider = spy(cacheProvider);
         mockCacheProvider.getUserSessionByUserId(USER_ID);
         
-        verify(jedisOps).get("userId:session2:user");
+        verify(jedis).get(bytes("userId:session2:user"));
     }
     
     @Test
@@ -434,7 +637,6 @@ public class CacheProviderMockTest {
         session.setSessionToken(DECRYPTED_SESSION_TOKEN);
         
         cacheProvider.removeSession(session);
-        cacheProvider.getUserSession(DECRYPTED_SESSION_TOKEN);
         
         verify(transaction).del(TOKEN_TO_USER_ID.toString());
         verify(transaction).del(USER_ID_TO_SESSION.toString());
@@ -444,9 +646,9 @@ public class CacheProviderMockTest {
     @Test
     public void testRemoveSessionByUserId() throws Exception {
         UserSession session = createUserSession();
-        String ser = BridgeObjectMapper.get().writeValueAsString(session);
+        byte[] ser = BridgeObjectMapper.get().writeValueAsBytes(session);
 
-        when(jedisOps.get(USER_ID_TO_SESSION.toString())).thenReturn(ser);
+        when(jedis.get(bytes(USER_ID_TO_SESSION.toString()))).thenReturn(ser);
         
         cacheProvider.removeSessionByUserId(USER_ID);
         
@@ -460,9 +662,9 @@ public class CacheProviderMockTest {
         UserSession session = createUserSession();
         cacheProvider.setUserSession(session);
         
-        verify(transaction).setex(eq(TOKEN_TO_USER_ID.toString()), anyInt(), eq(USER_ID));
-        verify(transaction).setex(eq(USER_ID_TO_SESSION.toString()), anyInt(), anyString());
-        verify(transaction).exec();
+        verify(redisTransaction).setex(eq(TOKEN_TO_USER_ID.toString()), anyInt(), eq(USER_ID));
+        verify(redisTransaction).setex(aryEq(bytes(USER_ID_TO_SESSION.toString())), anyInt(), any(byte[].class));
+        verify(redisTransaction).exec();
     }
     
     @Test
@@ -480,9 +682,9 @@ public class CacheProviderMockTest {
         } catch(Throwable e) {
             fail(e.getMessage());
         }
-        verify(transaction, never()).setex(eq(TOKEN_TO_USER_ID.toString()), anyInt(), anyString());
-        verify(transaction, never()).setex(eq(USER_ID_TO_SESSION.toString()), anyInt(), eq(DECRYPTED_SESSION_TOKEN));
-        verify(transaction, never()).exec();
+        verify(redisTransaction, never()).setex(eq(TOKEN_TO_USER_ID.toString()), anyInt(), anyString());
+        verify(redisTransaction, never()).setex(any(byte[].class), anyInt(), any(byte[].class));
+        verify(redisTransaction, never()).exec();
     }
     
     @Test
@@ -496,9 +698,9 @@ public class CacheProviderMockTest {
         } catch(Throwable e) {
             fail(e.getMessage());
         }
-        verify(transaction, never()).setex(eq(TOKEN_TO_USER_ID.toString()), anyInt(), anyString());
-        verify(transaction, never()).setex(eq(USER_ID_TO_SESSION.toString()), anyInt(), eq(DECRYPTED_SESSION_TOKEN));
-        verify(transaction, never()).exec();
+        verify(redisTransaction, never()).setex(eq(TOKEN_TO_USER_ID.toString()), anyInt(), anyString());
+        verify(redisTransaction, never()).setex(any(byte[].class), anyInt(), any(byte[].class));
+        verify(redisTransaction, never()).exec();
     }
     
     @Test
@@ -516,8 +718,187 @@ public class CacheProviderMockTest {
         } catch(Throwable e) {
             fail(e.getMessage());
         }
-        verify(transaction, never()).setex(eq(TOKEN_TO_USER_ID.toString()), anyInt(), anyString());
-        verify(transaction, never()).setex(eq(USER_ID_TO_SESSION.toString()), anyInt(), eq(DECRYPTED_SESSION_TOKEN));
-        verify(transaction, never()).exec();
+        verify(redisTransaction, never()).setex(eq(TOKEN_TO_USER_ID.toString()), anyInt(), anyString());
+        verify(redisTransaction, never()).setex(any(byte[].class), anyInt(), any(byte[].class));
+        verify(redisTransaction, never()).exec();
+    }
+    
+    @Test
+    public void getTimestampMapMissingKey() {
+        when(jedis.hgetAll(CACHE_KEY.toString())).thenReturn(ImmutableMap.of());
+        
+        assertNull(cacheProvider.getTimestampMap(CACHE_KEY));
+    }
+    
+    @Test
+    public void getTimestampMapFillInProgress() {
+        // A hash with only a fill token isn't a cached map.
+        when(jedis.hgetAll(CACHE_KEY.toString())).thenReturn(ImmutableMap.of(
+                CacheProvider.TIMESTAMP_MAP_FILL_TOKEN, "fill-token"));
+        
+        assertNull(cacheProvider.getTimestampMap(CACHE_KEY));
+    }
+    
+    @Test
+    public void getTimestampMapEmpty() {
+        when(jedis.hgetAll(CACHE_KEY.toString())).thenReturn(ImmutableMap.of(CacheProvider.TIMESTAMP_MAP_MARKER, "0"));
+        
+        assertEquals(cacheProvider.getTimestampMap(CACHE_KEY), ImmutableMap.of());
+    }
+    
+    @Test
+    public void getTimestampMap() {
+        when(jedis.hgetAll(CACHE_KEY.toString())).thenReturn(ImmutableMap.of(CacheProvider.TIMESTAMP_MAP_MARKER, "0",
+                "enrollment", "1000"));
+        
+        assertEquals(cacheProvider.getTimestampMap(CACHE_KEY), ImmutableMap.of("enrollment", 1000L));
+    }
+    
+    @Test
+    public void getTimestampMapValue() {
+        when(jedis.hget(CACHE_KEY.toString(), "enrollment")).thenReturn("1000");
+        
+        assertEquals(cacheProvider.getTimestampMapValue(CACHE_KEY, "enrollment"), new Long(1000L));
+        verify(jedis, never()).hgetAll(anyString());
+    }
+    
+    @Test
+    public void getTimestampMapValueNotCached() {
+        assertNull(cacheProvider.getTimestampMapValue(CACHE_KEY, "enrollment"));
+    }
+    
+    @Test
+    public void beginTimestampMapFill() {
+        when(jedis.hexists(CACHE_KEY.toString(), CacheProvider.TIMESTAMP_MAP_MARKER)).thenReturn(false);
+        
+        String fillToken = cacheProvider.beginTimestampMapFill(CACHE_KEY, 60);
+        assertNotNull(fillToken);
+        
+        verify(jedis).watch(CACHE_KEY.toString());
+        verify(redisTransaction).del(CACHE_KEY.toString());
+        verify(redisTransaction).hset(CACHE_KEY.toString(), CacheProvider.TIMESTAMP_MAP_FILL_TOKEN, fillToken);
+        verify(redisTransaction).expire(CACHE_KEY.toString(), 60);
+        verify(redisTransaction).exec();
+    }
+    
+    @Test
+    public void beginTimestampMapFillWhenMapIsCached() {
+        when(jedis.hexists(CACHE_KEY.toString(), CacheProvider.TIMESTAMP_MAP_MARKER)).thenReturn(true);
+        
+        assertNull(cacheProvider.beginTimestampMapFill(CACHE_KEY, 60));
+        
+        verify(jedis).unwatch();
+        verify(jedis, never()).multi();
+    }
+    
+    @Test
+    public void beginTimestampMapFillAborted() {
+        when(jedis.hexists(CACHE_KEY.toString(), CacheProvider.TIMESTAMP_MAP_MARKER)).thenReturn(false);
+        when(redisTransaction.exec()).thenReturn(null);
+        
+        assertNull(cacheProvider.beginTimestampMapFill(CACHE_KEY, 60));
+    }
+    
+    @Test
+    public void completeTimestampMapFill() {
+        when(jedis.hget(CACHE_KEY.toString(), CacheProvider.TIMESTAMP_MAP_FILL_TOKEN)).thenReturn("fill-token");
+        
+        assertTrue(cacheProvider.completeTimestampMapFill(CACHE_KEY, "fill-token",
+                ImmutableMap.of("enrollment", 1000L), 86400));
+        
+        verify(jedis).watch(CACHE_KEY.toString());
+        verify(redisTransaction).del(CACHE_KEY.toString());
+        verify(redisTransaction).hmset(CACHE_KEY.toString(), ImmutableMap.of("enrollment", "1000",
+                CacheProvider.TIMESTAMP_MAP_MARKER, "0"));
+        verify(redisTransaction).expire(CACHE_KEY.toString(), 86400);
+        verify(redisTransaction).exec();
+    }
+    
+    @Test
+    public void completeTimestampMapFillCancelled() {
+        // A write removed the key, or another fill replaced the token.
+        when(jedis.hget(CACHE_KEY.toString(), CacheProvider.TIMESTAMP_MAP_FILL_TOKEN)).thenReturn("other-token");
+        
+        assertFalse(cacheProvider.completeTimestampMapFill(CACHE_KEY, "fill-token",
+                ImmutableMap.of("enrollment", 1000L), 86400));
+        
+        verify(jedis).unwatch();
+        verify(jedis, never()).multi();
+    }
+    
+    @Test
+    public void completeTimestampMapFillAborted() {
+        when(jedis.hget(CACHE_KEY.toString(), CacheProvider.TIMESTAMP_MAP_FILL_TOKEN)).thenReturn("fill-token");
+        when(redisTransaction.exec()).thenReturn(null);
+        
+        assertFalse(cacheProvider.completeTimestampMapFill(CACHE_KEY, "fill-token",
+                ImmutableMap.of("enrollment", 1000L), 86400));
+    }
+    
+    @Test
+    public void updateTimestampMapNotCached() {
+        when(jedis.hmget(CACHE_KEY.toString(), CacheProvider.TIMESTAMP_MAP_MARKER, "enrollment"))
+                .thenReturn(Arrays.<String>asList(null, null));
+        
+        assertFalse(cacheProvider.updateTimestampMap(CACHE_KEY, "enrollment", 1000L));
+        
+        // The key is removed to cancel any fill in progress, and nothing is written.
+        verify(jedis).del(CACHE_KEY.toString());
+        verify(jedis, never()).multi();
+    }
+    
+    @Test
+    public void updateTimestampMapOlderTimestamp() {
+        when(jedis.hmget(CACHE_KEY.toString(), CacheProvider.TIMESTAMP_MAP_MARKER, "enrollment"))
+                .thenReturn(Arrays.asList("0", "2000"));
+        
+        assertFalse(cacheProvider.updateTimestampMap(CACHE_KEY, "enrollment", 1000L));
+        assertFalse(cacheProvider.updateTimestampMap(CACHE_KEY, "enrollment", 2000L));
+        
+        verify(jedis, never()).multi();
+        verify(jedis, never()).del(anyString());
+    }
+    
+    @Test
+    public void updateTimestampMapNewerTimestamp() {
+        when(jedis.hmget(CACHE_KEY.toString(), CacheProvider.TIMESTAMP_MAP_MARKER, "enrollment"))
+                .thenReturn(Arrays.asList("0", "1000"));
+        
+        assertTrue(cacheProvider.updateTimestampMap(CACHE_KEY, "enrollment", 2000L));
+        
+        verify(redisTransaction).hset(CACHE_KEY.toString(), "enrollment", "2000");
+        // The map's expiration is not changed.
+        verify(redisTransaction, never()).expire(anyString(), anyInt());
+        verify(jedis, never()).expire(anyString(), anyInt());
+    }
+    
+    @Test
+    public void updateTimestampMapNewField() {
+        when(jedis.hmget(CACHE_KEY.toString(), CacheProvider.TIMESTAMP_MAP_MARKER, "enrollment"))
+                .thenReturn(Arrays.asList("0", null));
+        
+        assertTrue(cacheProvider.updateTimestampMap(CACHE_KEY, "enrollment", 2000L));
+        
+        verify(redisTransaction).hset(CACHE_KEY.toString(), "enrollment", "2000");
+    }
+    
+    @Test
+    public void updateTimestampMapAborted() {
+        when(jedis.hmget(CACHE_KEY.toString(), CacheProvider.TIMESTAMP_MAP_MARKER, "enrollment"))
+                .thenReturn(Arrays.asList("0", "1000"));
+        when(redisTransaction.exec()).thenReturn(null);
+        
+        assertFalse(cacheProvider.updateTimestampMap(CACHE_KEY, "enrollment", 2000L));
+        
+        // The map changed during the update, so it's removed.
+        verify(jedis).del(CACHE_KEY.toString());
+    }
+    
+    @Test(expectedExceptions = BridgeServiceException.class)
+    public void updateTimestampMapRedisError() {
+        when(jedis.hmget(CACHE_KEY.toString(), CacheProvider.TIMESTAMP_MAP_MARKER, "enrollment"))
+                .thenThrow(new RuntimeException("Redis is down"));
+        
+        cacheProvider.updateTimestampMap(CACHE_KEY, "enrollment", 2000L);
     }
 }
@@ -0,0 +1,160 @@
+package org.sagebionetworks.bridge.cache;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Base64;
+import java.util.List;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.sagebionetworks.bridge.config.BridgeConfig;
+import org.sagebionetworks.bridge.json.BridgeObjectMapper;
+import org.sagebionetworks.bridge.models.accounts.StudyParticipant;
+import org.sagebionetworks.bridge.models.accounts.UserSession;
+import org.sagebionetworks.bridge.models.studies.OAuthProvider;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+
+public class CacheSerializerTest {
+    private static final OAuthProvider PROVIDER = new OAuthProvider("clientId", "secret", "endpoint",
+            "callbackUrl");
+
+    private CacheSerializer serializer;
+
+    @BeforeMethod
+    public void before() {
+        serializer = new CacheSerializer();
+    }
+
+    @Test
+    public void defaultIsPlainJson() throws Exception {
+        byte[] ser = serializer.encode(PROVIDER);
+
+        assertEquals(ser, BridgeObjectMapper.get().writeValueAsBytes(PROVIDER));
+        assertFalse(CacheSerializer.isEncoded(ser));
+        assertEquals(serializer.decode(ser, OAuthProvider.class), PROVIDER);
+    }
+
+    @Test
+    public void smileRoundTrip() throws Exception {
+        serializer.configure(new SmileCacheCodec(), 0);
+
+        byte[] ser = serializer.encode(PROVIDER);
+        assertEquals(header(ser), "~2s-:");
+        // The payload follows the header as raw bytes
+        assertEquals(ser.length, new SmileCacheCodec().encode(PROVIDER, null).length + CacheSerializer.HEADER_LENGTH);
+        assertEquals(serializer.decode(ser, OAuthProvider.class), PROVIDER);
+    }
+
+    @Test
+    public void readsBase64Values() throws Exception {
+        // Values written when the cache held strings have a version 1 header and a Base64 payload
+        byte[] payload = new SmileCacheCodec().encode(PROVIDER, null);
+        byte[] ser = ("~1s-:" + Base64.getEncoder().encodeToString(payload)).getBytes(UTF_8);
+        assertEquals(serializer.decode(ser, OAuthProvider.class), PROVIDER);
+    }
+
+    @Test
+    public void smileRoundTripWithTypeReference() throws Exception {
+        serializer.configure(new SmileCacheCodec(), 0);
+        List<OAuthProvider> list = ImmutableList.of(PROVIDER, PROVIDER);
+
+        byte[] ser = serializer.encode(list);
+        List<OAuthProvider> decoded = serializer.decode(ser, new TypeReference<List<OAuthProvider>>() {});
+        assertEquals(decoded, list);
+    }
+
+    @Test
+    public void compressesAboveThreshold() throws Exception {
+        serializer.configure(new JsonCacheCodec(), 100);
+
+        // Below the threshold, still plain JSON
+        assertEquals(serializer.encode("short"), bytes("\"short\""));
+
+        String longValue = Strings.repeat("abcdefgh", 100);
+        byte[] ser = serializer.encode(longValue);
+        assertEquals(header(ser), "~2jd:");
+        assertTrue(ser.length < longValue.length());
+        assertEquals(serializer.decode(ser, String.class), longValue);
+    }
+
+    @Test
+    public void smileWithCompression() throws Exception {
+        serializer.configure(new SmileCacheCodec(), 100);
+
+        String longValue = Strings.repeat("abcdefgh", 100);
+        byte[] ser = serializer.encode(longValue);
+        assertEquals(header(ser), "~2sd:");
+        assertEquals(serializer.decode(ser, String.class), longValue);
+    }
+
+    @Test
+    public void readsAllFormatsRegardlessOfWriteFormat() throws Exception {
+        CacheSerializer smileSerializer = new CacheSerializer();
+        smileSerializer.configure(new SmileCacheCodec(), 0);
+        byte[] smileSer = smileSerializer.encode(PROVIDER);
+        byte[] jsonSer = serializer.encode(PROVIDER);
+
+        // A JSON node reads values from a Smile node, and vice versa
+        assertEquals(serializer.decode(smileSer, OAuthProvider.class), PROVIDER);
+        assertEquals(smileSerializer.decode(jsonSer, OAuthProvider.class), PROVIDER);
+    }
+
+    @Test
+    public void unknownFormatIsMiss() throws Exception {
+        assertNull(serializer.decode(bytes("~3s-:AAAA"), OAuthProvider.class));
+        assertNull(serializer.decode(bytes("~2x-:AAAA"), OAuthProvider.class));
+        assertNull(serializer.decode(bytes("~2"), OAuthProvider.class));
+    }
+
+    @Test
+    public void appliesFilters() throws Exception {
+        serializer.configure(new SmileCacheCodec(), 0);
+        StudyParticipant participant = new StudyParticipant.Builder().withId("userId").withHealthCode("healthCode")
+                .build();
+        UserSession session = new UserSession(participant);
+        session.setSessionToken("sessionToken");
+
+        byte[] ser = serializer.encode(session, StudyParticipant.CACHE_FILTER);
+        UserSession decoded = serializer.decode(ser, UserSession.class);
+
+        assertEquals(decoded.getSessionToken(), "sessionToken");
+        assertEquals(decoded.getId(), "userId");
+        // The encrypted health code is written instead, and decrypted on read
+        assertEquals(decoded.getHealthCode(), "healthCode");
+    }
+
+    @Test
+    public void configuredFromBridgeConfig() throws Exception {
+        BridgeConfig config = mock(BridgeConfig.class);
+        when(config.getProperty(CacheSerializer.CONFIG_KEY_CODEC)).thenReturn("smile");
+        when(config.getPropertyAsInt(CacheSerializer.CONFIG_KEY_COMPRESS_ABOVE_BYTES)).thenReturn(0);
+        serializer.setBridgeConfig(config);
+
+        assertEquals(header(serializer.encode(PROVIDER)), "~2s-:");
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void unknownCodecConfigured() {
+        BridgeConfig config = mock(BridgeConfig.class);
+        when(config.getProperty(CacheSerializer.CONFIG_KEY_CODEC)).thenReturn("xml");
+        serializer.setBridgeConfig(config);
+    }
+
+    private static String header(byte[] ser) {
+        return new String(ser, 0, CacheSerializer.HEADER_LENGTH, UTF_8);
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(UTF_8);
+    }
+}
@@ -0,0 +1,92 @@
+package org.sagebionetworks.bridge.cache;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.collect.ImmutableList;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPubSub;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+public class InvalidationSubscriberTest {
+    private static final String CHANNEL = "test-channel";
+
+    @Mock
+    private JedisPool jedisPool;
+
+    @Mock
+    private Jedis jedis;
+
+    private List<String> events;
+    private InvalidationSubscriber subscriber;
+
+    @BeforeMethod
+    public void before() {
+        MockitoAnnotations.initMocks(this);
+        when(jedisPool.getResource()).thenReturn(jedis);
+
+        events = Collections.synchronizedList(new ArrayList<>());
+        subscriber = new InvalidationSubscriber(jedisPool, CHANNEL, key -> events.add("invalidate " + key),
+                () -> events.add("invalidate all"));
+    }
+
+    @Test
+    public void invalidatesAllOnceSubscribed() throws Exception {
+        CountDownLatch subscribed = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            // Nothing is flushed until Redis confirms the subscription.
+            events.add("subscribe");
+            JedisPubSub pubSub = invocation.getArgument(0);
+            pubSub.onSubscribe(CHANNEL, 1);
+            pubSub.onMessage(CHANNEL, "key");
+            subscriber.stop();
+            subscribed.countDown();
+            return null;
+        }).when(jedis).subscribe(any(JedisPubSub.class), eq(CHANNEL));
+
+        subscriber.start();
+        assertTrue(subscribed.await(5, TimeUnit.SECONDS));
+
+        assertEquals(events, ImmutableList.of("subscribe", "invalidate all", "invalidate key"));
+    }
+
+    @Test
+    public void invalidatesAllWhenSubscriptionIsLost() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        CountDownLatch resubscribed = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            events.add("subscribe");
+            if (attempts.incrementAndGet() == 1) {
+                throw new JedisConnectionException("connection lost");
+            }
+            JedisPubSub pubSub = invocation.getArgument(0);
+            pubSub.onSubscribe(CHANNEL, 1);
+            subscriber.stop();
+            resubscribed.countDown();
+            return null;
+        }).when(jedis).subscribe(any(JedisPubSub.class), eq(CHANNEL));
+
+        subscriber.start();
+        assertTrue(resubscribed.await(5, TimeUnit.SECONDS));
+
+        // Flushed when the subscription is lost, and again when it's back.
+        assertEquals(events, ImmutableList.of("subscribe", "invalidate all", "subscribe", "invalidate all"));
+    }
+}
@@ -0,0 +1,176 @@
+package org.sagebionetworks.bridge.cache;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.sagebionetworks.bridge.TestConstants;
+import org.sagebionetworks.bridge.config.BridgeConfig;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+public class NearCacheTest {
+    private static final CacheKey STUDY_KEY = CacheKey.study("studyId");
+    private static final CacheKey SUBPOP_LIST_KEY = CacheKey.subpopList(TestConstants.TEST_STUDY);
+    private static final CacheKey REQUEST_INFO_KEY = CacheKey.requestInfo("userId");
+    private static final byte[] SER = "{\"identifier\":\"studyId\"}".getBytes(UTF_8);
+
+    @Mock
+    private JedisPool jedisPool;
+
+    @Mock
+    private Jedis jedis;
+
+    private NearCache nearCache;
+
+    @BeforeMethod
+    public void before() {
+        MockitoAnnotations.initMocks(this);
+        when(jedisPool.getResource()).thenReturn(jedis);
+
+        nearCache = new NearCache();
+        nearCache.setJedisPool(jedisPool);
+        nearCache.configure(true, 10, 60);
+    }
+
+    @Test
+    public void disabledByDefault() {
+        NearCache defaultCache = new NearCache();
+        assertFalse(defaultCache.isEnabled());
+
+        defaultCache.put(STUDY_KEY, SER, defaultCache.getGeneration());
+        assertNull(defaultCache.get(STUDY_KEY));
+        assertEquals(defaultCache.size(), 0L);
+    }
+
+    @Test
+    public void configuredFromBridgeConfig() {
+        BridgeConfig config = mock(BridgeConfig.class);
+        when(config.getProperty(NearCache.CONFIG_KEY_ENABLED)).thenReturn("true");
+        when(config.getPropertyAsInt(NearCache.CONFIG_KEY_MAX_SIZE)).thenReturn(10);
+        when(config.getPropertyAsInt(NearCache.CONFIG_KEY_TTL_SECONDS)).thenReturn(60);
+
+        NearCache configuredCache = new NearCache();
+        configuredCache.setBridgeConfig(config);
+        assertTrue(configuredCache.isEnabled());
+    }
+
+    @Test
+    public void putAndGet() {
+        assertNull(nearCache.get(STUDY_KEY));
+        nearCache.put(STUDY_KEY, SER, nearCache.getGeneration());
+        assertEquals(nearCache.get(STUDY_KEY), SER);
+
+        assertEquals(nearCache.getHitCount(), 1L);
+        assertEquals(nearCache.getMissCount(), 1L);
+        assertEquals(nearCache.size(), 1L);
+    }
+
+    @Test
+    public void keysNotNearCacheableAreIgnored() {
+        nearCache.put(REQUEST_INFO_KEY, SER, nearCache.getGeneration());
+        assertNull(nearCache.get(REQUEST_INFO_KEY));
+        assertEquals(nearCache.size(), 0L);
+
+        // Not counted as a miss, it was never a candidate
+        assertEquals(nearCache.getMissCount(), 0L);
+
+        nearCache.invalidate(REQUEST_INFO_KEY);
+        verify(jedis, never()).publish(anyString(), anyString());
+    }
+
+    @Test
+    public void invalidateRemovesLocallyAndPublishes() {
+        nearCache.put(STUDY_KEY, SER, nearCache.getGeneration());
+        nearCache.put(SUBPOP_LIST_KEY, SER, nearCache.getGeneration());
+
+        nearCache.invalidate(STUDY_KEY);
+
+        assertNull(nearCache.get(STUDY_KEY));
+        assertEquals(nearCache.get(SUBPOP_LIST_KEY), SER);
+        verify(jedis).publish(NearCache.INVALIDATION_CHANNEL, STUDY_KEY.toString());
+        verify(jedis).close();
+    }
+
+    @Test
+    public void invalidateSeveralPublishesOnce() {
+        nearCache.put(STUDY_KEY, SER, nearCache.getGeneration());
+        nearCache.put(SUBPOP_LIST_KEY, SER, nearCache.getGeneration());
+
+        nearCache.invalidate(ImmutableList.of(STUDY_KEY, REQUEST_INFO_KEY, SUBPOP_LIST_KEY));
+
+        assertNull(nearCache.get(STUDY_KEY));
+        assertNull(nearCache.get(SUBPOP_LIST_KEY));
+        // Keys that aren't near-cacheable are left out of the message.
+        verify(jedis).publish(NearCache.INVALIDATION_CHANNEL, STUDY_KEY + "\n" + SUBPOP_LIST_KEY);
+        verify(jedis).close();
+    }
+
+    @Test
+    public void invalidateSeveralNotNearCacheable() {
+        nearCache.invalidate(ImmutableList.of(REQUEST_INFO_KEY));
+        verify(jedis, never()).publish(anyString(), anyString());
+    }
+
+    @Test
+    public void invalidationOfSeveralFromAnotherNode() {
+        nearCache.put(STUDY_KEY, SER, nearCache.getGeneration());
+        nearCache.put(SUBPOP_LIST_KEY, SER, nearCache.getGeneration());
+
+        nearCache.onInvalidation(STUDY_KEY + "\n" + SUBPOP_LIST_KEY);
+
+        assertNull(nearCache.get(STUDY_KEY));
+        assertNull(nearCache.get(SUBPOP_LIST_KEY));
+        verify(jedis, never()).publish(anyString(), anyString());
+    }
+
+    @Test
+    public void invalidationFromAnotherNode() {
+        nearCache.put(STUDY_KEY, SER, nearCache.getGeneration());
+
+        nearCache.onInvalidation(STUDY_KEY.toString());
+
+        assertNull(nearCache.get(STUDY_KEY));
+        verify(jedis, never()).publish(anyString(), anyString());
+    }
+
+    @Test
+    public void putSkippedIfInvalidatedAfterRead() {
+        // Another node invalidates the key after this node read it from Redis, but before it put the value.
+        long generation = nearCache.getGeneration();
+        nearCache.onInvalidation(STUDY_KEY.toString());
+        nearCache.put(STUDY_KEY, SER, generation);
+
+        assertNull(nearCache.get(STUDY_KEY));
+        assertEquals(nearCache.size(), 0L);
+
+        // A value read after the invalidation is held.
+        nearCache.put(STUDY_KEY, SER, nearCache.getGeneration());
+        assertEquals(nearCache.get(STUDY_KEY), SER);
+    }
+
+    @Test
+    public void sizeIsBounded() {
+        nearCache.configure(true, 1, 60);
+
+        nearCache.put(STUDY_KEY, SER, nearCache.getGeneration());
+        nearCache.put(SUBPOP_LIST_KEY, SER, nearCache.getGeneration());
+
+        assertEquals(nearCache.size(), 1L);
+        assertEquals(nearCache.getStats().evictionCount(), 1L);
+    }
+}
@@ -0,0 +1,165 @@
+package org.sagebionetworks.bridge.cache;
+
+import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.sagebionetworks.bridge.TestConstants;
+import org.sagebionetworks.bridge.config.BridgeConfig;
+import org.sagebionetworks.bridge.models.upload.UploadSchema;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+public class RevisionCacheTest {
+    private static final String SCHEMA_ID = "schema-id";
+    private static final CacheKey SCHEMA_KEY = CacheKey.schemaRevision(TestConstants.TEST_STUDY, SCHEMA_ID, 1);
+    private static final CacheKey OTHER_SCHEMA_KEY = CacheKey.schemaRevision(TestConstants.TEST_STUDY, SCHEMA_ID, 2);
+
+    @Mock
+    private JedisPool jedisPool;
+
+    @Mock
+    private Jedis jedis;
+
+    private RevisionCache revisionCache;
+    private AtomicInteger loadCount;
+
+    @BeforeMethod
+    public void before() {
+        MockitoAnnotations.initMocks(this);
+        when(jedisPool.getResource()).thenReturn(jedis);
+
+        revisionCache = new RevisionCache();
+        revisionCache.setJedisPool(jedisPool);
+        revisionCache.configure(true, 10, 60);
+
+        loadCount = new AtomicInteger();
+    }
+
+    @Test
+    public void disabledByDefault() {
+        RevisionCache defaultCache = new RevisionCache();
+        assertFalse(defaultCache.isEnabled());
+
+        defaultCache.get(SCHEMA_KEY, UploadSchema.class, () -> load(1));
+        defaultCache.get(SCHEMA_KEY, UploadSchema.class, () -> load(1));
+        assertEquals(loadCount.get(), 2);
+        assertEquals(defaultCache.size(), 0L);
+
+        defaultCache.invalidate(SCHEMA_KEY);
+        verify(jedisPool, never()).getResource();
+    }
+
+    @Test
+    public void configuredFromBridgeConfig() {
+        BridgeConfig config = mock(BridgeConfig.class);
+        when(config.getProperty(RevisionCache.CONFIG_KEY_ENABLED)).thenReturn("true");
+        when(config.getPropertyAsInt(RevisionCache.CONFIG_KEY_MAX_SIZE)).thenReturn(10);
+        when(config.getPropertyAsInt(RevisionCache.CONFIG_KEY_TTL_SECONDS)).thenReturn(60);
+
+        RevisionCache configuredCache = new RevisionCache();
+        configuredCache.setBridgeConfig(config);
+        assertTrue(configuredCache.isEnabled());
+    }
+
+    @Test
+    public void loadsOnceThenServesFromCache() {
+        UploadSchema first = revisionCache.get(SCHEMA_KEY, UploadSchema.class, () -> load(1));
+        UploadSchema second = revisionCache.get(SCHEMA_KEY, UploadSchema.class, () -> load(1));
+
+        assertEquals(loadCount.get(), 1);
+        assertEquals(second.getSchemaId(), SCHEMA_ID);
+        assertEquals(second.getRevision(), 1);
+        // Values are held serialized, so callers never share an instance.
+        assertNotSame(second, first);
+
+        assertEquals(revisionCache.getHitCount(), 1L);
+        assertEquals(revisionCache.getMissCount(), 1L);
+        assertEquals(revisionCache.getHitRate(), 0.5);
+        assertEquals(revisionCache.size(), 1L);
+    }
+
+    @Test
+    public void nullIsNotCached() {
+        assertNull(revisionCache.get(SCHEMA_KEY, UploadSchema.class, () -> {
+            loadCount.incrementAndGet();
+            return null;
+        }));
+        revisionCache.get(SCHEMA_KEY, UploadSchema.class, () -> load(1));
+
+        assertEquals(loadCount.get(), 2);
+    }
+
+    @Test
+    public void invalidateRemovesLocallyAndPublishes() {
+        revisionCache.get(SCHEMA_KEY, UploadSchema.class, () -> load(1));
+        revisionCache.get(OTHER_SCHEMA_KEY, UploadSchema.class, () -> load(2));
+
+        revisionCache.invalidate(SCHEMA_KEY);
+
+        revisionCache.get(SCHEMA_KEY, UploadSchema.class, () -> load(1));
+        revisionCache.get(OTHER_SCHEMA_KEY, UploadSchema.class, () -> load(2));
+        assertEquals(loadCount.get(), 3);
+        verify(jedis).publish(RevisionCache.INVALIDATION_CHANNEL, SCHEMA_KEY.toString());
+        verify(jedis).close();
+    }
+
+    @Test
+    public void invalidationFromAnotherNode() {
+        revisionCache.get(SCHEMA_KEY, UploadSchema.class, () -> load(1));
+
+        revisionCache.onInvalidation(SCHEMA_KEY.toString());
+
+        revisionCache.get(SCHEMA_KEY, UploadSchema.class, () -> load(1));
+        assertEquals(loadCount.get(), 2);
+        verify(jedis, never()).publish(anyString(), anyString());
+    }
+
+    @Test
+    public void loadOverlappingInvalidationIsNotCached() {
+        revisionCache.get(SCHEMA_KEY, UploadSchema.class, () -> {
+            UploadSchema schema = load(1);
+            // The revision is deleted on another node while we're reading the old copy.
+            revisionCache.onInvalidation(SCHEMA_KEY.toString());
+            return schema;
+        });
+        assertEquals(revisionCache.size(), 0L);
+
+        revisionCache.get(SCHEMA_KEY, UploadSchema.class, () -> load(1));
+        assertEquals(loadCount.get(), 2);
+        assertEquals(revisionCache.size(), 1L);
+    }
+
+    @Test
+    public void sizeIsBounded() {
+        revisionCache.configure(true, 1, 60);
+        revisionCache.get(SCHEMA_KEY, UploadSchema.class, () -> load(1));
+        revisionCache.get(OTHER_SCHEMA_KEY, UploadSchema.class, () -> load(2));
+
+        assertEquals(revisionCache.size(), 1L);
+        assertEquals(revisionCache.getStats().evictionCount(), 1L);
+    }
+
+    private UploadSchema load(int revision) {
+        loadCount.incrementAndGet();
+        UploadSchema schema = UploadSchema.create();
+        schema.setSchemaId(SCHEMA_ID);
+        schema.setRevision(revision);
+        return schema;
+    }
+}
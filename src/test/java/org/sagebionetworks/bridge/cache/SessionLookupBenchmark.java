@@ -0,0 +1,116 @@
+package org.sagebionetworks.bridge.cache;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.springframework.context.support.AbstractApplicationContext;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+import org.sagebionetworks.bridge.BridgeUtils;
+import org.sagebionetworks.bridge.models.accounts.StudyParticipant;
+import org.sagebionetworks.bridge.models.accounts.UserSession;
+
+/**
+ * <p>
+ * Compares the latency of resolving a session token to a session with two sequential GETs (the way
+ * CacheProvider.getUserSession() used to work) against the single round trip script CacheProvider now uses. Run this
+ * against a local Redis. It creates test sessions, reads them back with both approaches, and removes them when done.
+ * </p>
+ * <p>
+ * This isn't run as part of the unit tests. Usage: play "test:run-main
+ * org.sagebionetworks.bridge.cache.SessionLookupBenchmark [number of sessions] [iterations]"
+ * </p>
+ */
+public class SessionLookupBenchmark {
+    private static final int DEFAULT_NUM_SESSIONS = 1000;
+    private static final int DEFAULT_ITERATIONS = 20000;
+
+    public static void main(String[] args) throws Exception {
+        int numSessions = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_NUM_SESSIONS;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_ITERATIONS;
+
+        // spring beans
+        AbstractApplicationContext springCtx = new ClassPathXmlApplicationContext("application-context.xml");
+        springCtx.registerShutdownHook();
+        CacheProvider cacheProvider = springCtx.getBean(CacheProvider.class);
+        CacheSerializer serializer = springCtx.getBean(CacheSerializer.class);
+        JedisPool jedisPool = springCtx.getBean(JedisPool.class);
+
+        List<UserSession> sessions = new ArrayList<>(numSessions);
+        try {
+            for (int i = 0; i < numSessions; i++) {
+                StudyParticipant participant = new StudyParticipant.Builder().withId(BridgeUtils.generateGuid())
+                        .withHealthCode(BridgeUtils.generateGuid()).withEmail("benchmark-" + i + "@sagebase.org")
+                        .build();
+                UserSession session = new UserSession(participant);
+                session.setSessionToken(BridgeUtils.generateGuid());
+                cacheProvider.setUserSession(session);
+                sessions.add(session);
+            }
+
+            // Warm up both paths, so JIT and connection pool set up don't skew the first measurements.
+            for (int i = 0; i < Math.min(iterations, numSessions); i++) {
+                String token = sessions.get(i).getSessionToken();
+                getSessionWithTwoGets(jedisPool, serializer, token);
+                cacheProvider.getUserSession(token);
+            }
+
+            long[] twoGetNanos = new long[iterations];
+            long[] scriptNanos = new long[iterations];
+            for (int i = 0; i < iterations; i++) {
+                String token = sessions.get(i % numSessions).getSessionToken();
+
+                long start = System.nanoTime();
+                getSessionWithTwoGets(jedisPool, serializer, token);
+                twoGetNanos[i] = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                cacheProvider.getUserSession(token);
+                scriptNanos[i] = System.nanoTime() - start;
+            }
+
+            System.out.println(String.format("Resolved %s sessions %s times", numSessions, iterations));
+            report("two GETs", twoGetNanos);
+            report("script", scriptNanos);
+        } finally {
+            for (UserSession session : sessions) {
+                cacheProvider.removeSession(session);
+            }
+            springCtx.close();
+        }
+    }
+
+    private static UserSession getSessionWithTwoGets(JedisPool jedisPool, CacheSerializer serializer,
+            String sessionToken) throws Exception {
+        try (Jedis jedis = jedisPool.getResource()) {
+            String userId = jedis.get(CacheKey.tokenToUserId(sessionToken).toString());
+            if (userId == null) {
+                return null;
+            }
+            byte[] ser = jedis.get(CacheKey.userIdToSession(userId).toString().getBytes(UTF_8));
+            if (ser == null) {
+                return null;
+            }
+            UserSession session = serializer.decode(ser, UserSession.class);
+            return sessionToken.equals(session.getSessionToken()) ? session : null;
+        }
+    }
+
+    private static void report(String label, long[] nanos) {
+        long[] sorted = Arrays.copyOf(nanos, nanos.length);
+        Arrays.sort(sorted);
+        System.out.println(String.format("%-10s p50=%dus p99=%dus max=%dus", label, percentile(sorted, 50) / 1000,
+                percentile(sorted, 99) / 1000, sorted[sorted.length - 1] / 1000));
+    }
+
+    private static long percentile(long[] sorted, int percentile) {
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, index)];
+    }
+}
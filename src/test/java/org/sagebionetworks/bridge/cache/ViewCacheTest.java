@@ -1,21 +1,40 @@
 package org.sagebionetworks.bridge.cache;
 
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyInt;
+import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.fail;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.joda.time.DateTimeUtils;
+import org.mockito.ArgumentCaptor;
+import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import org.sagebionetworks.bridge.BridgeConstants;
 import org.sagebionetworks.bridge.TestUtils;
 import org.sagebionetworks.bridge.cache.CacheKey;
+import org.sagebionetworks.bridge.dao.DistributedLockDao;
 import org.sagebionetworks.bridge.dynamodb.DynamoStudy;
 import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
+import org.sagebionetworks.bridge.exceptions.ConcurrentModificationException;
 import org.sagebionetworks.bridge.json.BridgeObjectMapper;
 import org.sagebionetworks.bridge.models.studies.Study;
 import org.sagebionetworks.bridge.models.surveys.Survey;
@@ -25,9 +44,12 @@ import com.fasterxml.jackson.databind.ser.FilterProvider;
 import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
 import com.google.common.base.Supplier;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.MoreExecutors;
 
 public class ViewCacheTest {
     
+    private static final long NOW = 1540000000000L;
+    
     private BridgeObjectMapper mapper;
     private Study study;
     
@@ -36,6 +58,12 @@ public class ViewCacheTest {
         mapper = BridgeObjectMapper.get();
         
         study = TestUtils.getValidStudy(ViewCacheTest.class);
+        DateTimeUtils.setCurrentMillisFixed(NOW);
+    }
+    
+    @AfterMethod
+    public void after() {
+        DateTimeUtils.setCurrentMillisSystem();
     }
     
     @Test
@@ -46,7 +74,7 @@ public class ViewCacheTest {
         
         CacheKey cacheKey = cache.getCacheKey(Study.class, study.getIdentifier());
         CacheProvider provider = mock(CacheProvider.class);
-        when(provider.getObject(cacheKey, String.class)).thenReturn(null);
+        when(provider.getObject(cacheKey, ViewCache.CachedView.class)).thenReturn(null);
         cache.setCacheProvider(provider);
         
         String json = cache.getView(cacheKey, new Supplier<Study>() {
@@ -70,7 +98,7 @@ public class ViewCacheTest {
         CacheKey cacheKey = cache.getCacheKey(Study.class, study.getIdentifier());
         
         CacheProvider provider = mock(CacheProvider.class);
-        when(provider.getObject(cacheKey, String.class)).thenReturn(null);
+        when(provider.getObject(cacheKey, ViewCache.CachedView.class)).thenReturn(null);
         cache.setCacheProvider(provider);
         
         // It doesn't get wrapped or transformed or anything
@@ -96,7 +124,8 @@ public class ViewCacheTest {
         
         CacheKey cacheKey = cache.getCacheKey(Study.class, study.getIdentifier());
         CacheProvider provider = mock(CacheProvider.class);
-        when(provider.getObject(cacheKey, String.class)).thenReturn(originalStudyJson);
+        when(provider.getObject(cacheKey, ViewCache.CachedView.class))
+                .thenReturn(new ViewCache.CachedView(originalStudyJson));
         cache.setCacheProvider(provider);
         
         String json = cache.getView(cacheKey, new Supplier<Study>() {
@@ -167,6 +196,198 @@ public class ViewCacheTest {
         verify(provider).setObject(cacheKey, mapper.writeValueAsString(survey), 1000);
     }
     
+    @Test
+    public void concurrentMissesCallSupplierOnce() throws Exception {
+        ViewCache cache = new ViewCache();
+        cache.setObjectMapper(BridgeObjectMapper.get());
+        cache.setCachePeriod(BridgeConstants.BRIDGE_VIEW_EXPIRE_IN_SECONDS);
+        cache.setCacheProvider(mock(CacheProvider.class));
+        CacheKey cacheKey = cache.getCacheKey(Study.class, study.getIdentifier());
+        
+        int numThreads = 5;
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger supplierCalls = new AtomicInteger();
+        Supplier<Study> supplier = () -> {
+            supplierCalls.incrementAndGet();
+            started.countDown();
+            try {
+                release.await();
+            } catch(InterruptedException e) {
+                throw new BridgeServiceException(e);
+            }
+            return study;
+        };
+        
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            List<Future<String>> futures = new ArrayList<>();
+            futures.add(executor.submit(() -> cache.getView(cacheKey, supplier)));
+            started.await();
+            for (int i=1; i < numThreads; i++) {
+                futures.add(executor.submit(() -> cache.getView(cacheKey, supplier)));
+            }
+            // Wait for the other callers to join the load in flight before letting it finish
+            long deadline = System.currentTimeMillis() + 5000;
+            while (cache.getCollapsedLoadCount() < numThreads-1 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            release.countDown();
+            
+            String expected = mapper.writeValueAsString(study);
+            for (Future<String> future : futures) {
+                assertEquals(future.get(5, TimeUnit.SECONDS), expected);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(supplierCalls.get(), 1);
+        assertEquals(cache.getLoadCount(), 1L);
+        assertEquals(cache.getCollapsedLoadCount(), (long)(numThreads-1));
+    }
+    
+    @Test
+    public void loadsUnderDistributedLock() throws Exception {
+        DistributedLockDao lockDao = mock(DistributedLockDao.class);
+        when(lockDao.acquireLock(eq(ViewCache.class), anyString(), anyInt())).thenReturn("lockId");
+        CacheProvider provider = mock(CacheProvider.class);
+        
+        ViewCache cache = new ViewCache();
+        cache.setObjectMapper(BridgeObjectMapper.get());
+        cache.setCachePeriod(BridgeConstants.BRIDGE_VIEW_EXPIRE_IN_SECONDS);
+        cache.setCacheProvider(provider);
+        cache.setDistributedLockDao(lockDao);
+        CacheKey cacheKey = cache.getCacheKey(Study.class, study.getIdentifier());
+        
+        String json = cache.getView(cacheKey, () -> study);
+        
+        assertEquals(json, mapper.writeValueAsString(study));
+        verify(lockDao).acquireLock(ViewCache.class, cacheKey.toString(), ViewCache.LOCK_EXPIRE_IN_SECONDS);
+        verify(lockDao).releaseLock(ViewCache.class, cacheKey.toString(), "lockId");
+        verify(provider).setObject(cacheKey, json, BridgeConstants.BRIDGE_VIEW_EXPIRE_IN_SECONDS);
+    }
+    
+    @Test
+    public void waitsForAnotherNodeHoldingLock() throws Exception {
+        String originalStudyJson = mapper.writeValueAsString(study);
+        DistributedLockDao lockDao = mock(DistributedLockDao.class);
+        when(lockDao.acquireLock(eq(ViewCache.class), anyString(), anyInt()))
+                .thenThrow(new ConcurrentModificationException("Lock already set."));
+        
+        ViewCache cache = new ViewCache();
+        cache.setObjectMapper(BridgeObjectMapper.get());
+        cache.setCachePeriod(BridgeConstants.BRIDGE_VIEW_EXPIRE_IN_SECONDS);
+        cache.setDistributedLockDao(lockDao);
+        CacheKey cacheKey = cache.getCacheKey(Study.class, study.getIdentifier());
+        
+        // Missing on the first read, then the other node finishes loading it
+        CacheProvider provider = mock(CacheProvider.class);
+        when(provider.getObject(cacheKey, ViewCache.CachedView.class)).thenReturn(null,
+                new ViewCache.CachedView(originalStudyJson));
+        cache.setCacheProvider(provider);
+        
+        String json = cache.getView(cacheKey, () -> {
+            fail("This should not be called");
+            return null;
+        });
+        assertEquals(json, originalStudyJson);
+        assertEquals(cache.getRemoteCollapsedLoadCount(), 1L);
+        assertEquals(cache.getLoadCount(), 0L);
+        verify(provider, never()).setObject(any(), any(), anyInt());
+    }
+    
+    @Test
+    public void loadsAnywayIfOtherNodeNeverFinishes() throws Exception {
+        DistributedLockDao lockDao = mock(DistributedLockDao.class);
+        when(lockDao.acquireLock(eq(ViewCache.class), anyString(), anyInt()))
+                .thenThrow(new ConcurrentModificationException("Lock already set."));
+        
+        ViewCache cache = new ViewCache();
+        cache.setObjectMapper(BridgeObjectMapper.get());
+        cache.setCachePeriod(BridgeConstants.BRIDGE_VIEW_EXPIRE_IN_SECONDS);
+        cache.setCacheProvider(mock(CacheProvider.class));
+        cache.setDistributedLockDao(lockDao);
+        cache.setLockWaitMillis(100);
+        CacheKey cacheKey = cache.getCacheKey(Study.class, study.getIdentifier());
+        
+        String json = cache.getView(cacheKey, () -> study);
+        assertEquals(json, mapper.writeValueAsString(study));
+        assertEquals(cache.getLoadCount(), 1L);
+    }
+    
+    @Test
+    public void staleViewIsServedWhileRefreshed() throws Exception {
+        String originalStudyJson = mapper.writeValueAsString(study);
+        
+        ViewCache cache = new ViewCache();
+        cache.setObjectMapper(BridgeObjectMapper.get());
+        cache.setCachePeriod(1000);
+        cache.setSoftCachePeriod(100);
+        cache.setAsyncExecutorService(MoreExecutors.newDirectExecutorService());
+        CacheKey cacheKey = cache.getCacheKey(Study.class, study.getIdentifier());
+        
+        // The view was due to be refreshed a second ago
+        CacheProvider provider = mock(CacheProvider.class);
+        when(provider.getObject(cacheKey, ViewCache.CachedView.class))
+                .thenReturn(new ViewCache.CachedView(originalStudyJson, NOW - 1000L));
+        cache.setCacheProvider(provider);
+        
+        Study updatedStudy = TestUtils.getValidStudy(ViewCacheTest.class);
+        updatedStudy.setName("Test Study 2");
+        String json = cache.getView(cacheKey, () -> updatedStudy);
+        
+        assertEquals(json, originalStudyJson);
+        assertEquals(cache.getStaleServedCount(), 1L);
+        
+        // The refreshed view is cached with the time after which it is refreshed again, in a single write
+        ArgumentCaptor<ViewCache.CachedView> viewCaptor = ArgumentCaptor.forClass(ViewCache.CachedView.class);
+        verify(provider).setObject(eq(cacheKey), viewCaptor.capture(), eq(1000));
+        assertEquals(viewCaptor.getValue().getView(), mapper.writeValueAsString(updatedStudy));
+        assertEquals(viewCaptor.getValue().getRefreshAfter(), NOW + 100000L);
+        verify(provider, times(1)).getObject(any(), any(Class.class));
+    }
+    
+    @Test
+    public void freshViewIsNotRefreshed() throws Exception {
+        String originalStudyJson = mapper.writeValueAsString(study);
+        
+        ViewCache cache = new ViewCache();
+        cache.setObjectMapper(BridgeObjectMapper.get());
+        cache.setCachePeriod(1000);
+        cache.setSoftCachePeriod(100);
+        CacheKey cacheKey = cache.getCacheKey(Study.class, study.getIdentifier());
+        
+        CacheProvider provider = mock(CacheProvider.class);
+        when(provider.getObject(cacheKey, ViewCache.CachedView.class))
+                .thenReturn(new ViewCache.CachedView(originalStudyJson, NOW + 1000L));
+        cache.setCacheProvider(provider);
+        
+        String json = cache.getView(cacheKey, () -> {
+            fail("This should not be called");
+            return null;
+        });
+        assertEquals(json, originalStudyJson);
+        assertEquals(cache.getStaleServedCount(), 0L);
+        verify(provider, times(1)).getObject(any(), any(Class.class));
+    }
+    
+    @Test
+    public void cachedViewReadsPlainStrings() throws Exception {
+        // Views cached without a soft cache period are plain strings, and are due for refresh in soft mode
+        String originalStudyJson = mapper.writeValueAsString(study);
+        byte[] ser = new CacheSerializer().encode(originalStudyJson);
+        
+        ViewCache.CachedView cachedView = new CacheSerializer().decode(ser, ViewCache.CachedView.class);
+        assertEquals(cachedView.getView(), originalStudyJson);
+        assertEquals(cachedView.getRefreshAfter(), 0L);
+        
+        // A view with a refresh time round trips through the cache serializer
+        ser = new CacheSerializer().encode(new ViewCache.CachedView(originalStudyJson, NOW));
+        cachedView = new CacheSerializer().decode(ser, ViewCache.CachedView.class);
+        assertEquals(cachedView.getView(), originalStudyJson);
+        assertEquals(cachedView.getRefreshAfter(), NOW);
+    }
+    
     private CacheProvider getSimpleCacheProvider(final CacheKey cacheKey, final String originalStudyJson) {
         return new CacheProvider() {
             private Map<CacheKey,String> map = Maps.newHashMap();
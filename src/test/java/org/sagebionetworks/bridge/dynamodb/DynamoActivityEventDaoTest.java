@@ -17,7 +17,12 @@ import java.util.Map;
 
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBQueryExpression;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBSaveExpression;
 import com.amazonaws.services.dynamodbv2.datamodeling.PaginatedQueryList;
+import com.amazonaws.services.dynamodbv2.model.ComparisonOperator;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.ConditionalOperator;
+import com.amazonaws.services.dynamodbv2.model.ExpectedAttributeValue;
 import com.google.common.collect.ImmutableList;
 
 import org.joda.time.DateTime;
@@ -67,6 +72,9 @@ public class DynamoActivityEventDaoTest extends Mockito {
     @Captor
     ArgumentCaptor<DynamoDBQueryExpression<DynamoActivityEvent>> queryCaptor;
     
+    @Captor
+    ArgumentCaptor<DynamoDBSaveExpression> saveExpressionCaptor;
+    
     @Captor
     ArgumentCaptor<List<DynamoActivityEvent>> listCaptor;
     
@@ -80,53 +88,65 @@ public class DynamoActivityEventDaoTest extends Mockito {
         boolean result = dao.publishEvent(SURVEY_FINISHED_EVENT);
         assertTrue(result);
         
-        verify(mockMapper).load(eventCaptor.capture());
-        DynamoActivityEvent loadKey = eventCaptor.getValue();
-        assertEquals(loadKey.getHealthCode(), HEALTH_CODE);
-        assertEquals(loadKey.getEventId(), "survey:AAA-BBB-CCC:finished");
-        
-        verify(mockMapper).save(eventCaptor.capture());
+        verify(mockMapper, never()).load(any());
+        verify(mockMapper).save(eventCaptor.capture(), saveExpressionCaptor.capture());
         assertSame(eventCaptor.getValue(), SURVEY_FINISHED_EVENT);
+        
+        // The event is saved if it is new, or if it is later than the saved event
+        DynamoDBSaveExpression saveExpression = saveExpressionCaptor.getValue();
+        assertEquals(saveExpression.getConditionalOperator(), ConditionalOperator.OR.toString());
+        Map<String, ExpectedAttributeValue> expected = saveExpression.getExpected();
+        assertEquals(expected.size(), 2);
+        assertFalse(expected.get("healthCode").getExists());
+        ExpectedAttributeValue timestampExpected = expected.get("timestamp");
+        assertEquals(timestampExpected.getComparisonOperator(), ComparisonOperator.LT.toString());
+        assertEquals(timestampExpected.getAttributeValueList().get(0).getN(), String.valueOf(TIMESTAMP.getMillis()));
     }
     
     @Test
     public void publishEventIsMutableAndLater() {
-        DynamoActivityEvent earlierEvent = new DynamoActivityEvent.Builder().withHealthCode(HEALTH_CODE)
-                .withObjectType(SURVEY).withEventType(FINISHED).withTimestamp(TIMESTAMP.minusHours(1))
-                .withObjectId("AAA-BBB-CCC").build();
-        when(mockMapper.load(any())).thenReturn(earlierEvent);
-        
+        // DynamoDB checks the condition, and saves the event.
         boolean result = dao.publishEvent(SURVEY_FINISHED_EVENT);
         assertTrue(result);
         
-        verify(mockMapper).save(eventCaptor.capture());
+        verify(mockMapper).save(eventCaptor.capture(), any(DynamoDBSaveExpression.class));
         assertSame(eventCaptor.getValue(), SURVEY_FINISHED_EVENT);
     }
     
+    @Test
+    public void publishEventIsImmutable() {
+        boolean result = dao.publishEvent(ENROLLMENT_EVENT);
+        assertTrue(result);
+        
+        // The event is only saved if it is new
+        verify(mockMapper).save(eventCaptor.capture(), saveExpressionCaptor.capture());
+        assertSame(eventCaptor.getValue(), ENROLLMENT_EVENT);
+        Map<String, ExpectedAttributeValue> expected = saveExpressionCaptor.getValue().getExpected();
+        assertEquals(expected.size(), 1);
+        assertFalse(expected.get("healthCode").getExists());
+    }
+    
     @Test
     public void publishEventIsImmutableFails() {
-        when(mockMapper.load(any())).thenReturn(ENROLLMENT_EVENT);
+        doThrow(new ConditionalCheckFailedException("")).when(mockMapper).save(any(),
+                any(DynamoDBSaveExpression.class));
         
         DynamoActivityEvent laterEvent = new DynamoActivityEvent.Builder().withHealthCode(HEALTH_CODE)
                 .withObjectType(ENROLLMENT).withTimestamp(TIMESTAMP.plusHours(1)).build();
         
         boolean result = dao.publishEvent(laterEvent);
         assertFalse(result);
-        
-        verify(mockMapper, never()).save(any());
     }
     
     @Test
     public void publishEventIsEarlierFails() {
-        DynamoActivityEvent laterEvent = new DynamoActivityEvent.Builder().withHealthCode(HEALTH_CODE)
-                .withObjectType(SURVEY).withEventType(FINISHED).withTimestamp(TIMESTAMP.plusHours(1))
-                .withObjectId("AAA-BBB-CCC").build();
-        when(mockMapper.load(any())).thenReturn(laterEvent);
+        doThrow(new ConditionalCheckFailedException("")).when(mockMapper).save(any(),
+                any(DynamoDBSaveExpression.class));
         
         boolean result = dao.publishEvent(SURVEY_FINISHED_EVENT);
         assertFalse(result);
         
-        verify(mockMapper, never()).save(any());
+        verify(mockMapper, never()).load(any());
     }
 
     @Test
@@ -148,6 +168,7 @@ public class DynamoActivityEventDaoTest extends Mockito {
         
         DynamoDBQueryExpression<DynamoActivityEvent> query = queryCaptor.getValue();
         assertEquals(query.getHashKeyValues().getHealthCode(), HEALTH_CODE);
+        assertTrue(query.isConsistentRead());
     }
     
     @Test
@@ -3,8 +3,16 @@ package org.sagebionetworks.bridge.dynamodb;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertNull;
 import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Map;
 
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper.BatchGetItemException;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
 
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
@@ -27,6 +35,9 @@ public class DynamoCriteriaDaoTest extends Mockito {
     @Captor
     ArgumentCaptor<DynamoCriteria> criteriaCaptor;
     
+    @Captor
+    ArgumentCaptor<List<DynamoCriteria>> criteriaListCaptor;
+    
     @InjectMocks
     DynamoCriteriaDao dao;
     
@@ -65,6 +76,60 @@ public class DynamoCriteriaDaoTest extends Mockito {
         assertNull( dao.getCriteria(CRITERIA_KEY) );
     }
     
+    @Test
+    public void getCriteriaBatch() {
+        when(mockMapper.batchLoad(anyList())).thenReturn(ImmutableMap.of("Criteria",
+                ImmutableList.of(criteria("key1"), criteria("key2"))));
+        
+        Map<String, Criteria> result = dao.getCriteria(ImmutableList.of("key1", "key2", "key3", "key1"));
+        assertEquals(result.size(), 2);
+        assertEquals(result.get("key1").getKey(), "key1");
+        assertEquals(result.get("key2").getKey(), "key2");
+        assertNull(result.get("key3"));
+        
+        // Duplicate keys are only requested once
+        verify(mockMapper).batchLoad(criteriaListCaptor.capture());
+        assertEquals(criteriaListCaptor.getValue().size(), 3);
+        verify(mockMapper, never()).load(any());
+    }
+    
+    @Test
+    public void getCriteriaBatchIsChunked() {
+        List<String> keys = Lists.newArrayList();
+        for (int i=0; i < DynamoCriteriaDao.MAX_BATCH_LOAD_SIZE + 50; i++) {
+            keys.add("key" + i);
+        }
+        when(mockMapper.batchLoad(anyList())).thenReturn(ImmutableMap.of());
+        
+        assertTrue(dao.getCriteria(keys).isEmpty());
+        
+        verify(mockMapper, times(2)).batchLoad(criteriaListCaptor.capture());
+        assertEquals(criteriaListCaptor.getAllValues().get(0).size(), DynamoCriteriaDao.MAX_BATCH_LOAD_SIZE);
+        assertEquals(criteriaListCaptor.getAllValues().get(1).size(), 50);
+    }
+    
+    @Test
+    public void getCriteriaBatchEmpty() {
+        assertTrue(dao.getCriteria(ImmutableList.of()).isEmpty());
+        verify(mockMapper, never()).batchLoad(anyList());
+    }
+    
+    @Test
+    public void getCriteriaBatchLoadsUnprocessedKeysIndividually() {
+        BatchGetItemException e = new BatchGetItemException("unprocessed keys", ImmutableMap.of(),
+                ImmutableMap.of("Criteria", ImmutableList.of(criteria("key1"))));
+        when(mockMapper.batchLoad(anyList())).thenThrow(e);
+        when(mockMapper.load(any())).thenReturn(criteria("key2"));
+        
+        Map<String, Criteria> result = dao.getCriteria(ImmutableList.of("key1", "key2"));
+        assertEquals(result.size(), 2);
+        assertEquals(result.get("key1").getKey(), "key1");
+        assertEquals(result.get("key2").getKey(), "key2");
+        
+        verify(mockMapper).load(criteriaCaptor.capture());
+        assertEquals(criteriaCaptor.getValue().getKey(), "key2");
+    }
+    
     @Test
     public void deleteCriteria() {
         Criteria saved = Criteria.create();
@@ -84,4 +149,10 @@ public class DynamoCriteriaDaoTest extends Mockito {
         
         verify(mockMapper, never()).delete(any());
     }
+    
+    private static DynamoCriteria criteria(String key) {
+        DynamoCriteria criteria = new DynamoCriteria();
+        criteria.setKey(key);
+        return criteria;
+    }
 }
@@ -4,15 +4,18 @@ import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNotNull;
 import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
 import static org.testng.Assert.fail;
 
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBQueryExpression;
@@ -24,6 +27,7 @@ import com.amazonaws.services.dynamodbv2.document.internal.IteratorSupport;
 import com.amazonaws.services.dynamodbv2.model.ComparisonOperator;
 import com.amazonaws.services.dynamodbv2.model.Condition;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import org.mockito.ArgumentCaptor;
 import org.testng.annotations.Test;
 
@@ -89,6 +93,46 @@ public class DynamoHealthDataDaoTest {
         assertEquals(recordKeyList.get(0).getId(), "test ID");
     }
 
+    @Test
+    public void getRecordsById() {
+        DynamoHealthDataRecord fooRecord = new DynamoHealthDataRecord();
+        fooRecord.setId("foo");
+        DynamoHealthDataRecord barRecord = new DynamoHealthDataRecord();
+        barRecord.setId("bar");
+
+        // mock mapper
+        DynamoDBMapper mockMapper = mock(DynamoDBMapper.class);
+        ArgumentCaptor<List> arg = ArgumentCaptor.forClass(List.class);
+        when(mockMapper.batchLoad(arg.capture())).thenReturn(ImmutableMap.of("HealthDataRecord3",
+                ImmutableList.of(fooRecord, barRecord)));
+
+        DynamoHealthDataDao dao = new DynamoHealthDataDao();
+        dao.setMapper(mockMapper);
+
+        // execute and validate, duplicate IDs are only loaded once, and missing records aren't in the map
+        Map<String, HealthDataRecord> recordMap = dao.getRecordsById(ImmutableList.of("foo", "bar", "foo",
+                "missing"));
+        assertEquals(recordMap.size(), 2);
+        assertSame(recordMap.get("foo"), fooRecord);
+        assertSame(recordMap.get("bar"), barRecord);
+
+        List<HealthDataRecord> recordKeyList = arg.getValue();
+        assertEquals(recordKeyList.size(), 3);
+        assertEquals(recordKeyList.get(0).getId(), "foo");
+        assertEquals(recordKeyList.get(1).getId(), "bar");
+        assertEquals(recordKeyList.get(2).getId(), "missing");
+    }
+
+    @Test
+    public void getRecordsByIdNoIds() {
+        DynamoDBMapper mockMapper = mock(DynamoDBMapper.class);
+        DynamoHealthDataDao dao = new DynamoHealthDataDao();
+        dao.setMapper(mockMapper);
+
+        assertTrue(dao.getRecordsById(ImmutableList.of()).isEmpty());
+        verifyZeroInteractions(mockMapper);
+    }
+
     @Test
     public void deleteRecordsForHealthCodeMapperException() {
         // mock failed batch
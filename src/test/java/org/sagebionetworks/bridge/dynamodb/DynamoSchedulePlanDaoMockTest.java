@@ -45,6 +45,7 @@ import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 import com.amazonaws.services.dynamodbv2.model.ComparisonOperator;
 import com.amazonaws.services.dynamodbv2.model.Condition;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 
@@ -92,6 +93,8 @@ public class DynamoSchedulePlanDaoMockTest extends Mockito {
         Criteria criteria = scheduleCriteria.getCriteria();
         
         when(mockCriteriaDao.getCriteria(SCHEDULE_CRITERIA_KEY)).thenReturn(criteria);
+        when(mockCriteriaDao.getCriteria(ImmutableList.of(SCHEDULE_CRITERIA_KEY)))
+                .thenReturn(ImmutableMap.of(SCHEDULE_CRITERIA_KEY, criteria));
     }
     
     @AfterMethod
@@ -145,14 +148,16 @@ public class DynamoSchedulePlanDaoMockTest extends Mockito {
         Criteria criteria = strategy.getScheduleCriteria().get(0).getCriteria();
         assertCriteria(criteria);
         
+        // All the plans' criteria are loaded in one call
         String key = criteria.getKey();
-        verify(mockCriteriaDao).getCriteria(key);
+        verify(mockCriteriaDao).getCriteria(ImmutableList.of(key));
+        verify(mockCriteriaDao, never()).getCriteria(key);
         
         // now have criteriaDao return a different criteria object, that should update the plan
         Criteria persistedCriteria = Criteria.create();
         persistedCriteria.setMinAppVersion(IOS, 1);
         persistedCriteria.setMaxAppVersion(IOS, 65);
-        when(mockCriteriaDao.getCriteria(key)).thenReturn(persistedCriteria);
+        when(mockCriteriaDao.getCriteria(ImmutableList.of(key))).thenReturn(ImmutableMap.of(key, persistedCriteria));
         
         plans = dao.getSchedulePlans(ClientInfo.UNKNOWN_CLIENT, TEST_STUDY, false);
         plan = plans.get(0);
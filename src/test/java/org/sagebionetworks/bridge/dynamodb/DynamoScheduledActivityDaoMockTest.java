@@ -18,6 +18,7 @@ import static org.testng.Assert.assertTrue;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeUtils;
@@ -32,6 +33,7 @@ import org.testng.annotations.Test;
 import org.sagebionetworks.bridge.BridgeConstants;
 import org.sagebionetworks.bridge.BridgeUtils;
 import org.sagebionetworks.bridge.TestUtils;
+import org.sagebionetworks.bridge.config.BridgeConfig;
 import org.sagebionetworks.bridge.config.BridgeConfigFactory;
 import org.sagebionetworks.bridge.exceptions.BadRequestException;
 import org.sagebionetworks.bridge.exceptions.EntityNotFoundException;
@@ -42,6 +44,7 @@ import org.sagebionetworks.bridge.models.schedules.ActivityType;
 import org.sagebionetworks.bridge.models.schedules.ScheduleContext;
 import org.sagebionetworks.bridge.models.schedules.ScheduledActivity;
 
+import com.amazonaws.AmazonServiceException;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBQueryExpression;
 import com.amazonaws.services.dynamodbv2.datamodeling.PaginatedQueryList;
@@ -52,8 +55,10 @@ import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 import com.amazonaws.services.dynamodbv2.model.Condition;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
 public class DynamoScheduledActivityDaoMockTest {
 
@@ -325,6 +330,114 @@ public class DynamoScheduledActivityDaoMockTest {
         assertEquals(results.getRequestParams().get("scheduledOnEnd"), SCHEDULED_ON_END.toString());
     }
 
+    @SuppressWarnings("unchecked")
+    @Test
+    public void getActivitiesInRange() {
+        String startTime = SCHEDULED_ON_START.toLocalDateTime().toString();
+        String endTime = SCHEDULED_ON_END.toLocalDateTime().toString();
+        
+        DynamoScheduledActivity activity1 = new DynamoScheduledActivity();
+        activity1.setGuid("AAA:" + startTime);
+        DynamoScheduledActivity activity2 = new DynamoScheduledActivity();
+        activity2.setGuid("AAA:" + endTime);
+        DynamoScheduledActivity activity3 = new DynamoScheduledActivity();
+        activity3.setGuid("CCC:" + endTime);
+        
+        // Activity AAA has two pages. Activity CCC has one.
+        QueryResultPage<DynamoScheduledActivity> page1 = mock(QueryResultPage.class);
+        when(page1.getResults()).thenReturn(ImmutableList.of(activity1));
+        when(page1.getLastEvaluatedKey()).thenReturn(ImmutableMap.of("guid", new AttributeValue("AAA:" + startTime)));
+        QueryResultPage<DynamoScheduledActivity> page2 = mock(QueryResultPage.class);
+        when(page2.getResults()).thenReturn(ImmutableList.of(activity2));
+        QueryResultPage<DynamoScheduledActivity> page3 = mock(QueryResultPage.class);
+        when(page3.getResults()).thenReturn(ImmutableList.of(activity3));
+        when(mapper.queryPage(eq(DynamoScheduledActivity.class), any())).thenAnswer(invocation -> {
+            DynamoDBQueryExpression<DynamoScheduledActivity> query = invocation.getArgument(1);
+            String lowerBound = query.getRangeKeyConditions().get("guid").getAttributeValueList().get(0).getS();
+            if (lowerBound.startsWith("AAA")) {
+                return query.getExclusiveStartKey() == null ? page1 : page2;
+            }
+            return page3;
+        });
+        
+        List<ScheduledActivity> results = activityDao.getActivitiesInRange(HEALTH_CODE, ImmutableSet.of("CCC", "AAA"),
+                SCHEDULED_ON_START, SCHEDULED_ON_END);
+        assertEquals(ImmutableSet.copyOf(results), ImmutableSet.of(activity1, activity2, activity3));
+        assertEquals(results.size(), 3);
+        for (ScheduledActivity activity : results) {
+            assertEquals(activity.getTimeZone(), SCHEDULED_ON_START.getZone());
+        }
+        
+        ArgumentCaptor<DynamoDBQueryExpression<DynamoScheduledActivity>> queryCaptor = ArgumentCaptor.forClass(DynamoDBQueryExpression.class);
+        verify(mapper, times(3)).queryPage(eq(DynamoScheduledActivity.class), queryCaptor.capture());
+        
+        // Each activity GUID's key range is bounded to the window, so no other history is read.
+        Map<String, Condition> conditionsByGuid = Maps.newHashMap();
+        for (DynamoDBQueryExpression<DynamoScheduledActivity> query : queryCaptor.getAllValues()) {
+            assertEquals(query.getHashKeyValues().getHealthCode(), HEALTH_CODE);
+            assertNull(query.getQueryFilter());
+            Condition guidCondition = query.getRangeKeyConditions().get("guid");
+            String lowerBound = guidCondition.getAttributeValueList().get(0).getS();
+            conditionsByGuid.put(lowerBound.split(":", 2)[0], guidCondition);
+            if (query.getExclusiveStartKey() != null) {
+                // The second page picks up where the first left off.
+                assertEquals(query.getExclusiveStartKey().get("guid").getS(), "AAA:" + startTime);
+            }
+        }
+        assertEquals(conditionsByGuid.get("AAA").getAttributeValueList().get(0).getS(), "AAA:" + startTime);
+        assertEquals(conditionsByGuid.get("AAA").getAttributeValueList().get(1).getS(), "AAA:" + endTime);
+        assertEquals(conditionsByGuid.get("CCC").getAttributeValueList().get(0).getS(), "CCC:" + startTime);
+        assertEquals(conditionsByGuid.get("CCC").getAttributeValueList().get(1).getS(), "CCC:" + endTime);
+    }
+    
+    @SuppressWarnings("unchecked")
+    @Test
+    public void getActivitiesInRangeOnLookupPool() {
+        BridgeConfig config = mock(BridgeConfig.class);
+        when(config.getPropertyAsInt(DynamoScheduledActivityDao.CONFIG_KEY_LOOKUP_THREAD_COUNT)).thenReturn(2);
+        when(config.getPropertyAsInt(DynamoScheduledActivityDao.CONFIG_KEY_LOOKUP_MAX_QUEUED)).thenReturn(10);
+        activityDao.setBridgeConfig(config);
+        activityDao.start();
+        try {
+            Set<String> threadNames = Sets.newConcurrentHashSet();
+            when(mapper.queryPage(eq(DynamoScheduledActivity.class), any())).thenAnswer(invocation -> {
+                threadNames.add(Thread.currentThread().getName());
+                DynamoDBQueryExpression<DynamoScheduledActivity> query = invocation.getArgument(1);
+                DynamoScheduledActivity activity = new DynamoScheduledActivity();
+                activity.setGuid(query.getRangeKeyConditions().get("guid").getAttributeValueList().get(0).getS());
+                QueryResultPage<DynamoScheduledActivity> page = new QueryResultPage<>();
+                page.setResults(ImmutableList.of(activity));
+                return page;
+            });
+            
+            List<ScheduledActivity> results = activityDao.getActivitiesInRange(HEALTH_CODE,
+                    ImmutableSet.of("AAA", "BBB", "CCC"), SCHEDULED_ON_START, SCHEDULED_ON_END);
+            assertEquals(results.size(), 3);
+            for (String threadName : threadNames) {
+                assertTrue(threadName.startsWith("activity-lookup-"), threadName);
+            }
+        } finally {
+            activityDao.stop();
+        }
+    }
+    
+    @SuppressWarnings("unchecked")
+    @Test(expectedExceptions = AmazonServiceException.class)
+    public void getActivitiesInRangeQueryFails() {
+        when(mapper.queryPage(eq(DynamoScheduledActivity.class), any())).thenThrow(
+                new AmazonServiceException("query failed"));
+        activityDao.getActivitiesInRange(HEALTH_CODE, ImmutableSet.of("AAA", "BBB"), SCHEDULED_ON_START,
+                SCHEDULED_ON_END);
+    }
+    
+    @Test
+    public void getActivitiesInRangeWithNoActivityGuids() {
+        List<ScheduledActivity> results = activityDao.getActivitiesInRange(HEALTH_CODE, ImmutableSet.of(),
+                SCHEDULED_ON_START, SCHEDULED_ON_END);
+        assertTrue(results.isEmpty());
+        verify(mapper, never()).queryPage(any(), any());
+    }
+    
     @Test(expectedExceptions = BadRequestException.class)
     public void getActivityHistoryV2PageBelowMinSize() {
         activityDao.getActivityHistoryV2(HEALTH_CODE, ACTIVITY_GUID, SCHEDULED_ON_START, SCHEDULED_ON_END, OFFSET_KEY,
@@ -1,6 +1,9 @@
 package org.sagebionetworks.bridge.dynamodb;
 
+import static java.util.stream.Collectors.toMap;
 import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyCollection;
+import static org.mockito.Mockito.anyString;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.mock;
@@ -16,6 +19,7 @@ import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNotNull;
 import static org.testng.Assert.assertTrue;
 
+import java.util.Collection;
 import java.util.List;
 
 import org.mockito.ArgumentCaptor;
@@ -37,6 +41,7 @@ import org.sagebionetworks.bridge.models.subpopulations.SubpopulationGuid;
 
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
 import com.amazonaws.services.dynamodbv2.datamodeling.PaginatedQueryList;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 
@@ -80,7 +85,8 @@ public class DynamoSubpopulationDaoMockTest {
         doReturn(persistedSubpop).when(mapper).load(any());
         doReturn(page).when(mapper).query(eq(DynamoSubpopulation.class), any());
         
-        when(criteriaDao.getCriteria(any())).thenReturn(CRITERIA);
+        when(criteriaDao.getCriteria(anyString())).thenReturn(CRITERIA);
+        mockCriteriaBatch(CRITERIA);
         when(criteriaDao.createOrUpdateCriteria(any())).thenAnswer(invocation -> invocation.getArgument(0));
     }
     
@@ -118,7 +124,7 @@ public class DynamoSubpopulationDaoMockTest {
     
     @Test
     public void getSubpopulationConstructsCriteriaIfNotSaved() {
-        when(criteriaDao.getCriteria(any())).thenReturn(null);
+        when(criteriaDao.getCriteria(anyString())).thenReturn(null);
         
         Subpopulation subpop = dao.getSubpopulation(TEST_STUDY, SUBPOP_GUID);
         Criteria criteria = subpop.getCriteria();
@@ -253,7 +259,7 @@ public class DynamoSubpopulationDaoMockTest {
         List<Subpopulation> list = dao.getSubpopulations(TEST_STUDY, false, true);
         assertEquals(list.get(0).getCriteria(), CRITERIA);
         
-        verify(criteriaDao).getCriteria(list.get(0).getCriteria().getKey());
+        verify(criteriaDao).getCriteria(ImmutableList.of(list.get(0).getCriteria().getKey()));
     }
     
     @Test
@@ -264,13 +270,13 @@ public class DynamoSubpopulationDaoMockTest {
         assertEquals(list.get(0).getCriteria(), CRITERIA);
         
         // In this case it actually returns a criteria object.
-        verify(criteriaDao).getCriteria(list.get(0).getCriteria().getKey());
+        verify(criteriaDao).getCriteria(ImmutableList.of(list.get(0).getCriteria().getKey()));
     }
     
     @Test
     public void criteriaTableTakesPrecedenceOnGet() {
         reset(criteriaDao);
-        doReturn(CRITERIA).when(criteriaDao).getCriteria(any());
+        doReturn(CRITERIA).when(criteriaDao).getCriteria(anyString());
         
         Subpopulation subpop = dao.getSubpopulation(TEST_STUDY, SUBPOP_GUID);
         Criteria retrievedCriteria = subpop.getCriteria();
@@ -280,13 +286,20 @@ public class DynamoSubpopulationDaoMockTest {
     @Test
     public void criteriaTableTakesPrecedenceOnGetList() {
         reset(criteriaDao);
-        doReturn(CRITERIA).when(criteriaDao).getCriteria(any());
+        mockCriteriaBatch(CRITERIA);
         
         List<Subpopulation> subpops = dao.getSubpopulations(TEST_STUDY, false, true);
         Criteria retrievedCriteria = subpops.get(0).getCriteria();
         assertEquals(retrievedCriteria, CRITERIA);
     }
     
+    private void mockCriteriaBatch(Criteria criteria) {
+        when(criteriaDao.getCriteria(anyCollection())).thenAnswer(invocation -> {
+            Collection<String> keys = invocation.getArgument(0);
+            return keys.stream().collect(toMap(key -> key, key -> criteria));
+        });
+    }
+    
     private Subpopulation createSubpopulation() {
         Criteria criteria = TestUtils.copyCriteria(CRITERIA);
         criteria.setKey("subpopulation:"+SUBPOP_GUID);
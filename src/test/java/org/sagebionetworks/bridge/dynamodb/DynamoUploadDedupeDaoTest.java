@@ -6,6 +6,8 @@ import static org.sagebionetworks.bridge.dynamodb.DynamoUploadDedupeDao.NUM_DAYS
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertNull;
 
+import java.util.function.Supplier;
+
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBQueryExpression;
 import com.amazonaws.services.dynamodbv2.datamodeling.PaginatedQueryList;
@@ -14,6 +16,7 @@ import com.amazonaws.services.dynamodbv2.model.Condition;
 import org.joda.time.DateTime;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
+import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
@@ -21,6 +24,8 @@ import org.mockito.MockitoAnnotations;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import org.sagebionetworks.bridge.redis.RedisUploadDedupeFilter;
+
 public class DynamoUploadDedupeDaoTest extends Mockito {
     private static final String HEALTHCODE = "test-healthcode";
     private static final String UPLOAD_ID = "original-upload";
@@ -96,4 +101,45 @@ public class DynamoUploadDedupeDaoTest extends Mockito {
         String originalUploadId = dao.getDuplicate(HEALTHCODE, UPLOAD_MD5, UPLOAD_REQUESTED_ON);
         assertNull(originalUploadId);
     }
+
+    @Test
+    public void getDuplicateSkippedByFilter() {
+        RedisUploadDedupeFilter mockFilter = mock(RedisUploadDedupeFilter.class);
+        dao.setDedupeFilter(mockFilter);
+        
+        String originalUploadId = dao.getDuplicate(HEALTHCODE, UPLOAD_MD5, UPLOAD_REQUESTED_ON);
+        assertNull(originalUploadId);
+        
+        verify(mockFilter).getDuplicate(eq(HEALTHCODE), eq(UPLOAD_MD5),
+                eq(UPLOAD_REQUESTED_ON.minusDays(NUM_DAYS_BEFORE)), eq(UPLOAD_REQUESTED_ON), any());
+        verify(mockMapper, never()).query(eq(DynamoUploadDedupe.class), any());
+    }
+    
+    @SuppressWarnings("unchecked")
+    @Test
+    public void getDuplicatePassedByFilter() {
+        RedisUploadDedupeFilter mockFilter = mock(RedisUploadDedupeFilter.class);
+        when(mockFilter.getDuplicate(any(), any(), any(), any(), any())).thenAnswer(invocation -> 
+                invocation.<Supplier<String>>getArgument(4).get());
+        dao.setDedupeFilter(mockFilter);
+        
+        when(mockMapper.query(eq(DynamoUploadDedupe.class), any())).thenReturn(mockQueryList);
+        when(mockQueryList.isEmpty()).thenReturn(true);
+        
+        String originalUploadId = dao.getDuplicate(HEALTHCODE, UPLOAD_MD5, UPLOAD_REQUESTED_ON);
+        assertNull(originalUploadId);
+        verify(mockMapper).query(eq(DynamoUploadDedupe.class), any());
+    }
+    
+    @Test
+    public void registerUploadAddsToFilter() {
+        RedisUploadDedupeFilter mockFilter = mock(RedisUploadDedupeFilter.class);
+        dao.setDedupeFilter(mockFilter);
+        
+        dao.registerUpload(HEALTHCODE, UPLOAD_MD5, UPLOAD_REQUESTED_ON, UPLOAD_ID);
+        
+        InOrder inOrder = inOrder(mockMapper, mockFilter);
+        inOrder.verify(mockMapper).save(any(DynamoUploadDedupe.class));
+        inOrder.verify(mockFilter).add(HEALTHCODE, UPLOAD_MD5, UPLOAD_REQUESTED_ON);
+    }
 }
@@ -0,0 +1,282 @@
+package org.sagebionetworks.bridge.dynamodb;
+
+import static org.sagebionetworks.bridge.BridgeConstants.API_MAXIMUM_PAGE_SIZE;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.stream.Collectors;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.springframework.context.support.AbstractApplicationContext;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.Request;
+import com.amazonaws.Response;
+import com.amazonaws.handlers.RequestHandler2;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClient;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemResult;
+import com.amazonaws.services.dynamodbv2.model.ConsumedCapacity;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.GetItemResult;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryResult;
+import com.amazonaws.services.dynamodbv2.model.ReturnConsumedCapacity;
+import com.google.common.collect.Maps;
+
+import org.sagebionetworks.bridge.BridgeUtils;
+import org.sagebionetworks.bridge.dao.ScheduledActivityDao;
+import org.sagebionetworks.bridge.models.ForwardCursorPagedResourceList;
+import org.sagebionetworks.bridge.models.schedules.Activity;
+import org.sagebionetworks.bridge.models.schedules.ScheduledActivity;
+
+/**
+ * <p>
+ * Compares the DynamoDB reads ScheduledActivityService.getScheduledActivitiesV4() makes to find persisted activities,
+ * the way it used to work (one query per activity GUID, then one GetItem per scheduled activity the queries didn't
+ * find) against the way it works now (one query per activity GUID, bounded to the window and run concurrently, then
+ * one batch load for the rest). For each, it reports latency, DAO calls per lookup, DynamoDB requests per lookup, and
+ * read capacity consumed per lookup.
+ * </p>
+ * <p>
+ * It creates a test participant's activity history: a daily activity for each activity GUID, plus one-time activities
+ * that fall outside the window, like the ones IA-587 is about. It deletes them when done. The default history is six
+ * months, so that the read capacity shows whether a lookup reads history outside the window.
+ * </p>
+ * <p>
+ * This writes to and deletes from the real tables, so it lives with the tests and doesn't ship with the server.
+ * Usage: play "test:run-main org.sagebionetworks.bridge.dynamodb.ScheduledActivityLookupBenchmark [activity GUIDs]
+ * [days of history] [iterations]"
+ * </p>
+ */
+public class ScheduledActivityLookupBenchmark {
+    private static final int DEFAULT_NUM_ACTIVITY_GUIDS = 40;
+    private static final int DEFAULT_NUM_DAYS = 180;
+    private static final int DEFAULT_ITERATIONS = 50;
+    private static final int NUM_ONE_TIME_ACTIVITIES = 5;
+    // Same size as the window the apps usually ask for.
+    private static final int WINDOW_DAYS = 4;
+
+    public static void main(String[] args) throws Exception {
+        int numActivityGuids = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_NUM_ACTIVITY_GUIDS;
+        int numDays = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_NUM_DAYS;
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_ITERATIONS;
+
+        // spring beans
+        AbstractApplicationContext springCtx = new ClassPathXmlApplicationContext("application-context.xml");
+        springCtx.registerShutdownHook();
+        ScheduledActivityDao activityDao = springCtx.getBean(ScheduledActivityDao.class);
+        AmazonDynamoDBClient ddbClient = springCtx.getBean(AmazonDynamoDBClient.class);
+
+        // Counts requests, and asks each read for the capacity it consumed. The per-GUID queries run concurrently, so
+        // these are thread-safe.
+        AtomicLong ddbRequestCount = new AtomicLong();
+        DoubleAdder ddbReadCapacity = new DoubleAdder();
+        ddbClient.addRequestHandler(new RequestHandler2() {
+            @Override
+            public AmazonWebServiceRequest beforeExecution(AmazonWebServiceRequest request) {
+                if (request instanceof QueryRequest) {
+                    ((QueryRequest) request).setReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+                } else if (request instanceof GetItemRequest) {
+                    ((GetItemRequest) request).setReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+                } else if (request instanceof BatchGetItemRequest) {
+                    ((BatchGetItemRequest) request).setReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+                }
+                return request;
+            }
+
+            @Override
+            public void beforeRequest(Request<?> request) {
+                ddbRequestCount.incrementAndGet();
+            }
+
+            @Override
+            public void afterResponse(Request<?> request, Response<?> response) {
+                Object result = response.getAwsResponse();
+                if (result instanceof QueryResult) {
+                    addCapacity(ddbReadCapacity, ((QueryResult) result).getConsumedCapacity());
+                } else if (result instanceof GetItemResult) {
+                    addCapacity(ddbReadCapacity, ((GetItemResult) result).getConsumedCapacity());
+                } else if (result instanceof BatchGetItemResult) {
+                    List<ConsumedCapacity> capacityList = ((BatchGetItemResult) result).getConsumedCapacity();
+                    if (capacityList != null) {
+                        capacityList.forEach(capacity -> addCapacity(ddbReadCapacity, capacity));
+                    }
+                }
+            }
+        });
+
+        String healthCode = "benchmark-" + BridgeUtils.generateGuid();
+        DateTimeZone timeZone = DateTimeZone.forOffsetHours(-7);
+        DateTime endsOn = DateTime.now(timeZone).withTimeAtStartOfDay().plusDays(1);
+        DateTime startsOn = endsOn.minusDays(WINDOW_DAYS);
+
+        // History, and the activities the scheduler would return for the window. These are all persisted.
+        List<ScheduledActivity> history = new ArrayList<>();
+        List<ScheduledActivity> scheduledActivities = new ArrayList<>();
+        for (int i = 0; i < numActivityGuids; i++) {
+            String activityGuid = BridgeUtils.generateGuid();
+            for (int day = 0; day < numDays; day++) {
+                DateTime scheduledOn = endsOn.minusDays(day).withHourOfDay(10);
+                ScheduledActivity activity = makeActivity(healthCode, activityGuid, scheduledOn);
+                history.add(activity);
+                if (scheduledOn.isAfter(startsOn)) {
+                    scheduledActivities.add(activity);
+                }
+            }
+        }
+        for (int i = 0; i < NUM_ONE_TIME_ACTIVITIES; i++) {
+            ScheduledActivity activity = makeActivity(healthCode, BridgeUtils.generateGuid(),
+                    startsOn.minusDays(numDays + i));
+            history.add(activity);
+            scheduledActivities.add(activity);
+        }
+
+        try {
+            activityDao.saveActivities(history);
+
+            // Warm up both paths, so JIT and connection pool set up don't skew the first measurements.
+            for (int i = 0; i < Math.min(iterations, 5); i++) {
+                getPerGuid(activityDao, healthCode, startsOn, endsOn, scheduledActivities);
+                getInRange(activityDao, healthCode, startsOn, endsOn, scheduledActivities);
+            }
+
+            long[] perGuidNanos = new long[iterations];
+            long perGuidDaoCalls = 0;
+            int perGuidFound = 0;
+            ddbRequestCount.set(0);
+            ddbReadCapacity.reset();
+            for (int i = 0; i < iterations; i++) {
+                long start = System.nanoTime();
+                LookupResult result = getPerGuid(activityDao, healthCode, startsOn, endsOn, scheduledActivities);
+                perGuidNanos[i] = System.nanoTime() - start;
+                perGuidDaoCalls += result.daoCalls;
+                perGuidFound = result.dbMap.size();
+            }
+            long perGuidRequests = ddbRequestCount.get();
+            double perGuidCapacity = ddbReadCapacity.sum();
+
+            long[] inRangeNanos = new long[iterations];
+            long inRangeDaoCalls = 0;
+            int inRangeFound = 0;
+            ddbRequestCount.set(0);
+            ddbReadCapacity.reset();
+            for (int i = 0; i < iterations; i++) {
+                long start = System.nanoTime();
+                LookupResult result = getInRange(activityDao, healthCode, startsOn, endsOn, scheduledActivities);
+                inRangeNanos[i] = System.nanoTime() - start;
+                inRangeDaoCalls += result.daoCalls;
+                inRangeFound = result.dbMap.size();
+            }
+            long inRangeRequests = ddbRequestCount.get();
+            double inRangeCapacity = ddbReadCapacity.sum();
+
+            System.out.println(String.format("Looked up %s scheduled activities (%s activity GUIDs, %s days of " +
+                    "history) %s times", scheduledActivities.size(), numActivityGuids, numDays, iterations));
+            report("per GUID", perGuidNanos, perGuidDaoCalls, perGuidRequests, perGuidCapacity, perGuidFound);
+            report("in range", inRangeNanos, inRangeDaoCalls, inRangeRequests, inRangeCapacity, inRangeFound);
+        } finally {
+            activityDao.deleteActivitiesForUser(healthCode);
+            springCtx.close();
+        }
+    }
+
+    private static void addCapacity(DoubleAdder total, ConsumedCapacity capacity) {
+        if (capacity != null && capacity.getCapacityUnits() != null) {
+            total.add(capacity.getCapacityUnits());
+        }
+    }
+
+    private static ScheduledActivity makeActivity(String healthCode, String activityGuid, DateTime scheduledOn) {
+        ScheduledActivity activity = ScheduledActivity.create();
+        activity.setHealthCode(healthCode);
+        activity.setGuid(activityGuid + ":" + scheduledOn.toLocalDateTime());
+        activity.setLocalScheduledOn(scheduledOn.toLocalDateTime());
+        activity.setTimeZone(scheduledOn.getZone());
+        activity.setSchedulePlanGuid("benchmark-schedule-plan");
+        activity.setActivity(new Activity.Builder().withGuid(activityGuid).withLabel("Benchmark")
+                .withTask("benchmark-task").build());
+        return activity;
+    }
+
+    // How getScheduledActivitiesV4() used to find persisted activities.
+    private static LookupResult getPerGuid(ScheduledActivityDao activityDao, String healthCode, DateTime startsOn,
+            DateTime endsOn, List<ScheduledActivity> scheduledActivities) {
+        Set<String> activityGuids = getActivityGuids(scheduledActivities);
+        Map<String, ScheduledActivity> dbMap = Maps.newHashMap();
+        long daoCalls = 0;
+        for (String activityGuid : activityGuids) {
+            ForwardCursorPagedResourceList<ScheduledActivity> list = activityDao.getActivityHistoryV2(healthCode,
+                    activityGuid, startsOn, endsOn, null, API_MAXIMUM_PAGE_SIZE);
+            daoCalls++;
+            for (ScheduledActivity activity : list.getItems()) {
+                dbMap.put(activity.getGuid(), activity);
+            }
+        }
+        for (ScheduledActivity activity : scheduledActivities) {
+            if (!dbMap.containsKey(activity.getGuid())) {
+                ScheduledActivity dbActivity = activityDao.getActivity(startsOn.getZone(), healthCode,
+                        activity.getGuid(), false);
+                daoCalls++;
+                if (dbActivity != null) {
+                    dbMap.put(dbActivity.getGuid(), dbActivity);
+                }
+            }
+        }
+        return new LookupResult(dbMap, daoCalls);
+    }
+
+    // How getScheduledActivitiesV4() finds persisted activities now.
+    private static LookupResult getInRange(ScheduledActivityDao activityDao, String healthCode, DateTime startsOn,
+            DateTime endsOn, List<ScheduledActivity> scheduledActivities) {
+        Map<String, ScheduledActivity> dbMap = Maps.newHashMap();
+        for (ScheduledActivity activity : activityDao.getActivitiesInRange(healthCode,
+                getActivityGuids(scheduledActivities), startsOn, endsOn)) {
+            dbMap.put(activity.getGuid(), activity);
+        }
+        List<ScheduledActivity> remainingActivities = scheduledActivities.stream()
+                .filter(activity -> !dbMap.containsKey(activity.getGuid())).collect(Collectors.toList());
+        for (ScheduledActivity dbActivity : activityDao.getActivities(startsOn.getZone(), remainingActivities)) {
+            dbMap.put(dbActivity.getGuid(), dbActivity);
+        }
+        return new LookupResult(dbMap, 2);
+    }
+
+    private static Set<String> getActivityGuids(List<ScheduledActivity> scheduledActivities) {
+        return scheduledActivities.stream().map(activity -> activity.getGuid().split(":")[0])
+                .collect(Collectors.toSet());
+    }
+
+    private static void report(String label, long[] nanos, long daoCalls, long ddbRequests, double readCapacity,
+            int found) {
+        long[] sorted = Arrays.copyOf(nanos, nanos.length);
+        Arrays.sort(sorted);
+        System.out.println(String.format("%-9s p50=%dus p99=%dus max=%dus daoCallsPerLookup=%.1f " +
+                "dynamoRequestsPerLookup=%.1f readCapacityPerLookup=%.1f activitiesFound=%d", label,
+                percentile(sorted, 50) / 1000, percentile(sorted, 99) / 1000, sorted[sorted.length - 1] / 1000,
+                (double) daoCalls / nanos.length, (double) ddbRequests / nanos.length, readCapacity / nanos.length,
+                found));
+    }
+
+    private static long percentile(long[] sorted, int percentile) {
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, index)];
+    }
+
+    private static class LookupResult {
+        private final Map<String, ScheduledActivity> dbMap;
+        private final long daoCalls;
+
+        private LookupResult(Map<String, ScheduledActivity> dbMap, long daoCalls) {
+            this.dbMap = dbMap;
+            this.daoCalls = daoCalls;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package org.sagebionetworks.bridge.metrics;
+
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.ImmutableList;
+import org.mockito.ArgumentMatchers;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.sagebionetworks.bridge.config.BridgeConfig;
+
+public class MetricsRegistryTest {
+    private static final String COUNTER = "test.counter";
+    private static final String HISTOGRAM = "test.histogram";
+
+    private MetricsRegistry registry;
+    private InMemoryMetricsReporter reporter;
+
+    @BeforeMethod
+    public void setup() {
+        reporter = new InMemoryMetricsReporter();
+        registry = new MetricsRegistry();
+        registry.setReporters(ImmutableList.of(reporter));
+    }
+
+    @Test
+    public void counters() {
+        assertEquals(registry.getCount(COUNTER), 0);
+        registry.increment(COUNTER);
+        registry.increment(COUNTER, 41);
+        assertEquals(registry.getCount(COUNTER), 42);
+    }
+
+    @Test
+    public void histograms() {
+        assertNull(registry.getHistogram(HISTOGRAM));
+        for (int i = 1; i <= 100; i++) {
+            registry.record(HISTOGRAM, i);
+        }
+
+        HistogramSnapshot snapshot = registry.getHistogram(HISTOGRAM);
+        assertEquals(snapshot.getCount(), 100);
+        assertEquals(snapshot.getSum(), 5050);
+        assertEquals(snapshot.getMax(), 100);
+        assertEquals(snapshot.getMean(), 50.5, 0.001);
+
+        // Percentiles are the upper bound of the bucket. 50 is in [32, 63], 95 and 99 are in [64, 127], capped at
+        // the max.
+        assertEquals(snapshot.getPercentile(50), 63);
+        assertEquals(snapshot.getPercentile(95), 100);
+        assertEquals(snapshot.getPercentile(99), 100);
+    }
+
+    @Test
+    public void emptyHistogramSnapshot() {
+        HistogramSnapshot snapshot = new Histogram().snapshot();
+        assertEquals(snapshot.getCount(), 0);
+        assertEquals(snapshot.getMean(), 0.0, 0.001);
+        assertEquals(snapshot.getPercentile(99), 0);
+    }
+
+    @Test
+    public void histogramRecordsZeroAndNegativeAsZero() {
+        Histogram histogram = new Histogram();
+        histogram.record(0);
+        histogram.record(-5);
+        HistogramSnapshot snapshot = histogram.snapshot();
+        assertEquals(snapshot.getCount(), 2);
+        assertEquals(snapshot.getSum(), 0);
+        assertEquals(snapshot.getPercentile(100), 0);
+    }
+
+    @Test
+    public void histogramHandlesLargeValues() {
+        Histogram histogram = new Histogram();
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(histogram.snapshot().getPercentile(50), Long.MAX_VALUE);
+    }
+
+    @Test
+    public void reportSendsSnapshotToReporters() {
+        registry.increment(COUNTER, 3);
+        registry.record(HISTOGRAM, 7);
+        registry.report();
+
+        MetricsSnapshot snapshot = reporter.getLastSnapshot();
+        assertNotNull(snapshot);
+        assertEquals(snapshot.getCount(COUNTER), 3);
+        assertEquals(snapshot.getCount("no.such.counter"), 0);
+        assertEquals(snapshot.getHistogram(HISTOGRAM).getMax(), 7);
+
+        // Snapshot doesn't change when the registry does.
+        registry.increment(COUNTER);
+        assertEquals(snapshot.getCount(COUNTER), 3);
+        registry.report();
+        assertEquals(reporter.getSnapshots().size(), 2);
+        assertEquals(reporter.getLastSnapshot().getCount(COUNTER), 4);
+    }
+
+    @Test
+    public void failingReporterDoesNotStopOthers() {
+        MetricsReporter failingReporter = mock(MetricsReporter.class);
+        doThrow(RuntimeException.class).when(failingReporter).report(ArgumentMatchers.any());
+        registry.setReporters(ImmutableList.of(failingReporter, reporter));
+
+        registry.increment(COUNTER);
+        registry.report();
+        assertEquals(reporter.getLastSnapshot().getCount(COUNTER), 1);
+    }
+
+    @Test
+    public void noReportersByDefault() {
+        // Doesn't throw.
+        new MetricsRegistry().report();
+    }
+
+    @Test
+    public void scheduledReportingAndFinalReportOnStop() throws Exception {
+        BridgeConfig config = mock(BridgeConfig.class);
+        when(config.getPropertyAsInt(MetricsRegistry.CONFIG_KEY_REPORT_INTERVAL_SECONDS)).thenReturn(1);
+        registry.setBridgeConfig(config);
+        registry.start();
+        try {
+            registry.increment(COUNTER);
+            long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+            while (reporter.getSnapshots().isEmpty() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertTrue(reporter.getSnapshots().size() >= 1);
+        } finally {
+            registry.stop();
+        }
+
+        // Stop sends a final report.
+        int reportCount = reporter.getSnapshots().size();
+        assertTrue(reportCount >= 2);
+        assertEquals(reporter.getLastSnapshot().getCount(COUNTER), 1);
+    }
+
+    @Test
+    public void noScheduledReportingIfIntervalIsZero() {
+        registry.configure(0);
+        registry.start();
+        registry.stop();
+        assertTrue(reporter.getSnapshots().isEmpty());
+    }
+
+    @Test
+    public void concurrentUpdates() throws Exception {
+        int threadCount = 8;
+        int perThread = 10000;
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < threadCount; i++) {
+                futures.add(executor.submit(() -> {
+                    for (int j = 0; j < perThread; j++) {
+                        registry.increment(COUNTER);
+                        registry.record(HISTOGRAM, j);
+                    }
+                }));
+            }
+            for (Future<?> oneFuture : futures) {
+                oneFuture.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(registry.getCount(COUNTER), threadCount * perThread);
+        HistogramSnapshot snapshot = registry.getHistogram(HISTOGRAM);
+        assertEquals(snapshot.getCount(), threadCount * perThread);
+        assertEquals(snapshot.getMax(), perThread - 1);
+    }
+
+    @Test
+    public void inMemoryReporterEmpty() {
+        InMemoryMetricsReporter emptyReporter = new InMemoryMetricsReporter();
+        assertNull(emptyReporter.getLastSnapshot());
+        assertTrue(emptyReporter.getSnapshots().isEmpty());
+    }
+
+    @Test
+    public void logReporterDoesNotThrow() {
+        registry.increment(COUNTER);
+        registry.record(HISTOGRAM, 5);
+        MetricsSnapshot snapshot = registry.snapshot();
+        new LogMetricsReporter().report(snapshot);
+        assertEquals(snapshot.getHistograms().size(), 1);
+    }
+}
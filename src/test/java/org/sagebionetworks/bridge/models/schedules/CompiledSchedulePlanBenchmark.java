@@ -0,0 +1,140 @@
+package org.sagebionetworks.bridge.models.schedules;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.ImmutableMap;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import org.sagebionetworks.bridge.TestUtils;
+import org.sagebionetworks.bridge.dynamodb.DynamoSchedulePlan;
+
+/**
+ * Compares scheduling a study's plans through {@link CompiledSchedulePlan} with creating a new scheduler for every
+ * plan on every request, which is what ScheduledActivityService did before. The plan set mixes daily and weekly cron
+ * schedules, interval schedules with times of day, one-time schedules with a delay, and persistent schedules, and the
+ * user has several custom events, so recurring schedules have several schedule windows. This isn't run as part of the
+ * unit tests. To run it, call main() from the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompiledSchedulePlanBenchmark {
+    private static final DateTimeZone TIME_ZONE = DateTimeZone.forOffsetHours(-7);
+    private static final DateTime NOW = DateTime.parse("2018-05-01T10:00:00-07:00");
+
+    /** Number of days of activities requested. */
+    @Param({ "4", "14" })
+    public int daysAhead;
+
+    private List<SchedulePlan> plans;
+    private ScheduleContext context;
+
+    @Setup
+    public void setup() {
+        plans = new ArrayList<>();
+        int planCount = 0;
+        for (String eventId : new String[] { "enrollment", "custom:studyBurstStart",
+                "enrollment,custom:studyBurstStart,custom:clinicVisit" }) {
+            Schedule dailyCron = makeSchedule(ScheduleType.RECURRING, eventId);
+            dailyCron.setCronTrigger("0 0 9 1/1 * ? *");
+            dailyCron.setExpires("PT12H");
+            plans.add(makePlan(++planCount, dailyCron));
+
+            Schedule weeklyCron = makeSchedule(ScheduleType.RECURRING, eventId);
+            weeklyCron.setCronTrigger("0 0 18 ? * MON,WED,FRI *");
+            weeklyCron.setSequencePeriod("P4W");
+            plans.add(makePlan(++planCount, weeklyCron));
+
+            Schedule interval = makeSchedule(ScheduleType.RECURRING, eventId);
+            interval.setInterval("P1D");
+            interval.addTimes("08:00", "12:00", "20:00");
+            interval.setExpires("PT4H");
+            plans.add(makePlan(++planCount, interval));
+
+            Schedule once = makeSchedule(ScheduleType.ONCE, eventId);
+            once.setDelay("P2D");
+            plans.add(makePlan(++planCount, once));
+        }
+        plans.add(makePlan(++planCount, makeSchedule(ScheduleType.PERSISTENT, "enrollment")));
+
+        Map<String, DateTime> events = ImmutableMap.of(
+                "enrollment", NOW.minusWeeks(6),
+                "custom:studyBurstStart", NOW.minusWeeks(2),
+                "custom:clinicVisit", NOW.minusDays(3));
+        context = new ScheduleContext.Builder()
+                .withStudyIdentifier("benchmark-study")
+                .withHealthCode("benchmark-health-code")
+                .withInitialTimeZone(TIME_ZONE)
+                .withStartsOn(NOW)
+                .withEndsOn(NOW.plusDays(daysAhead))
+                .withAccountCreatedOn(NOW.minusWeeks(6))
+                .withEvents(events).build();
+    }
+
+    @Benchmark
+    public List<ScheduledActivity> newSchedulers() {
+        List<ScheduledActivity> scheduledActivities = new ArrayList<>();
+        for (SchedulePlan plan : plans) {
+            Schedule schedule = plan.getStrategy().getScheduleForUser(plan, context);
+            scheduledActivities.addAll(schedule.getScheduler().getScheduledActivities(plan, context));
+        }
+        return scheduledActivities;
+    }
+
+    @Benchmark
+    public List<ScheduledActivity> compiledPlans() {
+        List<ScheduledActivity> scheduledActivities = new ArrayList<>();
+        for (SchedulePlan plan : plans) {
+            Schedule schedule = plan.getStrategy().getScheduleForUser(plan, context);
+            ActivityScheduler scheduler = CompiledSchedulePlan.forPlan(plan).getScheduler(plan, schedule);
+            scheduledActivities.addAll(scheduler.getScheduledActivities(plan, context));
+        }
+        return scheduledActivities;
+    }
+
+    private static Schedule makeSchedule(ScheduleType scheduleType, String eventId) {
+        Schedule schedule = new Schedule();
+        schedule.setScheduleType(scheduleType);
+        schedule.setEventId(eventId);
+        schedule.addActivity(TestUtils.getActivity3());
+        return schedule;
+    }
+
+    private static SchedulePlan makePlan(int planNumber, Schedule schedule) {
+        SimpleScheduleStrategy strategy = new SimpleScheduleStrategy();
+        strategy.setSchedule(schedule);
+
+        DynamoSchedulePlan plan = new DynamoSchedulePlan();
+        plan.setStudyKey("benchmark-study");
+        plan.setGuid("benchmark-plan-" + planNumber);
+        plan.setVersion(1L);
+        plan.setStrategy(strategy);
+        return plan;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder().include(CompiledSchedulePlanBenchmark.class.getSimpleName()).build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,97 @@
+package org.sagebionetworks.bridge.models.schedules;
+
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import org.testng.annotations.Test;
+
+import org.sagebionetworks.bridge.TestUtils;
+import org.sagebionetworks.bridge.dynamodb.DynamoSchedulePlan;
+
+public class CompiledSchedulePlanTest {
+    private static final String STUDY_KEY = "test-study";
+
+    @Test
+    public void compilesAllSchedules() {
+        SchedulePlan plan = makePlan("compiles-all-schedules", null);
+        CompiledSchedulePlan compiledPlan = CompiledSchedulePlan.compile(plan);
+
+        ABTestScheduleStrategy strategy = (ABTestScheduleStrategy) plan.getStrategy();
+        Schedule cronSchedule = strategy.getScheduleGroups().get(0).getSchedule();
+        Schedule intervalSchedule = strategy.getScheduleGroups().get(1).getSchedule();
+
+        ActivityScheduler cronScheduler = compiledPlan.getScheduler(plan, cronSchedule);
+        assertTrue(cronScheduler instanceof CronActivityScheduler);
+        assertSame(compiledPlan.getScheduler(plan, cronSchedule), cronScheduler);
+
+        ActivityScheduler intervalScheduler = compiledPlan.getScheduler(plan, intervalSchedule);
+        assertTrue(intervalScheduler instanceof IntervalActivityScheduler);
+        assertSame(compiledPlan.getScheduler(plan, intervalSchedule), intervalScheduler);
+    }
+
+    @Test
+    public void copyOfPlanUsesSameSchedulers() {
+        // Each request gets its own copy of the plan. The schedules are found by position, not by identity.
+        SchedulePlan plan = makePlan("copy-of-plan", 1L);
+        SchedulePlan planCopy = makePlan("copy-of-plan", 1L);
+
+        CompiledSchedulePlan compiledPlan = CompiledSchedulePlan.forPlan(plan);
+        assertSame(CompiledSchedulePlan.forPlan(planCopy), compiledPlan);
+
+        Schedule schedule = plan.getStrategy().getAllPossibleSchedules().get(0);
+        Schedule scheduleCopy = planCopy.getStrategy().getAllPossibleSchedules().get(0);
+        assertSame(compiledPlan.getScheduler(planCopy, scheduleCopy), compiledPlan.getScheduler(plan, schedule));
+    }
+
+    @Test
+    public void updatedPlanIsRecompiled() {
+        CompiledSchedulePlan compiledPlan = CompiledSchedulePlan.forPlan(makePlan("updated-plan", 1L));
+        CompiledSchedulePlan updatedCompiledPlan = CompiledSchedulePlan.forPlan(makePlan("updated-plan", 2L));
+        assertNotSame(updatedCompiledPlan, compiledPlan);
+    }
+
+    @Test
+    public void planWithoutVersionIsNotCached() {
+        SchedulePlan plan = makePlan("no-version", null);
+        assertNotSame(CompiledSchedulePlan.forPlan(plan), CompiledSchedulePlan.forPlan(plan));
+    }
+
+    @Test
+    public void scheduleNotInPlanGetsNewScheduler() {
+        SchedulePlan plan = makePlan("schedule-not-in-plan", null);
+        CompiledSchedulePlan compiledPlan = CompiledSchedulePlan.compile(plan);
+
+        Schedule otherSchedule = makeIntervalSchedule();
+        ActivityScheduler scheduler = compiledPlan.getScheduler(plan, otherSchedule);
+        assertTrue(scheduler instanceof IntervalActivityScheduler);
+        assertNotSame(compiledPlan.getScheduler(plan, otherSchedule), scheduler);
+    }
+
+    private static SchedulePlan makePlan(String guid, Long version) {
+        Schedule cronSchedule = new Schedule();
+        cronSchedule.setScheduleType(ScheduleType.RECURRING);
+        cronSchedule.setCronTrigger("0 0 14 1/1 * ? *");
+        cronSchedule.addActivity(TestUtils.getActivity3());
+
+        ABTestScheduleStrategy strategy = new ABTestScheduleStrategy();
+        strategy.addGroup(50, cronSchedule);
+        strategy.addGroup(50, makeIntervalSchedule());
+
+        DynamoSchedulePlan plan = new DynamoSchedulePlan();
+        plan.setStudyKey(STUDY_KEY);
+        plan.setGuid(guid);
+        plan.setVersion(version);
+        plan.setStrategy(strategy);
+        return plan;
+    }
+
+    private static Schedule makeIntervalSchedule() {
+        Schedule schedule = new Schedule();
+        schedule.setScheduleType(ScheduleType.RECURRING);
+        schedule.setInterval("P1D");
+        schedule.addTimes("10:00");
+        schedule.addActivity(TestUtils.getActivity3());
+        return schedule;
+    }
+}
@@ -0,0 +1,271 @@
+package org.sagebionetworks.bridge.redis;
+
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.joda.time.DateTime;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.sagebionetworks.bridge.cache.CacheKey;
+import org.sagebionetworks.bridge.metrics.MetricsRegistry;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+
+public class RedisUploadDedupeFilterTest {
+    private static final String HEALTH_CODE = "test-health-code";
+    private static final String UPLOAD_ID = "original-upload";
+    private static final String UPLOAD_MD5 = "test-md5";
+    private static final long NUM_BITS = 1024;
+    private static final int NUM_HASHES = 3;
+
+    private static final DateTime WINDOW_END = DateTime.parse("2018-06-15T10:26:45Z");
+    private static final DateTime WINDOW_START = WINDOW_END.minusDays(7);
+    private static final long END_DAY = WINDOW_END.getMillis() / TimeUnit.DAYS.toMillis(1);
+    private static final String SINCE_KEY = CacheKey.uploadDedupeFilterSince().toString();
+    private static final String END_BUCKET_KEY = CacheKey.uploadDedupeFilter(END_DAY).toString();
+
+    private RedisUploadDedupeFilter filter;
+    private MetricsRegistry metricsRegistry;
+    private JedisPool mockJedisPool;
+    private Jedis mockJedis;
+    private Pipeline mockPipeline;
+    private AtomicInteger lookupCount;
+
+    @BeforeMethod
+    public void setup() {
+        mockPipeline = mock(Pipeline.class);
+        mockJedis = mock(Jedis.class);
+        when(mockJedis.pipelined()).thenReturn(mockPipeline);
+        mockJedisPool = mock(JedisPool.class);
+        when(mockJedisPool.getResource()).thenReturn(mockJedis);
+
+        metricsRegistry = new MetricsRegistry();
+        lookupCount = new AtomicInteger();
+
+        filter = new RedisUploadDedupeFilter();
+        filter.configure(true, NUM_BITS, NUM_HASHES);
+        filter.setJedisPool(mockJedisPool);
+        filter.setMetricsRegistry(metricsRegistry);
+    }
+
+    @Test
+    public void disabled() {
+        filter.configure(false, NUM_BITS, NUM_HASHES);
+        assertEquals(filter.getDuplicate(HEALTH_CODE, UPLOAD_MD5, WINDOW_START, WINDOW_END, lookup(UPLOAD_ID)),
+                UPLOAD_ID);
+        assertEquals(lookupCount.get(), 1);
+
+        filter.add(HEALTH_CODE, UPLOAD_MD5, WINDOW_END);
+        verifyZeroInteractions(mockJedisPool);
+    }
+
+    @Test
+    public void definitelyNotADupe() {
+        mockSince(WINDOW_START.minusDays(1));
+        mockBits(false);
+
+        assertNull(filter.getDuplicate(HEALTH_CODE, UPLOAD_MD5, WINDOW_START, WINDOW_END, lookup(UPLOAD_ID)));
+        assertEquals(lookupCount.get(), 0);
+        assertEquals(metricsRegistry.getCount(RedisUploadDedupeFilter.METRIC_NEGATIVE), 1);
+
+        // Checks every day in the window, in one round trip.
+        verify(mockPipeline, times(8 * NUM_HASHES)).getbit(anyString(), anyLong());
+        verify(mockPipeline).sync();
+        verify(mockJedis).close();
+    }
+
+    @Test
+    public void mightBeADupe() {
+        mockSince(WINDOW_START.minusDays(1));
+        mockBits(true);
+
+        assertEquals(filter.getDuplicate(HEALTH_CODE, UPLOAD_MD5, WINDOW_START, WINDOW_END, lookup(UPLOAD_ID)),
+                UPLOAD_ID);
+        assertEquals(lookupCount.get(), 1);
+        assertEquals(metricsRegistry.getCount(RedisUploadDedupeFilter.METRIC_POSITIVE), 1);
+        assertEquals(metricsRegistry.getCount(RedisUploadDedupeFilter.METRIC_FALSE_POSITIVE), 0);
+    }
+
+    @Test
+    public void falsePositive() {
+        mockSince(WINDOW_START.minusDays(1));
+        mockBits(true);
+        assertNull(filter.getDuplicate(HEALTH_CODE, UPLOAD_MD5, WINDOW_START, WINDOW_END, lookup(null)));
+        assertEquals(lookupCount.get(), 1);
+        assertEquals(metricsRegistry.getCount(RedisUploadDedupeFilter.METRIC_FALSE_POSITIVE), 1);
+
+        // 1 false positive and 3 true negatives.
+        mockBits(false);
+        for (int i = 0; i < 3; i++) {
+            filter.getDuplicate(HEALTH_CODE, UPLOAD_MD5, WINDOW_START, WINDOW_END, lookup(null));
+        }
+        assertEquals(filter.getFalsePositiveRate(), 0.25, 0.0001);
+    }
+
+    @Test
+    public void falsePositiveRateWithNoLookups() {
+        assertEquals(filter.getFalsePositiveRate(), 0.0, 0.0001);
+    }
+
+    @Test
+    public void notWarmedUp() {
+        // The filter started recording inside the window, so it might be missing uploads.
+        mockSince(WINDOW_START.plusDays(1));
+        mockBits(false);
+
+        assertEquals(filter.getDuplicate(HEALTH_CODE, UPLOAD_MD5, WINDOW_START, WINDOW_END, lookup(UPLOAD_ID)),
+                UPLOAD_ID);
+        assertEquals(lookupCount.get(), 1);
+        assertEquals(metricsRegistry.getCount(RedisUploadDedupeFilter.METRIC_NOT_READY), 1);
+        assertEquals(metricsRegistry.getCount(RedisUploadDedupeFilter.METRIC_NEGATIVE), 0);
+    }
+
+    @Test
+    public void neverStarted() {
+        mockSince(null);
+        mockBits(false);
+
+        assertEquals(filter.getDuplicate(HEALTH_CODE, UPLOAD_MD5, WINDOW_START, WINDOW_END, lookup(UPLOAD_ID)),
+                UPLOAD_ID);
+        assertEquals(lookupCount.get(), 1);
+    }
+
+    @Test
+    public void missingBucketInWindow() {
+        // The filter has recorded the whole window, but one day's bucket is gone, so it can't say what was in it.
+        mockSince(WINDOW_START.minusDays(1));
+        mockBits(false);
+        mockBucketExists(END_BUCKET_KEY, false);
+
+        assertEquals(filter.getDuplicate(HEALTH_CODE, UPLOAD_MD5, WINDOW_START, WINDOW_END, lookup(UPLOAD_ID)),
+                UPLOAD_ID);
+        assertEquals(lookupCount.get(), 1);
+        assertEquals(metricsRegistry.getCount(RedisUploadDedupeFilter.METRIC_NOT_READY), 1);
+        assertEquals(metricsRegistry.getCount(RedisUploadDedupeFilter.METRIC_NEGATIVE), 0);
+    }
+
+    @Test
+    public void redisErrorFallsBackToLookup() {
+        when(mockJedisPool.getResource()).thenThrow(new RuntimeException("Redis is down"));
+
+        assertEquals(filter.getDuplicate(HEALTH_CODE, UPLOAD_MD5, WINDOW_START, WINDOW_END, lookup(UPLOAD_ID)),
+                UPLOAD_ID);
+        assertEquals(lookupCount.get(), 1);
+        assertEquals(metricsRegistry.getCount(RedisUploadDedupeFilter.METRIC_NOT_READY), 1);
+    }
+
+    @Test
+    public void add() {
+        filter.add(HEALTH_CODE, UPLOAD_MD5, WINDOW_END);
+
+        verify(mockPipeline).setnx(eq(SINCE_KEY), anyString());
+        verify(mockPipeline).expire(SINCE_KEY, RedisUploadDedupeFilter.BUCKET_EXPIRE_SECONDS);
+        for (long oneOffset : filter.getBitOffsets(HEALTH_CODE, UPLOAD_MD5)) {
+            verify(mockPipeline).setbit(END_BUCKET_KEY, oneOffset, true);
+        }
+        verify(mockPipeline).expire(END_BUCKET_KEY, RedisUploadDedupeFilter.BUCKET_EXPIRE_SECONDS);
+        verify(mockPipeline).sync();
+        verify(mockJedis).close();
+        verify(mockJedis, never()).del(anyString());
+    }
+
+    @Test
+    public void addErrorRestartsFilter() {
+        doThrow(new RuntimeException("Redis is down")).when(mockPipeline).sync();
+        filter.add(HEALTH_CODE, UPLOAD_MD5, WINDOW_END);
+        verify(mockJedis).del(SINCE_KEY);
+    }
+
+    @Test
+    public void addAndRestartErrors() {
+        // Doesn't throw.
+        when(mockJedisPool.getResource()).thenThrow(new RuntimeException("Redis is down"));
+        filter.add(HEALTH_CODE, UPLOAD_MD5, WINDOW_END);
+    }
+
+    @Test
+    public void bitOffsets() {
+        long[] offsets = filter.getBitOffsets(HEALTH_CODE, UPLOAD_MD5);
+        assertEquals(offsets.length, NUM_HASHES);
+        Set<Long> offsetSet = new HashSet<>();
+        for (long oneOffset : offsets) {
+            assertTrue(oneOffset >= 0 && oneOffset < NUM_BITS);
+            offsetSet.add(oneOffset);
+        }
+        assertTrue(offsetSet.size() > 1);
+
+        // Same upload always hashes the same. Different uploads don't.
+        assertEquals(filter.getBitOffsets(HEALTH_CODE, UPLOAD_MD5), offsets);
+        assertFalse(Arrays.equals(filter.getBitOffsets(HEALTH_CODE, "other-md5"), offsets));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void tooManyBits() {
+        filter.configure(true, (1L << 32) + 1, NUM_HASHES);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void noHashes() {
+        filter.configure(true, NUM_BITS, 0);
+    }
+
+    private Supplier<String> lookup(String result) {
+        return () -> {
+            lookupCount.incrementAndGet();
+            return result;
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private void mockSince(DateTime since) {
+        Response<String> sinceResponse = mock(Response.class);
+        when(sinceResponse.get()).thenReturn(since != null ? Long.toString(since.getMillis()) : null);
+        when(mockPipeline.get(SINCE_KEY)).thenReturn(sinceResponse);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void mockBucketExists(String bucketKey, boolean exists) {
+        Response<Boolean> existsResponse = mock(Response.class);
+        when(existsResponse.get()).thenReturn(exists);
+        when(mockPipeline.exists(bucketKey)).thenReturn(existsResponse);
+    }
+
+    // Bits are only set in the last day of the window, if at all. Every day's bucket exists.
+    @SuppressWarnings("unchecked")
+    private void mockBits(boolean setInLastDay) {
+        Response<Boolean> existsResponse = mock(Response.class);
+        when(existsResponse.get()).thenReturn(true);
+        when(mockPipeline.exists(anyString())).thenReturn(existsResponse);
+
+        Response<Boolean> setResponse = mock(Response.class);
+        when(setResponse.get()).thenReturn(setInLastDay);
+        Response<Boolean> unsetResponse = mock(Response.class);
+        when(unsetResponse.get()).thenReturn(false);
+
+        when(mockPipeline.getbit(anyString(), anyLong())).thenReturn(unsetResponse);
+        when(mockPipeline.getbit(eq(END_BUCKET_KEY), anyLong())).thenReturn(setResponse);
+    }
+}
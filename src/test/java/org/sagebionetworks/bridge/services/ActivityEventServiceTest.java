@@ -1,8 +1,13 @@
 package org.sagebionetworks.bridge.services;
 
 import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyInt;
+import static org.mockito.Mockito.anyLong;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
@@ -17,15 +22,19 @@ import java.util.Map;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
 import org.joda.time.LocalDateTime;
 import org.mockito.ArgumentCaptor;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import org.sagebionetworks.bridge.TestUtils;
+import org.sagebionetworks.bridge.cache.CacheKey;
+import org.sagebionetworks.bridge.cache.CacheProvider;
 import org.sagebionetworks.bridge.dao.ActivityEventDao;
 import org.sagebionetworks.bridge.dynamodb.DynamoActivityEvent.Builder;
 import org.sagebionetworks.bridge.exceptions.BadRequestException;
+import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
 import org.sagebionetworks.bridge.time.DateUtils;
 import org.sagebionetworks.bridge.models.activities.ActivityEvent;
 import org.sagebionetworks.bridge.models.activities.ActivityEventObjectType;
@@ -43,12 +52,18 @@ public class ActivityEventServiceTest {
 
     private ActivityEventDao activityEventDao;
     
+    private CacheProvider cacheProvider;
+    
     @BeforeMethod
     public void before() {
         activityEventDao = mock(ActivityEventDao.class);
+        cacheProvider = mock(CacheProvider.class);
+        // The event map is not cached
+        when(cacheProvider.getTimestampMap(any())).thenReturn(null);
 
         activityEventService = new ActivityEventService();
         activityEventService.setActivityEventDao(activityEventDao);
+        activityEventService.setCacheProvider(cacheProvider);
     }
 
     @Test
@@ -119,6 +134,8 @@ public class ActivityEventServiceTest {
         Map<String,DateTime> map = Maps.newHashMap();
         map.put("enrollment", now);
         when(activityEventDao.getActivityEventMap("BBB")).thenReturn(map);
+        when(cacheProvider.beginTimestampMapFill(CacheKey.activityEventMap("BBB"),
+                ActivityEventService.EVENT_MAP_FILL_EXPIRE_IN_SECONDS)).thenReturn("fill-token");
 
         Map<String, DateTime> results = activityEventService.getActivityEventMap("BBB");
         assertEquals(results.get("enrollment"), now);
@@ -126,6 +143,38 @@ public class ActivityEventServiceTest {
         
         verify(activityEventDao).getActivityEventMap("BBB");
         verifyNoMoreInteractions(activityEventDao);
+        
+        // The map is cached
+        verify(cacheProvider).completeTimestampMapFill(CacheKey.activityEventMap("BBB"), "fill-token",
+                ImmutableMap.of("enrollment", now.getMillis()), ActivityEventService.EVENT_MAP_EXPIRE_IN_SECONDS);
+    }
+    
+    @Test
+    public void cancelledFillDoesNotCacheActivityEventMap() {
+        // An event was published or deleted while the map was read, so the fill can't be started or was cancelled.
+        DateTime now = DateTime.now();
+        when(activityEventDao.getActivityEventMap("BBB")).thenReturn(ImmutableMap.of("enrollment", now));
+        when(cacheProvider.beginTimestampMapFill(any(), anyInt())).thenReturn(null);
+        
+        Map<String, DateTime> results = activityEventService.getActivityEventMap("BBB");
+        assertEquals(results.get("enrollment"), now);
+        
+        verify(cacheProvider, never()).completeTimestampMapFill(any(), any(), any(), anyInt());
+    }
+    
+    @Test
+    public void canGetCachedActivityEventMap() {
+        DateTime now = DateTime.now(DateTimeZone.UTC);
+        when(cacheProvider.getTimestampMap(CacheKey.activityEventMap("BBB"))).thenReturn(
+                ImmutableMap.of("enrollment", now.getMillis()));
+        
+        Map<String, DateTime> results = activityEventService.getActivityEventMap("BBB");
+        assertEquals(results.get("enrollment"), now);
+        assertEquals(results.size(), 1);
+        
+        verifyNoMoreInteractions(activityEventDao);
+        verify(cacheProvider, never()).beginTimestampMapFill(any(), anyInt());
+        verify(cacheProvider, never()).completeTimestampMapFill(any(), any(), any(), anyInt());
     }
     
     @Test
@@ -134,6 +183,164 @@ public class ActivityEventServiceTest {
         
         verify(activityEventDao).deleteActivityEvents("BBB");
         verifyNoMoreInteractions(activityEventDao);
+        // Removed before the delete, and again after it.
+        verify(cacheProvider, times(2)).removeObject(CacheKey.activityEventMap("BBB"));
+    }
+    
+    @Test
+    public void deleteActivityEventsFailsIfCacheCantBeCleared() {
+        doThrow(new BridgeServiceException("Redis is down")).when(cacheProvider).removeObject(any());
+        
+        try {
+            activityEventService.deleteActivityEvents("BBB");
+            fail("expected exception");
+        } catch (BridgeServiceException e) {
+            // expected
+        }
+        // Nothing is deleted, so the cached map can't be left ahead of DynamoDB.
+        verify(activityEventDao, never()).deleteActivityEvents(any());
+    }
+    
+    @Test
+    public void deleteActivityEventsSucceedsIfSecondRemovalFails() {
+        doNothing().doThrow(new BridgeServiceException("Redis is down")).when(cacheProvider).removeObject(any());
+        
+        activityEventService.deleteActivityEvents("BBB");
+        
+        verify(activityEventDao).deleteActivityEvents("BBB");
+    }
+    
+    @Test
+    public void getActivityEventMapWhenRedisFails() {
+        DateTime now = DateTime.now();
+        when(cacheProvider.getTimestampMap(any())).thenThrow(new BridgeServiceException("Redis is down"));
+        when(cacheProvider.beginTimestampMapFill(any(), anyInt())).thenThrow(
+                new BridgeServiceException("Redis is down"));
+        when(activityEventDao.getActivityEventMap("BBB")).thenReturn(ImmutableMap.of("enrollment", now));
+        
+        // DynamoDB is the source of truth, so the map is still returned.
+        Map<String, DateTime> results = activityEventService.getActivityEventMap("BBB");
+        assertEquals(results, ImmutableMap.of("enrollment", now));
+        verify(cacheProvider, never()).completeTimestampMapFill(any(), any(), any(), anyInt());
+    }
+    
+    @Test
+    public void getActivityEventMapWhenFillCantComplete() {
+        DateTime now = DateTime.now();
+        when(cacheProvider.beginTimestampMapFill(any(), anyInt())).thenReturn("fill-token");
+        when(cacheProvider.completeTimestampMapFill(any(), any(), any(), anyInt())).thenThrow(
+                new BridgeServiceException("Redis is down"));
+        when(activityEventDao.getActivityEventMap("BBB")).thenReturn(ImmutableMap.of("enrollment", now));
+        
+        Map<String, DateTime> results = activityEventService.getActivityEventMap("BBB");
+        assertEquals(results, ImmutableMap.of("enrollment", now));
+    }
+    
+    @Test
+    public void publishEventWhenCacheReadFails() {
+        DateTime now = DateTime.now();
+        when(cacheProvider.getTimestampMapValue(any(), any())).thenThrow(new BridgeServiceException("Redis is down"));
+        when(activityEventDao.publishEvent(any())).thenReturn(true);
+        
+        activityEventService.publishCustomEvent(createStudyWithEventKey(), "BBB", "eventKey1", now);
+        
+        // DynamoDB decides whether the event is recorded.
+        verify(activityEventDao).publishEvent(any());
+    }
+    
+    @Test
+    public void publishedEventIsWrittenThroughToCache() {
+        DateTime now = DateTime.now();
+        when(activityEventDao.publishEvent(any())).thenReturn(true);
+        
+        activityEventService.publishCustomEvent(createStudyWithEventKey(), "BBB", "eventKey1", now);
+        
+        verify(cacheProvider).updateTimestampMap(CacheKey.activityEventMap("BBB"), "custom:eventKey1",
+                now.getMillis());
+    }
+    
+    @Test
+    public void eventNotRecordedIsNotWrittenThroughToCache() {
+        when(activityEventDao.publishEvent(any())).thenReturn(false);
+        
+        activityEventService.publishCustomEvent(createStudyWithEventKey(), "BBB", "eventKey1", DateTime.now());
+        
+        verify(activityEventDao).publishEvent(any());
+        verify(cacheProvider, never()).updateTimestampMap(any(), any(), anyLong());
+    }
+    
+    @Test
+    public void cachedUnaryEventIsNotPublished() {
+        DateTime now = DateTime.now();
+        when(cacheProvider.getTimestampMapValue(CacheKey.activityEventMap("BBB"), "activities_retrieved"))
+                .thenReturn(now.minusDays(1).getMillis());
+        
+        activityEventService.publishActivitiesRetrieved(Study.create(), "BBB", now);
+        
+        verifyNoMoreInteractions(activityEventDao);
+    }
+    
+    @Test
+    public void cachedLaterEventIsNotPublished() {
+        DateTime now = DateTime.now();
+        when(cacheProvider.getTimestampMapValue(CacheKey.activityEventMap("BBB"), "custom:eventKey1"))
+                .thenReturn(now.getMillis());
+        
+        activityEventService.publishCustomEvent(createStudyWithEventKey(), "BBB", "eventKey1", now);
+        
+        verifyNoMoreInteractions(activityEventDao);
+    }
+    
+    @Test
+    public void cachedEarlierEventIsPublished() {
+        DateTime now = DateTime.now();
+        when(cacheProvider.getTimestampMapValue(CacheKey.activityEventMap("BBB"), "custom:eventKey1"))
+                .thenReturn(now.minusHours(1).getMillis());
+        when(activityEventDao.publishEvent(any())).thenReturn(true);
+        
+        activityEventService.publishCustomEvent(createStudyWithEventKey(), "BBB", "eventKey1", now);
+        
+        verify(activityEventDao).publishEvent(any());
+        verify(cacheProvider).updateTimestampMap(CacheKey.activityEventMap("BBB"), "custom:eventKey1",
+                now.getMillis());
+    }
+    
+    @Test
+    public void publishedSurveyAnswerInvalidatesCache() {
+        when(activityEventDao.publishEvent(any())).thenReturn(true);
+        
+        SurveyAnswer answer = new SurveyAnswer();
+        answer.setAnsweredOn(DateTime.now().getMillis());
+        answer.setQuestionGuid("BBB-CCC-DDD");
+        answer.setAnswers(Lists.newArrayList("belgium"));
+        activityEventService.publishQuestionAnsweredEvent("healthCode", answer);
+        
+        verify(cacheProvider).removeObject(CacheKey.activityEventMap("healthCode"));
+        verify(cacheProvider, never()).updateTimestampMap(any(), any(), anyLong());
+    }
+    
+    @Test
+    public void cacheFailureAfterPublishStillPublishesAutomaticEvents() {
+        Study study = Study.create();
+        study.setAutomaticCustomEvents(ImmutableMap.of("3-days-after", "enrollment:P3D"));
+        DateTime enrollment = DateTime.parse("2018-04-04T16:00-0700");
+        ConsentSignature signature = new ConsentSignature.Builder()
+                .withBirthdate("1980-01-01")
+                .withName("A Name")
+                .withSignedOn(enrollment.getMillis()).build();
+        
+        when(activityEventDao.publishEvent(any())).thenReturn(true);
+        doThrow(new BridgeServiceException("Redis is down")).when(cacheProvider).updateTimestampMap(any(), any(),
+                anyLong());
+        
+        activityEventService.publishEnrollmentEvent(study, "AAA-BBB-CCC", signature);
+        
+        // The enrollment event and its automatic custom event are both published, and the cached map is dropped.
+        ArgumentCaptor<ActivityEvent> publishedEventCaptor = ArgumentCaptor.forClass(ActivityEvent.class);
+        verify(activityEventDao, times(2)).publishEvent(publishedEventCaptor.capture());
+        assertEquals(publishedEventCaptor.getAllValues().get(0).getEventId(), "enrollment");
+        assertEquals(publishedEventCaptor.getAllValues().get(1).getEventId(), "custom:3-days-after");
+        verify(cacheProvider, times(2)).removeObject(CacheKey.activityEventMap("AAA-BBB-CCC"));
     }
 
     @Test
@@ -450,4 +657,68 @@ public class ActivityEventServiceTest {
         assertEquals(event.getEventId(), "activity:AAA:finished");
         assertEquals(event.getTimestamp().longValue(), finishedOn);
     }
+    
+    @Test
+    public void canPublishActivityFinishedEventsInBatch() {
+        long finishedOn = DateTime.now().getMillis();
+        
+        // Two instances of activity AAA. Only the latest finishedOn would be recorded.
+        ScheduledActivity activity1 = createFinishedActivity("AAA", finishedOn - 1000);
+        ScheduledActivity activity2 = createFinishedActivity("AAA", finishedOn);
+        ScheduledActivity activity3 = createFinishedActivity("CCC", finishedOn - 2000);
+        // Old activities do not publish events.
+        ScheduledActivity oldActivity = ScheduledActivity.create();
+        oldActivity.setGuid("DDD");
+        oldActivity.setHealthCode("BBB");
+        oldActivity.setFinishedOn(finishedOn);
+        
+        activityEventService.publishActivityFinishedEvents(Lists.newArrayList(activity1, activity2, activity3,
+                oldActivity));
+        ArgumentCaptor<ActivityEvent> argument = ArgumentCaptor.forClass(ActivityEvent.class);
+        verify(activityEventDao, times(2)).publishEvent(argument.capture());
+        
+        List<ActivityEvent> events = argument.getAllValues();
+        assertEquals(events.get(0).getHealthCode(), "BBB");
+        assertEquals(events.get(0).getEventId(), "activity:AAA:finished");
+        assertEquals(events.get(0).getTimestamp().longValue(), finishedOn);
+        assertEquals(events.get(1).getHealthCode(), "BBB");
+        assertEquals(events.get(1).getEventId(), "activity:CCC:finished");
+        assertEquals(events.get(1).getTimestamp().longValue(), finishedOn - 2000);
+    }
+    
+    @Test
+    public void publishActivityFinishedEventsReadsCachedMapOnce() {
+        long finishedOn = DateTime.now().getMillis();
+        when(activityEventDao.publishEvent(any())).thenReturn(true);
+        when(cacheProvider.getTimestampMap(CacheKey.activityEventMap("BBB"))).thenReturn(
+                ImmutableMap.of("activity:CCC:finished", finishedOn));
+        
+        ScheduledActivity activity1 = createFinishedActivity("AAA", finishedOn);
+        ScheduledActivity activity2 = createFinishedActivity("CCC", finishedOn - 1000);
+        ScheduledActivity activity3 = createFinishedActivity("EEE", finishedOn);
+        
+        activityEventService.publishActivityFinishedEvents(Lists.newArrayList(activity1, activity2, activity3));
+        
+        verify(cacheProvider, times(1)).getTimestampMap(CacheKey.activityEventMap("BBB"));
+        
+        // The cached map shows CCC already has a later event, so it isn't published.
+        ArgumentCaptor<ActivityEvent> argument = ArgumentCaptor.forClass(ActivityEvent.class);
+        verify(activityEventDao, times(2)).publishEvent(argument.capture());
+        assertEquals(argument.getAllValues().get(0).getEventId(), "activity:AAA:finished");
+        assertEquals(argument.getAllValues().get(1).getEventId(), "activity:EEE:finished");
+    }
+    
+    private static ScheduledActivity createFinishedActivity(String activityGuid, long finishedOn) {
+        ScheduledActivity schActivity = ScheduledActivity.create();
+        schActivity.setGuid(activityGuid + ":" + new DateTime(finishedOn).toLocalDateTime());
+        schActivity.setHealthCode("BBB");
+        schActivity.setFinishedOn(finishedOn);
+        return schActivity;
+    }
+    
+    private static Study createStudyWithEventKey() {
+        Study study = Study.create();
+        study.setActivityEventKeys(ImmutableSet.of("eventKey1"));
+        return study;
+    }
 }
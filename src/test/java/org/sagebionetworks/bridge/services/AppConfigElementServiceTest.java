@@ -9,6 +9,7 @@ import static org.testng.Assert.assertTrue;
 
 import java.util.List;
 
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -25,6 +26,10 @@ import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import org.sagebionetworks.bridge.TestUtils;
+import org.sagebionetworks.bridge.cache.CacheKey;
+import org.sagebionetworks.bridge.cache.CacheProvider;
+import org.sagebionetworks.bridge.cache.RevisionCache;
+import org.sagebionetworks.bridge.config.BridgeConfig;
 import org.sagebionetworks.bridge.dao.AppConfigElementDao;
 import org.sagebionetworks.bridge.exceptions.EntityAlreadyExistsException;
 import org.sagebionetworks.bridge.exceptions.EntityNotFoundException;
@@ -44,6 +49,9 @@ public class AppConfigElementServiceTest {
     @Mock
     private AppConfigElementDao dao;
     
+    @Mock
+    private CacheProvider cacheProvider;
+    
     @Captor
     private ArgumentCaptor<AppConfigElement> elementCaptor;
     
@@ -55,6 +63,8 @@ public class AppConfigElementServiceTest {
         MockitoAnnotations.initMocks(this);
         DateTimeUtils.setCurrentMillisFixed(TIMESTAMP.getMillis());
         service.setAppConfigElementDao(dao);
+        service.setCacheProvider(cacheProvider);
+        service.setRevisionCache(new RevisionCache());
         elements = ImmutableList.of(AppConfigElement.create(), AppConfigElement.create());
     }
     
@@ -176,7 +186,8 @@ public class AppConfigElementServiceTest {
     @Test
     public void getElementRevision() {
         AppConfigElement element = AppConfigElement.create();
-        when(dao.getElementRevision(TEST_STUDY, "id", 3L)).thenReturn(AppConfigElement.create());
+        element.setStudyId(TEST_STUDY.getIdentifier());
+        when(dao.getElementRevision(TEST_STUDY, "id", 3L)).thenReturn(element);
         
         AppConfigElement returned = service.getElementRevision(TEST_STUDY, "id", 3L);
         assertEquals(returned, element);
@@ -184,6 +195,35 @@ public class AppConfigElementServiceTest {
         verify(dao).getElementRevision(TEST_STUDY, "id", 3L);
     }
     
+    @Test
+    public void getElementRevisionIsCached() {
+        BridgeConfig config = mock(BridgeConfig.class);
+        when(config.getProperty("revision.cache.enabled")).thenReturn("true");
+        when(config.getPropertyAsInt("revision.cache.max.size")).thenReturn(10);
+        when(config.getPropertyAsInt("revision.cache.ttl.seconds")).thenReturn(60);
+        RevisionCache revisionCache = new RevisionCache();
+        revisionCache.setBridgeConfig(config);
+        service.setRevisionCache(revisionCache);
+        
+        AppConfigElement element = TestUtils.getAppConfigElement();
+        element.setStudyId(TEST_STUDY.getIdentifier());
+        when(dao.getElementRevision(TEST_STUDY, "id", 3L)).thenReturn(element);
+        
+        service.getElementRevision(TEST_STUDY, "id", 3L);
+        AppConfigElement returned = service.getElementRevision(TEST_STUDY, "id", 3L);
+        
+        // The study ID isn't serialized, but is restored on the cached copy.
+        assertEquals(returned.getStudyId(), TEST_STUDY.getIdentifier());
+        assertEquals(returned.getId(), element.getId());
+        verify(dao, times(1)).getElementRevision(TEST_STUDY, "id", 3L);
+        
+        // Deleting the revision drops it from the cache.
+        when(dao.getElementRevision(TEST_STUDY, "id", 3L)).thenReturn(element);
+        service.deleteElementRevision(TEST_STUDY, "id", 3L);
+        service.getElementRevision(TEST_STUDY, "id", 3L);
+        verify(dao, times(3)).getElementRevision(TEST_STUDY, "id", 3L);
+    }
+    
     @Test(expectedExceptions = EntityNotFoundException.class)
     public void getElementRevisionDoesNotExist() {
         service.getElementRevision(TEST_STUDY, "id", 3L);
@@ -208,6 +248,8 @@ public class AppConfigElementServiceTest {
         assertEquals(captured.getKey(), "api:id");
         assertNotEquals(captured.getCreatedOn(), TIMESTAMP.getMillis());
         assertEquals(captured.getModifiedOn(), TIMESTAMP.getMillis());
+        
+        verify(cacheProvider).removeObject(CacheKey.resolvedAppConfigs(TEST_STUDY));
     }
     
     @Test(expectedExceptions = InvalidEntityException.class)
@@ -276,6 +318,7 @@ public class AppConfigElementServiceTest {
         verify(dao, times(2)).saveElementRevision(elementCaptor.capture());
         assertTrue(elementCaptor.getAllValues().get(0).isDeleted());
         assertTrue(elementCaptor.getAllValues().get(1).isDeleted());
+        verify(cacheProvider).removeObject(CacheKey.resolvedAppConfigs(TEST_STUDY));
     }
     
     @Test
@@ -291,6 +334,7 @@ public class AppConfigElementServiceTest {
         verify(dao).getElementRevisions(TEST_STUDY, "id", true);
         verify(dao).deleteElementRevisionPermanently(TEST_STUDY, "id", 1);
         verify(dao).deleteElementRevisionPermanently(TEST_STUDY, "id", 2);
+        verify(cacheProvider).removeObject(CacheKey.resolvedAppConfigs(TEST_STUDY));
     }
     
     @Test
@@ -306,6 +350,7 @@ public class AppConfigElementServiceTest {
         assertNotEquals(captured.getCreatedOn(), TIMESTAMP.getMillis());
         assertEquals(captured.getModifiedOn(), TIMESTAMP.getMillis());
         assertTrue(elementCaptor.getValue().isDeleted());
+        verify(cacheProvider).removeObject(CacheKey.resolvedAppConfigs(TEST_STUDY));
     }
     
     @Test(expectedExceptions = EntityNotFoundException.class)
@@ -322,6 +367,7 @@ public class AppConfigElementServiceTest {
         service.deleteElementRevisionPermanently(TEST_STUDY, "id", 3L);
         
         verify(dao).deleteElementRevisionPermanently(TEST_STUDY, "id", 3L);
+        verify(cacheProvider).removeObject(CacheKey.resolvedAppConfigs(TEST_STUDY));
     }
     
     @Test(expectedExceptions = EntityNotFoundException.class)
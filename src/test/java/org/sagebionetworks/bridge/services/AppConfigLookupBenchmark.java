@@ -0,0 +1,113 @@
+package org.sagebionetworks.bridge.services;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.context.support.AbstractApplicationContext;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+
+import com.amazonaws.Request;
+import com.amazonaws.handlers.RequestHandler2;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClient;
+
+import org.sagebionetworks.bridge.cache.CacheKey;
+import org.sagebionetworks.bridge.cache.CacheProvider;
+import org.sagebionetworks.bridge.models.ClientInfo;
+import org.sagebionetworks.bridge.models.CriteriaContext;
+import org.sagebionetworks.bridge.models.studies.StudyIdentifier;
+import org.sagebionetworks.bridge.models.studies.StudyIdentifierImpl;
+
+/**
+ * <p>
+ * Measures AppConfigService.getAppConfigForUser() with the study's resolved app configs removed from the cache before
+ * every call (the way every call worked before app configs were cached), and then with the cache warm. For each, it
+ * reports latency and the number of DynamoDB requests per call, which should be zero when the cache is warm. Run this
+ * against a study that has app configs, ideally ones that reference surveys and config elements. It does not change
+ * any data, other than clearing the study's app config cache.
+ * </p>
+ * <p>
+ * This is a dev-only harness, so it lives with the tests and doesn't ship with the server. Usage: play
+ * "test:run-main org.sagebionetworks.bridge.services.AppConfigLookupBenchmark [study ID] [User-Agent] [iterations]"
+ * </p>
+ */
+public class AppConfigLookupBenchmark {
+    private static final String DEFAULT_USER_AGENT = "Benchmark/1 BridgeJavaSDK/10";
+    private static final int DEFAULT_ITERATIONS = 500;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("Usage: AppConfigLookupBenchmark [study ID] [User-Agent] [iterations]");
+            return;
+        }
+        StudyIdentifier studyId = new StudyIdentifierImpl(args[0]);
+        String userAgent = args.length > 1 ? args[1] : DEFAULT_USER_AGENT;
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_ITERATIONS;
+
+        // spring beans
+        AbstractApplicationContext springCtx = new ClassPathXmlApplicationContext("application-context.xml");
+        springCtx.registerShutdownHook();
+        AppConfigService appConfigService = springCtx.getBean(AppConfigService.class);
+        CacheProvider cacheProvider = springCtx.getBean(CacheProvider.class);
+        AmazonDynamoDBClient ddbClient = springCtx.getBean(AmazonDynamoDBClient.class);
+
+        AtomicLong ddbRequestCount = new AtomicLong();
+        ddbClient.addRequestHandler(new RequestHandler2() {
+            @Override
+            public void beforeRequest(Request<?> request) {
+                ddbRequestCount.incrementAndGet();
+            }
+        });
+
+        CriteriaContext context = new CriteriaContext.Builder().withStudyIdentifier(studyId)
+                .withClientInfo(ClientInfo.fromUserAgentCache(userAgent)).build();
+        CacheKey cacheKey = CacheKey.resolvedAppConfigs(studyId);
+        try {
+            // Warm up, so JIT and connection pool set up don't skew the first measurements.
+            for (int i = 0; i < Math.min(iterations, 50); i++) {
+                cacheProvider.removeObject(cacheKey);
+                appConfigService.getAppConfigForUser(context, false);
+            }
+
+            long[] coldNanos = new long[iterations];
+            ddbRequestCount.set(0);
+            for (int i = 0; i < iterations; i++) {
+                cacheProvider.removeObject(cacheKey);
+                long start = System.nanoTime();
+                appConfigService.getAppConfigForUser(context, false);
+                coldNanos[i] = System.nanoTime() - start;
+            }
+            long coldRequests = ddbRequestCount.get();
+
+            // The first call fills the cache.
+            appConfigService.getAppConfigForUser(context, false);
+            long[] warmNanos = new long[iterations];
+            ddbRequestCount.set(0);
+            for (int i = 0; i < iterations; i++) {
+                long start = System.nanoTime();
+                appConfigService.getAppConfigForUser(context, false);
+                warmNanos[i] = System.nanoTime() - start;
+            }
+            long warmRequests = ddbRequestCount.get();
+
+            System.out.println(String.format("Looked up app config for study %s, User-Agent \"%s\", %s times",
+                    studyId.getIdentifier(), userAgent, iterations));
+            report("cold", coldNanos, coldRequests);
+            report("warm", warmNanos, warmRequests);
+        } finally {
+            springCtx.close();
+        }
+    }
+
+    private static void report(String label, long[] nanos, long ddbRequests) {
+        long[] sorted = Arrays.copyOf(nanos, nanos.length);
+        Arrays.sort(sorted);
+        System.out.println(String.format("%-6s p50=%dus p99=%dus max=%dus dynamoRequestsPerCall=%.2f", label,
+                percentile(sorted, 50) / 1000, percentile(sorted, 99) / 1000, sorted[sorted.length - 1] / 1000,
+                (double) ddbRequests / nanos.length));
+    }
+
+    private static long percentile(long[] sorted, int percentile) {
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, index)];
+    }
+}
@@ -28,6 +28,8 @@ import org.testng.annotations.Test;
 import org.sagebionetworks.bridge.BridgeUtils;
 import org.sagebionetworks.bridge.TestConstants;
 import org.sagebionetworks.bridge.TestUtils;
+import org.sagebionetworks.bridge.cache.CacheKey;
+import org.sagebionetworks.bridge.cache.CacheProvider;
 import org.sagebionetworks.bridge.dao.AppConfigDao;
 import org.sagebionetworks.bridge.exceptions.EntityNotFoundException;
 import org.sagebionetworks.bridge.exceptions.InvalidEntityException;
@@ -46,6 +48,7 @@ import org.sagebionetworks.bridge.models.studies.Study;
 import org.sagebionetworks.bridge.models.surveys.Survey;
 import org.sagebionetworks.bridge.models.upload.UploadSchema;
 
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
@@ -93,9 +96,15 @@ public class AppConfigServiceTest {
     @Mock
     private ReferenceResolver referenceResolver;
     
+    @Mock
+    private CacheProvider mockCacheProvider;
+    
     @Captor
     private ArgumentCaptor<AppConfig> appConfigCaptor;
     
+    @Captor
+    private ArgumentCaptor<List<AppConfig>> appConfigListCaptor;
+    
     @Captor
     private ArgumentCaptor<SurveyReference> surveyRefCaptor;
     
@@ -117,6 +126,7 @@ public class AppConfigServiceTest {
         service.setUploadSchemaService(mockSchemaService);
         service.setSubstudyService(substudyService);
         service.setAppConfigElementService(mockAppConfigElementService);
+        service.setCacheProvider(mockCacheProvider);
         
         when(service.getCurrentTimestamp()).thenReturn(TIMESTAMP.getMillis());
         when(service.getGUID()).thenReturn(GUID);
@@ -388,6 +398,50 @@ public class AppConfigServiceTest {
         assertEquals(appConfig.getSurveyReferences().get(0).getIdentifier(), "theIdentifier");
     }
     
+    @Test
+    public void getAppConfigForUserCachesResolvedAppConfigs() {
+        Survey survey = Survey.create();
+        survey.setIdentifier("theIdentifier");
+        survey.setGuid(SURVEY_REF_LIST.get(0).getGuid());
+        survey.setCreatedOn(SURVEY_REF_LIST.get(0).getCreatedOn().getMillis());
+        when(mockSurveyService.getSurvey(TestConstants.TEST_STUDY, SURVEY_KEY, false, false)).thenReturn(survey);
+        
+        CriteriaContext context = new CriteriaContext.Builder()
+                .withClientInfo(ClientInfo.UNKNOWN_CLIENT)
+                .withStudyIdentifier(TEST_STUDY).build();
+        
+        setupConfigsForUser();
+        service.getAppConfigForUser(context, true);
+        
+        // All app configs are resolved and cached, not just the one that matched
+        verify(mockCacheProvider).setObject(eq(CacheKey.resolvedAppConfigs(TEST_STUDY)), appConfigListCaptor.capture());
+        List<AppConfig> cached = appConfigListCaptor.getValue();
+        assertEquals(cached.size(), 2);
+        assertEquals(cached.get(1).getSurveyReferences().get(0).getIdentifier(), "theIdentifier");
+    }
+    
+    @SuppressWarnings("unchecked")
+    @Test
+    public void getAppConfigForUserUsesCachedAppConfigs() {
+        CriteriaContext context = new CriteriaContext.Builder()
+                .withClientInfo(ClientInfo.fromUserAgentCache("app/7 (Motorola Flip-Phone; Android/14) BridgeJavaSDK/10"))
+                .withStudyIdentifier(TEST_STUDY).build();
+        
+        AppConfig appConfig2 = setupConfigsForUser();
+        appConfig2.setStudyId(null);
+        when(mockCacheProvider.getObject(eq(CacheKey.resolvedAppConfigs(TEST_STUDY)), any(TypeReference.class)))
+                .thenReturn(Lists.newArrayList(RESULTS));
+        
+        AppConfig match = service.getAppConfigForUser(context, true);
+        assertEquals(match, appConfig2);
+        assertEquals(match.getStudyId(), TEST_STUDY.getIdentifier());
+        
+        verify(mockDao, never()).getAppConfigs(any(), anyBoolean());
+        verify(mockSurveyService, never()).getSurvey(any(), any(), anyBoolean(), anyBoolean());
+        verify(mockAppConfigElementService, never()).getElementRevision(any(), any(), anyLong());
+        verify(mockCacheProvider, never()).setObject(any(), any());
+    }
+    
     @Test
     public void createAppConfig() {
         when(mockStudyService.getStudy(TEST_STUDY)).thenReturn(study);
@@ -423,6 +477,7 @@ public class AppConfigServiceTest {
         assertEquals(captured.getGuid(), GUID);
         
         verify(substudyService).getSubstudyIds(TEST_STUDY);
+        verify(mockCacheProvider).removeObject(CacheKey.resolvedAppConfigs(TEST_STUDY));
     }
     
     @Test
@@ -444,6 +499,7 @@ public class AppConfigServiceTest {
         verify(substudyService).getSubstudyIds(TEST_STUDY);
 
         assertEquals(oldConfig, returnValue);
+        verify(mockCacheProvider).removeObject(CacheKey.resolvedAppConfigs(TEST_STUDY));
     }
     
     @Test(expectedExceptions = InvalidEntityException.class)
@@ -466,6 +522,7 @@ public class AppConfigServiceTest {
         service.deleteAppConfig(TEST_STUDY,  GUID);
         
         verify(mockDao).deleteAppConfig(TEST_STUDY, GUID);
+        verify(mockCacheProvider).removeObject(CacheKey.resolvedAppConfigs(TEST_STUDY));
     }
     
     @Test
@@ -473,5 +530,6 @@ public class AppConfigServiceTest {
         service.deleteAppConfigPermanently(TEST_STUDY, GUID);
         
         verify(mockDao).deleteAppConfigPermanently(TEST_STUDY, GUID);
+        verify(mockCacheProvider).removeObject(CacheKey.resolvedAppConfigs(TEST_STUDY));
     }
 }
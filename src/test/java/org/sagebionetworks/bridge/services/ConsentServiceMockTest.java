@@ -26,6 +26,7 @@ import java.util.stream.Collectors;
 import com.amazonaws.HttpMethod;
 import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
 
@@ -170,6 +171,8 @@ public class ConsentServiceMockTest {
                 .thenReturn("<p>This is content of the final HTML document we assemble.</p>");
         when(studyConsentService.getActiveConsent(subpopulation)).thenReturn(studyConsentView);
         when(subpopService.getSubpopulation(study.getStudyIdentifier(), SUBPOP_GUID)).thenReturn(subpopulation);
+        when(subpopService.getSubpopulationsByGuid(study.getStudyIdentifier(), ImmutableSet.of(SUBPOP_GUID)))
+                .thenReturn(ImmutableMap.of(SUBPOP_GUID, subpopulation));
     }
 
     @Test(expectedExceptions = EntityNotFoundException.class)
@@ -452,7 +455,8 @@ public class ConsentServiceMockTest {
         account.setDataGroups(dataGroups);
 
         when(subpopulation.getDataGroupsAssignedWhileConsented()).thenReturn(TestConstants.USER_DATA_GROUPS);
-        when(subpopService.getSubpopulation(study.getStudyIdentifier(), SUBPOP_GUID)).thenReturn(subpopulation);
+        when(subpopService.getSubpopulationsByGuid(study.getStudyIdentifier(), ImmutableSet.of(SUBPOP_GUID)))
+                .thenReturn(ImmutableMap.of(SUBPOP_GUID, subpopulation));
         when(accountDao.getAccount(any())).thenReturn(account);
 
         consentService.withdrawFromStudy(study, PARTICIPANT, WITHDRAWAL, WITHDREW_ON);
@@ -667,7 +671,9 @@ public class ConsentServiceMockTest {
         setupWithdrawTest(true, true);
         study.setConsentNotificationEmail(null);
 
-        when(subpopService.getSubpopulation(study.getStudyIdentifier(), SECOND_SUBPOP)).thenReturn(subpopulation);
+        when(subpopService.getSubpopulationsByGuid(study.getStudyIdentifier(),
+                ImmutableSet.of(SUBPOP_GUID, SECOND_SUBPOP))).thenReturn(ImmutableMap.of(SUBPOP_GUID, subpopulation,
+                        SECOND_SUBPOP, subpopulation));
 
         consentService.withdrawFromStudy(study, PARTICIPANT, WITHDRAWAL, WITHDREW_ON);
 
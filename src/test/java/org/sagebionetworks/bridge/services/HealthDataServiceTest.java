@@ -5,12 +5,16 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertSame;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import org.joda.time.DateTime;
 import org.joda.time.LocalDate;
 import org.testng.annotations.Test;
@@ -108,6 +112,30 @@ public class HealthDataServiceTest {
         new HealthDataService().getRecordsForUploadDate("2014-02-31");
     }
 
+    @Test(expectedExceptions = BadRequestException.class)
+    public void getRecordsByIdNullIds() {
+        new HealthDataService().getRecordsById(null);
+    }
+
+    @Test
+    public void getRecordsByIdSkipsBlankIds() {
+        HealthDataRecord fooRecord = makeValidRecord();
+        fooRecord.setId("foo record");
+
+        HealthDataDao mockDao = mock(HealthDataDao.class);
+        when(mockDao.getRecordsById(ImmutableList.of("foo record", "bar record"))).thenReturn(ImmutableMap.of(
+                "foo record", fooRecord));
+
+        HealthDataService svc = new HealthDataService();
+        svc.setHealthDataDao(mockDao);
+
+        // execute and validate
+        Map<String, HealthDataRecord> recordMap = svc.getRecordsById(Arrays.asList("foo record", "", null,
+                "bar record"));
+        assertEquals(recordMap.size(), 1);
+        assertSame(recordMap.get("foo record"), fooRecord);
+    }
+
     @Test
     public void getRecordsForUploadDateSuccess() {
         // mock results
@@ -2,17 +2,18 @@ package org.sagebionetworks.bridge.services;
 
 import static java.util.stream.Collectors.toSet;
 import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyBoolean;
 import static org.mockito.Mockito.anyInt;
 import static org.mockito.Mockito.anyString;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
-import static org.sagebionetworks.bridge.BridgeConstants.API_MAXIMUM_PAGE_SIZE;
 import static org.sagebionetworks.bridge.TestConstants.TEST_STUDY;
 import static org.sagebionetworks.bridge.services.ScheduledActivityService.V3_FILTER;
 import static org.sagebionetworks.bridge.validators.ScheduleContextValidator.MAX_DATE_RANGE_IN_DAYS;
@@ -20,6 +21,7 @@ import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNotNull;
 import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
 
 import java.util.Arrays;
 import java.util.List;
@@ -40,7 +42,6 @@ import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
-import org.sagebionetworks.bridge.BridgeConstants;
 import org.sagebionetworks.bridge.BridgeUtils;
 import org.sagebionetworks.bridge.TestUtils;
 import org.sagebionetworks.bridge.dao.ScheduledActivityDao;
@@ -48,10 +49,11 @@ import org.sagebionetworks.bridge.dynamodb.DynamoSchedulePlan;
 import org.sagebionetworks.bridge.dynamodb.DynamoScheduledActivity;
 import org.sagebionetworks.bridge.dynamodb.DynamoSurvey;
 import org.sagebionetworks.bridge.exceptions.BadRequestException;
+import org.sagebionetworks.bridge.exceptions.EntityNotFoundException;
 import org.sagebionetworks.bridge.json.BridgeObjectMapper;
+import org.sagebionetworks.bridge.metrics.MetricsRegistry;
 import org.sagebionetworks.bridge.time.DateUtils;
 import org.sagebionetworks.bridge.models.ClientInfo;
-import org.sagebionetworks.bridge.models.ForwardCursorPagedResourceList;
 import org.sagebionetworks.bridge.models.schedules.Activity;
 import org.sagebionetworks.bridge.models.schedules.ActivityType;
 import org.sagebionetworks.bridge.models.schedules.Schedule;
@@ -72,6 +74,7 @@ import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
@@ -125,6 +128,9 @@ public class ScheduledActivityServiceMockTest {
     @Captor
     private ArgumentCaptor<List<ScheduledActivity>> scheduledActivityListCaptor;
     
+    @Captor
+    private ArgumentCaptor<Set<String>> activityGuidSetCaptor;
+    
     @BeforeMethod
     public void before() {
         MockitoAnnotations.initMocks(this);
@@ -139,15 +145,6 @@ public class ScheduledActivityServiceMockTest {
         Map<String,DateTime> map = ImmutableMap.of();
         when(activityEventService.getActivityEventMap(anyString())).thenReturn(map);
         
-        when(activityDao.getActivity(any(), anyString(), anyString(), eq(true))).thenAnswer(invocation -> {
-            Object[] args = invocation.getArguments();
-            DynamoScheduledActivity schActivity = new DynamoScheduledActivity();
-            schActivity.setTimeZone((DateTimeZone)args[0]);
-            schActivity.setHealthCode((String)args[1]);
-            schActivity.setGuid((String)args[2]);
-            return schActivity;
-        });
-        
         doReturn(SURVEY_CREATED_ON.getMillis()).when(survey).getCreatedOn();
         doReturn("identifier").when(survey).getIdentifier();
         when(surveyService.getSurveyMostRecentlyPublishedVersion(
@@ -286,10 +283,64 @@ public class ScheduledActivityServiceMockTest {
             activity.setFinishedOn(DateTimeUtils.currentTimeMillis());
         }
         
+        mockGetActivitiesForUpdate();
         service.updateScheduledActivities("AAA", scheduledActivities);
         
+        // Duplicates are not loaded or persisted
+        verify(activityDao).getActivities(eq(DateTimeZone.UTC), scheduledActivityListCaptor.capture());
+        assertEquals(scheduledActivityListCaptor.getValue().size(), size);
         verify(activityDao).updateActivities(eq("AAA"), scheduledActivityListCaptor.capture());
         assertEquals(scheduledActivityListCaptor.getValue().size(), size);
+        verify(activityEventService).publishActivityFinishedEvents(scheduledActivityListCaptor.capture());
+        assertEquals(scheduledActivityListCaptor.getValue().size(), size);
+    }
+    
+    @Test
+    public void duplicateActivitiesLastOneWins() {
+        ScheduleContext context = createScheduleContext(ENDS_ON).build();
+        List<ScheduledActivity> scheduledActivities = TestUtils.runSchedulerForActivities(context);
+        String guid = scheduledActivities.get(0).getGuid();
+        
+        ScheduledActivity firstCopy = ScheduledActivity.create();
+        firstCopy.setGuid(guid);
+        firstCopy.setFinishedOn(NOW.minusHours(1).getMillis());
+        ScheduledActivity lastCopy = ScheduledActivity.create();
+        lastCopy.setGuid(guid);
+        lastCopy.setStartedOn(NOW.minusHours(2).getMillis());
+        lastCopy.setFinishedOn(NOW.getMillis());
+        
+        mockGetActivitiesForUpdate();
+        service.updateScheduledActivities("AAA", Lists.newArrayList(firstCopy, scheduledActivities.get(1), lastCopy));
+        
+        verify(activityDao).updateActivities(eq("AAA"), scheduledActivityListCaptor.capture());
+        List<ScheduledActivity> saves = scheduledActivityListCaptor.getValue();
+        assertEquals(saves.size(), 1);
+        assertEquals(saves.get(0).getGuid(), guid);
+        assertEquals(saves.get(0).getStartedOn().longValue(), NOW.minusHours(2).getMillis());
+        assertEquals(saves.get(0).getFinishedOn().longValue(), NOW.getMillis());
+    }
+    
+    @Test
+    public void updateActivitiesWithMissingActivityPublishesAndSavesNothing() {
+        ScheduleContext context = createScheduleContext(ENDS_ON).build();
+        List<ScheduledActivity> scheduledActivities = TestUtils.runSchedulerForActivities(context);
+        for (ScheduledActivity activity : scheduledActivities) {
+            activity.setFinishedOn(NOW.getMillis());
+        }
+        // Only the first activity was persisted
+        DynamoScheduledActivity dbActivity = new DynamoScheduledActivity();
+        dbActivity.setHealthCode("AAA");
+        dbActivity.setGuid(scheduledActivities.get(0).getGuid());
+        when(activityDao.getActivities(any(), any())).thenReturn(Lists.newArrayList(dbActivity));
+        
+        try {
+            service.updateScheduledActivities("AAA", scheduledActivities);
+            fail("Should have thrown exception");
+        } catch(EntityNotFoundException e) {
+            // expected
+        }
+        verify(activityEventService, never()).publishActivityFinishedEvents(any());
+        verify(activityDao, never()).updateActivities(any(), any());
     }
     
     @Test
@@ -339,15 +390,21 @@ public class ScheduledActivityServiceMockTest {
         scheduledActivities.get(3).setClientData(TestUtils.getClientData());
         
         ArgumentCaptor<List> updateCapture = ArgumentCaptor.forClass(List.class);
-        ArgumentCaptor<ScheduledActivity> publishCapture = ArgumentCaptor.forClass(ScheduledActivity.class);
         
+        mockGetActivitiesForUpdate();
         service.updateScheduledActivities("BBB", scheduledActivities);
         
         verify(activityDao).updateActivities(anyString(), updateCapture.capture());
-        // Three activities have timestamp updates and need to be persisted
-        verify(activityDao, times(count)).getActivity(any(), anyString(), anyString(), eq(true));
+        // All the activities are loaded in one batch
+        verify(activityDao).getActivities(eq(DateTimeZone.UTC), scheduledActivityListCaptor.capture());
+        assertEquals(scheduledActivityListCaptor.getValue().size(), count);
+        for (ScheduledActivity key : scheduledActivityListCaptor.getValue()) {
+            assertEquals(key.getHealthCode(), "BBB");
+        }
         // Two activities have been finished and generate activity finished events
-        verify(activityEventService, times(2)).publishActivityFinishedEvent(publishCapture.capture());
+        verify(activityEventService).publishActivityFinishedEvents(scheduledActivityListCaptor.capture());
+        List<ScheduledActivity> publishedActivities = scheduledActivityListCaptor.getValue();
+        assertEquals(publishedActivities.size(), 2);
         
         List<DynamoScheduledActivity> dbActivities = (List<DynamoScheduledActivity>)updateCapture.getValue();
         assertEquals(dbActivities.size(), 4);
@@ -359,9 +416,9 @@ public class ScheduledActivityServiceMockTest {
         assertEquals(dbActivities.get(3).getClientData(), scheduledActivities.get(3).getClientData());
         
         // Correct published activities.
-        ScheduledActivity publishedActivity2 = publishCapture.getAllValues().get(0);
+        ScheduledActivity publishedActivity2 = publishedActivities.get(0);
         assertEquals(publishedActivity2.getGuid(), scheduledActivities.get(2).getGuid());
-        ScheduledActivity publishedActivity1 = publishCapture.getAllValues().get(1);
+        ScheduledActivity publishedActivity1 = publishedActivities.get(1);
         assertEquals(publishedActivity1.getGuid(), scheduledActivities.get(1).getGuid());
     }
     
@@ -445,9 +502,8 @@ public class ScheduledActivityServiceMockTest {
         
         when(schedulePlanService.getSchedulePlans(ClientInfo.UNKNOWN_CLIENT, TEST_STUDY, false)).thenReturn(Lists.newArrayList(aaa,bbb));
         
-        ForwardCursorPagedResourceList<ScheduledActivity> list = new ForwardCursorPagedResourceList<>(createStartedActivities("BBB"+TIME_PORTION), null);
-        when(activityDao.getActivityHistoryV2(HEALTH_CODE, "BBB", NOW, NOW, null, API_MAXIMUM_PAGE_SIZE))
-                .thenReturn(list);        
+        when(activityDao.getActivitiesInRange(eq(HEALTH_CODE), any(), eq(NOW), eq(NOW)))
+                .thenReturn(createStartedActivities("BBB"+TIME_PORTION));
         
         List<ScheduledActivity> returnedActivities = service.getScheduledActivitiesV4(study, createScheduleContext(NOW).build());
         assertActivityGuids(returnedActivities, "AAA", "BBB");
@@ -523,8 +579,7 @@ public class ScheduledActivityServiceMockTest {
         
         List<ScheduledActivity> db = Lists.newArrayList(createExpiredActivities("AAA"+TIME_PORTION).get(0),
                 createFinishedActivities("BBB"+TIME_PORTION).get(0));
-        when(activityDao.getActivityHistoryV2(HEALTH_CODE, "BBB", NOW, NOW, null, API_MAXIMUM_PAGE_SIZE))
-                .thenReturn(new ForwardCursorPagedResourceList<>(db, null));
+        when(activityDao.getActivitiesInRange(eq(HEALTH_CODE), any(), eq(NOW), eq(NOW))).thenReturn(db);
         
         List<ScheduledActivity> returnedActivities = service.getScheduledActivitiesV4(study, createScheduleContext(NOW).build());
         assertActivityGuids(returnedActivities, "AAA", "BBB", "CCC");
@@ -566,8 +621,7 @@ public class ScheduledActivityServiceMockTest {
         when(schedulePlanService.getSchedulePlans(ClientInfo.UNKNOWN_CLIENT, TEST_STUDY, false)).thenReturn(Lists.newArrayList(aaa,bbb,ccc));
         
         List<ScheduledActivity> db = createStartedActivities("AAA"+TIME_PORTION,"CCC"+TIME_PORTION);
-        when(activityDao.getActivityHistoryV2(HEALTH_CODE, "BBB", NOW, NOW, null, API_MAXIMUM_PAGE_SIZE))
-                .thenReturn(new ForwardCursorPagedResourceList<>(db, null));
+        when(activityDao.getActivitiesInRange(eq(HEALTH_CODE), any(), eq(NOW), eq(NOW))).thenReturn(db);
         
         List<ScheduledActivity> returnedActivities = service.getScheduledActivitiesV4(study, createScheduleContext(NOW).build());
         assertActivityGuids(returnedActivities, "AAA", "BBB", "CCC");
@@ -579,6 +633,78 @@ public class ScheduledActivityServiceMockTest {
         assertActivityGuids(saves, "BBB");
     }
     
+    @Test
+    public void unchangedPersistedActivitiesAreNotSavedAgainV4() {
+        MetricsRegistry metricsRegistry = new MetricsRegistry();
+        service.setMetricsRegistry(metricsRegistry);
+        
+        SchedulePlan aaa = schedulePlan("AAA");
+        SchedulePlan bbb = schedulePlan("BBB");
+        when(schedulePlanService.getSchedulePlans(ClientInfo.UNKNOWN_CLIENT, TEST_STUDY, false)).thenReturn(Lists.newArrayList(aaa,bbb));
+        
+        // First request creates and saves the activities.
+        service.getScheduledActivitiesV4(study, createScheduleContext(NOW).build());
+        verify(activityDao).saveActivities(scheduledActivityListCaptor.capture());
+        List<ScheduledActivity> persisted = scheduledActivityListCaptor.getValue();
+        assertActivityGuids(persisted, "AAA", "BBB");
+        assertEquals(metricsRegistry.getCount(ScheduledActivityService.METRIC_SAVED), 2L);
+        
+        // Second request finds them persisted and unchanged, so nothing is saved.
+        reset(activityDao);
+        when(activityDao.getActivitiesInRange(eq(HEALTH_CODE), any(), eq(NOW), eq(NOW))).thenReturn(copyOf(persisted));
+        List<ScheduledActivity> returnedActivities = service.getScheduledActivitiesV4(study, createScheduleContext(NOW).build());
+        assertActivityGuids(returnedActivities, "AAA", "BBB");
+        
+        verify(activityDao).saveActivities(scheduledActivityListCaptor.capture());
+        assertActivityGuids(scheduledActivityListCaptor.getValue());
+        assertEquals(metricsRegistry.getCount(ScheduledActivityService.METRIC_SAVED), 2L);
+        assertEquals(metricsRegistry.getCount(ScheduledActivityService.METRIC_SAVE_SKIPPED), 2L);
+    }
+    
+    @Test
+    public void changedPersistedActivitiesAreSavedV4() {
+        MetricsRegistry metricsRegistry = new MetricsRegistry();
+        service.setMetricsRegistry(metricsRegistry);
+        
+        SchedulePlan aaa = schedulePlan("AAA");
+        when(schedulePlanService.getSchedulePlans(ClientInfo.UNKNOWN_CLIENT, TEST_STUDY, false)).thenReturn(Lists.newArrayList(aaa));
+        
+        service.getScheduledActivitiesV4(study, createScheduleContext(NOW).build());
+        verify(activityDao).saveActivities(scheduledActivityListCaptor.capture());
+        List<ScheduledActivity> persisted = copyOf(scheduledActivityListCaptor.getValue());
+        
+        // The schedule has changed the activity since it was persisted, so it's saved again.
+        persisted.get(0).setActivity(new Activity.Builder().withActivity(persisted.get(0).getActivity())
+                .withLabel("An older label").build());
+        reset(activityDao);
+        when(activityDao.getActivitiesInRange(eq(HEALTH_CODE), any(), eq(NOW), eq(NOW))).thenReturn(persisted);
+        service.getScheduledActivitiesV4(study, createScheduleContext(NOW).build());
+        
+        verify(activityDao).saveActivities(scheduledActivityListCaptor.capture());
+        assertActivityGuids(scheduledActivityListCaptor.getValue(), "AAA");
+        assertEquals(metricsRegistry.getCount(ScheduledActivityService.METRIC_SAVED), 2L);
+        assertEquals(metricsRegistry.getCount(ScheduledActivityService.METRIC_SAVE_SKIPPED), 0L);
+    }
+    
+    // Persisted activities are read back from DynamoDB as new objects.
+    private List<ScheduledActivity> copyOf(List<ScheduledActivity> activities) {
+        List<ScheduledActivity> copies = Lists.newArrayList();
+        for (ScheduledActivity activity : activities) {
+            ScheduledActivity copy = ScheduledActivity.create();
+            copy.setGuid(activity.getGuid());
+            copy.setHealthCode(activity.getHealthCode());
+            copy.setTimeZone(activity.getTimeZone());
+            copy.setSchedulePlanGuid(activity.getSchedulePlanGuid());
+            copy.setActivity(activity.getActivity());
+            copy.setLocalScheduledOn(((DynamoScheduledActivity) activity).getLocalScheduledOn());
+            copy.setLocalExpiresOn(((DynamoScheduledActivity) activity).getLocalExpiresOn());
+            copy.setPersistent(activity.getPersistent());
+            copy.setReferentGuid(activity.getReferentGuid());
+            copies.add(copy);
+        }
+        return copies;
+    }
+    
     private ScheduledActivity getByGuidPrefix(List<ScheduledActivity> activities, String prefix) {
         for (ScheduledActivity activity : activities) {
             if (activity.getGuid().startsWith(prefix)) {
@@ -636,14 +762,13 @@ public class ScheduledActivityServiceMockTest {
         List<ScheduledActivity> db = createNewActivities("CCC"+TIME_PORTION);
         db.get(0).setActivity(oldActivity);
         
-        ForwardCursorPagedResourceList<ScheduledActivity> page = new ForwardCursorPagedResourceList<>(db, null);
-        when(activityDao.getActivityHistoryV2(any(), any(), any(), any(), any(), anyInt())).thenReturn(page);
+        when(activityDao.getActivitiesInRange(any(), any(), any(), any())).thenReturn(db);
         
         List<ScheduledActivity> returnedActivities = service.getScheduledActivitiesV4(study, createScheduleContext(NOW).build());
         assertEquals(returnedActivities.size(), 1);
         assertEquals(returnedActivities.get(0).getActivity().getSurvey().getCreatedOn().getMillis(), 5678);
         
-        verify(activityDao).getActivityHistoryV2(any(), any(), any(), any(), any(), anyInt());
+        verify(activityDao).getActivitiesInRange(any(), any(), any(), any());
     }
     
     @Test
@@ -701,15 +826,14 @@ public class ScheduledActivityServiceMockTest {
         }
         db.get(0).setActivity(oldActivity);
         
-        ForwardCursorPagedResourceList<ScheduledActivity> page = new ForwardCursorPagedResourceList<>(db, null);
-        when(activityDao.getActivityHistoryV2(any(), any(), any(), any(), any(), anyInt())).thenReturn(page);
+        when(activityDao.getActivitiesInRange(any(), any(), any(), any())).thenReturn(db);
         
         List<ScheduledActivity> returnedActivities = service.getScheduledActivitiesV4(study, createScheduleContext(NOW).build());
         assertEquals(returnedActivities.size(), 1);
         assertEquals(returnedActivities.get(0).getActivity().getSurvey().getCreatedOn().getMillis(), 1234);
         assertNotNull(returnedActivities.get(0).getClientData());
         
-        verify(activityDao).getActivityHistoryV2(any(), any(), any(), any(), any(), anyInt());
+        verify(activityDao).getActivitiesInRange(any(), any(), any(), any());
     }
     
     @Test
@@ -804,8 +928,8 @@ public class ScheduledActivityServiceMockTest {
         oneTimeActivity.setFinishedOn(NOW.plusMinutes(5).getMillis());
         
         mockAllCallsForDbActivities(ImmutableList.of());
-        when(activityDao.getActivity(context.getStartsOn().getZone(), HEALTH_CODE, guid, false))
-                .thenReturn(oneTimeActivity);
+        when(activityDao.getActivities(eq(context.getStartsOn().getZone()), any()))
+                .thenReturn(ImmutableList.of(oneTimeActivity));
         
         List<ScheduledActivity> scheduledActivities = service.getScheduledActivitiesV4(study, context);
         assertEquals(scheduledActivities.size(), 1);
@@ -813,10 +937,12 @@ public class ScheduledActivityServiceMockTest {
         assertNotNull(scheduledActivities.get(0).getStartedOn());
         assertNotNull(scheduledActivities.get(0).getFinishedOn());
         
-        verify(activityDao, times(1)).getActivityHistoryV2(HEALTH_CODE, "guidForCCC", context.getStartsOn(), context.getEndsOn(),
-                null, BridgeConstants.API_MAXIMUM_PAGE_SIZE);
+        verify(activityDao, times(1)).getActivitiesInRange(HEALTH_CODE, ImmutableSet.of("guidForCCC"),
+                context.getStartsOn(), context.getEndsOn());
         // Retrieve any remaining scheduled activity from the DB to ensure state is maintained. 
-        verify(activityDao, times(1)).getActivity(context.getStartsOn().getZone(), HEALTH_CODE, guid, false);
+        verify(activityDao, times(1)).getActivities(eq(context.getStartsOn().getZone()),
+                scheduledActivityListCaptor.capture());
+        assertEquals(toGuids(scheduledActivityListCaptor.getValue()), ImmutableSet.of(guid));
         
         verify(activityDao).saveActivities(scheduledActivityListCaptor.capture());
         
@@ -1156,14 +1282,41 @@ public class ScheduledActivityServiceMockTest {
         List<ScheduledActivity> activities = service.getScheduledActivitiesV4(study, context);
         assertTrue(activities.size() > 0);
         
-        verify(activityDao, times(1)).getActivityHistoryV2(HEALTH_CODE, "AAA", context.getStartsOn(), context.getEndsOn(),
-                null, BridgeConstants.API_MAXIMUM_PAGE_SIZE);
+        // One query for all of the activity GUIDs.
+        verify(activityDao, times(1)).getActivitiesInRange(eq(HEALTH_CODE), activityGuidSetCaptor.capture(),
+                eq(context.getStartsOn()), eq(context.getEndsOn()));
+        assertTrue(activityGuidSetCaptor.getValue().contains("AAA"));
         
         verify(activityDao).saveActivities(scheduledActivityListCaptor.capture());
         List<ScheduledActivity> activitiesOnSave = scheduledActivityListCaptor.getValue();
         assertEquals(toGuids(activitiesOnSave), toGuids(activities));
     }
     
+    @Test
+    public void getActivitiesV4ReadsPersistedActivitiesInTwoCalls() {
+        SchedulePlan aaa = schedulePlan("AAA");
+        SchedulePlan bbb = schedulePlan("BBB");
+        SchedulePlan ccc = schedulePlan("CCC");
+        when(schedulePlanService.getSchedulePlans(ClientInfo.UNKNOWN_CLIENT, TEST_STUDY, false)).thenReturn(Lists.newArrayList(aaa,bbb,ccc));
+        
+        // AAA is found in the window. The other two aren't persisted yet.
+        when(activityDao.getActivitiesInRange(eq(HEALTH_CODE), any(), eq(NOW), eq(NOW)))
+                .thenReturn(createStartedActivities("AAA"+TIME_PORTION));
+        
+        List<ScheduledActivity> returnedActivities = service.getScheduledActivitiesV4(study, createScheduleContext(NOW).build());
+        assertActivityGuids(returnedActivities, "AAA", "BBB", "CCC");
+        
+        // One range query for every activity GUID, and one batch load for the activities it didn't find, no matter
+        // how many activity GUIDs there are.
+        verify(activityDao).getActivitiesInRange(eq(HEALTH_CODE), activityGuidSetCaptor.capture(), eq(NOW), eq(NOW));
+        assertEquals(activityGuidSetCaptor.getValue(), ImmutableSet.of("AAA", "BBB", "CCC"));
+        verify(activityDao).getActivities(eq(TIME_ZONE), scheduledActivityListCaptor.capture());
+        assertEquals(toGuids(scheduledActivityListCaptor.getValue()), ImmutableSet.of("BBB"+TIME_PORTION,
+                "CCC"+TIME_PORTION));
+        verify(activityDao, never()).getActivityHistoryV2(any(), any(), any(), any(), any(), anyInt());
+        verify(activityDao, never()).getActivity(any(), any(), any(), anyBoolean());
+    }
+    
     /** 
      * The v4 API is used to store client data, and must return finished activities. Instead of retrieving 
      * activities as found by the scheduler (v3 API), we retrieve all activities in the time range, then 
@@ -1283,32 +1436,34 @@ public class ScheduledActivityServiceMockTest {
         dbActivity.setLocalScheduledOn(LocalDateTime.parse("2017-02-23T13:00:00.000"));
         // This is the critical line. Without this, the service fails. Also tested in DAO code.
         dbActivity.setTimeZone(context.getStartsOn().getZone());
-        when(mockedActivityDao.getActivity(context.getStartsOn().getZone(), HEALTH_CODE, "AAA:2017-02-23T13:00:00.000", false)).thenReturn(dbActivity);
+        when(mockedActivityDao.getActivities(eq(context.getStartsOn().getZone()), any())).thenReturn(ImmutableList.of(dbActivity));
         
         service.getScheduledActivitiesV4(study, context);
-        verify(mockedActivityDao).getActivity(context.getStartsOn().getZone(), HEALTH_CODE, "AAA:2017-02-23T13:00:00.000", false);
+        verify(mockedActivityDao).getActivities(eq(context.getStartsOn().getZone()), scheduledActivityListCaptor.capture());
+        assertTrue(toGuids(scheduledActivityListCaptor.getValue()).contains("AAA:2017-02-23T13:00:00.000"));
+    }
+    
+    // Every activity submitted for update has been persisted.
+    private void mockGetActivitiesForUpdate() {
+        when(activityDao.getActivities(any(), any())).thenAnswer(invocation -> {
+            DateTimeZone timeZone = invocation.getArgument(0);
+            List<ScheduledActivity> keys = invocation.getArgument(1);
+            List<ScheduledActivity> dbActivities = Lists.newArrayList();
+            for (ScheduledActivity key : keys) {
+                DynamoScheduledActivity schActivity = new DynamoScheduledActivity();
+                schActivity.setTimeZone(timeZone);
+                schActivity.setHealthCode(key.getHealthCode());
+                schActivity.setGuid(key.getGuid());
+                dbActivities.add(schActivity);
+            }
+            return dbActivities;
+        });
     }
     
     private void mockAllCallsForDbActivities(List<ScheduledActivity> dbActivities) {
         reset(activityDao);
-        Map<String,List<ScheduledActivity>> map = Maps.newHashMap();
-        for (ScheduledActivity oneActivity : dbActivities) {
-            String guid = oneActivity.getGuid().split(":")[0];
-            if (!map.containsKey(guid)) {
-                map.put(guid, Lists.newArrayList());
-            }
-            map.get(guid).add(oneActivity);
-        }
-        for (String guid : map.keySet()) {
-            mockGetActivitiesV2(guid, map.get(guid));
-        }
-    }
-    
-    private void mockGetActivitiesV2(String activityGuid, List<ScheduledActivity> activities) {
-        ForwardCursorPagedResourceList<ScheduledActivity> list = new ForwardCursorPagedResourceList<>(activities, null);
-
-        when(activityDao.getActivityHistoryV2(eq(HEALTH_CODE), eq(activityGuid), any(), any(), 
-                eq(null), eq(BridgeConstants.API_MAXIMUM_PAGE_SIZE))).thenReturn(list);
+        when(activityDao.getActivitiesInRange(eq(HEALTH_CODE), any(), any(), any()))
+                .thenReturn(ImmutableList.copyOf(dbActivities));
     }
     
     private String firstTimeStampFor(int initialTZOffset, int requestTZOffset, Schedule schedule) {
@@ -1,5 +1,6 @@
 package org.sagebionetworks.bridge.services;
 
+import static java.util.stream.Collectors.toList;
 import static org.mockito.AdditionalAnswers.returnsFirstArg;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.anyLong;
@@ -19,6 +20,7 @@ import static org.testng.Assert.assertTrue;
 import static org.testng.Assert.fail;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.joda.time.DateTime;
@@ -51,6 +53,7 @@ import org.sagebionetworks.bridge.models.subpopulations.Subpopulation;
 import org.sagebionetworks.bridge.models.subpopulations.SubpopulationGuid;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
 
@@ -291,6 +294,31 @@ public class SubpopulationServiceTest {
         verify(subpopDao).getSubpopulation(TEST_STUDY, SUBPOP_GUID);
     }
 
+    @Test
+    public void getSubpopulationsByGuid() {
+        SubpopulationGuid otherGuid = SubpopulationGuid.create("BBB");
+        Subpopulation cachedSubpop = Subpopulation.create();
+        cachedSubpop.setGuid(SUBPOP_GUID);
+        Subpopulation loadedSubpop = Subpopulation.create();
+        loadedSubpop.setGuid(otherGuid);
+        
+        CacheKey cachedKey = CacheKey.subpop(SUBPOP_GUID, TEST_STUDY);
+        CacheKey loadedKey = CacheKey.subpop(otherGuid, TEST_STUDY);
+        when(cacheProvider.getObjects(any(), eq(Subpopulation.class))).thenAnswer(invocation -> {
+            List<CacheKey> keys = invocation.getArgument(0);
+            return keys.stream().map(key -> key.equals(cachedKey) ? cachedSubpop : null).collect(toList());
+        });
+        when(subpopDao.getSubpopulation(TEST_STUDY, otherGuid)).thenReturn(loadedSubpop);
+        
+        Map<SubpopulationGuid, Subpopulation> result = service.getSubpopulationsByGuid(TEST_STUDY,
+                ImmutableSet.of(SUBPOP_GUID, otherGuid));
+        
+        assertEquals(result, ImmutableMap.of(SUBPOP_GUID, cachedSubpop, otherGuid, loadedSubpop));
+        verify(cacheProvider).getObjects(ImmutableList.of(cachedKey, loadedKey), Subpopulation.class);
+        verify(subpopDao, never()).getSubpopulation(TEST_STUDY, SUBPOP_GUID);
+        verify(cacheProvider).setObjects(ImmutableMap.of(loadedKey, loadedSubpop), 0);
+    }
+
     @Test
     public void deleteSubpopulation() {
         service.deleteSubpopulation(TEST_STUDY, SUBPOP_GUID);
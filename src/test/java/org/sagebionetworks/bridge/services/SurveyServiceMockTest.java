@@ -37,6 +37,9 @@ import org.testng.annotations.Test;
 import org.sagebionetworks.bridge.BridgeUtils;
 import org.sagebionetworks.bridge.TestConstants;
 import org.sagebionetworks.bridge.TestUtils;
+import org.sagebionetworks.bridge.cache.CacheKey;
+import org.sagebionetworks.bridge.cache.CacheProvider;
+import org.sagebionetworks.bridge.cache.RevisionCache;
 import org.sagebionetworks.bridge.dao.SurveyDao;
 import org.sagebionetworks.bridge.dynamodb.DynamoSchedulePlan;
 import org.sagebionetworks.bridge.dynamodb.DynamoSurvey;
@@ -94,6 +97,9 @@ public class SurveyServiceMockTest {
     @Mock
     StudyService mockStudyService;
     
+    @Mock
+    CacheProvider mockCacheProvider;
+    
     @Captor
     ArgumentCaptor<GuidCreatedOnVersionHolder> keysCaptor;
     
@@ -126,6 +132,8 @@ public class SurveyServiceMockTest {
         service.setSchedulePlanService(mockSchedulePlanService);
         service.setSharedModuleMetadataService(mockSharedModuleMetadataService);
         service.setPublishValidator(mockSurveyPublishValidator);
+        service.setCacheProvider(mockCacheProvider);
+        service.setRevisionCache(new RevisionCache());
     }
 
     @Test
@@ -265,6 +273,8 @@ public class SurveyServiceMockTest {
         // execute and validate
         Survey retval = service.publishSurvey(TEST_STUDY, SURVEY_KEYS, true);
         assertSame(retval, survey);
+        
+        verify(mockCacheProvider).removeObject(CacheKey.resolvedAppConfigs(TEST_STUDY));
     }
     
     @Test(expectedExceptions = EntityNotFoundException.class)
@@ -374,6 +384,7 @@ public class SurveyServiceMockTest {
         
         service.deleteSurvey(TestConstants.TEST_STUDY, survey);
         verify(mockSurveyDao).deleteSurvey(survey);
+        verify(mockCacheProvider).removeObject(CacheKey.resolvedAppConfigs(TEST_STUDY));
     }
     
     @Test
@@ -622,6 +633,7 @@ public class SurveyServiceMockTest {
         
         verify(mockSurveyDao).updateSurvey(surveyCaptor.capture());
         assertFalse(surveyCaptor.getValue().isDeleted());
+        verify(mockCacheProvider).removeObject(CacheKey.resolvedAppConfigs(TEST_STUDY));
     }
     
     @Test
@@ -0,0 +1,162 @@
+package org.sagebionetworks.bridge.services;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.notNull;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import com.google.common.cache.LoadingCache;
+import com.google.common.io.ByteStreams;
+import org.apache.commons.io.output.ByteArrayOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.core.io.ClassPathResource;
+
+import org.sagebionetworks.bridge.crypto.BcCmsEncryptor;
+import org.sagebionetworks.bridge.crypto.CmsEncryptor;
+import org.sagebionetworks.bridge.crypto.PemUtils;
+
+/**
+ * Measures time and allocation for zipping, unzipping, encrypting, and decrypting in-memory uploads, compared with
+ * the way unzip and decrypt used to allocate a new buffer and output stream for every call and every entry. This
+ * isn't run as part of the unit tests. To run it, call main() from the test classpath. The GC profiler reports
+ * gc.alloc.rate.norm, the number of bytes allocated per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UploadArchiveServiceBenchmark {
+    private static final String STUDY_ID = "benchmark-study";
+    private static final int NUM_ENTRIES = 5;
+    private static final int LEGACY_TEMP_BUFFER_SIZE = 4096;
+
+    /** Size of each zip entry, in bytes. */
+    @Param({ "1024", "65536", "1048576" })
+    public int entrySize;
+
+    private UploadArchiveService archiveService;
+    private Map<String, byte[]> dataMap;
+    private byte[] zippedData;
+    private byte[] encryptedData;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setup() throws Exception {
+        File certFile = new ClassPathResource("/cms/rsacert.pem").getFile();
+        X509Certificate cert = PemUtils.loadCertificateFromPem(new String(Files.readAllBytes(certFile.toPath())));
+        File privateKeyFile = new ClassPathResource("/cms/rsaprivkey.pem").getFile();
+        PrivateKey privateKey = PemUtils.loadPrivateKeyFromPem(new String(Files.readAllBytes(
+                privateKeyFile.toPath())));
+        CmsEncryptor encryptor = new BcCmsEncryptor(cert, privateKey);
+
+        LoadingCache<String, CmsEncryptor> mockEncryptorCache = mock(LoadingCache.class);
+        when(mockEncryptorCache.get(notNull())).thenReturn(encryptor);
+
+        archiveService = new UploadArchiveService();
+        archiveService.setCmsEncryptorCache(mockEncryptorCache);
+        archiveService.setMaxNumZipEntries(NUM_ENTRIES);
+        archiveService.setMaxZipEntrySize(entrySize);
+
+        // Half random and half zeros, so the data compresses somewhat, like real uploads.
+        Random random = new Random(entrySize);
+        dataMap = new HashMap<>();
+        for (int i = 0; i < NUM_ENTRIES; i++) {
+            byte[] entryData = new byte[entrySize];
+            byte[] randomData = new byte[entrySize / 2];
+            random.nextBytes(randomData);
+            System.arraycopy(randomData, 0, entryData, 0, randomData.length);
+            dataMap.put("entry" + i, entryData);
+        }
+
+        zippedData = archiveService.zip(dataMap);
+        encryptedData = archiveService.encrypt(STUDY_ID, zippedData);
+    }
+
+    @Benchmark
+    public byte[] zip() {
+        return archiveService.zip(dataMap);
+    }
+
+    @Benchmark
+    public Map<String, byte[]> unzip() {
+        return archiveService.unzip(zippedData);
+    }
+
+    @Benchmark
+    public Map<String, byte[]> legacyUnzip() throws IOException {
+        return legacyUnzip(zippedData);
+    }
+
+    @Benchmark
+    public byte[] encrypt() {
+        return archiveService.encrypt(STUDY_ID, zippedData);
+    }
+
+    @Benchmark
+    public byte[] decrypt() {
+        return archiveService.decrypt(STUDY_ID, encryptedData);
+    }
+
+    @Benchmark
+    public byte[] legacyDecrypt() throws IOException {
+        try (InputStream byteArrayInputStream = new ByteArrayInputStream(encryptedData);
+                InputStream decryptedStream = archiveService.decrypt(STUDY_ID, byteArrayInputStream)) {
+            return ByteStreams.toByteArray(decryptedStream);
+        }
+    }
+
+    // Copy of UploadArchiveService.unzip(byte[]) before it used thread-local buffers, without the zip bomb checks.
+    private static Map<String, byte[]> legacyUnzip(byte[] bytes) throws IOException {
+        Map<String, byte[]> dataMap = new HashMap<>();
+        try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(bytes))) {
+            ZipEntry zipEntry = zis.getNextEntry();
+            while (zipEntry != null) {
+                try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream()) {
+                    byte[] tempBuffer = new byte[LEGACY_TEMP_BUFFER_SIZE];
+                    int bytesRead;
+                    while ((bytesRead = zis.read(tempBuffer, 0, LEGACY_TEMP_BUFFER_SIZE)) >= 0) {
+                        outputStream.write(tempBuffer, 0, bytesRead);
+                    }
+                    dataMap.put(zipEntry.getName(), outputStream.toByteArray());
+                }
+                zipEntry = zis.getNextEntry();
+            }
+        }
+        return dataMap;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder().include(UploadArchiveServiceBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class).build();
+        new Runner(options).run();
+    }
+}
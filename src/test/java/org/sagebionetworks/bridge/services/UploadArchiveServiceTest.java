@@ -5,6 +5,7 @@ import static org.mockito.Mockito.notNull;
 import static org.mockito.Mockito.when;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNotSame;
 import static org.testng.Assert.assertTrue;
 
 import java.io.ByteArrayInputStream;
@@ -162,4 +163,28 @@ public class UploadArchiveServiceTest {
             assertTrue(oneData.length > 0);
         }
     }
+
+    @Test
+    public void decryptSlice() {
+        // Surround the data with junk, so we can tell that only the slice is used.
+        byte[] paddedEncryptedData = new byte[encryptedData.length + 8];
+        System.arraycopy(encryptedData, 0, paddedEncryptedData, 5, encryptedData.length);
+        assertEquals(archiveService.decrypt("test-study", paddedEncryptedData, 5, encryptedData.length),
+                PLAIN_TEXT_DATA);
+    }
+
+    @Test
+    public void decryptReturnsNewArrayEachTime() {
+        // The decrypted data is collected in a reused buffer, but the returned arrays are never shared.
+        byte[] decryptedData1 = archiveService.decrypt("test-study", encryptedData);
+        byte[] decryptedData2 = archiveService.decrypt("test-study", encryptedData);
+        assertNotSame(decryptedData1, decryptedData2);
+        assertEquals(decryptedData1, PLAIN_TEXT_DATA);
+        assertEquals(decryptedData2, PLAIN_TEXT_DATA);
+    }
+
+    @Test(expectedExceptions = IndexOutOfBoundsException.class)
+    public void decryptSliceOutOfBounds() {
+        archiveService.decrypt("test-study", encryptedData, -1, 2);
+    }
 }
@@ -6,6 +6,7 @@ import static org.mockito.Mockito.anyString;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.sagebionetworks.bridge.services.SharedModuleMetadataServiceTest.makeValidMetadata;
@@ -29,6 +30,8 @@ import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import org.sagebionetworks.bridge.TestConstants;
+import org.sagebionetworks.bridge.cache.RevisionCache;
+import org.sagebionetworks.bridge.config.BridgeConfig;
 import org.sagebionetworks.bridge.dao.UploadSchemaDao;
 import org.sagebionetworks.bridge.exceptions.BadRequestException;
 import org.sagebionetworks.bridge.exceptions.ConcurrentModificationException;
@@ -69,6 +72,7 @@ public class UploadSchemaServiceTest {
         mockSharedModuleMetadataService = mock(SharedModuleMetadataService.class);
         svc = new UploadSchemaService();
         svc.setUploadSchemaDao(dao);
+        svc.setRevisionCache(new RevisionCache());
         svc.setSharedModuleMetadataService(mockSharedModuleMetadataService);
     }
 
@@ -639,6 +643,37 @@ public class UploadSchemaServiceTest {
         assertSame(svcOutputSchema, daoOutputSchema);
     }
 
+    @Test
+    public void getByIdAndRevIsCachedUntilDeleted() {
+        BridgeConfig config = mock(BridgeConfig.class);
+        when(config.getProperty("revision.cache.enabled")).thenReturn("true");
+        when(config.getPropertyAsInt("revision.cache.max.size")).thenReturn(10);
+        when(config.getPropertyAsInt("revision.cache.ttl.seconds")).thenReturn(60);
+        RevisionCache revisionCache = new RevisionCache();
+        revisionCache.setBridgeConfig(config);
+        svc.setRevisionCache(revisionCache);
+
+        UploadSchema daoOutputSchema = makeSimpleSchema();
+        daoOutputSchema.setRevision(SCHEMA_REV);
+        when(dao.getUploadSchemaByIdAndRevision(TestConstants.TEST_STUDY, SCHEMA_ID, SCHEMA_REV)).thenReturn(
+                daoOutputSchema);
+
+        // The second call is served from the cache, as a copy.
+        svc.getUploadSchemaByIdAndRev(TestConstants.TEST_STUDY, SCHEMA_ID, SCHEMA_REV);
+        UploadSchema svcOutputSchema = svc.getUploadSchemaByIdAndRev(TestConstants.TEST_STUDY, SCHEMA_ID, SCHEMA_REV);
+        assertEquals(svcOutputSchema.getSchemaId(), SCHEMA_ID);
+        assertEquals(svcOutputSchema.getRevision(), SCHEMA_REV);
+        assertEquals(svcOutputSchema.getFieldDefinitions(), FIELD_DEF_LIST);
+        verify(dao, times(1)).getUploadSchemaByIdAndRevision(TestConstants.TEST_STUDY, SCHEMA_ID, SCHEMA_REV);
+
+        // Deleting reads the persisted revision, then drops the cached one.
+        svc.deleteUploadSchemaByIdAndRevision(TestConstants.TEST_STUDY, SCHEMA_ID, SCHEMA_REV);
+        verify(dao, times(2)).getUploadSchemaByIdAndRevision(TestConstants.TEST_STUDY, SCHEMA_ID, SCHEMA_REV);
+
+        svc.getUploadSchemaByIdAndRev(TestConstants.TEST_STUDY, SCHEMA_ID, SCHEMA_REV);
+        verify(dao, times(3)).getUploadSchemaByIdAndRevision(TestConstants.TEST_STUDY, SCHEMA_ID, SCHEMA_REV);
+    }
+
     @Test
     public void getByIdAndRevNoThrowNull() {
         // mock dao to return null
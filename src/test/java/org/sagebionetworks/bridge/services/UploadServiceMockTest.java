@@ -3,6 +3,7 @@ package org.sagebionetworks.bridge.services;
 import static com.amazonaws.services.s3.Headers.SERVER_SIDE_ENCRYPTION;
 import static com.amazonaws.services.s3.model.ObjectMetadata.AES_256_SERVER_SIDE_ENCRYPTION;
 import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyBoolean;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.eq;
@@ -10,6 +11,7 @@ import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 import static org.sagebionetworks.bridge.BridgeConstants.API_DEFAULT_PAGE_SIZE;
 import static org.sagebionetworks.bridge.BridgeConstants.API_MAXIMUM_PAGE_SIZE;
@@ -35,6 +37,8 @@ import com.amazonaws.services.s3.model.GeneratePresignedUrlRequest;
 import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeUtils;
 import org.mockito.ArgumentCaptor;
@@ -69,6 +73,7 @@ import org.sagebionetworks.bridge.models.upload.UploadSession;
 import org.sagebionetworks.bridge.models.upload.UploadStatus;
 import org.sagebionetworks.bridge.models.upload.UploadValidationStatus;
 import org.sagebionetworks.bridge.models.upload.UploadView;
+import org.sagebionetworks.bridge.upload.UploadCompletionRegistry;
 import org.sagebionetworks.bridge.validators.UploadValidator;
 
 @SuppressWarnings("ConstantConditions")
@@ -125,11 +130,15 @@ public class UploadServiceMockTest {
     
     @InjectMocks
     UploadService svc;
+
+    UploadCompletionRegistry completionRegistry;
     
     @BeforeMethod
     public void before() {
         DateTimeUtils.setCurrentMillisFixed(TIMESTAMP.getMillis());
         MockitoAnnotations.initMocks(this);
+        completionRegistry = new UploadCompletionRegistry();
+        svc.setCompletionRegistry(completionRegistry);
         svc.setValidator(new UploadValidator());
         svc.setS3Client(mockS3Client);
         svc.setS3UploadClient(mockS3UploadClient);
@@ -143,6 +152,7 @@ public class UploadServiceMockTest {
     @AfterMethod
     public void after() {
         DateTimeUtils.setCurrentMillisSystem();
+        completionRegistry.stop();
     }
     
     @Test(expectedExceptions = BadRequestException.class)
@@ -300,8 +310,9 @@ public class UploadServiceMockTest {
         doReturn("schema-id").when(mockRecord).getSchemaId();
         doReturn(10).when(mockRecord).getSchemaRevision();
         doReturn(HealthDataRecord.ExporterStatus.SUCCEEDED).when(mockRecord).getSynapseExporterStatus();
-        // Mock UploadValidationStatus from health data record;
-        doReturn(mockRecord).when(mockHealthDataService).getRecordById("record-id");
+        // Records for a page of uploads are fetched in one batch. There's no record for missing-record-id.
+        doReturn(ImmutableMap.of("record-id", mockRecord)).when(mockHealthDataService).getRecordsById(
+                ImmutableSet.of("record-id", "missing-record-id"));
     }
     
     // Mock a successful and unsuccessful upload. The successful upload should call to get information 
@@ -338,8 +349,7 @@ public class UploadServiceMockTest {
     }
 
     private void validateUploadMocks(ForwardCursorPagedResourceList<UploadView> returned, String expectedOffsetKey) {
-        verify(mockHealthDataService).getRecordById("record-id");
-        verify(mockHealthDataService).getRecordById("missing-record-id");
+        verify(mockHealthDataService).getRecordsById(ImmutableSet.of("record-id", "missing-record-id"));
         verifyNoMoreInteractions(mockHealthDataService);
 
         List<? extends UploadView> uploadList = returned.getItems();
@@ -532,6 +542,20 @@ public class UploadServiceMockTest {
         ForwardCursorPagedResourceList<UploadView> result = svc.getUploads(HEALTH_CODE, null, null, null, null);
         assertEquals(result.getItems().size(), 1);
     }
+
+    @Test
+    public void getUploadsWithoutRecordsDoesNotFetchRecords() throws Exception {
+        UploadRequest uploadRequest = constructUploadRequest();
+        Upload upload = new DynamoUpload2(uploadRequest, HEALTH_CODE);
+        upload.setUploadId(ORIGINAL_UPLOAD_ID);
+
+        ForwardCursorPagedResourceList<Upload> uploads = new ForwardCursorPagedResourceList<>(ImmutableList.of(upload),
+                null);
+        when(mockUploadDao.getUploads(HEALTH_CODE, TIMESTAMP.minusDays(1), TIMESTAMP, API_DEFAULT_PAGE_SIZE, null)).thenReturn(uploads);
+
+        svc.getUploads(HEALTH_CODE, null, null, null, null);
+        verifyZeroInteractions(mockHealthDataService);
+    }
     
     @Test
     public void pollUploadValidationStatusWhenComplete() throws Exception {
@@ -584,7 +608,7 @@ public class UploadServiceMockTest {
         svc.uploadComplete(TEST_STUDY, S3_WORKER, upload, true);
         
         verify(mockUploadDao).uploadComplete(S3_WORKER, upload);
-        verify(mockUploadValidationService).validateUpload(TEST_STUDY, upload);
+        verify(mockUploadValidationService).validateUpload(TEST_STUDY, upload, false);
     }
     
     @Test
@@ -599,7 +623,7 @@ public class UploadServiceMockTest {
         
         verify(mockS3Client, never()).getObjectMetadata(any(), any());
         verify(mockUploadDao, never()).uploadComplete(any(), any());
-        verify(mockUploadValidationService, never()).validateUpload(any(), any());
+        verify(mockUploadValidationService, never()).validateUpload(any(), any(), anyBoolean());
     }
 
     @Test(expectedExceptions = BridgeServiceException.class)
@@ -643,7 +667,7 @@ public class UploadServiceMockTest {
         svc.uploadComplete(TEST_STUDY, S3_WORKER, upload, true);
         
         verify(mockUploadDao).uploadComplete(S3_WORKER, upload);
-        verify(mockUploadValidationService, never()).validateUpload(TEST_STUDY, upload);
+        verify(mockUploadValidationService, never()).validateUpload(TEST_STUDY, upload, false);
     }
     
     UploadRequest constructUploadRequest() throws Exception {
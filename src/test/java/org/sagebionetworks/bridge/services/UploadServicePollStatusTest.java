@@ -1,36 +1,59 @@
 package org.sagebionetworks.bridge.services;
 
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
 import static org.testng.Assert.fail;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
 import com.google.common.collect.ImmutableList;
 
+import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import org.sagebionetworks.bridge.config.BridgeConfig;
 import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
+import org.sagebionetworks.bridge.exceptions.NotFoundException;
 import org.sagebionetworks.bridge.models.upload.UploadStatus;
 import org.sagebionetworks.bridge.models.upload.UploadValidationStatus;
+import org.sagebionetworks.bridge.upload.UploadCompletionRegistry;
 
 public class UploadServicePollStatusTest {
     private static final String UPLOAD_ID = "test-upload";
 
+    private UploadCompletionRegistry completionRegistry;
     private UploadService svc;
 
     @BeforeMethod
     public void setup() {
         // Spy service, so we can mock a call to getValidationStatus() instead of tightly coupling to that logic.
         svc = spy(new UploadService());
+        completionRegistry = new UploadCompletionRegistry();
+        svc.setCompletionRegistry(completionRegistry);
 
         // Set sleep time to 10ms and max iterations to 2, so we don't have to wait that long.
         svc.setPollValidationStatusMaxIterations(2);
         svc.setPollValidationStatusSleepMillis(10);
     }
 
+    @AfterMethod
+    public void after() {
+        svc.stop();
+        completionRegistry.stop();
+    }
+
     @Test
     public void firstTry() {
         doReturn(makeValidationStatus(UploadStatus.SUCCEEDED)).when(svc).getUploadValidationStatus(UPLOAD_ID);
@@ -64,6 +87,74 @@ public class UploadServicePollStatusTest {
         verify(svc, times(2)).getUploadValidationStatus(UPLOAD_ID);
     }
 
+    @Test
+    public void completionWakesWaiterBeforePollInterval() throws Exception {
+        // Poll interval is long enough that the test would time out if it had to wait for it.
+        svc.setPollValidationStatusSleepMillis(60000);
+
+        UploadValidationStatus inProgressStatus = makeValidationStatus(UploadStatus.VALIDATION_IN_PROGRESS);
+        UploadValidationStatus succeededStatus = makeValidationStatus(UploadStatus.SUCCEEDED);
+        doReturn(inProgressStatus).doReturn(succeededStatus).when(svc).getUploadValidationStatus(UPLOAD_ID);
+
+        // No thread is held while waiting.
+        CompletableFuture<UploadValidationStatus> future = svc.getUploadValidationStatusWhenComplete(UPLOAD_ID);
+        assertFalse(future.isDone());
+
+        completionRegistry.complete(UPLOAD_ID);
+        UploadValidationStatus validationStatus = future.get(5, TimeUnit.SECONDS);
+        assertEquals(validationStatus.getStatus(), UploadStatus.SUCCEEDED);
+        verify(svc, times(2)).getUploadValidationStatus(UPLOAD_ID);
+    }
+
+    @Test
+    public void statusIsReadAgainOnStatusPool() throws Exception {
+        BridgeConfig mockConfig = mock(BridgeConfig.class);
+        when(mockConfig.getList(UploadService.CONFIG_KEY_UPLOAD_DUPE_STUDY_WHITELIST)).thenReturn(ImmutableList.of());
+        when(mockConfig.getPropertyAsInt(UploadService.CONFIG_KEY_STATUS_THREAD_COUNT)).thenReturn(1);
+        when(mockConfig.getPropertyAsInt(UploadService.CONFIG_KEY_STATUS_MAX_QUEUED)).thenReturn(10);
+        svc.setConfig(mockConfig);
+        svc.start();
+        svc.setPollValidationStatusSleepMillis(60000);
+
+        // The first read happens in the calling thread. Record the thread of the second read.
+        AtomicReference<String> secondReadThreadName = new AtomicReference<>();
+        UploadValidationStatus inProgressStatus = makeValidationStatus(UploadStatus.VALIDATION_IN_PROGRESS);
+        UploadValidationStatus succeededStatus = makeValidationStatus(UploadStatus.SUCCEEDED);
+        doReturn(inProgressStatus).doAnswer(invocation -> {
+            secondReadThreadName.set(Thread.currentThread().getName());
+            return succeededStatus;
+        }).when(svc).getUploadValidationStatus(UPLOAD_ID);
+
+        CompletableFuture<UploadValidationStatus> future = svc.getUploadValidationStatusWhenComplete(UPLOAD_ID);
+        completionRegistry.complete(UPLOAD_ID);
+        assertEquals(future.get(5, TimeUnit.SECONDS).getStatus(), UploadStatus.SUCCEEDED);
+        assertTrue(secondReadThreadName.get().startsWith("upload-status-"));
+    }
+
+    @Test
+    public void asyncTimeout() throws Exception {
+        doReturn(makeValidationStatus(UploadStatus.VALIDATION_IN_PROGRESS)).when(svc).getUploadValidationStatus(
+                UPLOAD_ID);
+
+        try {
+            svc.getUploadValidationStatusWhenComplete(UPLOAD_ID).get(5, TimeUnit.SECONDS);
+            fail("expected exception");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof BridgeServiceException);
+        }
+    }
+
+    @Test
+    public void errorGettingStatus() {
+        doThrow(NotFoundException.class).when(svc).getUploadValidationStatus(UPLOAD_ID);
+        try {
+            svc.pollUploadValidationStatusUntilComplete(UPLOAD_ID);
+            fail("expected exception");
+        } catch (NotFoundException ex) {
+            // expected exception
+        }
+    }
+
     private UploadValidationStatus makeValidationStatus(UploadStatus uploadStatus) {
         return new UploadValidationStatus.Builder().withId(UPLOAD_ID).withMessageList(ImmutableList.of())
                 .withStatus(uploadStatus).build();
@@ -1,6 +1,7 @@
 package org.sagebionetworks.bridge.services;
 
 import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyBoolean;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
@@ -175,7 +176,8 @@ public class UploadServiceUploadCompleteMockTest {
         svc.uploadComplete(TestConstants.TEST_STUDY, APP, upload, false);
 
         // Verify upload DAO and validation.
-        verify(mockUploadValidationService, never()).validateUpload(any(StudyIdentifier.class), any(Upload.class));
+        verify(mockUploadValidationService, never()).validateUpload(any(StudyIdentifier.class), any(Upload.class),
+                anyBoolean());
     }
 
     @Test
@@ -195,7 +197,7 @@ public class UploadServiceUploadCompleteMockTest {
 
         // Verify upload DAO and validation.
         verify(mockUploadDao).uploadComplete(APP, upload);
-        verify(mockUploadValidationService).validateUpload(TestConstants.TEST_STUDY, upload);
+        verify(mockUploadValidationService).validateUpload(TestConstants.TEST_STUDY, upload, false);
     }
 
     @Test
@@ -215,6 +217,25 @@ public class UploadServiceUploadCompleteMockTest {
 
         // Verify upload DAO and validation.
         verify(mockUploadDao).uploadComplete(APP, upload);
-        verify(mockUploadValidationService).validateUpload(TestConstants.TEST_STUDY, upload);
+        verify(mockUploadValidationService).validateUpload(TestConstants.TEST_STUDY, upload, false);
+    }
+
+    @Test
+    public void synchronous() {
+        DynamoUpload2 upload = new DynamoUpload2();
+        upload.setUploadId(TEST_UPLOAD_ID);
+        upload.setStatus(UploadStatus.REQUESTED);
+
+        // mock S3
+        ObjectMetadata mockObjMetadata = mock(ObjectMetadata.class);
+        when(mockObjMetadata.getSSEAlgorithm()).thenReturn(ObjectMetadata.AES_256_SERVER_SIDE_ENCRYPTION);
+        when(mockS3Client.getObjectMetadata(TEST_BUCKET, TEST_UPLOAD_ID)).thenReturn(mockObjMetadata);
+
+        // execute
+        svc.uploadComplete(TestConstants.TEST_STUDY, APP, upload, false, true);
+
+        // Validation is submitted as synchronous, so it goes ahead of asynchronous uploads.
+        verify(mockUploadDao).uploadComplete(APP, upload);
+        verify(mockUploadValidationService).validateUpload(TestConstants.TEST_STUDY, upload, true);
     }
 }
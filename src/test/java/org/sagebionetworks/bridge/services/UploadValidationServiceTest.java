@@ -4,21 +4,20 @@ import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
-import java.util.concurrent.ExecutorService;
-
 import org.testng.annotations.Test;
 
 import org.sagebionetworks.bridge.TestUtils;
 import org.sagebionetworks.bridge.dynamodb.DynamoUpload2;
 import org.sagebionetworks.bridge.models.studies.Study;
 import org.sagebionetworks.bridge.models.upload.Upload;
+import org.sagebionetworks.bridge.upload.UploadValidationScheduler;
 import org.sagebionetworks.bridge.upload.UploadValidationTask;
 import org.sagebionetworks.bridge.upload.UploadValidationTaskFactory;
 
 public class UploadValidationServiceTest {
     @Test
     public void test() {
-        // UploadValidationService is a simple call-through to the task factory and the async thread pool. As such, our
+        // UploadValidationService is a simple call-through to the task factory and the scheduler. As such, our
         // test strategy is to verify that execution flows through to these dependencies.
 
         // inputs
@@ -32,18 +31,18 @@ public class UploadValidationServiceTest {
         UploadValidationTaskFactory mockTaskFactory = mock(UploadValidationTaskFactory.class);
         when(mockTaskFactory.newTask(study, upload)).thenReturn(mockTask);
 
-        // mock async thread pool
-        ExecutorService mockExecutor = mock(ExecutorService.class);
+        // mock scheduler
+        UploadValidationScheduler mockScheduler = mock(UploadValidationScheduler.class);
 
         // set up service
         UploadValidationService svc = new UploadValidationService();
-        svc.setAsyncExecutorService(mockExecutor);
+        svc.setScheduler(mockScheduler);
         svc.setTaskFactory(mockTaskFactory);
 
         // execute
-        svc.validateUpload(study, upload);
+        svc.validateUpload(study, upload, true);
 
         // validate
-        verify(mockExecutor).execute(mockTask);
+        verify(mockScheduler).submit(study, mockTask, true);
     }
 }
@@ -22,6 +22,7 @@ import com.fasterxml.jackson.databind.node.TextNode;
 import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import org.mockito.ArgumentCaptor;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
@@ -65,8 +66,8 @@ public class GenericUploadFormatHandlerTest {
 
         // Mock dependencies
         mockUploadFileHelper = mock(UploadFileHelper.class);
-        when(mockUploadFileHelper.findValueForField(any(), any(), any(), any())).thenReturn(TextNode.valueOf(
-                ATTACHMENT_ID));
+        when(mockUploadFileHelper.findValueForField(any(), any(), any(), any(), any(), any())).thenReturn(
+                TextNode.valueOf(ATTACHMENT_ID));
 
         mockSchemaService = mock(UploadSchemaService.class);
 
@@ -107,7 +108,7 @@ public class GenericUploadFormatHandlerTest {
 
         ArgumentCaptor<Map> sanitizedFileMapCaptor = ArgumentCaptor.forClass(Map.class);
         verify(mockUploadFileHelper).findValueForField(eq(UPLOAD_ID), sanitizedFileMapCaptor.capture(),
-                eq(sanitizeAttachmentTxtField), any());
+                eq(sanitizeAttachmentTxtField), eq(ImmutableSet.of("sanitize____attachment.txt")), any(), any());
 
         Map<String, File> sanitizedFileMap = sanitizedFileMapCaptor.getValue();
         assertEquals(sanitizedFileMap.size(), 1);
@@ -129,7 +130,7 @@ public class GenericUploadFormatHandlerTest {
         mockSchemaServiceWithFields(fooField, barField, sanitizeAttachmentTxtField);
 
         // Mock UploadFileHelper for the datafile-specific attachment.
-        when(mockUploadFileHelper.uploadJsonNodeAsAttachment(any(), any(), any())).thenReturn(TextNode.valueOf(
+        when(mockUploadFileHelper.uploadJsonNodeAsAttachment(any(), any(), any(), any())).thenReturn(TextNode.valueOf(
                 "data-file-attachment-id"));
 
         // Setup inputs.
@@ -161,12 +162,12 @@ public class GenericUploadFormatHandlerTest {
         assertEquals(dataMap.get("sanitize____attachment.txt").textValue(), ATTACHMENT_ID);
 
         // Verify calls to UploadFileHelper.
-        verify(mockUploadFileHelper).uploadJsonNodeAsAttachment(TextNode.valueOf("bar is an attachment"), UPLOAD_ID,
-                "bar");
+        verify(mockUploadFileHelper).uploadJsonNodeAsAttachment(eq(TextNode.valueOf("bar is an attachment")),
+                eq(UPLOAD_ID), eq("bar"), any());
 
         ArgumentCaptor<Map> sanitizedFileMapCaptor = ArgumentCaptor.forClass(Map.class);
         verify(mockUploadFileHelper).findValueForField(eq(UPLOAD_ID), sanitizedFileMapCaptor.capture(),
-                eq(sanitizeAttachmentTxtField), any());
+                eq(sanitizeAttachmentTxtField), any(), any(), any());
 
         Map<String, File> sanitizedFileMap = sanitizedFileMapCaptor.getValue();
         assertEquals(sanitizedFileMap.size(), 2);
@@ -190,7 +191,7 @@ public class GenericUploadFormatHandlerTest {
         mockSchemaServiceWithFields(fooFieldDef, barFieldDef);
 
         // Upload file helper should just return null for this test.
-        when(mockUploadFileHelper.findValueForField(any(), any(), any(), any())).thenReturn(null);
+        when(mockUploadFileHelper.findValueForField(any(), any(), any(), any(), any(), any())).thenReturn(null);
 
         // Setup inputs.
         String recordJsonText = "{\n" +
@@ -215,8 +216,8 @@ public class GenericUploadFormatHandlerTest {
         assertEquals(dataMap.size(), 0);
 
         // Since we skipped the data file (too large), we asked the file helper (which didn't find any results).
-        verify(mockUploadFileHelper).findValueForField(eq(UPLOAD_ID), any(), eq(fooFieldDef), any());
-        verify(mockUploadFileHelper).findValueForField(eq(UPLOAD_ID), any(), eq(barFieldDef), any());
+        verify(mockUploadFileHelper).findValueForField(eq(UPLOAD_ID), any(), eq(fooFieldDef), any(), any(), any());
+        verify(mockUploadFileHelper).findValueForField(eq(UPLOAD_ID), any(), eq(barFieldDef), any(), any(), any());
 
         // We don't call mockUploadFileHelper for any other field.
         verifyNoMoreInteractions(mockUploadFileHelper);
@@ -228,8 +229,8 @@ public class GenericUploadFormatHandlerTest {
         mockSchemaServiceWithFields(UploadUtil.ANSWERS_FIELD_DEF);
 
         // Mock dependencies.
-        when(mockUploadFileHelper.findValueForField(any(), any(), any(), any())).thenReturn(null);
-        when(mockUploadFileHelper.uploadJsonNodeAsAttachment(any(), any(), any())).thenReturn(TextNode.valueOf(
+        when(mockUploadFileHelper.findValueForField(any(), any(), any(), any(), any(), any())).thenReturn(null);
+        when(mockUploadFileHelper.uploadJsonNodeAsAttachment(any(), any(), any(), any())).thenReturn(TextNode.valueOf(
                 "answers-attachment-id"));
 
         // Setup inputs.
@@ -256,7 +257,7 @@ public class GenericUploadFormatHandlerTest {
         // Verify answers attachment.
         ArgumentCaptor<JsonNode> answersNodeCaptor = ArgumentCaptor.forClass(JsonNode.class);
         verify(mockUploadFileHelper).uploadJsonNodeAsAttachment(answersNodeCaptor.capture(), eq(UPLOAD_ID),
-                eq(UploadUtil.FIELD_ANSWERS));
+                eq(UploadUtil.FIELD_ANSWERS), any());
 
         JsonNode answersNode = answersNodeCaptor.getValue();
         assertEquals(answersNode.size(), 2);
@@ -272,7 +273,7 @@ public class GenericUploadFormatHandlerTest {
         mockSchemaServiceWithFields(answersStringFieldDef);
 
         // Mock dependencies.
-        when(mockUploadFileHelper.findValueForField(any(), any(), any(), any())).thenReturn(null);
+        when(mockUploadFileHelper.findValueForField(any(), any(), any(), any(), any(), any())).thenReturn(null);
 
         // Setup inputs.
         String recordJsonText = "{\n" +
@@ -300,7 +301,7 @@ public class GenericUploadFormatHandlerTest {
         assertEquals(answersNode.get("bar").textValue(), "bar-value");
 
         // We don't upload anything.
-        verify(mockUploadFileHelper, never()).uploadJsonNodeAsAttachment(any(), any(), any());
+        verify(mockUploadFileHelper, never()).uploadJsonNodeAsAttachment(any(), any(), any(), any());
     }
 
     @Test
@@ -309,7 +310,7 @@ public class GenericUploadFormatHandlerTest {
         mockSchemaServiceWithFields(UploadUtil.ANSWERS_FIELD_DEF);
 
         // Mock dependencies.
-        when(mockUploadFileHelper.findValueForField(any(), any(), any(), any())).thenReturn(null);
+        when(mockUploadFileHelper.findValueForField(any(), any(), any(), any(), any(), any())).thenReturn(null);
 
         // Setup inputs.
         UploadValidationContext context = makeContextWithContent(ImmutableMap.of());
@@ -324,7 +325,7 @@ public class GenericUploadFormatHandlerTest {
         assertEquals(dataMap.size(), 0);
 
         // We don't upload anything.
-        verify(mockUploadFileHelper, never()).uploadJsonNodeAsAttachment(any(), any(), any());
+        verify(mockUploadFileHelper, never()).uploadJsonNodeAsAttachment(any(), any(), any(), any());
     }
 
     @Test
@@ -333,7 +334,7 @@ public class GenericUploadFormatHandlerTest {
         mockSchemaServiceWithFields(UploadUtil.ANSWERS_FIELD_DEF);
 
         // Mock dependencies.
-        when(mockUploadFileHelper.uploadJsonNodeAsAttachment(any(), any(), any())).thenReturn(TextNode.valueOf(
+        when(mockUploadFileHelper.uploadJsonNodeAsAttachment(any(), any(), any(), any())).thenReturn(TextNode.valueOf(
                 "answers-attachment-id"));
 
         // Setup inputs.
@@ -364,7 +365,7 @@ public class GenericUploadFormatHandlerTest {
         // Verify answers attachment.
         ArgumentCaptor<JsonNode> answersNodeCaptor = ArgumentCaptor.forClass(JsonNode.class);
         verify(mockUploadFileHelper).uploadJsonNodeAsAttachment(answersNodeCaptor.capture(), eq(UPLOAD_ID),
-                eq(UploadUtil.FIELD_ANSWERS));
+                eq(UploadUtil.FIELD_ANSWERS), any());
 
         JsonNode answersNode = answersNodeCaptor.getValue();
         assertEquals(answersNode.size(), 2);
@@ -408,7 +409,7 @@ public class GenericUploadFormatHandlerTest {
         // Verify call to findValueForField. This passes in both "answers" and "record.json".
         ArgumentCaptor<Map> sanitizedFileMapCaptor = ArgumentCaptor.forClass(Map.class);
         verify(mockUploadFileHelper).findValueForField(eq(UPLOAD_ID), sanitizedFileMapCaptor.capture(),
-                eq(UploadUtil.ANSWERS_FIELD_DEF), any());
+                eq(UploadUtil.ANSWERS_FIELD_DEF), any(), any(), any());
 
         Map<String, File> sanitizedFileMap = sanitizedFileMapCaptor.getValue();
         assertEquals(sanitizedFileMap.size(), 2);
@@ -416,7 +417,7 @@ public class GenericUploadFormatHandlerTest {
         assertSame(sanitizedFileMap.get("record.json"), recordJsonFile);
 
         // We don't upload anything.
-        verify(mockUploadFileHelper, never()).uploadJsonNodeAsAttachment(any(), any(), any());
+        verify(mockUploadFileHelper, never()).uploadJsonNodeAsAttachment(any(), any(), any(), any());
     }
 
     @Test
@@ -4,20 +4,44 @@ import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.notNull;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.nio.file.Files;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.Map;
 
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.S3Object;
 import com.google.common.base.Charsets;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableMap;
 
+import org.springframework.core.io.ClassPathResource;
 import org.testng.annotations.Test;
 
 import org.sagebionetworks.bridge.TestConstants;
+import org.sagebionetworks.bridge.crypto.BcCmsEncryptor;
+import org.sagebionetworks.bridge.crypto.CmsEncryptor;
+import org.sagebionetworks.bridge.crypto.PemUtils;
 import org.sagebionetworks.bridge.dynamodb.DynamoUpload2;
+import org.sagebionetworks.bridge.exceptions.BadRequestException;
 import org.sagebionetworks.bridge.file.InMemoryFileHelper;
 import org.sagebionetworks.bridge.s3.S3Helper;
+import org.sagebionetworks.bridge.services.UploadArchiveService;
 
+@SuppressWarnings("unchecked")
 public class S3DownloadHandlerTest {
+    private static final Map<String, byte[]> ZIP_ENTRIES = ImmutableMap.of(
+            "info.json", "{\"item\":\"test\"}".getBytes(Charsets.UTF_8),
+            "foo.json", "{\"foo\":\"foo data\"}".getBytes(Charsets.UTF_8));
+
     @Test
     public void test() throws Exception {
         // The handler is a simple pass-through to the S3Helper, so just test that execution flows through
@@ -53,4 +77,99 @@ public class S3DownloadHandlerTest {
         byte[] dataFileContent = inMemoryFileHelper.getBytes(ctx.getDataFile());
         assertEquals(new String(dataFileContent, Charsets.UTF_8), "test data");
     }
+
+    @Test
+    public void streaming() throws Exception {
+        UploadArchiveService archiveService = makeArchiveService(1000);
+        byte[] zipped = archiveService.zip(ZIP_ENTRIES);
+        byte[] encrypted = archiveService.encrypt(TestConstants.TEST_STUDY_IDENTIFIER, zipped);
+
+        InMemoryFileHelper inMemoryFileHelper = new InMemoryFileHelper();
+        UploadValidationContext ctx = makeContext(inMemoryFileHelper);
+        S3Helper mockS3Helper = mock(S3Helper.class);
+        S3DownloadHandler handler = makeStreamingHandler(inMemoryFileHelper, mockS3Helper, archiveService,
+                encrypted);
+
+        handler.handle(ctx);
+
+        // The encrypted upload is never written, and the decrypted zip is kept whole for the raw data attachment.
+        verifyZeroInteractions(mockS3Helper);
+        assertNull(ctx.getDataFile());
+        assertEquals(inMemoryFileHelper.getBytes(ctx.getDecryptedDataFile()), zipped);
+
+        Map<String, File> unzippedDataFileMap = ctx.getUnzippedDataFileMap();
+        assertEquals(unzippedDataFileMap.keySet(), ZIP_ENTRIES.keySet());
+        for (Map.Entry<String, byte[]> oneEntry : ZIP_ENTRIES.entrySet()) {
+            assertEquals(inMemoryFileHelper.getBytes(unzippedDataFileMap.get(oneEntry.getKey())),
+                    oneEntry.getValue());
+        }
+
+        // The decrypt and unzip handlers have nothing left to do.
+        DecryptHandler decryptHandler = new DecryptHandler();
+        decryptHandler.setFileHelper(inMemoryFileHelper);
+        decryptHandler.handle(ctx);
+
+        UnzipHandler unzipHandler = new UnzipHandler();
+        unzipHandler.setFileHelper(inMemoryFileHelper);
+        unzipHandler.handle(ctx);
+        assertEquals(ctx.getUnzippedDataFileMap(), unzippedDataFileMap);
+    }
+
+    @Test(expectedExceptions = BadRequestException.class)
+    public void streamingEnforcesZipEntryLimits() throws Exception {
+        // Entries are bigger than the max entry size.
+        UploadArchiveService archiveService = makeArchiveService(5);
+        byte[] encrypted = archiveService.encrypt(TestConstants.TEST_STUDY_IDENTIFIER,
+                archiveService.zip(ZIP_ENTRIES));
+
+        InMemoryFileHelper inMemoryFileHelper = new InMemoryFileHelper();
+        S3DownloadHandler handler = makeStreamingHandler(inMemoryFileHelper, mock(S3Helper.class), archiveService,
+                encrypted);
+        handler.handle(makeContext(inMemoryFileHelper));
+    }
+
+    private static UploadValidationContext makeContext(InMemoryFileHelper inMemoryFileHelper) {
+        DynamoUpload2 upload2 = new DynamoUpload2();
+        upload2.setUploadId("test-upload-id");
+
+        UploadValidationContext ctx = new UploadValidationContext();
+        ctx.setStudy(TestConstants.TEST_STUDY);
+        ctx.setUpload(upload2);
+        ctx.setTempDir(inMemoryFileHelper.createTempDir());
+        return ctx;
+    }
+
+    private static S3DownloadHandler makeStreamingHandler(InMemoryFileHelper inMemoryFileHelper,
+            S3Helper mockS3Helper, UploadArchiveService archiveService, byte[] encrypted) {
+        S3Object s3Object = new S3Object();
+        s3Object.setObjectContent(new ByteArrayInputStream(encrypted));
+        AmazonS3 mockS3Client = mock(AmazonS3.class);
+        when(mockS3Client.getObject(TestConstants.UPLOAD_BUCKET, "test-upload-id")).thenReturn(s3Object);
+
+        S3DownloadHandler handler = new S3DownloadHandler();
+        handler.setFileHelper(inMemoryFileHelper);
+        handler.setS3Client(mockS3Client);
+        handler.setS3Helper(mockS3Helper);
+        handler.setStreamingEnabled(true);
+        handler.setUploadArchiveService(archiveService);
+        return handler;
+    }
+
+    private static UploadArchiveService makeArchiveService(int maxZipEntrySize) throws Exception {
+        File certFile = new ClassPathResource("/cms/rsacert.pem").getFile();
+        X509Certificate cert = PemUtils.loadCertificateFromPem(new String(Files.readAllBytes(certFile.toPath())));
+        File privateKeyFile = new ClassPathResource("/cms/rsaprivkey.pem").getFile();
+        PrivateKey privateKey = PemUtils.loadPrivateKeyFromPem(new String(Files.readAllBytes(
+                privateKeyFile.toPath())));
+        CmsEncryptor encryptor = new BcCmsEncryptor(cert, privateKey);
+
+        LoadingCache<String, CmsEncryptor> mockEncryptorCache = mock(LoadingCache.class);
+        when(mockEncryptorCache.get(notNull())).thenReturn(encryptor);
+
+        UploadArchiveService archiveService = new UploadArchiveService();
+        archiveService.setCmsEncryptorCache(mockEncryptorCache);
+        archiveService.setMaxNumZipEntries(100);
+        archiveService.setMaxZipEntrySize(maxZipEntrySize);
+        return archiveService;
+    }
 }
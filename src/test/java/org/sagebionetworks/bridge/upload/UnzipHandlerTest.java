@@ -3,7 +3,9 @@ package org.sagebionetworks.bridge.upload;
 import static org.testng.Assert.assertEquals;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.verify;
 
 import java.io.File;
@@ -19,6 +21,7 @@ import com.google.common.io.ByteStreams;
 import org.mockito.ArgumentCaptor;
 import org.testng.annotations.Test;
 
+import org.sagebionetworks.bridge.file.FileHelper;
 import org.sagebionetworks.bridge.file.InMemoryFileHelper;
 import org.sagebionetworks.bridge.services.UploadArchiveService;
 
@@ -90,4 +93,47 @@ public class UnzipHandlerTest {
         byte[] zippedFileInputStreamContent = ByteStreams.toByteArray(zippedFileInputStream);
         assertEquals(zippedFileInputStreamContent, ZIPPED_FILE_DUMMY_CONTENT);
     }
+
+    @Test
+    public void parallelUnzip() throws Exception {
+        // Parallel unzip reads the zip file directly, so it needs a real file.
+        FileHelper fileHelper = new FileHelper();
+        File tmpDir = fileHelper.createTempDir();
+        try {
+            Map<String, byte[]> unzippedDataMap = ImmutableMap.of(
+                    "foo", "foo data".getBytes(Charsets.UTF_8),
+                    "bar", "bar data".getBytes(Charsets.UTF_8),
+                    "baz", "baz data".getBytes(Charsets.UTF_8));
+
+            UploadArchiveService svc = new UploadArchiveService();
+            svc.setMaxNumZipEntries(100);
+            svc.setMaxZipEntrySize(1000000);
+
+            File zippedDataFile = fileHelper.newFile(tmpDir, ZIPPED_FILE_NAME);
+            fileHelper.writeBytes(zippedDataFile, svc.zip(unzippedDataMap));
+
+            UploadValidationContext ctx = new UploadValidationContext();
+            ctx.setTempDir(tmpDir);
+            ctx.setDecryptedDataFile(zippedDataFile);
+
+            UploadArchiveService spySvc = spy(svc);
+            UnzipHandler handler = new UnzipHandler();
+            handler.setFileHelper(fileHelper);
+            handler.setParallelUnzipEnabled(true);
+            handler.setUploadArchiveService(spySvc);
+
+            // execute and validate
+            handler.handle(ctx);
+            Map<String, File> unzippedFileMap = ctx.getUnzippedDataFileMap();
+            assertEquals(unzippedFileMap.size(), unzippedDataMap.size());
+            for (String oneUnzippedFileName : unzippedDataMap.keySet()) {
+                File unzippedFile = unzippedFileMap.get(oneUnzippedFileName);
+                assertEquals(fileHelper.getBytes(unzippedFile), unzippedDataMap.get(oneUnzippedFileName));
+            }
+
+            verify(spySvc).unzipFile(eq(zippedDataFile), any(), any());
+        } finally {
+            fileHelper.deleteDirRecursively(tmpDir);
+        }
+    }
 }
@@ -3,18 +3,36 @@ package org.sagebionetworks.bridge.upload;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertNotNull;
 import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.io.ByteStreams;
+import org.apache.commons.io.output.ByteArrayOutputStream;
 
+import org.testng.annotations.AfterClass;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
 import org.sagebionetworks.bridge.exceptions.BadRequestException;
+import org.sagebionetworks.bridge.exceptions.BridgeServiceException;
 import org.sagebionetworks.bridge.services.UploadArchiveService;
 
 public class UploadArchiveServiceZipTest {
@@ -24,6 +42,8 @@ public class UploadArchiveServiceZipTest {
 
     private static UploadArchiveService uploadArchiveService;
     private static byte[] zippedData;
+    private static ExecutorService unzipExecutor;
+    private static List<File> tempFileList = new ArrayList<>();
 
     @BeforeClass
     public static void beforeClass() {
@@ -32,10 +52,22 @@ public class UploadArchiveServiceZipTest {
         uploadArchiveService.setMaxZipEntrySize(1000000);
         uploadArchiveService.setMaxNumZipEntries(1000000);
 
+        // Unzip files on a real pool, so entries are inflated in parallel.
+        unzipExecutor = Executors.newFixedThreadPool(2);
+        uploadArchiveService.setUnzipExecutor(unzipExecutor);
+
         // Zip some data, so our tests have something to work with.
         zippedData = uploadArchiveService.zip(UNZIPPED_FILE_MAP);
     }
 
+    @AfterClass
+    public static void afterClass() {
+        unzipExecutor.shutdown();
+        for (File oneTempFile : tempFileList) {
+            oneTempFile.delete();
+        }
+    }
+
     @Test
     public void zipSuccess() {
         assertNotNull(zippedData);
@@ -58,6 +90,35 @@ public class UploadArchiveServiceZipTest {
         }
     }
 
+    @Test
+    public void unzipBytesSlice() {
+        byte[] paddedZippedData = new byte[zippedData.length + 10];
+        System.arraycopy(zippedData, 0, paddedZippedData, 4, zippedData.length);
+        Map<String, byte[]> result = uploadArchiveService.unzip(paddedZippedData, 4, zippedData.length);
+
+        assertEquals(result.size(), UNZIPPED_FILE_MAP.size());
+        for (String oneUnzippedFileName : UNZIPPED_FILE_MAP.keySet()) {
+            assertEquals(result.get(oneUnzippedFileName), UNZIPPED_FILE_MAP.get(oneUnzippedFileName));
+        }
+    }
+
+    @Test(expectedExceptions = IndexOutOfBoundsException.class)
+    public void unzipBytesSliceOutOfBounds() {
+        uploadArchiveService.unzip(zippedData, 1, zippedData.length);
+    }
+
+    @Test
+    public void unzipBytesAfterFailure() {
+        // A failed unzip gives back this thread's buffer, so the next unzip still works.
+        try {
+            uploadArchiveService.unzip(makeDuplicateEntryZip());
+            fail("expected exception");
+        } catch (BadRequestException ex) {
+            // expected exception
+        }
+        assertEquals(uploadArchiveService.unzip(zippedData).size(), UNZIPPED_FILE_MAP.size());
+    }
+
     // There was originally a test here for unzipping garbage data. However, it looks like Java
     // ZipInputStream.getNextEntry() will just return null if the stream contains garbage data.
 
@@ -116,4 +177,163 @@ public class UploadArchiveServiceZipTest {
                     null);
         }
     }
+
+    @Test
+    public void duplicateZipEntries() {
+        try {
+            uploadArchiveService.unzip(makeDuplicateEntryZip());
+            fail("expected exception");
+        } catch (BadRequestException ex) {
+            assertTrue(ex.getMessage().contains("Duplicate filename aaa"), ex.getMessage());
+        }
+    }
+
+    @Test
+    public void unzipFileSuccess() throws Exception {
+        Map<String, byte[]> result = unzipFile(uploadArchiveService, writeTempFile(zippedData));
+
+        // Need to check each entry in the map, since byte[].equals() doesn't do what you expect.
+        assertEquals(result.size(), UNZIPPED_FILE_MAP.size());
+        for (String oneUnzippedFileName : UNZIPPED_FILE_MAP.keySet()) {
+            assertEquals(result.get(oneUnzippedFileName), UNZIPPED_FILE_MAP.get(oneUnzippedFileName));
+        }
+    }
+
+    @Test(expectedExceptions = BridgeServiceException.class)
+    public void unzipFileGarbage() throws Exception {
+        unzipFile(uploadArchiveService, writeTempFile("not a zip file".getBytes(Charsets.UTF_8)));
+    }
+
+    @Test(expectedExceptions = BadRequestException.class)
+    public void unzipFileTooManyZipEntries() throws Exception {
+        UploadArchiveService testSvc = new UploadArchiveService();
+        testSvc.setMaxNumZipEntries(2);
+        testSvc.setMaxZipEntrySize(1000000);
+
+        // Execute - will throw
+        unzipFile(testSvc, writeTempFile(zippedData));
+    }
+
+    @Test
+    public void unzipFileZipEntryTooBig() throws Exception {
+        UploadArchiveService testSvc = new UploadArchiveService();
+        testSvc.setMaxNumZipEntries(1000000);
+        testSvc.setMaxZipEntrySize(6);
+
+        // Declared sizes are checked before anything is unzipped.
+        List<String> openedEntryList = new ArrayList<>();
+        try {
+            testSvc.unzipFile(writeTempFile(zippedData), entryName -> {
+                openedEntryList.add(entryName);
+                return ByteStreams.nullOutputStream();
+            }, (entryName, outputStream) -> {});
+            fail("expected exception");
+        } catch (BadRequestException ex) {
+            // expected exception
+        }
+        assertTrue(openedEntryList.isEmpty());
+    }
+
+    @Test
+    public void unzipFileDuplicateZipEntries() throws Exception {
+        try {
+            unzipFile(uploadArchiveService, writeTempFile(makeDuplicateEntryZip()));
+            fail("expected exception");
+        } catch (BadRequestException ex) {
+            assertTrue(ex.getMessage().contains("Duplicate filename aaa"), ex.getMessage());
+        }
+    }
+
+    @Test
+    public void unzipFileOpensStreamsPerEntry() throws Exception {
+        // Streams are opened as entries start, so no more are open at once than there are unzip threads.
+        AtomicInteger openCount = new AtomicInteger();
+        AtomicInteger maxOpenCount = new AtomicInteger();
+        Map<String, byte[]> dataMap = new HashMap<>();
+        uploadArchiveService.unzipFile(writeTempFile(zippedData), entryName -> {
+            maxOpenCount.accumulateAndGet(openCount.incrementAndGet(), Math::max);
+            return new ByteArrayOutputStream();
+        }, (entryName, outputStream) -> {
+            openCount.decrementAndGet();
+            dataMap.put(entryName, ((ByteArrayOutputStream) outputStream).toByteArray());
+        });
+
+        assertEquals(dataMap.keySet(), UNZIPPED_FILE_MAP.keySet());
+        assertEquals(openCount.get(), 0);
+        assertTrue(maxOpenCount.get() <= 2, "max open streams " + maxOpenCount.get());
+    }
+
+    @Test
+    public void unzipFileErrorFinalizesAllStreams() throws Exception {
+        Set<String> openedEntrySet = new HashSet<>();
+        List<String> finalizedEntryList = new ArrayList<>();
+        try {
+            uploadArchiveService.unzipFile(writeTempFile(zippedData), entryName -> {
+                openedEntrySet.add(entryName);
+                if (entryName.equals("bar")) {
+                    return new OutputStream() {
+                        @Override
+                        public void write(int b) throws IOException {
+                            throw new IOException("test exception");
+                        }
+                    };
+                }
+                return ByteStreams.nullOutputStream();
+            }, (entryName, outputStream) -> finalizedEntryList.add(entryName));
+            fail("expected exception");
+        } catch (BridgeServiceException ex) {
+            assertTrue(ex.getMessage().contains("test exception"), ex.getMessage());
+        }
+
+        // Every stream that was opened is finalized (closed), once. Entries that hadn't started when bar failed are
+        // never opened.
+        assertTrue(openedEntrySet.contains("bar"));
+        assertEquals(finalizedEntryList.size(), openedEntrySet.size());
+        assertEquals(ImmutableSet.copyOf(finalizedEntryList), openedEntrySet);
+    }
+
+    @Test(expectedExceptions = NullPointerException.class)
+    public void unzipFileNullFile() {
+        uploadArchiveService.unzipFile(null, entryName -> ByteStreams.nullOutputStream(),
+                (entryName, outputStream) -> {});
+    }
+
+    @Test(expectedExceptions = NullPointerException.class)
+    public void unzipFileNullOutputStreamFunction() throws Exception {
+        uploadArchiveService.unzipFile(writeTempFile(zippedData), null, (entryName, outputStream) -> {});
+    }
+
+    @Test(expectedExceptions = NullPointerException.class)
+    public void unzipFileNullOutputStreamFinalizer() throws Exception {
+        uploadArchiveService.unzipFile(writeTempFile(zippedData), entryName -> ByteStreams.nullOutputStream(),
+                null);
+    }
+
+    private static Map<String, byte[]> unzipFile(UploadArchiveService svc, File zipFile) {
+        Map<String, byte[]> dataMap = new ConcurrentHashMap<>();
+        svc.unzipFile(zipFile, entryName -> new ByteArrayOutputStream(),
+                (entryName, outputStream) -> dataMap.put(entryName,
+                        ((ByteArrayOutputStream) outputStream).toByteArray()));
+        return dataMap;
+    }
+
+    private static File writeTempFile(byte[] bytes) throws IOException {
+        File tempFile = File.createTempFile("UploadArchiveServiceZipTest", ".zip");
+        tempFileList.add(tempFile);
+        Files.write(tempFile.toPath(), bytes);
+        return tempFile;
+    }
+
+    // ZipOutputStream doesn't allow duplicate entries, so zip two entries with different names of the same length,
+    // then rename one of them in both the local and central headers.
+    private static byte[] makeDuplicateEntryZip() {
+        byte[] zipBytes = uploadArchiveService.zip(ImmutableMap.of("aaa", "foo data".getBytes(Charsets.UTF_8),
+                "bbb", "bar data".getBytes(Charsets.UTF_8)));
+        for (int i = 0; i + 2 < zipBytes.length; i++) {
+            if (zipBytes[i] == 'b' && zipBytes[i + 1] == 'b' && zipBytes[i + 2] == 'b') {
+                zipBytes[i] = zipBytes[i + 1] = zipBytes[i + 2] = 'a';
+            }
+        }
+        return zipBytes;
+    }
 }
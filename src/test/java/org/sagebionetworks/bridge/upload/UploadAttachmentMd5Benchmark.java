@@ -0,0 +1,69 @@
+package org.sagebionetworks.bridge.upload;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures the MD5 pass that {@link UploadFileHelper#uploadFileAsAttachment} makes over an attachment file before
+ * sending it to S3. The file is read from the page cache, as it is right after unzipping. Compare the result with the
+ * time of an S3 PUT of the same size. This isn't run as part of the unit tests. To run it, call main() from the test
+ * classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UploadAttachmentMd5Benchmark {
+    /** Size of the attachment file in bytes. */
+    @Param({ "65536", "1048576", "10485760" })
+    public int fileSize;
+
+    private final DigestUtils md5DigestUtils = new DigestUtils(DigestUtils.getMd5Digest());
+    private File file;
+
+    @Setup
+    public void setup() throws IOException {
+        byte[] content = new byte[fileSize];
+        new Random(1).nextBytes(content);
+        file = File.createTempFile("attachment-md5-benchmark", ".bin");
+        Files.write(file.toPath(), content);
+    }
+
+    @TearDown
+    public void tearDown() {
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+
+    @Benchmark
+    public byte[] md5Pass() throws IOException {
+        return md5DigestUtils.digest(file);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder().include(UploadAttachmentMd5Benchmark.class.getSimpleName()).build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,136 @@
+package org.sagebionetworks.bridge.upload;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+public class UploadCompletionRegistryTest {
+    private static final String UPLOAD_ID = "test-upload";
+    private static final String OTHER_UPLOAD_ID = "other-upload";
+    private static final long LONG_TIMEOUT_MILLIS = 60000;
+
+    private UploadCompletionRegistry registry;
+
+    @BeforeMethod
+    public void setup() {
+        registry = new UploadCompletionRegistry();
+    }
+
+    @AfterMethod
+    public void after() {
+        registry.stop();
+    }
+
+    @Test
+    public void completeWakesAllWaitersForUpload() throws Exception {
+        CompletableFuture<Void> waiter1 = registry.awaitCompletion(UPLOAD_ID, LONG_TIMEOUT_MILLIS);
+        CompletableFuture<Void> waiter2 = registry.awaitCompletion(UPLOAD_ID, LONG_TIMEOUT_MILLIS);
+        CompletableFuture<Void> otherWaiter = registry.awaitCompletion(OTHER_UPLOAD_ID, LONG_TIMEOUT_MILLIS);
+        assertEquals(registry.getWaiterCount(UPLOAD_ID), 2);
+
+        registry.complete(UPLOAD_ID);
+        waiter1.get(5, TimeUnit.SECONDS);
+        waiter2.get(5, TimeUnit.SECONDS);
+        assertEquals(registry.getWaiterCount(UPLOAD_ID), 0);
+
+        // Other uploads are still waiting.
+        assertFalse(otherWaiter.isDone());
+        assertEquals(registry.getWaiterCount(OTHER_UPLOAD_ID), 1);
+    }
+
+    @Test
+    public void completeWithNoWaiters() {
+        // Doesn't throw.
+        registry.complete(UPLOAD_ID);
+        assertEquals(registry.getWaiterCount(UPLOAD_ID), 0);
+    }
+
+    @Test
+    public void timeout() throws Exception {
+        CompletableFuture<Void> waiter = registry.awaitCompletion(UPLOAD_ID, 10);
+        try {
+            waiter.get(5, TimeUnit.SECONDS);
+            fail("expected exception");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof TimeoutException);
+        }
+        assertEquals(registry.getWaiterCount(UPLOAD_ID), 0);
+    }
+
+    @Test
+    public void cancelStopsWaiting() {
+        CompletableFuture<Void> waiter = registry.awaitCompletion(UPLOAD_ID, LONG_TIMEOUT_MILLIS);
+        CompletableFuture<Void> otherWaiter = registry.awaitCompletion(UPLOAD_ID, LONG_TIMEOUT_MILLIS);
+        waiter.cancel(false);
+        assertEquals(registry.getWaiterCount(UPLOAD_ID), 1);
+
+        otherWaiter.cancel(false);
+        assertEquals(registry.getWaiterCount(UPLOAD_ID), 0);
+    }
+
+    @Test
+    public void completionFromAnotherNode() throws Exception {
+        CompletableFuture<Void> waiter = registry.awaitCompletion(UPLOAD_ID, LONG_TIMEOUT_MILLIS);
+
+        // Messages from the Redis channel come in through onCompletion.
+        registry.onCompletion(UPLOAD_ID);
+        waiter.get(5, TimeUnit.SECONDS);
+
+        // Null messages are ignored.
+        registry.onCompletion(null);
+    }
+
+    @Test
+    public void wakeAll() throws Exception {
+        CompletableFuture<Void> waiter = registry.awaitCompletion(UPLOAD_ID, LONG_TIMEOUT_MILLIS);
+        CompletableFuture<Void> otherWaiter = registry.awaitCompletion(OTHER_UPLOAD_ID, LONG_TIMEOUT_MILLIS);
+
+        registry.wakeAll();
+        waiter.get(5, TimeUnit.SECONDS);
+        otherWaiter.get(5, TimeUnit.SECONDS);
+        assertEquals(registry.getWaiterCount(UPLOAD_ID), 0);
+        assertEquals(registry.getWaiterCount(OTHER_UPLOAD_ID), 0);
+    }
+
+    @Test
+    public void completePublishesToOtherNodes() throws Exception {
+        Jedis mockJedis = mock(Jedis.class);
+        JedisPool mockJedisPool = mock(JedisPool.class);
+        when(mockJedisPool.getResource()).thenReturn(mockJedis);
+        registry.setJedisPool(mockJedisPool);
+
+        CompletableFuture<Void> waiter = registry.awaitCompletion(UPLOAD_ID, LONG_TIMEOUT_MILLIS);
+        registry.complete(UPLOAD_ID);
+        waiter.get(5, TimeUnit.SECONDS);
+
+        verify(mockJedis).publish(UploadCompletionRegistry.COMPLETION_CHANNEL, UPLOAD_ID);
+        verify(mockJedis).close();
+    }
+
+    @Test
+    public void publishFailureStillWakesLocalWaiters() throws Exception {
+        JedisPool mockJedisPool = mock(JedisPool.class);
+        when(mockJedisPool.getResource()).thenThrow(new RuntimeException("Redis is down"));
+        registry.setJedisPool(mockJedisPool);
+
+        CompletableFuture<Void> waiter = registry.awaitCompletion(UPLOAD_ID, LONG_TIMEOUT_MILLIS);
+        registry.complete(UPLOAD_ID);
+        waiter.get(5, TimeUnit.SECONDS);
+    }
+}
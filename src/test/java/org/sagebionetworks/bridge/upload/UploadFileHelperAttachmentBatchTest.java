@@ -0,0 +1,240 @@
+package org.sagebionetworks.bridge.upload;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.sagebionetworks.bridge.TestConstants;
+import org.sagebionetworks.bridge.file.InMemoryFileHelper;
+import org.sagebionetworks.bridge.models.upload.UploadFieldDefinition;
+import org.sagebionetworks.bridge.models.upload.UploadFieldType;
+import org.sagebionetworks.bridge.s3.S3Helper;
+
+public class UploadFileHelperAttachmentBatchTest {
+    private static final String FIELD_NAME_FOO = "foo";
+    private static final String FIELD_NAME_BAR = "bar";
+    private static final String UPLOAD_ID = "upload-id";
+
+    private ExecutorService executor;
+    private InMemoryFileHelper inMemoryFileHelper;
+    private S3Helper mockS3Helper;
+    private File tmpDir;
+    private UploadFileHelper uploadFileHelper;
+
+    @BeforeMethod
+    public void before() throws Exception {
+        inMemoryFileHelper = new InMemoryFileHelper();
+        tmpDir = inMemoryFileHelper.createTempDir();
+
+        DigestUtils mockMd5DigestUtils = mock(DigestUtils.class);
+        when(mockMd5DigestUtils.digest(any(File.class))).thenReturn(TestConstants.MOCK_MD5);
+        when(mockMd5DigestUtils.digest(any(byte[].class))).thenReturn(TestConstants.MOCK_MD5);
+
+        mockS3Helper = mock(S3Helper.class);
+
+        executor = Executors.newFixedThreadPool(2);
+
+        uploadFileHelper = new UploadFileHelper();
+        uploadFileHelper.setAttachmentExecutor(executor);
+        uploadFileHelper.setFileHelper(inMemoryFileHelper);
+        uploadFileHelper.setMd5DigestUtils(mockMd5DigestUtils);
+        uploadFileHelper.setS3Helper(mockS3Helper);
+    }
+
+    @AfterMethod
+    public void after() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void attachmentsUploadConcurrently() throws Exception {
+        // Each S3 call waits until both have started. If the uploads ran one after another, the first would time out.
+        CountDownLatch bothStarted = new CountDownLatch(2);
+        doAnswer(invocation -> {
+            bothStarted.countDown();
+            assertTrue(bothStarted.await(5, TimeUnit.SECONDS));
+            return null;
+        }).when(mockS3Helper).writeBytesToS3(any(), any(), any(byte[].class), any());
+        doAnswer(invocation -> {
+            bothStarted.countDown();
+            assertTrue(bothStarted.await(5, TimeUnit.SECONDS));
+            return null;
+        }).when(mockS3Helper).writeFileToS3(any(), any(), any(File.class), any());
+
+        // One attachment is a whole file, the other is a JSON node.
+        UploadFieldDefinition fooFieldDef = new UploadFieldDefinition.Builder().withName(FIELD_NAME_FOO)
+                .withType(UploadFieldType.ATTACHMENT_V2).build();
+        File fooFile = makeFileWithContent(FIELD_NAME_FOO, "foo content");
+        Map<String, File> fileMap = ImmutableMap.of(FIELD_NAME_FOO, fooFile);
+
+        AttachmentUploadBatch batch = new AttachmentUploadBatch(UPLOAD_ID);
+        JsonNode fooResult = uploadFileHelper.findValueForField(UPLOAD_ID, fileMap, fooFieldDef, null,
+                new HashMap<>(), batch);
+        JsonNode barResult = uploadFileHelper.uploadJsonNodeAsAttachment(TextNode.valueOf("bar content"), UPLOAD_ID,
+                FIELD_NAME_BAR, batch);
+        assertEquals(batch.size(), 2);
+
+        // Attachment IDs are returned right away.
+        assertEquals(fooResult.textValue(), UPLOAD_ID + '-' + FIELD_NAME_FOO);
+        assertEquals(barResult.textValue(), UPLOAD_ID + '-' + FIELD_NAME_BAR);
+
+        batch.awaitCompletion();
+        assertEquals(batch.size(), 0);
+
+        verify(mockS3Helper).writeFileToS3(eq(UploadFileHelper.ATTACHMENT_BUCKET), eq(UPLOAD_ID + '-' +
+                FIELD_NAME_FOO), eq(fooFile), any());
+        verify(mockS3Helper).writeBytesToS3(eq(UploadFileHelper.ATTACHMENT_BUCKET), eq(UPLOAD_ID + '-' +
+                FIELD_NAME_BAR), eq("\"bar content\"".getBytes(Charsets.UTF_8)), any());
+    }
+
+    @Test
+    public void failureIsReportedForFirstFailingField() throws Exception {
+        // Both fail, but the second one fails first. The exception should always name the first field.
+        CountDownLatch barFailed = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            String key = invocation.getArgument(1);
+            if (key.endsWith(FIELD_NAME_FOO)) {
+                assertTrue(barFailed.await(5, TimeUnit.SECONDS));
+            } else {
+                barFailed.countDown();
+            }
+            throw new IOException("S3 failed for " + key);
+        }).when(mockS3Helper).writeBytesToS3(any(), any(), any(byte[].class), any());
+
+        AttachmentUploadBatch batch = new AttachmentUploadBatch(UPLOAD_ID);
+        uploadFileHelper.uploadJsonNodeAsAttachment(TextNode.valueOf("foo content"), UPLOAD_ID, FIELD_NAME_FOO,
+                batch);
+        uploadFileHelper.uploadJsonNodeAsAttachment(TextNode.valueOf("bar content"), UPLOAD_ID, FIELD_NAME_BAR,
+                batch);
+
+        try {
+            batch.awaitCompletion();
+            fail("expected exception");
+        } catch (UploadValidationException ex) {
+            assertTrue(ex.getMessage().contains("fieldName=" + FIELD_NAME_FOO), ex.getMessage());
+            assertTrue(ex.getCause() instanceof IOException);
+        }
+    }
+
+    @Test
+    public void runtimeExceptionFailsBatch() throws Exception {
+        doThrow(IllegalStateException.class).when(mockS3Helper).writeBytesToS3(any(), any(), any(byte[].class),
+                any());
+
+        AttachmentUploadBatch batch = new AttachmentUploadBatch(UPLOAD_ID);
+        uploadFileHelper.uploadJsonNodeAsAttachment(TextNode.valueOf("foo content"), UPLOAD_ID, FIELD_NAME_FOO,
+                batch);
+
+        try {
+            batch.awaitCompletion();
+            fail("expected exception");
+        } catch (UploadValidationException ex) {
+            assertTrue(ex.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test
+    public void emptyBatch() throws Exception {
+        AttachmentUploadBatch batch = new AttachmentUploadBatch(UPLOAD_ID);
+        batch.awaitCompletion();
+        verifyZeroInteractions(mockS3Helper);
+    }
+
+    @Test
+    public void noBatchUploadsBeforeReturning() throws Exception {
+        uploadFileHelper.uploadJsonNodeAsAttachment(TextNode.valueOf("foo content"), UPLOAD_ID, FIELD_NAME_FOO);
+        verify(mockS3Helper).writeBytesToS3(eq(UploadFileHelper.ATTACHMENT_BUCKET), eq(UPLOAD_ID + '-' +
+                FIELD_NAME_FOO), eq("\"foo content\"".getBytes(Charsets.UTF_8)), any());
+    }
+
+    @Test
+    public void cancelWaitsForRunningUploads() throws Exception {
+        CountDownLatch uploadStarted = new CountDownLatch(1);
+        AtomicBoolean uploadFinished = new AtomicBoolean();
+        doAnswer(invocation -> {
+            uploadStarted.countDown();
+            Thread.sleep(200);
+            uploadFinished.set(true);
+            return null;
+        }).when(mockS3Helper).writeBytesToS3(any(), any(), any(byte[].class), any());
+
+        AttachmentUploadBatch batch = new AttachmentUploadBatch(UPLOAD_ID);
+        uploadFileHelper.uploadJsonNodeAsAttachment(TextNode.valueOf("foo content"), UPLOAD_ID, FIELD_NAME_FOO,
+                batch);
+        assertTrue(uploadStarted.await(5, TimeUnit.SECONDS));
+
+        // Validation failed on a later field. The upload that has started still reads the file, so cancel waits.
+        batch.cancel();
+        assertTrue(uploadFinished.get());
+        assertEquals(batch.size(), 0);
+    }
+
+    @Test
+    public void concurrentAttachmentsHaveTheirOwnMd5() throws Exception {
+        // Use the real digest. Each attachment must get the MD5 of its own content.
+        UploadFileHelper helper = new UploadFileHelper();
+        helper.setAttachmentExecutor(executor);
+        helper.setFileHelper(inMemoryFileHelper);
+        helper.setS3Helper(mockS3Helper);
+
+        Map<String, byte[]> contentByFilename = new ConcurrentHashMap<>();
+        Map<String, String> md5ByFilename = new ConcurrentHashMap<>();
+        doAnswer(invocation -> {
+            String filename = invocation.getArgument(1);
+            contentByFilename.put(filename, invocation.getArgument(2));
+            ObjectMetadata metadata = invocation.getArgument(3);
+            md5ByFilename.put(filename, metadata.getUserMetaDataOf(UploadFileHelper.KEY_CUSTOM_CONTENT_MD5));
+            return null;
+        }).when(mockS3Helper).writeBytesToS3(any(), any(), any(byte[].class), any());
+
+        AttachmentUploadBatch batch = new AttachmentUploadBatch(UPLOAD_ID);
+        for (int i = 0; i < 50; i++) {
+            helper.uploadJsonNodeAsAttachment(TextNode.valueOf(Strings.repeat("content " + i, 10000)), UPLOAD_ID,
+                    "field" + i, batch);
+        }
+        batch.awaitCompletion();
+
+        assertEquals(md5ByFilename.size(), 50);
+        for (Map.Entry<String, byte[]> oneEntry : contentByFilename.entrySet()) {
+            assertEquals(md5ByFilename.get(oneEntry.getKey()),
+                    Base64.encodeBase64String(DigestUtils.md5(oneEntry.getValue())));
+        }
+    }
+
+    private File makeFileWithContent(String name, String content) {
+        File file = inMemoryFileHelper.newFile(tmpDir, name);
+        inMemoryFileHelper.writeBytes(file, content.getBytes(Charsets.UTF_8));
+        return file;
+    }
+}
@@ -10,15 +10,22 @@ import static org.mockito.Mockito.when;
 import static org.mockito.internal.verification.VerificationModeFactory.times;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
 import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.TextNode;
 import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import org.apache.commons.codec.digest.DigestUtils;
 import org.mockito.ArgumentCaptor;
 import org.testng.annotations.BeforeMethod;
@@ -292,6 +299,119 @@ public class UploadFileHelperFindValueTest {
         verify(inMemoryFileHelper, times(1)).getInputStream(recordJsonFile);
     }
 
+    @Test
+    public void schemaFieldNamesLimitWhichKeysAreKept() throws Exception {
+        // Make field def. The schema also wants "bar" from the same file, but not "unwanted".
+        UploadFieldDefinition fieldDef = new UploadFieldDefinition.Builder().withName(FIELD_NAME_JSON_KEY)
+                .withType(UploadFieldType.STRING).build();
+        Set<String> schemaFieldNames = ImmutableSet.of(FIELD_NAME_JSON_KEY, "record.json.bar", "other.json.foo");
+
+        // Make file map.
+        File recordJsonFile = makeFileWithContent(FIELD_NAME_FILE,
+                "{\"unwanted\":{\"nested\":[1,2,3]},\"foo\":\"foo-value\",\"bar\":[\"bar-value\"]}");
+        Map<String, File> fileMap = ImmutableMap.of(FIELD_NAME_FILE, recordJsonFile);
+
+        // Execute
+        Map<String, Map<String, JsonNode>> cache = new HashMap<>();
+        JsonNode result = uploadFileHelper.findValueForField(UPLOAD_ID, fileMap, fieldDef, schemaFieldNames, cache,
+                null);
+        assertEquals(result.textValue(), "foo-value");
+
+        // Only the keys the schema wants are cached.
+        Map<String, JsonNode> cachedKeyMap = cache.get(FIELD_NAME_FILE);
+        assertEquals(cachedKeyMap.keySet(), ImmutableSet.of("foo", "bar"));
+        assertEquals(cachedKeyMap.get("bar").get(0).textValue(), "bar-value");
+    }
+
+    @Test
+    public void readSanitizedTopLevelKeysAllKeys() throws Exception {
+        Map<String, JsonNode> result = UploadFileHelper.readSanitizedTopLevelKeys(toStream(
+                "{\"sanitize!@#$foo\":\"foo-value\",\"bar\":{\"baz\":1},\"qux\":null}"), null);
+        assertEquals(result.size(), 3);
+        assertEquals(result.get("sanitize____foo").textValue(), "foo-value");
+        assertEquals(result.get("bar").get("baz").intValue(), 1);
+        assertTrue(result.get("qux").isNull());
+    }
+
+    @Test
+    public void schemaFieldNamesMustMatchFileNameAndSeparator() throws Exception {
+        // "record.jsonoo" starts with the file name, but it isn't a key in record.json, so "oo" isn't kept.
+        UploadFieldDefinition fieldDef = new UploadFieldDefinition.Builder().withName(FIELD_NAME_JSON_KEY)
+                .withType(UploadFieldType.STRING).build();
+        Set<String> schemaFieldNames = ImmutableSet.of(FIELD_NAME_JSON_KEY, "record.jsonoo");
+
+        File recordJsonFile = makeFileWithContent(FIELD_NAME_FILE, "{\"foo\":\"foo-value\",\"oo\":\"oo-value\"}");
+        Map<String, File> fileMap = ImmutableMap.of(FIELD_NAME_FILE, recordJsonFile);
+
+        Map<String, Map<String, JsonNode>> cache = new HashMap<>();
+        JsonNode result = uploadFileHelper.findValueForField(UPLOAD_ID, fileMap, fieldDef, schemaFieldNames, cache,
+                null);
+        assertEquals(result.textValue(), "foo-value");
+        assertEquals(cache.get(FIELD_NAME_FILE).keySet(), ImmutableSet.of("foo"));
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void readSanitizedTopLevelKeysTruncatedAfterWantedKeys() throws Exception {
+        // The file is read to the end even after all wanted keys are found, so truncation is still an error.
+        UploadFileHelper.readSanitizedTopLevelKeys(toStream(
+                "{\"skipped\":[{\"a\":1},{\"b\":2}],\"foo\":\"foo-value\",\"truncated\":[1,2,"),
+                ImmutableSet.of("foo"));
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void readSanitizedTopLevelKeysMalformedAfterWantedKeys() throws Exception {
+        UploadFileHelper.readSanitizedTopLevelKeys(toStream("{\"foo\":\"foo-value\",\"bar\":tru}"),
+                ImmutableSet.of("foo"));
+    }
+
+    @Test
+    public void readSanitizedTopLevelKeysDuplicateKeyLastValueWins() throws Exception {
+        // Same as parsing the whole file into a tree.
+        String json = "{\"foo\":\"first-value\",\"bar\":1,\"foo\":\"last-value\"}";
+        Map<String, JsonNode> result = UploadFileHelper.readSanitizedTopLevelKeys(toStream(json),
+                ImmutableSet.of("foo"));
+        assertEquals(result, ImmutableMap.of("foo", TextNode.valueOf("last-value")));
+
+        Map<String, JsonNode> allKeysResult = UploadFileHelper.readSanitizedTopLevelKeys(toStream(json), null);
+        assertEquals(allKeysResult.get("foo").textValue(), "last-value");
+    }
+
+    @Test
+    public void readSanitizedTopLevelKeysMissingWantedKey() throws Exception {
+        Map<String, JsonNode> result = UploadFileHelper.readSanitizedTopLevelKeys(toStream(
+                "{\"bar\":\"bar-value\"}"), ImmutableSet.of("foo"));
+        assertTrue(result.isEmpty());
+    }
+
+    @Test
+    public void readSanitizedTopLevelKeysNotAnObject() throws Exception {
+        assertTrue(UploadFileHelper.readSanitizedTopLevelKeys(toStream("[\"foo\"]"), null).isEmpty());
+        assertTrue(UploadFileHelper.readSanitizedTopLevelKeys(toStream(""), null).isEmpty());
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void readSanitizedTopLevelKeysMalformed() throws Exception {
+        UploadFileHelper.readSanitizedTopLevelKeys(toStream("{\"foo\":"), ImmutableSet.of("foo"));
+    }
+
+    @Test
+    public void findValueMalformedFileIsSkipped() throws Exception {
+        UploadFieldDefinition fieldDef = new UploadFieldDefinition.Builder().withName(FIELD_NAME_JSON_KEY)
+                .withType(UploadFieldType.STRING).build();
+        File recordJsonFile = makeFileWithContent(FIELD_NAME_FILE, "{\"bar\":");
+        Map<String, File> fileMap = ImmutableMap.of(FIELD_NAME_FILE, recordJsonFile);
+
+        Map<String, Map<String, JsonNode>> cache = new HashMap<>();
+        JsonNode result = uploadFileHelper.findValueForField(UPLOAD_ID, fileMap, fieldDef,
+                ImmutableSet.of(FIELD_NAME_JSON_KEY), cache, null);
+        assertNull(result);
+        assertTrue(cache.isEmpty());
+    }
+
+    private static InputStream toStream(String content) {
+        return new ByteArrayInputStream(content.getBytes(Charsets.UTF_8));
+    }
+
     private File makeFileWithContent(String name, String content) {
         File file = inMemoryFileHelper.newFile(tmpDir, name);
         inMemoryFileHelper.writeBytes(file, content.getBytes(Charsets.UTF_8));
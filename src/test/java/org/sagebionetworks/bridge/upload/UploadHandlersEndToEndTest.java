@@ -41,6 +41,7 @@ import org.sagebionetworks.bridge.dynamodb.DynamoSurvey;
 import org.sagebionetworks.bridge.dynamodb.DynamoUpload2;
 import org.sagebionetworks.bridge.file.InMemoryFileHelper;
 import org.sagebionetworks.bridge.json.BridgeObjectMapper;
+import org.sagebionetworks.bridge.metrics.MetricsRegistry;
 import org.sagebionetworks.bridge.time.DateUtils;
 import org.sagebionetworks.bridge.models.GuidCreatedOnVersionHolderImpl;
 import org.sagebionetworks.bridge.models.accounts.Account;
@@ -301,6 +302,8 @@ public class UploadHandlersEndToEndTest {
         taskFactory.setHandlerList(handlerList);
         taskFactory.setUploadDao(mockUploadDao);
         taskFactory.setHealthDataService(mockHealthDataService);
+        taskFactory.setMetricsRegistry(new MetricsRegistry());
+        taskFactory.setCompletionRegistry(mock(UploadCompletionRegistry.class));
 
         // create task, execute
         UploadValidationTask task = taskFactory.newTask(TestConstants.TEST_STUDY, UPLOAD);
@@ -0,0 +1,163 @@
+package org.sagebionetworks.bridge.upload;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.ImmutableList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import org.sagebionetworks.bridge.json.BridgeObjectMapper;
+import org.sagebionetworks.bridge.models.upload.UploadFieldDefinition;
+import org.sagebionetworks.bridge.models.upload.UploadFieldType;
+import org.sagebionetworks.bridge.models.upload.UploadSchema;
+
+/**
+ * Compares strict validation of a record using a compiled {@link UploadSchemaValidationPlan} with the per-record,
+ * per-field path that StrictValidationHandler used before. This isn't run as part of the unit tests. To run it, call
+ * main() from the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UploadSchemaValidationPlanBenchmark {
+    private static final List<String> ANSWER_LIST = ImmutableList.of("foo", "bar", "baz", "qux", "quux", "corge",
+            "grault", "garply", "waldo", "fred");
+
+    /** Number of times each field type is repeated in the schema. */
+    @Param({ "1", "10" })
+    public int fieldGroupCount;
+
+    private UploadSchema schema;
+    private JsonNode recordDataNode;
+
+    @Setup
+    public void setup() {
+        List<UploadFieldDefinition> fieldDefList = new ArrayList<>();
+        ObjectNode dataNode = BridgeObjectMapper.get().createObjectNode();
+        for (int i = 0; i < fieldGroupCount; i++) {
+            fieldDefList.add(new UploadFieldDefinition.Builder().withName("bool" + i)
+                    .withType(UploadFieldType.BOOLEAN).build());
+            dataNode.put("bool" + i, "true");
+
+            fieldDefList.add(new UploadFieldDefinition.Builder().withName("int" + i).withType(UploadFieldType.INT)
+                    .build());
+            dataNode.put("int" + i, "42");
+
+            fieldDefList.add(new UploadFieldDefinition.Builder().withName("float" + i)
+                    .withType(UploadFieldType.FLOAT).build());
+            dataNode.put("float" + i, 3.14);
+
+            fieldDefList.add(new UploadFieldDefinition.Builder().withName("string" + i)
+                    .withType(UploadFieldType.STRING).build());
+            dataNode.put("string" + i, "lorem ipsum");
+
+            fieldDefList.add(new UploadFieldDefinition.Builder().withName("timestamp" + i)
+                    .withType(UploadFieldType.TIMESTAMP).build());
+            dataNode.put("timestamp" + i, "2018-05-01T12:34:56.789-0700");
+
+            fieldDefList.add(new UploadFieldDefinition.Builder().withName("multi" + i)
+                    .withType(UploadFieldType.MULTI_CHOICE).withMultiChoiceAnswerList(ANSWER_LIST).build());
+            dataNode.set("multi" + i, BridgeObjectMapper.get().createArrayNode().add("baz").add("waldo"));
+
+            fieldDefList.add(new UploadFieldDefinition.Builder().withName("attachment" + i)
+                    .withType(UploadFieldType.ATTACHMENT_V2).withRequired(false).build());
+            dataNode.put("attachment" + i, "attachment-id");
+        }
+
+        schema = UploadSchema.create();
+        schema.setStudyId("benchmark-study");
+        schema.setSchemaId("benchmark-schema-" + fieldGroupCount);
+        schema.setRevision(1);
+        schema.setVersion(1L);
+        schema.setFieldDefinitions(fieldDefList);
+
+        // Canonicalization is idempotent, so the same record can be validated over and over. The first run converts
+        // the values, so do that here, so that every benchmark sees the same input.
+        recordDataNode = dataNode;
+        UploadSchemaValidationPlan.compile(schema).validateAndCanonicalize(recordDataNode);
+    }
+
+    @Benchmark
+    public List<String> currentPath() {
+        return validateAllFields(schema.getFieldDefinitions(), recordDataNode);
+    }
+
+    @Benchmark
+    public List<String> compiledPlan() {
+        return UploadSchemaValidationPlan.forSchema(schema).validateAndCanonicalize(recordDataNode);
+    }
+
+    // Copy of StrictValidationHandler.validateAllFields() before schemas were compiled into validation plans.
+    private static List<String> validateAllFields(List<UploadFieldDefinition> fieldDefList, JsonNode recordDataNode) {
+        List<String> errorList = new ArrayList<>();
+        for (UploadFieldDefinition oneFieldDef : fieldDefList) {
+            String fieldName = oneFieldDef.getName();
+            UploadFieldType fieldType = oneFieldDef.getType();
+            boolean isRequired = oneFieldDef.isRequired();
+
+            if (UploadFieldType.ATTACHMENT_TYPE_SET.contains(fieldType)) {
+                if (isRequired && !recordDataNode.hasNonNull(fieldName)) {
+                    errorList.add("Required attachment field " + fieldName + " missing");
+                }
+            } else {
+                JsonNode fieldValueNode = recordDataNode.get(fieldName);
+
+                if (fieldValueNode != null && !fieldValueNode.isNull()) {
+                    CanonicalizationResult canonicalizationResult = UploadUtil.canonicalize(fieldValueNode, fieldType);
+                    if (canonicalizationResult.isValid()) {
+                        JsonNode canonicalizedValueNode = canonicalizationResult.getCanonicalizedValueNode();
+
+                        if (fieldType == UploadFieldType.MULTI_CHOICE &&
+                                !Boolean.TRUE.equals(oneFieldDef.getAllowOtherChoices())) {
+                            Set<String> validAnswerSet = new HashSet<>(oneFieldDef.getMultiChoiceAnswerList());
+                            int numAnswers = canonicalizedValueNode.size();
+                            for (int i = 0; i < numAnswers; i++) {
+                                String answer = canonicalizedValueNode.get(i).textValue();
+                                if (!validAnswerSet.contains(answer)) {
+                                    errorList.add("Multi-Choice field " + fieldName + " contains invalid answer " +
+                                            answer);
+                                }
+                            }
+                        }
+
+                        ((ObjectNode)recordDataNode).set(fieldName, canonicalizedValueNode);
+                    } else {
+                        errorList.add("Canonicalization failed for field " + fieldName + ": " +
+                                canonicalizationResult.getErrorMessage());
+                    }
+                } else if (isRequired) {
+                    errorList.add("Required field " + fieldName + " missing");
+                }
+            }
+        }
+
+        return errorList;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder().include(UploadSchemaValidationPlanBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
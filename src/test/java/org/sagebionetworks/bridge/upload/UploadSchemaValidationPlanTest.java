@@ -0,0 +1,136 @@
+package org.sagebionetworks.bridge.upload;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.testng.annotations.Test;
+
+import org.sagebionetworks.bridge.json.BridgeObjectMapper;
+import org.sagebionetworks.bridge.models.upload.UploadFieldDefinition;
+import org.sagebionetworks.bridge.models.upload.UploadFieldType;
+import org.sagebionetworks.bridge.models.upload.UploadSchema;
+
+public class UploadSchemaValidationPlanTest {
+    private static final String STUDY_ID = "test-study";
+    private static final String SCHEMA_ID = "validation-plan-test-schema";
+
+    @Test
+    public void compilesFields() {
+        UploadSchema schema = makeSchema(null, new UploadFieldDefinition.Builder().withName("foo")
+                .withType(UploadFieldType.INT).build(), new UploadFieldDefinition.Builder().withName("bar")
+                .withType(UploadFieldType.ATTACHMENT_V2).build());
+        UploadSchemaValidationPlan plan = UploadSchemaValidationPlan.compile(schema);
+
+        List<UploadSchemaValidationPlan.FieldPlan> fieldPlanList = plan.getFieldPlans();
+        assertEquals(fieldPlanList.size(), 2);
+        assertEquals(fieldPlanList.get(0).getName(), "foo");
+        assertFalse(fieldPlanList.get(0).isAttachment());
+        assertSame(fieldPlanList.get(0).getFieldDef(), schema.getFieldDefinitions().get(0));
+        assertEquals(fieldPlanList.get(1).getName(), "bar");
+        assertTrue(fieldPlanList.get(1).isAttachment());
+
+        assertEquals(plan.getFieldNameSet(), ImmutableSet.of("foo", "bar"));
+    }
+
+    @Test
+    public void noFields() {
+        UploadSchema schema = makeSchema(null);
+        schema.setFieldDefinitions(null);
+        UploadSchemaValidationPlan plan = UploadSchemaValidationPlan.compile(schema);
+        assertTrue(plan.getFieldPlans().isEmpty());
+        assertTrue(plan.validateAndCanonicalize(BridgeObjectMapper.get().createObjectNode()).isEmpty());
+    }
+
+    @Test
+    public void validatesAndCanonicalizes() throws Exception {
+        UploadSchema schema = makeSchema(null,
+                new UploadFieldDefinition.Builder().withName("int").withType(UploadFieldType.INT).build(),
+                new UploadFieldDefinition.Builder().withName("string").withType(UploadFieldType.STRING).build(),
+                new UploadFieldDefinition.Builder().withName("blob").withType(UploadFieldType.INLINE_JSON_BLOB)
+                        .build(),
+                new UploadFieldDefinition.Builder().withName("bad-int").withType(UploadFieldType.INT).build(),
+                new UploadFieldDefinition.Builder().withName("missing-required").withType(UploadFieldType.INT)
+                        .build(),
+                new UploadFieldDefinition.Builder().withName("missing-optional").withType(UploadFieldType.INT)
+                        .withRequired(false).build(),
+                new UploadFieldDefinition.Builder().withName("missing-attachment")
+                        .withType(UploadFieldType.ATTACHMENT_V2).build(),
+                new UploadFieldDefinition.Builder().withName("multi").withType(UploadFieldType.MULTI_CHOICE)
+                        .withMultiChoiceAnswerList("foo", "bar").build(),
+                new UploadFieldDefinition.Builder().withName("multi-other").withType(UploadFieldType.MULTI_CHOICE)
+                        .withMultiChoiceAnswerList("foo", "bar").withAllowOtherChoices(true).build());
+
+        ObjectNode recordDataNode = (ObjectNode) BridgeObjectMapper.get().readTree("{\n" +
+                "   \"int\":\"42\",\n" +
+                "   \"string\":1337,\n" +
+                "   \"blob\":{\"key\":\"value\"},\n" +
+                "   \"bad-int\":\"not an int\",\n" +
+                "   \"missing-required\":null,\n" +
+                "   \"multi\":[\"foo\", \"baz\"],\n" +
+                "   \"multi-other\":[\"foo\", \"baz\"]\n" +
+                "}");
+
+        List<String> errorList = UploadSchemaValidationPlan.compile(schema).validateAndCanonicalize(
+                recordDataNode);
+        assertEquals(errorList.size(), 4);
+        assertTrue(errorList.get(0).startsWith("Canonicalization failed for field bad-int: "), errorList.get(0));
+        assertEquals(errorList.get(1), "Required field missing-required missing");
+        assertEquals(errorList.get(2), "Required attachment field missing-attachment missing");
+        assertEquals(errorList.get(3), "Multi-Choice field multi contains invalid answer baz");
+
+        // Values are canonicalized in place.
+        assertEquals(recordDataNode.get("int").intValue(), 42);
+        assertEquals(recordDataNode.get("string").textValue(), "1337");
+        assertEquals(recordDataNode.get("blob").get("key").textValue(), "value");
+        assertEquals(recordDataNode.get("bad-int").textValue(), "not an int");
+
+        // Other answers are allowed and written back.
+        JsonNode multiOtherNode = recordDataNode.get("multi-other");
+        assertEquals(multiOtherNode.size(), 2);
+        assertEquals(multiOtherNode.get(1).textValue(), "baz");
+    }
+
+    @Test
+    public void cachedByVersion() {
+        UploadFieldDefinition fooFieldDef = new UploadFieldDefinition.Builder().withName("foo")
+                .withType(UploadFieldType.INT).build();
+        UploadFieldDefinition barFieldDef = new UploadFieldDefinition.Builder().withName("bar")
+                .withType(UploadFieldType.INT).build();
+
+        UploadSchemaValidationPlan plan = UploadSchemaValidationPlan.forSchema(makeSchema(1L, fooFieldDef));
+        assertSame(UploadSchemaValidationPlan.forSchema(makeSchema(1L, fooFieldDef)), plan);
+
+        // Updating the revision changes the version, so the plan is compiled again.
+        UploadSchemaValidationPlan updatedPlan = UploadSchemaValidationPlan.forSchema(makeSchema(2L, fooFieldDef,
+                barFieldDef));
+        assertNotSame(updatedPlan, plan);
+        assertEquals(updatedPlan.getFieldNameSet(), ImmutableSet.of("foo", "bar"));
+    }
+
+    @Test
+    public void unsavedSchemaIsNotCached() {
+        UploadFieldDefinition fooFieldDef = new UploadFieldDefinition.Builder().withName("foo")
+                .withType(UploadFieldType.INT).build();
+        UploadSchemaValidationPlan plan = UploadSchemaValidationPlan.forSchema(makeSchema(null, fooFieldDef));
+        assertNotSame(UploadSchemaValidationPlan.forSchema(makeSchema(null, fooFieldDef)), plan);
+    }
+
+    private static UploadSchema makeSchema(Long version, UploadFieldDefinition... fieldDefs) {
+        UploadSchema schema = UploadSchema.create();
+        schema.setStudyId(STUDY_ID);
+        schema.setSchemaId(SCHEMA_ID);
+        schema.setRevision(1);
+        schema.setVersion(version);
+        schema.setFieldDefinitions(ImmutableList.copyOf(fieldDefs));
+        return schema;
+    }
+}
@@ -0,0 +1,519 @@
+package org.sagebionetworks.bridge.upload;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableList;
+import org.joda.time.DateTime;
+import org.joda.time.LocalDate;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.support.AbstractBeanDefinition;
+import org.springframework.beans.factory.support.BeanDefinitionBuilder;
+import org.springframework.beans.factory.xml.XmlBeanDefinitionReader;
+import org.springframework.context.support.GenericApplicationContext;
+
+import org.sagebionetworks.bridge.BridgeUtils;
+import org.sagebionetworks.bridge.config.BridgeConfigFactory;
+import org.sagebionetworks.bridge.dao.HealthDataDao;
+import org.sagebionetworks.bridge.dao.UploadDao;
+import org.sagebionetworks.bridge.dynamodb.DynamoUpload2;
+import org.sagebionetworks.bridge.metrics.HistogramSnapshot;
+import org.sagebionetworks.bridge.metrics.MetricsRegistry;
+import org.sagebionetworks.bridge.metrics.MetricsSnapshot;
+import org.sagebionetworks.bridge.models.healthdata.HealthDataRecord;
+import org.sagebionetworks.bridge.models.studies.StudyIdentifier;
+import org.sagebionetworks.bridge.models.studies.StudyIdentifierImpl;
+import org.sagebionetworks.bridge.models.upload.Upload;
+import org.sagebionetworks.bridge.models.upload.UploadCompletionClient;
+import org.sagebionetworks.bridge.models.upload.UploadStatus;
+import org.sagebionetworks.bridge.s3.S3Helper;
+
+/**
+ * <p>
+ * Replays a local corpus of encrypted uploads through the full upload validation handler list
+ * (uploadValidationHandlerList), on the {@link UploadValidationScheduler}, at a given concurrency, and reports
+ * throughput, queue wait, per-handler latency percentiles, and heap usage. Run it before and after a change to the
+ * upload pipeline to catch regressions before they're deployed.
+ * </p>
+ * <p>
+ * The replay loads its own Spring context, with the s3Helper bean replaced by one that reads uploads from the corpus
+ * directory and writes attachments and raw zips to an output directory, and the Upload and HealthDataRecord DAOs
+ * replaced by mocks that keep upload status and records in memory. Everything else (schemas, surveys, participant
+ * options, CMS keys) comes from the configured environment, so the corpus must be encrypted for the given study, and
+ * the health code should belong to a test participant in that study. The corpus can't be streamed from S3, so
+ * upload.validation.streaming.enabled must be off.
+ * </p>
+ * <p>
+ * Each file in the corpus directory is one encrypted upload, named by upload ID, like the files in the upload bucket.
+ * The corpus is replayed once (or more) to warm up, and then once more to measure. Upload status and records are
+ * cleared after each pass.
+ * </p>
+ * <p>
+ * This lives with the tests because it needs Mockito. Usage: play "test:run-main
+ * org.sagebionetworks.bridge.upload.UploadValidationReplay [corpus dir] [study ID] [health code] [[concurrency]
+ * [warmup passes]]"
+ * </p>
+ */
+public class UploadValidationReplay {
+    private static final int DEFAULT_CONCURRENCY = 4;
+    private static final int DEFAULT_WARMUP_PASSES = 1;
+    private static final int MAX_REPORTED_FAILURES = 10;
+    private static final double[] REPORTED_PERCENTILES = { 50, 90, 99 };
+    private static final long BYTES_PER_MB = 1024 * 1024;
+
+    private final UploadValidationTaskFactory taskFactory;
+    private final StudyIdentifier studyId;
+    private final String healthCode;
+    private final List<File> corpusFileList;
+    private final int concurrency;
+
+    // Backing maps for the DAO mocks.
+    private final Map<String, Upload> uploadMap = new ConcurrentHashMap<>();
+    private final Map<String, UploadStatus> statusMap = new ConcurrentHashMap<>();
+    private final Map<String, List<String>> messageMap = new ConcurrentHashMap<>();
+    private final Map<String, HealthDataRecord> recordMap = new ConcurrentHashMap<>();
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.out.println("Usage: UploadValidationReplay [corpus dir] [study ID] [health code] [[concurrency] " +
+                    "[warmup passes]]");
+            System.exit(1);
+            return;
+        }
+        File corpusDir = new File(args[0]);
+        StudyIdentifier studyId = new StudyIdentifierImpl(args[1]);
+        String healthCode = args[2];
+        int concurrency = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_CONCURRENCY;
+        int warmupPasses = args.length > 4 ? Integer.parseInt(args[4]) : DEFAULT_WARMUP_PASSES;
+
+        checkState(!Boolean.valueOf(BridgeConfigFactory.getConfig().getProperty(
+                S3DownloadHandler.CONFIG_KEY_STREAMING_ENABLED)), "The corpus can't be streamed from S3. Set " +
+                S3DownloadHandler.CONFIG_KEY_STREAMING_ENABLED + " = false to run the replay.");
+
+        // Attachments and raw zips go here. This has to be in the source root, since we're probably running this
+        // script in Vagrant.
+        File outputDir = new File("tmp/replay-output");
+        if (!outputDir.exists()) {
+            outputDir.mkdirs();
+        }
+
+        // spring beans, with the stand-ins registered under the names of the beans they replace, so that they're
+        // injected instead of the real ones
+        GenericApplicationContext springCtx = new GenericApplicationContext();
+        new XmlBeanDefinitionReader(springCtx).loadBeanDefinitions("application-context.xml");
+        springCtx.registerBeanDefinition("s3Helper", BeanDefinitionBuilder.genericBeanDefinition(FileS3Helper.class)
+                .addConstructorArgValue(corpusDir).addConstructorArgValue(outputDir).getBeanDefinition());
+        springCtx.registerBeanDefinition("dynamoUploadDao", mockBeanDefinition(UploadDao.class));
+        springCtx.registerBeanDefinition("dynamoHealthDataDao", mockBeanDefinition(HealthDataDao.class));
+        springCtx.refresh();
+        springCtx.registerShutdownHook();
+
+        try {
+            UploadValidationReplay replay = new UploadValidationReplay(springCtx.getBean(
+                    UploadValidationTaskFactory.class), springCtx.getBean(UploadDao.class),
+                    springCtx.getBean(HealthDataDao.class), studyId, healthCode, listCorpusFiles(corpusDir),
+                    concurrency);
+            for (int i = 0; i < warmupPasses; i++) {
+                System.out.println(String.format("Warm up pass %d of %d...", i + 1, warmupPasses));
+                replay.runPass();
+            }
+            System.out.println("Measured pass...");
+            Report report = replay.runPass();
+            System.out.println(report);
+        } finally {
+            springCtx.close();
+        }
+    }
+
+    // Bean definition that creates a Mockito mock of the given type.
+    private static AbstractBeanDefinition mockBeanDefinition(Class<?> type) {
+        return BeanDefinitionBuilder.genericBeanDefinition(Mockito.class).setFactoryMethod("mock")
+                .addConstructorArgValue(type).getBeanDefinition();
+    }
+
+    /**
+     * Constructs the replay. The upload DAO and health data DAO must be mocks, which the replay stubs to serve the
+     * corpus uploads and keep status and records in memory. They should be the same DAOs the task factory and the
+     * handlers use. The task factory gets a new metrics registry for each pass, so that each pass is measured on its
+     * own, so it shouldn't be shared with anything else.
+     */
+    public UploadValidationReplay(UploadValidationTaskFactory taskFactory, UploadDao uploadDao,
+            HealthDataDao healthDataDao, StudyIdentifier studyId, String healthCode, List<File> corpusFileList,
+            int concurrency) {
+        checkNotNull(taskFactory);
+        checkNotNull(uploadDao);
+        checkNotNull(healthDataDao);
+        checkNotNull(studyId);
+        checkNotNull(healthCode);
+        checkArgument(!corpusFileList.isEmpty(), "corpus is empty");
+        checkArgument(concurrency > 0, "concurrency must be positive");
+
+        this.taskFactory = taskFactory;
+        this.studyId = studyId;
+        this.healthCode = healthCode;
+        this.corpusFileList = ImmutableList.copyOf(corpusFileList);
+        this.concurrency = concurrency;
+
+        when(uploadDao.getUpload(anyString())).thenAnswer(invocation -> uploadMap.get(
+                invocation.<String>getArgument(0)));
+        doAnswer(invocation -> {
+            String uploadId = invocation.<Upload>getArgument(0).getUploadId();
+            statusMap.put(uploadId, invocation.getArgument(1));
+            messageMap.put(uploadId, ImmutableList.copyOf(invocation.<List<String>>getArgument(2)));
+            return null;
+        }).when(uploadDao).writeValidationStatus(any(), any(), any(), any());
+
+        when(healthDataDao.createOrUpdateRecord(any())).thenAnswer(invocation -> {
+            HealthDataRecord record = invocation.getArgument(0);
+            if (record.getId() == null || record.getId().isEmpty()) {
+                record.setId(BridgeUtils.generateGuid());
+            }
+            recordMap.put(record.getId(), record);
+            return record.getId();
+        });
+        when(healthDataDao.getRecordById(anyString())).thenAnswer(invocation -> recordMap.get(
+                invocation.<String>getArgument(0)));
+        when(healthDataDao.getRecordsById(anyCollection())).thenAnswer(invocation -> {
+            Map<String, HealthDataRecord> resultMap = new HashMap<>();
+            for (String oneId : invocation.<Collection<String>>getArgument(0)) {
+                HealthDataRecord record = recordMap.get(oneId);
+                if (record != null) {
+                    resultMap.put(oneId, record);
+                }
+            }
+            return resultMap;
+        });
+    }
+
+    /** Every regular file in the corpus directory, sorted by name so that passes replay in the same order. */
+    public static List<File> listCorpusFiles(File corpusDir) {
+        File[] files = corpusDir.listFiles(file -> file.isFile() && !file.isHidden());
+        checkArgument(files != null, "corpus directory %s can't be read", corpusDir);
+        Arrays.sort(files);
+        return Arrays.asList(files);
+    }
+
+    /**
+     * Validates every upload in the corpus once, and reports on it. Each pass gets its own scheduler, with as many
+     * threads as the concurrency, and a queue big enough for the whole corpus, so that the replay thread only submits.
+     */
+    public Report runPass() throws InterruptedException {
+        MetricsRegistry metricsRegistry = new MetricsRegistry();
+        taskFactory.setMetricsRegistry(metricsRegistry);
+
+        List<Upload> uploadList = new ArrayList<>();
+        long totalBytes = 0;
+        for (File oneCorpusFile : corpusFileList) {
+            Upload upload = makeUpload(oneCorpusFile);
+            uploadMap.put(upload.getUploadId(), upload);
+            uploadList.add(upload);
+            totalBytes += upload.getContentLength();
+        }
+
+        // Settle the heap, so that the previous pass's garbage isn't counted against this one.
+        System.gc();
+        for (MemoryPoolMXBean onePool : ManagementFactory.getMemoryPoolMXBeans()) {
+            onePool.resetPeakUsage();
+        }
+        long gcCountBefore = getGcCount();
+        long gcMillisBefore = getGcMillis();
+
+        // All uploads are for the same study, so the per-study limit is the concurrency too.
+        UploadValidationScheduler scheduler = new UploadValidationScheduler();
+        scheduler.configure(concurrency, uploadList.size(), concurrency);
+        scheduler.start();
+
+        CountDownLatch doneLatch = new CountDownLatch(uploadList.size());
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        try {
+            for (Upload oneUpload : uploadList) {
+                UploadValidationTask task = taskFactory.newTask(studyId, oneUpload);
+                scheduler.submit(studyId, () -> {
+                    try {
+                        task.run();
+                    } finally {
+                        doneLatch.countDown();
+                    }
+                }, false);
+            }
+            while (!doneLatch.await(1, TimeUnit.MINUTES)) {
+                System.out.println("Still waiting for uploads to finish validating...");
+            }
+        } finally {
+            scheduler.stop();
+        }
+        long elapsedMillis = stopwatch.elapsed(TimeUnit.MILLISECONDS);
+
+        long peakHeapBytes = 0;
+        for (MemoryPoolMXBean onePool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (onePool.getType() == MemoryType.HEAP) {
+                peakHeapBytes += onePool.getPeakUsage().getUsed();
+            }
+        }
+
+        List<String> failureList = new ArrayList<>();
+        int numSucceeded = 0;
+        for (Upload oneUpload : uploadList) {
+            String uploadId = oneUpload.getUploadId();
+            if (statusMap.get(uploadId) == UploadStatus.SUCCEEDED) {
+                numSucceeded++;
+            } else {
+                failureList.add(String.format("%s: %s", oneUpload.getFilename(), messageMap.get(uploadId)));
+            }
+        }
+        uploadMap.clear();
+        statusMap.clear();
+        messageMap.clear();
+        recordMap.clear();
+
+        return new Report(uploadList.size(), numSucceeded, failureList, concurrency, totalBytes, elapsedMillis,
+                scheduler.getAverageWaitMillis(), scheduler.getMaxWaitMillis(), peakHeapBytes,
+                getGcCount() - gcCountBefore, getGcMillis() - gcMillisBefore, metricsRegistry.snapshot());
+    }
+
+    // Corpus files are named by upload ID, which is also the S3 key.
+    private Upload makeUpload(File corpusFile) {
+        DateTime now = DateTime.now();
+        DynamoUpload2 upload = new DynamoUpload2();
+        upload.setUploadId(corpusFile.getName());
+        upload.setFilename(corpusFile.getName());
+        upload.setContentLength(corpusFile.length());
+        upload.setHealthCode(healthCode);
+        upload.setStudyId(studyId.getIdentifier());
+        upload.setStatus(UploadStatus.VALIDATION_IN_PROGRESS);
+        upload.setRequestedOn(now.getMillis());
+        upload.setCompletedOn(now.getMillis());
+        upload.setCompletedBy(UploadCompletionClient.APP);
+        upload.setUploadDate(LocalDate.now());
+        return upload;
+    }
+
+    private static long getGcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean oneGc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, oneGc.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long getGcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean oneGc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, oneGc.getCollectionTime());
+        }
+        return millis;
+    }
+
+    /** Results of one replay pass. */
+    public static final class Report {
+        private final int numUploads;
+        private final int numSucceeded;
+        private final List<String> failureList;
+        private final int concurrency;
+        private final long totalBytes;
+        private final long elapsedMillis;
+        private final long averageWaitMillis;
+        private final long maxWaitMillis;
+        private final long peakHeapBytes;
+        private final long gcCount;
+        private final long gcMillis;
+        private final MetricsSnapshot metrics;
+
+        Report(int numUploads, int numSucceeded, List<String> failureList, int concurrency, long totalBytes,
+                long elapsedMillis, long averageWaitMillis, long maxWaitMillis, long peakHeapBytes, long gcCount,
+                long gcMillis, MetricsSnapshot metrics) {
+            this.numUploads = numUploads;
+            this.numSucceeded = numSucceeded;
+            this.failureList = ImmutableList.copyOf(failureList);
+            this.concurrency = concurrency;
+            this.totalBytes = totalBytes;
+            this.elapsedMillis = elapsedMillis;
+            this.averageWaitMillis = averageWaitMillis;
+            this.maxWaitMillis = maxWaitMillis;
+            this.peakHeapBytes = peakHeapBytes;
+            this.gcCount = gcCount;
+            this.gcMillis = gcMillis;
+            this.metrics = metrics;
+        }
+
+        public int getNumUploads() {
+            return numUploads;
+        }
+
+        public int getNumSucceeded() {
+            return numSucceeded;
+        }
+
+        /** Filename and validation messages of each upload that didn't succeed. */
+        public List<String> getFailureList() {
+            return failureList;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        /** Uploads validated per second, over the whole pass. */
+        public double getUploadsPerSecond() {
+            return elapsedMillis > 0 ? numUploads * 1000.0 / elapsedMillis : 0.0;
+        }
+
+        /** Average time uploads waited in the scheduler's queue before starting. */
+        public long getAverageWaitMillis() {
+            return averageWaitMillis;
+        }
+
+        /** Longest time any upload waited in the scheduler's queue before starting. */
+        public long getMaxWaitMillis() {
+            return maxWaitMillis;
+        }
+
+        /**
+         * Sum of the peak usage of each heap memory pool during the pass. Pools peak at different times, so this is an
+         * upper bound on the actual peak.
+         */
+        public long getPeakHeapBytes() {
+            return peakHeapBytes;
+        }
+
+        /** Latency histogram of the given handler, by class name, or null if the handler never ran. */
+        public HistogramSnapshot getHandlerLatency(String handlerClassName) {
+            return metrics.getHistogram(UploadValidationTask.METRIC_HANDLER_LATENCY + handlerClassName);
+        }
+
+        /** All metrics recorded during the pass, including per-handler latencies. */
+        public MetricsSnapshot getMetrics() {
+            return metrics;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            builder.append(String.format("Validated %d uploads (%d succeeded, %d failed) at concurrency %d in %d ms%n",
+                    numUploads, numSucceeded, numUploads - numSucceeded, concurrency, elapsedMillis));
+            builder.append(String.format("Throughput: %.1f uploads/sec, %.2f MB/sec%n", getUploadsPerSecond(),
+                    elapsedMillis > 0 ? (double) totalBytes / BYTES_PER_MB * 1000.0 / elapsedMillis : 0.0));
+            builder.append(String.format("Queue wait: average %d ms, max %d ms%n", averageWaitMillis,
+                    maxWaitMillis));
+            builder.append(String.format("Heap: peak %d MB, %d GCs taking %d ms%n", peakHeapBytes / BYTES_PER_MB,
+                    gcCount, gcMillis));
+
+            builder.append("Latency (ms):\n");
+            HistogramSnapshot queueToCompletion = metrics.getHistogram(
+                    UploadValidationTask.METRIC_QUEUE_TO_COMPLETION);
+            if (queueToCompletion != null) {
+                appendLatency(builder, "queue to completion", queueToCompletion);
+            }
+            for (Map.Entry<String, HistogramSnapshot> oneEntry : metrics.getHistograms().entrySet()) {
+                if (oneEntry.getKey().startsWith(UploadValidationTask.METRIC_HANDLER_LATENCY)) {
+                    String handlerName = oneEntry.getKey().substring(
+                            UploadValidationTask.METRIC_HANDLER_LATENCY.length());
+                    appendLatency(builder, handlerName.substring(handlerName.lastIndexOf('.') + 1),
+                            oneEntry.getValue());
+                }
+            }
+
+            if (!failureList.isEmpty()) {
+                builder.append("Failures:\n");
+                for (String oneFailure : failureList.subList(0, Math.min(failureList.size(),
+                        MAX_REPORTED_FAILURES))) {
+                    builder.append("  ").append(oneFailure).append('\n');
+                }
+                if (failureList.size() > MAX_REPORTED_FAILURES) {
+                    builder.append(String.format("  ...and %d more%n", failureList.size() - MAX_REPORTED_FAILURES));
+                }
+            }
+            return builder.toString();
+        }
+
+        private static void appendLatency(StringBuilder builder, String name, HistogramSnapshot histogram) {
+            builder.append(String.format("  %-32s count=%d mean=%.1f", name, histogram.getCount(),
+                    histogram.getMean()));
+            for (double onePercentile : REPORTED_PERCENTILES) {
+                builder.append(String.format(" p%.0f=%d", onePercentile, histogram.getPercentile(onePercentile)));
+            }
+            builder.append(String.format(" max=%d%n", histogram.getMax()));
+        }
+    }
+
+    /**
+     * S3 helper backed by the local file system. Downloads are read from the corpus directory, by key. Writes go to
+     * the output directory, under the bucket name, so attachments and raw zips can be inspected after the replay.
+     */
+    static class FileS3Helper extends S3Helper {
+        private final File corpusDir;
+        private final File outputDir;
+
+        FileS3Helper(File corpusDir, File outputDir) {
+            this.corpusDir = corpusDir;
+            this.outputDir = outputDir;
+        }
+
+        @Override
+        public void downloadS3File(String bucket, String key, File destinationFile) {
+            try {
+                Files.copy(new File(corpusDir, key).toPath(), destinationFile.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException ex) {
+                throw new RuntimeException("Error reading " + key + " from corpus: " + ex.getMessage(), ex);
+            }
+        }
+
+        @Override
+        public void writeBytesToS3(String bucket, String key, byte[] data) throws IOException {
+            Files.write(getOutputFile(bucket, key).toPath(), data);
+        }
+
+        @Override
+        public void writeBytesToS3(String bucket, String key, byte[] data, ObjectMetadata metadata)
+                throws IOException {
+            writeBytesToS3(bucket, key, data);
+        }
+
+        @Override
+        public void writeFileToS3(String bucket, String key, File file) {
+            try {
+                Files.copy(file.toPath(), getOutputFile(bucket, key).toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException ex) {
+                throw new RuntimeException("Error writing " + key + " to output: " + ex.getMessage(), ex);
+            }
+        }
+
+        @Override
+        public void writeFileToS3(String bucket, String key, File file, ObjectMetadata metadata) {
+            writeFileToS3(bucket, key, file);
+        }
+
+        private File getOutputFile(String bucket, String key) {
+            File bucketDir = new File(outputDir, bucket);
+            bucketDir.mkdirs();
+            return new File(bucketDir, key);
+        }
+    }
+}
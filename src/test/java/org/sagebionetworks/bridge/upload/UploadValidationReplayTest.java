@@ -0,0 +1,191 @@
+package org.sagebionetworks.bridge.upload;
+
+import static org.mockito.Mockito.mock;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.sagebionetworks.bridge.dao.HealthDataDao;
+import org.sagebionetworks.bridge.dao.UploadDao;
+import org.sagebionetworks.bridge.file.FileHelper;
+import org.sagebionetworks.bridge.models.healthdata.HealthDataRecord;
+import org.sagebionetworks.bridge.models.studies.StudyIdentifier;
+import org.sagebionetworks.bridge.models.studies.StudyIdentifierImpl;
+import org.sagebionetworks.bridge.services.HealthDataService;
+import org.sagebionetworks.bridge.upload.UploadValidationReplay.FileS3Helper;
+import org.sagebionetworks.bridge.upload.UploadValidationReplay.Report;
+
+public class UploadValidationReplayTest {
+    private static final String BAD_UPLOAD_ID = "bad-upload";
+    private static final String BUCKET = "test-bucket";
+    private static final String HEALTH_CODE = "test-health-code";
+    private static final StudyIdentifier STUDY_ID = new StudyIdentifierImpl("test-study");
+
+    private File corpusDir;
+    private File outputDir;
+    private FileHelper fileHelper;
+    private FileS3Helper s3Helper;
+    private UploadDao uploadDao;
+    private HealthDataDao healthDataDao;
+    private UploadValidationTaskFactory taskFactory;
+
+    @BeforeMethod
+    public void setup() throws Exception {
+        corpusDir = Files.createTempDirectory("replay-corpus").toFile();
+        outputDir = Files.createTempDirectory("replay-output").toFile();
+        writeCorpusFile("upload-a", "good data");
+        writeCorpusFile("upload-b", "more good data");
+        writeCorpusFile(BAD_UPLOAD_ID, "bad data");
+
+        fileHelper = new FileHelper();
+        s3Helper = new FileS3Helper(corpusDir, outputDir);
+
+        uploadDao = mock(UploadDao.class);
+        healthDataDao = mock(HealthDataDao.class);
+        HealthDataService healthDataService = new HealthDataService();
+        healthDataService.setHealthDataDao(healthDataDao);
+
+        taskFactory = new UploadValidationTaskFactory();
+        taskFactory.setFileHelper(fileHelper);
+        taskFactory.setHandlerList(ImmutableList.of(new DownloadHandler(s3Helper), new CheckDataHandler()));
+        taskFactory.setUploadDao(uploadDao);
+        taskFactory.setHealthDataService(healthDataService);
+        taskFactory.setCompletionRegistry(mock(UploadCompletionRegistry.class));
+    }
+
+    @AfterMethod
+    public void cleanup() throws Exception {
+        fileHelper.deleteDirRecursively(corpusDir);
+        fileHelper.deleteDirRecursively(outputDir);
+    }
+
+    @Test
+    public void runPass() throws Exception {
+        UploadValidationReplay replay = new UploadValidationReplay(taskFactory, uploadDao, healthDataDao, STUDY_ID,
+                HEALTH_CODE, UploadValidationReplay.listCorpusFiles(corpusDir), 2);
+
+        // Each pass starts over, so the second pass reports the same as the first.
+        for (int i = 0; i < 2; i++) {
+            Report report = replay.runPass();
+            assertEquals(report.getNumUploads(), 3);
+            assertEquals(report.getNumSucceeded(), 2);
+            assertEquals(report.getFailureList().size(), 1);
+            assertTrue(report.getFailureList().get(0).startsWith(BAD_UPLOAD_ID));
+            assertTrue(report.getPeakHeapBytes() > 0);
+            assertTrue(report.getMaxWaitMillis() >= report.getAverageWaitMillis());
+
+            // The uploads are cleared after each pass.
+            assertNull(uploadDao.getUpload(BAD_UPLOAD_ID));
+
+            // Both handlers ran for the good uploads. The check handler ran for the bad upload too.
+            assertEquals(report.getHandlerLatency(DownloadHandler.class.getName()).getCount(), 3);
+            assertEquals(report.getHandlerLatency(CheckDataHandler.class.getName()).getCount(), 3);
+            assertNull(report.getHandlerLatency("NoSuchHandler"));
+
+            String reportText = report.toString();
+            assertTrue(reportText.contains("Validated 3 uploads (2 succeeded, 1 failed) at concurrency 2"));
+            assertTrue(reportText.contains("Queue wait:"));
+            assertTrue(reportText.contains("DownloadHandler"));
+            assertTrue(reportText.contains(BAD_UPLOAD_ID));
+        }
+    }
+
+    @Test
+    public void listCorpusFiles() throws Exception {
+        assertTrue(new File(corpusDir, "subdir").mkdir());
+
+        List<File> corpusFileList = UploadValidationReplay.listCorpusFiles(corpusDir);
+        assertEquals(corpusFileList.size(), 3);
+        assertEquals(corpusFileList.get(0).getName(), BAD_UPLOAD_ID);
+        assertEquals(corpusFileList.get(1).getName(), "upload-a");
+        assertEquals(corpusFileList.get(2).getName(), "upload-b");
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void emptyCorpus() {
+        new UploadValidationReplay(taskFactory, uploadDao, healthDataDao, STUDY_ID, HEALTH_CODE, ImmutableList.of(),
+                1);
+    }
+
+    @Test
+    public void s3HelperWrites() throws Exception {
+        s3Helper.writeBytesToS3(BUCKET, "bytes-key", "bytes".getBytes(Charsets.UTF_8));
+        s3Helper.writeFileToS3(BUCKET, "file-key", new File(corpusDir, "upload-a"));
+
+        assertEquals(readFile(new File(outputDir, BUCKET + "/bytes-key")), "bytes");
+        assertEquals(readFile(new File(outputDir, BUCKET + "/file-key")), "good data");
+    }
+
+    @Test
+    public void healthDataDao() {
+        new UploadValidationReplay(taskFactory, uploadDao, healthDataDao, STUDY_ID, HEALTH_CODE, ImmutableList.of(
+                new File(corpusDir, "upload-a")), 1);
+
+        HealthDataRecord record = HealthDataRecord.create();
+        String recordId = healthDataDao.createOrUpdateRecord(record);
+        assertNotNull(recordId);
+        assertEquals(record.getId(), recordId);
+
+        // Updates keep the ID.
+        assertEquals(healthDataDao.createOrUpdateRecord(record), recordId);
+        assertEquals(healthDataDao.getRecordById(recordId), record);
+
+        Map<String, HealthDataRecord> recordMap = healthDataDao.getRecordsById(ImmutableList.of(recordId,
+                "no-such-record"));
+        assertEquals(recordMap.size(), 1);
+        assertEquals(recordMap.get(recordId), record);
+    }
+
+    private void writeCorpusFile(String uploadId, String content) throws IOException {
+        Files.write(new File(corpusDir, uploadId).toPath(), content.getBytes(Charsets.UTF_8));
+    }
+
+    private static String readFile(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), Charsets.UTF_8);
+    }
+
+    // Downloads the upload from the corpus into the task's temp dir.
+    private static class DownloadHandler implements UploadValidationHandler {
+        private final FileS3Helper s3Helper;
+
+        DownloadHandler(FileS3Helper s3Helper) {
+            this.s3Helper = s3Helper;
+        }
+
+        @Override
+        public void handle(@Nonnull UploadValidationContext context) {
+            File dataFile = new File(context.getTempDir(), context.getUpload().getObjectId());
+            s3Helper.downloadS3File(BUCKET, context.getUpload().getObjectId(), dataFile);
+            context.setDataFile(dataFile);
+        }
+    }
+
+    // Fails uploads with bad data.
+    private static class CheckDataHandler implements UploadValidationHandler {
+        @Override
+        public void handle(@Nonnull UploadValidationContext context) throws UploadValidationException {
+            try {
+                if (readFile(context.getDataFile()).startsWith("bad")) {
+                    throw new UploadValidationException("bad data");
+                }
+            } catch (IOException ex) {
+                throw new UploadValidationException(ex);
+            }
+        }
+    }
+}
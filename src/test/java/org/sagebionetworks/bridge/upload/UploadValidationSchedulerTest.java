@@ -0,0 +1,177 @@
+package org.sagebionetworks.bridge.upload;
+
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.ImmutableList;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.sagebionetworks.bridge.config.BridgeConfig;
+import org.sagebionetworks.bridge.models.studies.StudyIdentifier;
+import org.sagebionetworks.bridge.models.studies.StudyIdentifierImpl;
+
+public class UploadValidationSchedulerTest {
+    private static final StudyIdentifier STUDY_A = new StudyIdentifierImpl("study-a");
+    private static final StudyIdentifier STUDY_B = new StudyIdentifierImpl("study-b");
+    private static final StudyIdentifier STUDY_C = new StudyIdentifierImpl("study-c");
+
+    private UploadValidationScheduler scheduler;
+    // Tasks handed to the executor, which the test runs by hand.
+    private List<Runnable> executorTasks;
+    // Names of the submitted tasks, in the order they ran.
+    private List<String> ranTasks;
+
+    @BeforeMethod
+    public void before() {
+        executorTasks = new ArrayList<>();
+        ranTasks = new ArrayList<>();
+
+        ExecutorService mockExecutorService = mock(ExecutorService.class);
+        doAnswer(invocation -> executorTasks.add(invocation.getArgument(0))).when(mockExecutorService).execute(
+                any());
+
+        scheduler = new UploadValidationScheduler();
+        scheduler.configure(1, 10, 1);
+        scheduler.setExecutorService(mockExecutorService);
+    }
+
+    @Test
+    public void configuredFromBridgeConfig() throws Exception {
+        BridgeConfig config = mock(BridgeConfig.class);
+        when(config.getPropertyAsInt(UploadValidationScheduler.CONFIG_KEY_THREAD_COUNT)).thenReturn(2);
+        when(config.getPropertyAsInt(UploadValidationScheduler.CONFIG_KEY_MAX_QUEUED)).thenReturn(10);
+        when(config.getPropertyAsInt(UploadValidationScheduler.CONFIG_KEY_MAX_IN_FLIGHT_PER_STUDY)).thenReturn(2);
+
+        UploadValidationScheduler configuredScheduler = new UploadValidationScheduler();
+        configuredScheduler.setBridgeConfig(config);
+        configuredScheduler.start();
+        try {
+            CountDownLatch latch = new CountDownLatch(3);
+            for (int i = 0; i < 3; i++) {
+                configuredScheduler.submit(STUDY_A, latch::countDown, false);
+            }
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+            assertEquals(configuredScheduler.getSubmittedCount(), 3L);
+        } finally {
+            configuredScheduler.stop();
+        }
+    }
+
+    @Test
+    public void roundRobinAcrossStudies() {
+        scheduler.configure(1, 10, 10);
+
+        // Study A floods the queue before B and C submit anything.
+        scheduler.submit(STUDY_A, task("a1"), false);
+        scheduler.submit(STUDY_A, task("a2"), false);
+        scheduler.submit(STUDY_A, task("a3"), false);
+        scheduler.submit(STUDY_B, task("b1"), false);
+        scheduler.submit(STUDY_C, task("c1"), false);
+        scheduler.submit(STUDY_B, task("b2"), false);
+
+        runAll();
+        assertEquals(ranTasks, ImmutableList.of("a1", "a2", "b1", "c1", "a3", "b2"));
+    }
+
+    @Test
+    public void synchronousGoesFirst() {
+        scheduler.configure(1, 10, 10);
+
+        scheduler.submit(STUDY_A, task("a1"), false);
+        scheduler.submit(STUDY_A, task("a2"), false);
+        scheduler.submit(STUDY_B, task("b1"), false);
+        scheduler.submit(STUDY_C, task("c-sync"), true);
+
+        runAll();
+        // a1 was already running when the synchronous task arrived.
+        assertEquals(ranTasks, ImmutableList.of("a1", "c-sync", "a2", "b1"));
+    }
+
+    @Test
+    public void inFlightCappedPerStudy() {
+        scheduler.configure(3, 10, 1);
+
+        scheduler.submit(STUDY_A, task("a1"), false);
+        scheduler.submit(STUDY_A, task("a2"), false);
+        scheduler.submit(STUDY_B, task("b1"), false);
+
+        // Three threads, but only one task from study A at a time.
+        assertEquals(executorTasks.size(), 2);
+        assertEquals(scheduler.getRunningCount(), 2);
+        assertEquals(scheduler.getQueueDepth(), 1);
+
+        runAll();
+        assertEquals(ranTasks, ImmutableList.of("a1", "b1", "a2"));
+        assertEquals(scheduler.getRunningCount(), 0);
+        assertEquals(scheduler.getQueueDepth(), 0);
+    }
+
+    @Test
+    public void callerRunsWhenQueueIsFull() {
+        scheduler.configure(1, 2, 10);
+
+        // One running, two queued, and the fourth runs in the caller.
+        scheduler.submit(STUDY_A, task("a1"), false);
+        scheduler.submit(STUDY_A, task("a2"), false);
+        scheduler.submit(STUDY_A, task("a3"), false);
+        scheduler.submit(STUDY_A, task("a4"), false);
+
+        assertEquals(ranTasks, ImmutableList.of("a4"));
+        assertEquals(scheduler.getRejectedCount(), 1L);
+        assertEquals(scheduler.getSubmittedCount(), 4L);
+        assertEquals(scheduler.getQueueDepth(), 2);
+
+        runAll();
+        assertEquals(ranTasks, ImmutableList.of("a4", "a1", "a2", "a3"));
+    }
+
+    @Test
+    public void failedTaskReleasesThread() {
+        scheduler.submit(STUDY_A, () -> {
+            throw new RuntimeException("validation failed");
+        }, false);
+        scheduler.submit(STUDY_A, task("a2"), false);
+
+        try {
+            executorTasks.remove(0).run();
+        } catch (RuntimeException ex) {
+            // expected
+        }
+        runAll();
+        assertEquals(ranTasks, ImmutableList.of("a2"));
+        assertEquals(scheduler.getRunningCount(), 0);
+    }
+
+    @Test
+    public void waitTimeIsTracked() throws Exception {
+        scheduler.submit(STUDY_A, task("a1"), false);
+        scheduler.submit(STUDY_A, task("a2"), false);
+        Thread.sleep(20);
+
+        runAll();
+        assertTrue(scheduler.getMaxWaitMillis() >= 20);
+        assertTrue(scheduler.getAverageWaitMillis() >= 10);
+    }
+
+    private Runnable task(String name) {
+        return () -> ranTasks.add(name);
+    }
+
+    // Runs tasks in the order they were handed to the executor, including any handed over while running.
+    private void runAll() {
+        while (!executorTasks.isEmpty()) {
+            executorTasks.remove(0).run();
+        }
+    }
+}
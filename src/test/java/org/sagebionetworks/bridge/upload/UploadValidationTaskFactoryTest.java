@@ -12,6 +12,7 @@ import org.testng.annotations.Test;
 import org.sagebionetworks.bridge.TestUtils;
 import org.sagebionetworks.bridge.dao.UploadDao;
 import org.sagebionetworks.bridge.file.FileHelper;
+import org.sagebionetworks.bridge.metrics.MetricsRegistry;
 import org.sagebionetworks.bridge.models.studies.Study;
 import org.sagebionetworks.bridge.models.upload.Upload;
 import org.sagebionetworks.bridge.services.HealthDataService;
@@ -26,6 +27,8 @@ public class UploadValidationTaskFactoryTest {
         UploadDao dao = mock(UploadDao.class);
         FileHelper fileHelper = new FileHelper();
         HealthDataService healthDataService = new HealthDataService();
+        MetricsRegistry metricsRegistry = new MetricsRegistry();
+        UploadCompletionRegistry completionRegistry = mock(UploadCompletionRegistry.class);
 
         // set up task factory
         UploadValidationTaskFactory taskFactory = new UploadValidationTaskFactory();
@@ -33,6 +36,8 @@ public class UploadValidationTaskFactoryTest {
         taskFactory.setHandlerList(handlerList);
         taskFactory.setUploadDao(dao);
         taskFactory.setHealthDataService(healthDataService);
+        taskFactory.setMetricsRegistry(metricsRegistry);
+        taskFactory.setCompletionRegistry(completionRegistry);
 
         // inputs
         Study study = TestUtils.getValidStudy(UploadValidationTaskFactoryTest.class);
@@ -49,5 +54,7 @@ public class UploadValidationTaskFactoryTest {
         assertSame(task.getHandlerList(), handlerList);
         assertSame(task.getUploadDao(), dao);
         assertSame(task.getHealthDataService(), healthDataService);
+        assertSame(task.getMetricsRegistry(), metricsRegistry);
+        assertSame(task.getCompletionRegistry(), completionRegistry);
     }
 }
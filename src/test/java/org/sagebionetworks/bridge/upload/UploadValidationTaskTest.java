@@ -2,6 +2,7 @@ package org.sagebionetworks.bridge.upload;
 
 import static org.mockito.Mockito.notNull;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.verify;
@@ -9,6 +10,7 @@ import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
 import static org.testng.Assert.assertTrue;
 import static org.mockito.Mockito.eq;
 
@@ -21,14 +23,17 @@ import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 
 import org.joda.time.LocalDate;
+import org.mockito.InOrder;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import org.sagebionetworks.bridge.TestConstants;
 import org.sagebionetworks.bridge.TestUtils;
 import org.sagebionetworks.bridge.dao.UploadDao;
+import org.sagebionetworks.bridge.dynamodb.DynamoUpload2;
 import org.sagebionetworks.bridge.file.InMemoryFileHelper;
 import org.sagebionetworks.bridge.json.BridgeObjectMapper;
+import org.sagebionetworks.bridge.metrics.MetricsRegistry;
 import org.sagebionetworks.bridge.models.accounts.SharingScope;
 import org.sagebionetworks.bridge.models.healthdata.HealthDataRecord;
 import org.sagebionetworks.bridge.models.studies.Study;
@@ -55,6 +60,9 @@ public class UploadValidationTaskTest {
 
     private UploadValidationContext ctx;
     private InMemoryFileHelper inMemoryFileHelper;
+    private MetricsRegistry metricsRegistry;
+    private UploadCompletionRegistry mockCompletionRegistry;
+    private String studyId;
     private UploadDao mockDao;
     private UploadValidationTask task;
     private Upload upload;
@@ -68,9 +76,12 @@ public class UploadValidationTaskTest {
 
         // Set up context
         Study study = TestUtils.getValidStudy(UploadValidationTaskTest.class);
+        studyId = study.getIdentifier();
 
-        upload = Upload.create();
-        upload.setUploadId("test-upload");
+        DynamoUpload2 dynamoUpload = new DynamoUpload2();
+        dynamoUpload.setUploadId("test-upload");
+        dynamoUpload.setContentLength(1234L);
+        upload = dynamoUpload;
 
         ctx = new UploadValidationContext();
         ctx.setStudy(study);
@@ -79,6 +90,8 @@ public class UploadValidationTaskTest {
         // Set up other pre-reqs
         inMemoryFileHelper = new InMemoryFileHelper();
         mockDao = mock(UploadDao.class);
+        metricsRegistry = new MetricsRegistry();
+        mockCompletionRegistry = mock(UploadCompletionRegistry.class);
 
         // Set up task. Spy so we can verify some calls.
         task = spy(new UploadValidationTask(ctx));
@@ -86,6 +99,8 @@ public class UploadValidationTaskTest {
         task.setHandlerList(handlerList);
         task.setHealthDataService(healthDataService);
         task.setUploadDao(mockDao);
+        task.setMetricsRegistry(metricsRegistry);
+        task.setCompletionRegistry(mockCompletionRegistry);
     }
 
     @Test
@@ -102,6 +117,20 @@ public class UploadValidationTaskTest {
         assertEquals(messageList.get(0), "foo was here");
         assertEquals(messageList.get(1), "bar was here");
         assertEquals(messageList.get(2), "kilroy was here");
+
+        // validate metrics
+        String messageHandlerName = MessageHandler.class.getName();
+        assertEquals(metricsRegistry.getHistogram(UploadValidationTask.METRIC_HANDLER_LATENCY + messageHandlerName)
+                .getCount(), 3);
+        assertEquals(metricsRegistry.getHistogram(UploadValidationTask.METRIC_HANDLER_LATENCY +
+                RecordIdHandler.class.getName()).getCount(), 1);
+        assertEquals(metricsRegistry.getCount(UploadValidationTask.METRIC_HANDLER_FAILURE + messageHandlerName), 0);
+        assertEquals(metricsRegistry.getCount(UploadValidationTask.METRIC_SUCCESS), 1);
+        assertEquals(metricsRegistry.getCount(UploadValidationTask.METRIC_STUDY_SUCCESS + studyId), 1);
+        assertEquals(metricsRegistry.getCount(UploadValidationTask.METRIC_FAILURE), 0);
+        assertEquals(metricsRegistry.getCount(UploadValidationTask.METRIC_BYTES), 1234);
+        assertEquals(metricsRegistry.getHistogram(UploadValidationTask.METRIC_STUDY_LATENCY + studyId).getCount(), 1);
+        assertEquals(metricsRegistry.getHistogram(UploadValidationTask.METRIC_QUEUE_TO_COMPLETION).getCount(), 1);
     }
 
     @Test
@@ -145,6 +174,18 @@ public class UploadValidationTaskTest {
         assertEquals(messageList.size(), 2);
         assertEquals(messageList.get(0), "foo succeeded");
         assertFalse(Strings.isNullOrEmpty(messageList.get(1)));
+
+        // Validate metrics. The failing handler is timed and counted. Handlers after it never ran.
+        String barHandlerName = barHandler.getClass().getName();
+        assertEquals(metricsRegistry.getCount(UploadValidationTask.METRIC_HANDLER_FAILURE + barHandlerName), 1);
+        assertEquals(metricsRegistry.getHistogram(UploadValidationTask.METRIC_HANDLER_LATENCY + barHandlerName)
+                .getCount(), 1);
+        assertNull(metricsRegistry.getHistogram(UploadValidationTask.METRIC_HANDLER_LATENCY +
+                RecordIdHandler.class.getName()));
+        assertEquals(metricsRegistry.getCount(UploadValidationTask.METRIC_SUCCESS), 0);
+        assertEquals(metricsRegistry.getCount(UploadValidationTask.METRIC_FAILURE), 1);
+        assertEquals(metricsRegistry.getCount(UploadValidationTask.METRIC_STUDY_FAILURE + studyId), 1);
+        assertEquals(metricsRegistry.getHistogram(UploadValidationTask.METRIC_QUEUE_TO_COMPLETION).getCount(), 1);
     }
 
     // helper test method, encapsulating core setup and validation
@@ -158,13 +199,28 @@ public class UploadValidationTaskTest {
         // execute
         task.run();
 
-        // validate the upload dao write validation status call
-        verify(mockDao).writeValidationStatus(upload, expectedStatus, ctx.getMessageList(), expectedRecordId);
+        // validate the upload dao write validation status call, and that waiters are woken after the status is written
+        InOrder inOrder = inOrder(mockDao, mockCompletionRegistry);
+        inOrder.verify(mockDao).writeValidationStatus(upload, expectedStatus, ctx.getMessageList(),
+                expectedRecordId);
+        inOrder.verify(mockCompletionRegistry).complete("test-upload");
 
         // Validate that we clean up the temp directory.
         assertTrue(inMemoryFileHelper.isEmpty());
     }
 
+    @Test
+    public void noCompletionRegistry() {
+        // A task built without the factory has no completion registry. It still records metrics and cleans up.
+        task.setCompletionRegistry(null);
+        task.setHandlerList(ImmutableList.of(new RecordIdHandler(RECORD_ID)));
+
+        task.run();
+
+        assertEquals(metricsRegistry.getCount(UploadValidationTask.METRIC_SUCCESS), 1);
+        assertTrue(inMemoryFileHelper.isEmpty());
+    }
+
     @Test
     public void writeValidationStatusException() {
         // Trivial record ID handler, to make the test not degenerate.
@@ -183,6 +239,9 @@ public class UploadValidationTaskTest {
 
         // verify log helper was called
         verify(task).logWriteValidationStatusException(UploadStatus.SUCCEEDED, toThrow);
+
+        // Waiters are still woken, so they can see the status isn't changing.
+        verify(mockCompletionRegistry).complete("test-upload");
     }
 
     // Test handler that makes its presence known only by writing a message to the validation context.
@@ -0,0 +1,78 @@
+package org.sagebionetworks.bridge.util;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.CompletableFuture;
+
+import com.google.common.base.Charsets;
+import org.testng.annotations.Test;
+
+import org.sagebionetworks.bridge.util.ThreadLocalBuffers.ReusableOutputStream;
+
+public class ThreadLocalBuffersTest {
+    private static final byte[] DATA = "This is my raw data".getBytes(Charsets.UTF_8);
+
+    @Test
+    public void copyBufferIsReused() {
+        byte[] copyBuffer = ThreadLocalBuffers.getCopyBuffer();
+        assertEquals(copyBuffer.length, ThreadLocalBuffers.COPY_BUFFER_SIZE);
+        assertSame(ThreadLocalBuffers.getCopyBuffer(), copyBuffer);
+    }
+
+    @Test
+    public void copyBufferIsPerThread() throws Exception {
+        byte[] copyBuffer = ThreadLocalBuffers.getCopyBuffer();
+        byte[] otherThreadCopyBuffer = CompletableFuture.supplyAsync(ThreadLocalBuffers::getCopyBuffer).get();
+        assertNotSame(otherThreadCopyBuffer, copyBuffer);
+    }
+
+    @Test
+    public void outputStreamIsReused() {
+        ReusableOutputStream outputStream = ThreadLocalBuffers.getOutputStream();
+        outputStream.write(DATA, 0, DATA.length);
+        byte[] result = outputStream.toByteArray();
+        outputStream.close();
+        assertEquals(result, DATA);
+
+        // Same stream, emptied.
+        ReusableOutputStream outputStream2 = ThreadLocalBuffers.getOutputStream();
+        assertSame(outputStream2, outputStream);
+        assertEquals(outputStream2.size(), 0);
+        outputStream2.close();
+    }
+
+    @Test
+    public void nestedOutputStream() {
+        try (ReusableOutputStream outputStream = ThreadLocalBuffers.getOutputStream();
+                ReusableOutputStream nestedOutputStream = ThreadLocalBuffers.getOutputStream()) {
+            assertNotSame(nestedOutputStream, outputStream);
+        }
+    }
+
+    @Test
+    public void bigOutputStreamIsNotRetained() {
+        ReusableOutputStream outputStream = ThreadLocalBuffers.getOutputStream();
+        byte[] bigData = new byte[ThreadLocalBuffers.MAX_RETAINED_CAPACITY + 1];
+        outputStream.write(bigData, 0, bigData.length);
+        outputStream.close();
+
+        // Still the same stream, but it let go of the big array.
+        ReusableOutputStream outputStream2 = ThreadLocalBuffers.getOutputStream();
+        assertSame(outputStream2, outputStream);
+        assertTrue(outputStream2.getCapacity() <= ThreadLocalBuffers.MAX_RETAINED_CAPACITY);
+        outputStream2.close();
+    }
+
+    @Test
+    public void copy() throws Exception {
+        try (ReusableOutputStream outputStream = ThreadLocalBuffers.getOutputStream()) {
+            long numBytes = ThreadLocalBuffers.copy(new ByteArrayInputStream(DATA), outputStream);
+            assertEquals(numBytes, DATA.length);
+            assertEquals(outputStream.toByteArray(), DATA);
+        }
+    }
+}